@@ -0,0 +1,75 @@
+package org.wso2.carbon.identity.custom.federated.authenticator;
+
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared fixtures for the OTP authenticator benchmarks
+ */
+public final class BenchmarkSupport {
+
+    /**
+     * Silences commons-logging in the forked benchmark JVM so log output does not dominate the measurements
+     */
+    public static final String NO_OP_LOG = "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog";
+
+    public static final String SMS_URL = "https://sms.example.com/api/v1/$ctx.num/$ctx.msg/";
+    public static final String SMS_HEADERS = "Content-Type: application/json, X-Mobile: $ctx.num, X-Message: $ctx.msg";
+    public static final String SMS_PAYLOAD = "{\"msisdn\":\"$ctx.num\",\"otpDigit\":\"6\",\"service\":\"login\"}";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Creates a stub authentication context configured like a super tenant SMS OTP step
+     *
+     * @param contextIdentifier Context identifier of the stub session
+     * @return Authentication context
+     */
+    public static AuthenticationContext newContext(String contextIdentifier) {
+        AuthenticationContext context = new AuthenticationContext();
+        context.setContextIdentifier(contextIdentifier);
+        context.setTenantDomain(SMSOTPConstants.SUPER_TENANT);
+
+        Map<String, String> authenticatorProperties = new HashMap<>();
+        authenticatorProperties.put(SMSOTPConstants.SMS_URL, SMS_URL);
+        authenticatorProperties.put(SMSOTPConstants.HTTP_METHOD, SMSOTPConstants.POST_METHOD);
+        authenticatorProperties.put(SMSOTPConstants.HEADERS, SMS_HEADERS);
+        authenticatorProperties.put(SMSOTPConstants.PAYLOAD, SMS_PAYLOAD);
+        authenticatorProperties.put(SMSOTPConstants.HTTP_RESPONSE, "200");
+        context.setAuthenticatorProperties(authenticatorProperties);
+        context.setProperty("SMS_PAYLOAD_CONFIG", SMS_PAYLOAD);
+        return context;
+    }
+
+    /**
+     * Creates a servlet request or response stub answering the given parameters and returning defaults for
+     * everything else
+     *
+     * @param type Servlet interface to stub
+     * @param parameters Request parameters returned by getParameter
+     * @return Servlet stub
+     */
+    public static <T> T newServletStub(Class<T> type, Map<String, String> parameters) {
+        Map<String, String> values = parameters != null ? parameters : Collections.<String, String>emptyMap();
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if ("getParameter".equals(method.getName()) && args != null) {
+                return values.get(String.valueOf(args[0]));
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            } else if (returnType == int.class) {
+                return 0;
+            } else if (returnType == long.class) {
+                return 0L;
+            }
+            return null;
+        }));
+    }
+}
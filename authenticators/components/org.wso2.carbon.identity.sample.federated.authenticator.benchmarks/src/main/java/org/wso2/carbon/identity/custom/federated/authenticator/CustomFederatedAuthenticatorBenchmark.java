@@ -0,0 +1,50 @@
+package org.wso2.carbon.identity.custom.federated.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks masking of the screen attribute shown on the OTP page
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CustomFederatedAuthenticatorBenchmark {
+
+    private static final String MOBILE_NUMBER = "0812345678";
+
+    private AuthenticationContext forwardContext;
+    private AuthenticationContext backwardContext;
+
+    @Setup
+    public void setup() {
+        forwardContext = BenchmarkSupport.newContext("masked-value-forward");
+        backwardContext = BenchmarkSupport.newContext("masked-value-backward");
+        backwardContext.setProperty(SMSOTPConstants.ORDER, SMSOTPConstants.BACKWARD);
+    }
+
+    @Benchmark
+    public String maskedValueForward() {
+        return CustomFederatedAuthenticator.getMaskedValue(forwardContext, MOBILE_NUMBER, 3);
+    }
+
+    @Benchmark
+    public String maskedValueBackward() {
+        return CustomFederatedAuthenticator.getMaskedValue(backwardContext, MOBILE_NUMBER, 4);
+    }
+}
@@ -0,0 +1,148 @@
+package org.wso2.carbon.identity.custom.federated.authenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.application.authentication.framework.config.model.SequenceConfig;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.identity.application.authentication.framework.model.AuthenticatedUser;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.UserClaimCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.email.EmailOTPAuthenticator;
+import org.wso2.carbon.identity.custom.federated.authenticator.email.service.EmailService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPAuthenticator;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.SMSService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.ValidationService;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransportRequest;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PoolStats;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Benchmarks a whole handleSMSOTPAuthentication and handleEmailOTPAuthentication call, from the session reset to
+ * the redirect to the OTP page
+ * The gateways answer from memory and the user claims are served by the user claim cache, so the score is the
+ * time the handlers themselves add to the user store lookup and the gateway round trip of a real login.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OTPHandlerBenchmark {
+
+    private static final String USERNAME = "benchmark-user";
+    private static final String MOBILE_NUMBER = "0812345678";
+    private static final String EMAIL_ADDRESS = "benchmark.user@example.com";
+    private static final byte[] GATEWAY_RESPONSE = ("{\"sendOneTimePWResponse\":{\"code\":\"0000\"," +
+            "\"description\":\"SUCCESS\",\"isSuccess\":\"true\",\"transactionID\":\"benchmark\"}}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private SMSOTPAuthenticator smsAuthenticator;
+    private EmailOTPAuthenticator emailAuthenticator;
+    private AuthenticationContext smsContext;
+    private AuthenticationContext emailContext;
+    private HttpServletRequest smsRequest;
+    private HttpServletRequest emailRequest;
+    private HttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        HttpTransport gateway = new InMemoryGateway();
+        OTPService otpService = new OTPService();
+        ValidationService validationService = new ValidationService();
+        smsAuthenticator = new SMSOTPAuthenticator(otpService, new SMSService(gateway), validationService);
+        emailAuthenticator = new EmailOTPAuthenticator(otpService, new EmailService(gateway, null),
+                validationService);
+
+        smsContext = newHandlerContext("sms-handler");
+        emailContext = newHandlerContext("email-handler");
+        smsRequest = BenchmarkSupport.newServletStub(HttpServletRequest.class,
+                Collections.singletonMap("otpChannel", "SMS"));
+        emailRequest = BenchmarkSupport.newServletStub(HttpServletRequest.class,
+                Collections.singletonMap("otpChannel", "EMAIL"));
+        response = BenchmarkSupport.newServletStub(HttpServletResponse.class, null);
+    }
+
+    /**
+     * Keeps the user claims cached for the whole run, a miss would go to a user store that does not exist here
+     */
+    @Setup(Level.Iteration)
+    public void cacheUserClaims() {
+        UserClaimCache claimCache = UserClaimCache.getDefault();
+        claimCache.put(SMSOTPConstants.SUPER_TENANT, USERNAME, SMSOTPConstants.MOBILE_CLAIM, MOBILE_NUMBER);
+        claimCache.put(SMSOTPConstants.SUPER_TENANT, USERNAME, SMSOTPConstants.EMAIL_CLAIM, EMAIL_ADDRESS);
+    }
+
+    @Benchmark
+    public AuthenticationContext handleSMSOTPAuthentication() throws AuthenticationFailedException {
+        smsAuthenticator.handleSMSOTPAuthentication(smsRequest, response, smsContext);
+        return smsContext;
+    }
+
+    @Benchmark
+    public AuthenticationContext handleEmailOTPAuthentication() throws AuthenticationFailedException {
+        emailAuthenticator.handleEmailOTPAuthentication(emailRequest, response, emailContext);
+        return emailContext;
+    }
+
+    private static AuthenticationContext newHandlerContext(String contextIdentifier) {
+        AuthenticationContext context = BenchmarkSupport.newContext(contextIdentifier);
+        context.getAuthenticatorProperties().put(OtpAuthenticatorConfig.EMAIL_URL, "https://mail.example.com/api/send");
+        context.getAuthenticatorProperties().put(OtpAuthenticatorConfig.EMAIL_HTTP_METHOD, SMSOTPConstants.POST_METHOD);
+        context.getAuthenticatorProperties().put(OtpAuthenticatorConfig.EMAIL_PAYLOAD,
+                "{\"to\":\"$ctx.email\",\"otp\":\"$ctx.otp\"}");
+        context.setProperty(SMSOTPConstants.SMSOTP_AUTHENTICATION_ENDPOINT_URL,
+                "https://localhost:9443/authenticationendpoint/smsOtp.jsp");
+        context.setProperty(SMSOTPConstants.SMSOTP_AUTHENTICATION_ERROR_PAGE_URL,
+                "https://localhost:9443/authenticationendpoint/smsOtpError.jsp");
+        // The SMS handler reads the username from the context, the email handler from the sequence
+        context.setProperty("USER_NAME", USERNAME);
+        AuthenticatedUser user = AuthenticatedUser.createLocalAuthenticatedUserFromSubjectIdentifier(USERNAME);
+        user.setTenantDomain(SMSOTPConstants.SUPER_TENANT);
+        SequenceConfig sequenceConfig = new SequenceConfig();
+        sequenceConfig.setAuthenticatedUser(user);
+        context.setSequenceConfig(sequenceConfig);
+        return context;
+    }
+
+    /**
+     * SMS gateway and mail API accepting every request without leaving the process
+     */
+    private static final class InMemoryGateway implements HttpTransport {
+
+        @Override
+        public <T> T execute(HttpTransportRequest request, ResponseHandler<T> handler) throws IOException {
+            return handler.handle(200, new ByteArrayInputStream(GATEWAY_RESPONSE));
+        }
+
+        @Override
+        public List<PoolStats> getPoolStats() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
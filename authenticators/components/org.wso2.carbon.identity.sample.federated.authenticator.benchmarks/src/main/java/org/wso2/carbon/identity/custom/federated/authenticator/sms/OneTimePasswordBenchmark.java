@@ -0,0 +1,72 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.identity.custom.federated.authenticator.BenchmarkSupport;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks OTP token generation in tokens per second
+ * Run with "-prof gc" to report the bytes allocated per token
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OneTimePasswordBenchmark {
+
+    @Param({"4", "6", "8"})
+    private int digits;
+
+    private final OneTimePassword oneTimePassword = new OneTimePassword();
+    private String secret;
+    private byte[] secretBytes;
+    private byte[] movingFactorBytes;
+
+    @Setup
+    public void setup() {
+        secret = OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
+        secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+        movingFactorBytes = new byte[]{0, 0, 0, 0, 0, 0, 0, SMSOTPConstants.NUMBER_BASE};
+    }
+
+    @Benchmark
+    public String generateOTP() throws GeneralSecurityException {
+        return OneTimePassword.generateOTP(secretBytes, SMSOTPConstants.NUMBER_BASE, digits, false, 0);
+    }
+
+    @Benchmark
+    public String generateAlphaNumericOTP() throws GeneralSecurityException {
+        return OneTimePassword.generateAlphaNumericOTP(secretBytes, SMSOTPConstants.NUMBER_BASE, digits, false, 0);
+    }
+
+    @Benchmark
+    public String generateToken() throws AuthenticationFailedException {
+        return oneTimePassword.generateToken(secret, String.valueOf(SMSOTPConstants.NUMBER_BASE), digits, false);
+    }
+
+    @Benchmark
+    public String randomSecret() {
+        return OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
+    }
+
+    @Benchmark
+    public byte[] hmacSha() throws GeneralSecurityException {
+        return OneTimePassword.hmacShaGenerate(secretBytes, movingFactorBytes);
+    }
+}
@@ -0,0 +1,85 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.identity.application.authentication.framework.model.AuthenticatedUser;
+import org.wso2.carbon.identity.custom.federated.authenticator.BenchmarkSupport;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Benchmarks concurrent OTP submissions against the single authenticator instance shared by all sessions
+ * Every benchmark thread owns its own session, so throughput should grow with the thread count
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SMSOTPAuthenticatorBenchmark {
+
+    private static final String OTP = "482913";
+
+    /**
+     * Authenticator shared by all benchmark threads, as cached by CustomFederatedAuthenticator
+     */
+    @State(Scope.Benchmark)
+    public static class SharedAuthenticator {
+
+        private final SMSOTPAuthenticator authenticator = new SMSOTPAuthenticator();
+    }
+
+    /**
+     * Session owned by a single benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Session {
+
+        private AuthenticationContext context;
+        private HttpServletRequest request;
+        private HttpServletResponse response;
+
+        @Setup
+        public void setup() {
+            context = BenchmarkSupport.newContext(UUID.randomUUID().toString());
+            context.setProperty(SMSOTPConstants.AUTHENTICATED_USER,
+                    AuthenticatedUser.createLocalAuthenticatedUserFromSubjectIdentifier("benchmark-user"));
+            new OTPService().storeOTPInContext(context, OTP, OTP);
+            request = BenchmarkSupport.newServletStub(HttpServletRequest.class,
+                    Collections.singletonMap(SMSOTPConstants.CODE, OTP));
+            response = BenchmarkSupport.newServletStub(HttpServletResponse.class, null);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AuthenticationContext validateSingleThread(SharedAuthenticator shared, Session session)
+            throws AuthenticationFailedException {
+        shared.authenticator.processAuthenticationResponse(session.request, session.response, session.context);
+        return session.context;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public AuthenticationContext validateAllCores(SharedAuthenticator shared, Session session)
+            throws AuthenticationFailedException {
+        shared.authenticator.processAuthenticationResponse(session.request, session.response, session.context);
+        return session.context;
+    }
+}
@@ -0,0 +1,79 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.BenchmarkSupport;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks OTP generation, validation against the stored OTP digest and the session reset done at the start
+ * of every OTP step
+ * The session reset replaced a fixed 50 ms sleep in the SMS and email OTP handlers. Its score covers only that
+ * cleanup step, OTPHandlerBenchmark measures the whole handler calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OTPServiceBenchmark {
+
+    private static final String OTP = "482913";
+    private static final String[] SESSION_PROPERTIES = {
+        SMSOTPConstants.OTP_TOKEN,
+        SMSOTPConstants.SENT_OTP_TOKEN_TIME,
+        SMSOTPConstants.TOKEN_VALIDITY_TIME,
+        "CLIENT_OTP_VALIDATION",
+        "SMS_PAYLOAD_CONFIG",
+        "screenValue",
+        "MASKED_EMAIL",
+        "OTP_TYPE",
+        SMSOTPConstants.OTP_DELIVERY_STATUS
+    };
+
+    private final OTPService otpService = new OTPService();
+    private AuthenticationContext context;
+    private byte[] issuedDigest;
+    private long sentTime;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        context = BenchmarkSupport.newContext("otp-service");
+        issuedDigest = OTPDigest.digest(OTP, context.getContextIdentifier());
+        sentTime = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public String generateOTP() {
+        return otpService.generateOTP(context);
+    }
+
+    @Benchmark
+    public OTPService.OTPValidationResult validateMatchingOTP() {
+        return otpService.validateOTPDigest(OTP, issuedDigest, context.getContextIdentifier(), sentTime, 5L);
+    }
+
+    @Benchmark
+    public OTPService.OTPValidationResult validateMismatchingOTP() {
+        return otpService.validateOTPDigest("000000", issuedDigest, context.getContextIdentifier(), sentTime, 5L);
+    }
+
+    @Benchmark
+    public long resetSession() {
+        otpService.storeOTPInContext(context, OTP, OTP);
+        return OTPSessionState.reset(context, SESSION_PROPERTIES);
+    }
+}
@@ -0,0 +1,80 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.identity.custom.federated.authenticator.BenchmarkSupport;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares taking a pre-generated OTP from the token pool with generating it inline
+ * The pool is refilled before every invocation so that the pooled score is the cost of a ring buffer pop
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OTPTokenPoolBenchmark {
+
+    private static final int TOKEN_LENGTH = 6;
+    private static final int POOL_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 100;
+
+    private final OTPService otpService = new OTPService();
+    private OTPTokenPool pool;
+    private AuthenticationContext context;
+
+    @Setup
+    public void setup() {
+        // No refill thread, refills only happen in the invocation setup and never during a measured take
+        pool = new OTPTokenPool(POOL_CAPACITY, TimeUnit.HOURS.toMillis(1), false);
+        pool.take(TOKEN_LENGTH, false);
+        context = BenchmarkSupport.newContext("otp-token-pool");
+    }
+
+    @Setup(Level.Invocation)
+    public void refill() {
+        pool.refillAll();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public String inlineGeneration() throws AuthenticationFailedException {
+        return OTPTokenPool.generate(TOKEN_LENGTH, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POOL_CAPACITY)
+    public void pooledTake(Blackhole blackhole) {
+        for (int i = 0; i < POOL_CAPACITY; i++) {
+            blackhole.consume(pool.take(TOKEN_LENGTH, false));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<String> batchGeneration() {
+        return otpService.generateOTPs(context, TOKEN_LENGTH, BATCH_SIZE);
+    }
+}
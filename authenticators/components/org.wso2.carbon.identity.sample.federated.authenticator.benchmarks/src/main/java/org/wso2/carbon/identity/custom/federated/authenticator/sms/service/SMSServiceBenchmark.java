@@ -0,0 +1,57 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.wso2.carbon.identity.custom.federated.authenticator.BenchmarkSupport;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransportRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks URL, header and payload templating of the SMS gateway request and mobile number masking
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = BenchmarkSupport.NO_OP_LOG)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SMSServiceBenchmark {
+
+    private static final String MOBILE_NUMBER = "0812345678";
+    private static final String OTP = "482913";
+
+    private final SMSService smsService = new SMSService();
+    private final SMSService.SMSConfig getConfig = new SMSService.SMSConfig(BenchmarkSupport.SMS_URL,
+            SMSOTPConstants.GET_METHOD, BenchmarkSupport.SMS_HEADERS, null, "200");
+    private final SMSService.SMSConfig postConfig = new SMSService.SMSConfig(BenchmarkSupport.SMS_URL,
+            SMSOTPConstants.POST_METHOD, BenchmarkSupport.SMS_HEADERS, BenchmarkSupport.SMS_PAYLOAD, "200");
+
+    @Benchmark
+    public HttpTransportRequest buildGetRequest() {
+        return smsService.buildRequest(getConfig, MOBILE_NUMBER, OTP);
+    }
+
+    @Benchmark
+    public HttpTransportRequest buildPostRequest() {
+        return smsService.buildRequest(postConfig, MOBILE_NUMBER, OTP);
+    }
+
+    @Benchmark
+    public String maskMobileNumber() {
+        return smsService.maskMobileNumber(MOBILE_NUMBER);
+    }
+
+    @Benchmark
+    public String maskInternationalMobileNumber() {
+        return smsService.maskMobileNumber("+66812345678");
+    }
+}
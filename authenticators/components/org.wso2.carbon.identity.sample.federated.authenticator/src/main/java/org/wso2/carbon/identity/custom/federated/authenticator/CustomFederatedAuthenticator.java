@@ -13,12 +13,12 @@ import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPAuthent
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPUtils;
 import org.wso2.carbon.identity.custom.federated.authenticator.email.EmailOTPAuthenticator;
+import org.wso2.carbon.identity.custom.federated.authenticator.util.AuthenticatorConfigUtil;
 
 import net.minidev.json.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -102,223 +102,12 @@ public class CustomFederatedAuthenticator extends AbstractApplicationAuthenticat
         return SMSOTPConstants.OIDC_DIALECT;
     }
 
+    /**
+     * Returns the configuration properties declared for this authenticator in the bundled descriptor
+     */
     @Override
     public List<Property> getConfigurationProperties() {
-        List<Property> configProperties = new ArrayList<Property>();
-
-        // ================================
-        // General Settings (Both SMS and EMAIL)
-        // ================================
-        Property generalTab = new Property();
-        generalTab.setName("general_settings_tab");
-        generalTab.setDisplayName("⚙️ General Settings ******************************");
-        generalTab.setType("tab");
-        generalTab.setDisplayOrder(0);
-        generalTab.setRequired(false);
-        generalTab.setDescription("Configure general OTP authentication settings");
-        configProperties.add(generalTab);
-
-        Property defaultOtpType = new Property();
-        defaultOtpType.setName("DEFAULT_OTP_TYPE");
-        defaultOtpType.setDisplayName("Default OTP Type");
-        defaultOtpType.setRequired(false);
-        defaultOtpType.setDescription("Select the default OTP type for authentication");
-        defaultOtpType.setDisplayOrder(1);
-        defaultOtpType.setType("select");
-        defaultOtpType.setOptions(new String[] { "sms", "email" });
-        defaultOtpType.setValue("sms");
-        configProperties.add(defaultOtpType);
-
-        // ================================
-        // Tab 1: SMS Settings
-        // ================================
-        Property smsTab = new Property();
-        smsTab.setName("sms_settings_tab");
-        smsTab.setDisplayName("📱 SMS Settings ******************************");
-        smsTab.setType("tab");
-        smsTab.setDisplayOrder(2);
-        smsTab.setRequired(false);
-        smsTab.setDescription("Configure SMS OTP authentication settings");
-        configProperties.add(smsTab);
-
-        // SMS Configuration Properties
-        Property smsUrl = new Property();
-        smsUrl.setName(SMSOTPConstants.SMS_URL);
-        smsUrl.setDisplayName("SMS URL");
-        smsUrl.setRequired(true);
-        smsUrl.setDescription("Enter client sms url value. If the phone number and text message are in URL, " +
-                "specify them as $ctx.num and $ctx.msg");
-        smsUrl.setDisplayOrder(3);
-        smsUrl.setType("string");
-        configProperties.add(smsUrl);
-
-        Property httpMethod = new Property();
-        httpMethod.setName(SMSOTPConstants.HTTP_METHOD);
-        httpMethod.setDisplayName("HTTP Method");
-        httpMethod.setRequired(true);
-        httpMethod.setDescription("Enter the HTTP Method used by the SMS API");
-        httpMethod.setDisplayOrder(4);
-        httpMethod.setType("select");
-        httpMethod.setOptions(new String[] { "GET", "POST", "PUT" });
-        configProperties.add(httpMethod);
-
-        Property headers = new Property();
-        headers.setName(SMSOTPConstants.HEADERS);
-        headers.setDisplayName("HTTP Headers");
-        headers.setRequired(false);
-        headers.setDescription("Enter the headers used by the API separated by comma, with the Header name and value " +
-                "separated by \":\". If the phone number and text message are in Headers, specify them as $ctx.num and $ctx.msg");
-        headers.setDisplayOrder(5);
-        headers.setType("textarea");
-        configProperties.add(headers);
-
-        Property payload = new Property();
-        payload.setName(SMSOTPConstants.PAYLOAD);
-        payload.setDisplayName("HTTP Payload");
-        payload.setRequired(false);
-        payload.setDescription("Enter the HTTP Payload used by the SMS API. If the phone number and text message are " +
-                "in Payload, specify them as $ctx.num and $ctx.msg");
-        payload.setDisplayOrder(6);
-        payload.setType("textarea");
-        configProperties.add(payload);
-
-        Property httpResponse = new Property();
-        httpResponse.setName(SMSOTPConstants.HTTP_RESPONSE);
-        httpResponse.setDisplayName("HTTP Response Code");
-        httpResponse.setRequired(false);
-        httpResponse.setDescription(
-                "Enter the HTTP response code the API sends upon successful call. Leave empty if unknown");
-        httpResponse.setDisplayOrder(7);
-        httpResponse.setType("string");
-        configProperties.add(httpResponse);
-
-        // SMS Error Handling Section
-        Property smsErrorHeader = new Property();
-        smsErrorHeader.setName("sms_error_handling_header");
-        smsErrorHeader.setDisplayName("SMS Error Handling");
-        smsErrorHeader.setType("header");
-        smsErrorHeader.setDisplayOrder(8);
-        smsErrorHeader.setRequired(false);
-        smsErrorHeader.setDescription("Configure SMS error handling and debugging options");
-        configProperties.add(smsErrorHeader);
-
-        Property showErrorInfo = new Property();
-        showErrorInfo.setName(SMSOTPConstants.SHOW_ERROR_INFO);
-        showErrorInfo.setDisplayName("Show Detailed Error Information");
-        showErrorInfo.setRequired(false);
-        showErrorInfo.setDescription("Enter \"true\" if detailed error information from SMS provider needs to be " +
-                "displayed in the UI");
-        showErrorInfo.setDisplayOrder(9);
-        showErrorInfo.setType("boolean");
-        configProperties.add(showErrorInfo);
-
-        Property valuesToBeMasked = new Property();
-        valuesToBeMasked.setName(SMSOTPConstants.VALUES_TO_BE_MASKED_IN_ERROR_INFO);
-        valuesToBeMasked.setDisplayName("Mask values in Error Info");
-        valuesToBeMasked.setRequired(false);
-        valuesToBeMasked
-                .setDescription("Enter comma separated Values to be masked by * in the detailed error messages");
-        valuesToBeMasked.setDisplayOrder(10);
-        valuesToBeMasked.setType("string");
-        configProperties.add(valuesToBeMasked);
-
-        // ================================
-        // Tab 2: EMAIL Settings
-        // ================================
-        Property emailTab = new Property();
-        emailTab.setName("email_settings_tab");
-        emailTab.setDisplayName("📧 EMAIL Settings ******************************");
-        emailTab.setType("tab");
-        emailTab.setDisplayOrder(11);
-        emailTab.setRequired(false);
-        emailTab.setDescription("Configure Email OTP authentication settings");
-        configProperties.add(emailTab);
-
-        // EMAIL Configuration Properties
-        Property emailUrl = new Property();
-        emailUrl.setName("EMAIL_URL");
-        emailUrl.setDisplayName("Email URL");
-        emailUrl.setRequired(false);
-        emailUrl.setDescription("Enter client email url value. If the email address and message are in URL, " +
-                "specify them as $ctx.email and $ctx.msg");
-        emailUrl.setDisplayOrder(12);
-        emailUrl.setType("string");
-        configProperties.add(emailUrl);
-
-        Property emailMethod = new Property();
-        emailMethod.setName("EMAIL_HTTP_METHOD");
-        emailMethod.setDisplayName("HTTP Method");
-        emailMethod.setRequired(false);
-        emailMethod.setDescription("Enter the HTTP Method used by the Email API");
-        emailMethod.setDisplayOrder(13);
-        emailMethod.setType("select");
-        emailMethod.setOptions(new String[] { "GET", "POST", "PUT" });
-        configProperties.add(emailMethod);
-
-        Property emailHeaders = new Property();
-        emailHeaders.setName("EMAIL_HEADERS");
-        emailHeaders.setDisplayName("HTTP Headers");
-        emailHeaders.setRequired(false);
-        emailHeaders.setDescription(
-                "Enter the headers used by the API separated by comma, with the Header name and value " +
-                        "separated by \":\". If the email address and message are in Headers, specify them as $ctx.email and $ctx.msg");
-        emailHeaders.setDisplayOrder(14);
-        emailHeaders.setType("textarea");
-        configProperties.add(emailHeaders);
-
-        Property emailPayload = new Property();
-        emailPayload.setName("EMAIL_PAYLOAD");
-        emailPayload.setDisplayName("HTTP Payload");
-        emailPayload.setRequired(false);
-        emailPayload
-                .setDescription("Enter the HTTP Payload used by the Email API. If the email address and message are " +
-                        "in Payload, specify them as $ctx.email and $ctx.msg");
-        emailPayload.setDisplayOrder(15);
-        emailPayload.setType("textarea");
-        configProperties.add(emailPayload);
-
-        Property emailResponse = new Property();
-        emailResponse.setName("EMAIL_HTTP_RESPONSE");
-        emailResponse.setDisplayName("HTTP Response Code");
-        emailResponse.setRequired(false);
-        emailResponse.setDescription(
-                "Enter the HTTP response code the API sends upon successful call. Leave empty if unknown");
-        emailResponse.setDisplayOrder(16);
-        emailResponse.setType("string");
-        configProperties.add(emailResponse);
-
-        // EMAIL Error Handling Section
-        Property emailErrorHeader = new Property();
-        emailErrorHeader.setName("email_error_handling_header");
-        emailErrorHeader.setDisplayName("Email Error Handling");
-        emailErrorHeader.setType("header");
-        emailErrorHeader.setDisplayOrder(17);
-        emailErrorHeader.setRequired(false);
-        emailErrorHeader.setDescription("Configure Email error handling and debugging options");
-        configProperties.add(emailErrorHeader);
-
-        Property emailShowErrorInfo = new Property();
-        emailShowErrorInfo.setName("EMAIL_SHOW_ERROR_INFO");
-        emailShowErrorInfo.setDisplayName("Show Detailed Error Information");
-        emailShowErrorInfo.setRequired(false);
-        emailShowErrorInfo
-                .setDescription("Enter \"true\" if detailed error information from Email provider needs to be " +
-                        "displayed in the UI");
-        emailShowErrorInfo.setDisplayOrder(18);
-        emailShowErrorInfo.setType("boolean");
-        configProperties.add(emailShowErrorInfo);
-
-        Property emailValuesToBeMasked = new Property();
-        emailValuesToBeMasked.setName("EMAIL_VALUES_TO_BE_MASKED_IN_ERROR_INFO");
-        emailValuesToBeMasked.setDisplayName("Mask values in Error Info");
-        emailValuesToBeMasked.setRequired(false);
-        emailValuesToBeMasked
-                .setDescription("Enter comma separated Values to be masked by * in the detailed error messages");
-        emailValuesToBeMasked.setDisplayOrder(19);
-        emailValuesToBeMasked.setType("string");
-        configProperties.add(emailValuesToBeMasked);
-
-        return configProperties;
+        return AuthenticatorConfigUtil.getConfigurationProperties(getName());
     }
 
     @Override
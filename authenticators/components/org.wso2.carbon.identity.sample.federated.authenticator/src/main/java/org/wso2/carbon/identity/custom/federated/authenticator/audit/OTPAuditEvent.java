@@ -0,0 +1,128 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.audit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Structured audit event describing one OTP step
+ *
+ * Attributes are written as key=value pairs in the order they were added. OTP values are never written,
+ * {@link #withSecret} only records whether a value was present and its length.
+ */
+public final class OTPAuditEvent {
+
+    /**
+     * OTP step the event describes
+     */
+    public enum Type {
+        OTP_SENT,
+        OTP_SEND_FAILED,
+        OTP_VALIDATION
+    }
+
+    public static final String CHANNEL_SMS = "SMS";
+    public static final String CHANNEL_EMAIL = "EMAIL";
+    public static final String OUTCOME_SUCCESS = "SUCCESS";
+    public static final String OUTCOME_FAILURE = "FAILURE";
+
+    private final long timestamp = System.currentTimeMillis();
+    private final Type type;
+    private final String channel;
+    private final String contextIdentifier;
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    /**
+     * @param type OTP step
+     * @param channel OTP channel, {@link #CHANNEL_SMS} or {@link #CHANNEL_EMAIL}
+     * @param contextIdentifier Authentication context identifier
+     */
+    public OTPAuditEvent(Type type, String channel, String contextIdentifier) {
+        this.type = type;
+        this.channel = channel;
+        this.contextIdentifier = contextIdentifier;
+    }
+
+    /**
+     * Adds an attribute, null values are skipped
+     *
+     * @return This event
+     */
+    public OTPAuditEvent with(String name, Object value) {
+        if (value != null) {
+            attributes.put(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the length of a secret value such as an OTP instead of the value itself
+     *
+     * @return This event
+     */
+    public OTPAuditEvent withSecret(String name, String value) {
+        attributes.put(name + "Length", value != null ? value.length() : -1);
+        return this;
+    }
+
+    /**
+     * Adds the outcome of the step
+     *
+     * @param success Whether the step succeeded
+     * @param reason Failure reason, ignored on success
+     * @return This event
+     */
+    public OTPAuditEvent withOutcome(boolean success, String reason) {
+        attributes.put("outcome", success ? OUTCOME_SUCCESS : OUTCOME_FAILURE);
+        return success ? this : with("reason", reason);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getContextIdentifier() {
+        return contextIdentifier;
+    }
+
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("event=").append(type)
+                .append(" channel=").append(channel)
+                .append(" timestamp=").append(timestamp);
+        appendValue(builder.append(" context="), contextIdentifier);
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            appendValue(builder.append(' ').append(attribute.getKey()).append('='), attribute.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static void appendValue(StringBuilder builder, Object value) {
+        String text = String.valueOf(value);
+        if (text.indexOf(' ') < 0 && text.indexOf('"') < 0 && text.indexOf('=') < 0) {
+            builder.append(text);
+            return;
+        }
+        builder.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,140 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.audit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous writer of OTP audit events
+ *
+ * Events are only built when INFO is enabled for this logger, and are handed to a bounded queue drained by a
+ * single daemon thread, so the authentication request thread does not format or write log lines. Events
+ * are dropped and counted when the queue is full.
+ */
+public class OTPAuditLogger {
+
+    private static final Log log = LogFactory.getLog(OTPAuditLogger.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static volatile OTPAuditLogger defaultInstance;
+
+    private final BlockingQueue<OTPAuditEvent> queue;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile Thread writer;
+    private volatile boolean running = true;
+
+    public OTPAuditLogger(int queueCapacity) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Returns the process wide audit logger shared by the OTP authenticators
+     */
+    public static OTPAuditLogger getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OTPAuditLogger.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OTPAuditLogger(DEFAULT_QUEUE_CAPACITY);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Stops the writer of the process wide audit logger, the next getDefault call creates a new one
+     */
+    public static void shutdownDefault() {
+        OTPAuditLogger logger;
+        synchronized (OTPAuditLogger.class) {
+            logger = defaultInstance;
+            defaultInstance = null;
+        }
+        if (logger != null) {
+            logger.shutdown();
+        }
+    }
+
+    /**
+     * @return True if audit events are written
+     */
+    public boolean isEnabled() {
+        return log.isInfoEnabled();
+    }
+
+    /**
+     * Records an audit event, building it only if audit events are written
+     *
+     * @param event Supplier building the event
+     */
+    public void record(Supplier<OTPAuditEvent> event) {
+        if (!running || !isEnabled()) {
+            return;
+        }
+        ensureWriterStarted();
+        if (!queue.offer(event.get())) {
+            droppedEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return Number of events dropped because the queue was full
+     */
+    public long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Stops the writer after the queued events are written
+     */
+    public void shutdown() {
+        running = false;
+        Thread current = writer;
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    private void ensureWriterStarted() {
+        if (writer == null) {
+            synchronized (this) {
+                if (writer == null && running) {
+                    Thread thread = new Thread(this::write, "otp-audit-writer");
+                    thread.setDaemon(true);
+                    thread.start();
+                    writer = thread;
+                }
+            }
+        }
+    }
+
+    private void write() {
+        while (running) {
+            try {
+                log.info(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        OTPAuditEvent event;
+        while ((event = queue.poll()) != null) {
+            log.info(event);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * In-memory cache with a maximum size and a per entry time to live
+ *
+ * Expired entries are dropped lazily on access. When the cache is full a clock hand walks the entries in insertion
+ * order and evicts the first one that has expired or has not been read since the hand last passed it, so a put
+ * costs amortized constant time however large the cache is. Hit, miss and eviction counters are kept for
+ * monitoring.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class BoundedTtlCache<K, V> {
+
+    private final Map<K, Entry<K, V>> entries = new ConcurrentHashMap<>();
+    // Clock of the cached entries in insertion order, replaced and removed entries are skipped and pruned
+    private final Queue<Entry<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries Maximum number of entries kept
+     * @param ttlMillis Time to live of an entry in milliseconds
+     */
+    public BoundedTtlCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cached value
+     *
+     * @param key Cache key
+     * @return Cached value, or null if absent or expired
+     */
+    public V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Caches the value, evicting an entry if the cache is full
+     *
+     * @param key Cache key
+     * @param value Value to cache, null values are not cached
+     */
+    public void put(K key, V value) {
+        if (value == null) {
+            entries.remove(key);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evict(now);
+        }
+        Entry<K, V> entry = new Entry<>(key, value, now + ttlMillis);
+        entries.put(key, entry);
+        clock.offer(entry);
+        if (clockSize.incrementAndGet() > 2 * Math.max(1, maxEntries)) {
+            pruneClock();
+        }
+    }
+
+    /**
+     * Removes the entry of the given key
+     */
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries whose key matches the predicate
+     *
+     * @param predicate Key predicate
+     */
+    public void removeIf(Predicate<K> predicate) {
+        entries.keySet().removeIf(predicate);
+    }
+
+    public void clear() {
+        entries.clear();
+        clock.clear();
+        clockSize.set(0);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Advances the clock hand until one entry is evicted, giving entries read since the last pass a second chance
+     *
+     * Every entry the hand passes over loses its second chance, so the hand stops within two rounds. Replaced
+     * and removed entries still in the clock are dropped as the hand reaches them.
+     */
+    private void evict(long now) {
+        int secondChances = 2 * maxEntries;
+        Entry<K, V> entry;
+        while ((entry = clock.poll()) != null) {
+            clockSize.decrementAndGet();
+            if (entries.get(entry.key) != entry) {
+                continue;
+            }
+            if (!entry.isExpired(now) && entry.referenced && secondChances-- > 0) {
+                entry.referenced = false;
+                clock.offer(entry);
+                clockSize.incrementAndGet();
+                continue;
+            }
+            if (entries.remove(entry.key, entry)) {
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops replaced and removed entries from the clock once they outnumber the cached ones
+     *
+     * Runs after at least maxEntries puts since the last pruning, so its cost is constant per put on average.
+     */
+    private void pruneClock() {
+        Iterator<Entry<K, V>> iterator = clock.iterator();
+        while (iterator.hasNext()) {
+            Entry<K, V> entry = iterator.next();
+            if (entries.get(entry.key) != entry) {
+                iterator.remove();
+                clockSize.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Cached value with its key and expiry time
+     */
+    private static final class Entry<K, V> {
+
+        private final K key;
+        private final V value;
+        private final long expiresAt;
+        // Set on every hit and cleared when the clock hand passes
+        private volatile boolean referenced;
+
+        Entry(K key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
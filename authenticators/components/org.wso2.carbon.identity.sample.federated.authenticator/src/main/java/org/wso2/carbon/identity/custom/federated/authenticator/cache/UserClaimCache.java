@@ -0,0 +1,127 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.cache;
+
+import java.util.Collection;
+
+/**
+ * Cache of user claim values read by the OTP authenticators, keyed by tenant domain, tenant aware username and
+ * claim URI
+ *
+ * Claims without a value are cached as well, so a user without a mobile number does not cause a user store
+ * round trip on every attempt. Entries must be invalidated when the claims of a user are updated.
+ */
+public class UserClaimCache {
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final long TTL_MILLIS = 5 * 60 * 1000L;
+    private static final String KEY_SEPARATOR = "|";
+
+    private static volatile UserClaimCache defaultInstance;
+
+    private final BoundedTtlCache<String, ClaimValue> claims;
+
+    public UserClaimCache(int maxEntries, long ttlMillis) {
+        this.claims = new BoundedTtlCache<>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Returns the process wide claim cache shared by the OTP authenticators
+     */
+    public static UserClaimCache getDefault() {
+        if (defaultInstance == null) {
+            synchronized (UserClaimCache.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new UserClaimCache(MAX_ENTRIES, TTL_MILLIS);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Returns the cached claim value
+     *
+     * @param tenantDomain Tenant domain of the user
+     * @param username Tenant aware username
+     * @param claimUri Claim URI
+     * @return Cached claim value, or null if the claim is not cached
+     */
+    public ClaimValue get(String tenantDomain, String username, String claimUri) {
+        return claims.get(buildKey(tenantDomain, username, claimUri));
+    }
+
+    /**
+     * Caches a claim value read from the user store
+     *
+     * @param tenantDomain Tenant domain of the user
+     * @param username Tenant aware username
+     * @param claimUri Claim URI
+     * @param value Claim value, may be null if the user has no value for the claim
+     */
+    public void put(String tenantDomain, String username, String claimUri, String value) {
+        claims.put(buildKey(tenantDomain, username, claimUri), new ClaimValue(value));
+    }
+
+    /**
+     * Drops the cached values of the given claims of a user
+     *
+     * @param tenantDomain Tenant domain of the user
+     * @param username Tenant aware username
+     * @param claimUris Claim URIs that were updated
+     */
+    public void invalidate(String tenantDomain, String username, Collection<String> claimUris) {
+        for (String claimUri : claimUris) {
+            claims.remove(buildKey(tenantDomain, username, claimUri));
+        }
+    }
+
+    /**
+     * Drops every cached claim value of a user
+     *
+     * @param tenantDomain Tenant domain of the user
+     * @param username Tenant aware username
+     */
+    public void invalidateUser(String tenantDomain, String username) {
+        final String prefix = tenantDomain + KEY_SEPARATOR + username + KEY_SEPARATOR;
+        claims.removeIf(key -> key.startsWith(prefix));
+    }
+
+    public void clear() {
+        claims.clear();
+    }
+
+    public int size() {
+        return claims.size();
+    }
+
+    public long getHitCount() {
+        return claims.getHitCount();
+    }
+
+    public long getMissCount() {
+        return claims.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return claims.getEvictionCount();
+    }
+
+    private static String buildKey(String tenantDomain, String username, String claimUri) {
+        return tenantDomain + KEY_SEPARATOR + username + KEY_SEPARATOR + claimUri;
+    }
+
+    /**
+     * Cached claim value, which may be null when the user has no value for the claim
+     */
+    public static final class ClaimValue {
+
+        private final String value;
+
+        ClaimValue(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
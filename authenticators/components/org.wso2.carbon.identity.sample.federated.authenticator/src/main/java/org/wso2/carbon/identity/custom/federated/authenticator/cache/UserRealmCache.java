@@ -0,0 +1,114 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.base.MultitenantConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.internal.CustomFederatedAuthenticatorDataHolder;
+import org.wso2.carbon.user.api.UserRealm;
+import org.wso2.carbon.user.api.UserStoreException;
+import org.wso2.carbon.user.core.service.RealmService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of tenant user realms keyed by tenant ID, with the tenant domain to tenant ID resolution cached alongside
+ *
+ * Entries have no expiry, they are dropped when the tenant is unloaded. A lookup that races with an invalidation
+ * does not cache the realm it loaded, so an unloaded tenant never keeps a stale realm.
+ */
+public class UserRealmCache {
+
+    private static final Log log = LogFactory.getLog(UserRealmCache.class);
+
+    private static volatile UserRealmCache defaultInstance;
+
+    private final Map<String, Integer> tenantIds = new ConcurrentHashMap<>();
+    private final Map<Integer, UserRealm> realms = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Returns the process wide realm cache shared by the OTP authenticators
+     */
+    public static UserRealmCache getDefault() {
+        if (defaultInstance == null) {
+            synchronized (UserRealmCache.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new UserRealmCache();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Returns the user realm of a tenant, loading it from the realm service on a miss
+     *
+     * @param tenantDomain Tenant domain
+     * @return User realm, or null if the tenant has no realm
+     * @throws UserStoreException If the realm service fails to load the realm
+     */
+    public UserRealm getUserRealm(String tenantDomain) throws UserStoreException {
+        long loadGeneration = generation.get();
+        Integer tenantId = tenantIds.get(tenantDomain);
+        UserRealm userRealm = tenantId != null ? realms.get(tenantId) : null;
+        if (userRealm != null) {
+            return userRealm;
+        }
+        RealmService realmService = CustomFederatedAuthenticatorDataHolder.getInstance().getRealmService();
+        if (realmService == null) {
+            throw new UserStoreException("Realm service is not available");
+        }
+        if (tenantId == null) {
+            tenantId = realmService.getTenantManager().getTenantId(tenantDomain);
+            if (tenantId == MultitenantConstants.INVALID_TENANT_ID) {
+                return null;
+            }
+            cache(tenantIds, tenantDomain, tenantId, loadGeneration);
+        }
+        userRealm = realmService.getTenantUserRealm(tenantId);
+        if (userRealm != null && cache(realms, tenantId, userRealm, loadGeneration) && log.isDebugEnabled()) {
+            log.debug("Cached the user realm of tenant " + tenantDomain + " with ID " + tenantId);
+        }
+        return userRealm;
+    }
+
+    /**
+     * Caches a loaded value unless the cache was invalidated while it was loading
+     *
+     * @return True if the value stays cached
+     */
+    private <K, V> boolean cache(Map<K, V> map, K key, V value, long loadGeneration) {
+        map.put(key, value);
+        if (generation.get() != loadGeneration) {
+            map.remove(key, value);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the realm and the domain resolution of a tenant, for example when the tenant is unloaded
+     *
+     * @param tenantId Tenant ID
+     */
+    public void invalidate(int tenantId) {
+        generation.incrementAndGet();
+        realms.remove(tenantId);
+        tenantIds.values().removeIf(id -> id == tenantId);
+        if (log.isDebugEnabled()) {
+            log.debug("Dropped the cached user realm of tenant ID " + tenantId);
+        }
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        realms.clear();
+        tenantIds.clear();
+    }
+
+    public int size() {
+        return realms.size();
+    }
+}
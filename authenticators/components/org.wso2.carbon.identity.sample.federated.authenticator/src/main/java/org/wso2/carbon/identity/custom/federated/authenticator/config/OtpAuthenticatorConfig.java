@@ -0,0 +1,280 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.config;
+
+import org.apache.commons.lang.StringUtils;
+import org.wso2.carbon.identity.custom.federated.authenticator.email.service.EmailService;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.LockoutConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.RateLimitConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.SMSService;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.SmtpConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the OTP authenticator configuration of an identity provider
+ *
+ * Built once from the authenticator properties and shared by every authentication of the identity provider
+ * until its configuration changes. The SMS and Email configurations are shared instances and must not be
+ * modified.
+ */
+public final class OtpAuthenticatorConfig {
+
+    public static final String EMAIL_URL = "EMAIL_URL";
+    public static final String EMAIL_HTTP_METHOD = "EMAIL_HTTP_METHOD";
+    public static final String EMAIL_HEADERS = "EMAIL_HEADERS";
+    public static final String EMAIL_PAYLOAD = "EMAIL_PAYLOAD";
+    public static final String EMAIL_HTTP_RESPONSE = "EMAIL_HTTP_RESPONSE";
+    public static final String EMAIL_CONNECT_TIMEOUT = "EMAIL_CONNECT_TIMEOUT";
+    public static final String EMAIL_READ_TIMEOUT = "EMAIL_READ_TIMEOUT";
+    public static final String EMAIL_TRANSPORT = "EMAIL_TRANSPORT";
+    public static final String EMAIL_TRANSPORT_SMTP = "SMTP";
+    public static final String EMAIL_SUBJECT = "EMAIL_SUBJECT";
+    public static final String SMTP_HOST = "SMTP_HOST";
+    public static final String SMTP_PORT = "SMTP_PORT";
+    public static final String SMTP_SECURITY = "SMTP_SECURITY";
+    public static final String SMTP_USERNAME = "SMTP_USERNAME";
+    public static final String SMTP_PASSWORD = "SMTP_PASSWORD";
+    public static final String SMTP_FROM = "SMTP_FROM";
+    public static final String OTP_DIGIT = "otpDigit";
+    public static final int DEFAULT_OTP_LENGTH = 4;
+    private static final int MAX_CONFIGURED_OTP_LENGTH = 8;
+
+    private final String tenantDomain;
+    private final String idpName;
+    private final Map<String, String> properties;
+    private final SMSService.SMSConfig smsConfig;
+    private final EmailService.EmailConfig emailConfig;
+    private final RateLimitConfig rateLimitConfig;
+    private final LockoutConfig lockoutConfig;
+    private final int smsOtpLength;
+    private final int emailOtpLength;
+
+    private OtpAuthenticatorConfig(String tenantDomain, String idpName, Map<String, String> properties) {
+        this.tenantDomain = tenantDomain;
+        this.idpName = idpName;
+        this.properties = properties;
+        this.smsConfig = new SMSService.SMSConfig(
+                properties.get(SMSOTPConstants.SMS_URL),
+                properties.get(SMSOTPConstants.HTTP_METHOD),
+                properties.get(SMSOTPConstants.HEADERS),
+                properties.get(SMSOTPConstants.PAYLOAD),
+                properties.get(SMSOTPConstants.HTTP_RESPONSE));
+        this.smsConfig.setConnectTimeoutMillis(parseTimeout(properties.get(SMSOTPConstants.SMS_CONNECT_TIMEOUT)));
+        this.smsConfig.setReadTimeoutMillis(parseTimeout(properties.get(SMSOTPConstants.SMS_READ_TIMEOUT)));
+        this.smsConfig.setAdditionalGatewayUrls(parseGatewayUrls(properties.get(SMSOTPConstants.SMS_GATEWAY_URLS)));
+        this.emailConfig = new EmailService.EmailConfig(
+                properties.get(EMAIL_URL),
+                properties.get(EMAIL_HTTP_METHOD),
+                properties.get(EMAIL_HEADERS),
+                properties.get(EMAIL_PAYLOAD),
+                properties.get(EMAIL_HTTP_RESPONSE));
+        int emailConnectTimeout = parseTimeout(properties.get(EMAIL_CONNECT_TIMEOUT));
+        int emailReadTimeout = parseTimeout(properties.get(EMAIL_READ_TIMEOUT));
+        this.emailConfig.setConnectTimeoutMillis(emailConnectTimeout);
+        this.emailConfig.setReadTimeoutMillis(emailReadTimeout);
+        this.emailConfig.setSubject(properties.get(EMAIL_SUBJECT));
+        this.emailConfig.setSmtpConfig(buildSmtpConfig(properties, emailConnectTimeout, emailReadTimeout));
+        this.rateLimitConfig = buildRateLimitConfig(properties);
+        this.lockoutConfig = buildLockoutConfig(properties);
+        int configuredLength = parseConfiguredOtpLength(properties.get(OTP_DIGIT));
+        this.smsOtpLength = resolveOtpLength(smsConfig.getPayload(), configuredLength);
+        this.emailOtpLength = resolveOtpLength(emailConfig.getPayload(), configuredLength);
+    }
+
+    /**
+     * Builds a snapshot from the authenticator properties
+     *
+     * @param tenantDomain Tenant domain of the identity provider
+     * @param idpName Identity provider name
+     * @param authenticatorProperties Authenticator properties, copied into the snapshot
+     * @return Configuration snapshot
+     */
+    public static OtpAuthenticatorConfig build(String tenantDomain, String idpName,
+                                               Map<String, String> authenticatorProperties) {
+        Map<String, String> properties = authenticatorProperties != null ?
+                new HashMap<>(authenticatorProperties) : new HashMap<String, String>();
+        return new OtpAuthenticatorConfig(tenantDomain, idpName, Collections.unmodifiableMap(properties));
+    }
+
+    /**
+     * Checks whether the snapshot was built from the given authenticator properties
+     */
+    public boolean matches(Map<String, String> authenticatorProperties) {
+        if (authenticatorProperties == null) {
+            return properties.isEmpty();
+        }
+        return properties.equals(authenticatorProperties);
+    }
+
+    public String getTenantDomain() {
+        return tenantDomain;
+    }
+
+    public String getIdpName() {
+        return idpName;
+    }
+
+    /**
+     * @return Authenticator property value
+     */
+    public String getProperty(String name) {
+        return properties.get(name);
+    }
+
+    public SMSService.SMSConfig getSmsConfig() {
+        return smsConfig;
+    }
+
+    public EmailService.EmailConfig getEmailConfig() {
+        return emailConfig;
+    }
+
+    public RateLimitConfig getRateLimitConfig() {
+        return rateLimitConfig;
+    }
+
+    public LockoutConfig getLockoutConfig() {
+        return lockoutConfig;
+    }
+
+    /**
+     * @return OTP length for SMS, from the otpDigit of the SMS payload, the otpDigit property or the default
+     */
+    public int getSmsOtpLength() {
+        return smsOtpLength;
+    }
+
+    /**
+     * @return OTP length for Email, from the otpDigit of the Email payload, the otpDigit property or the default
+     */
+    public int getEmailOtpLength() {
+        return emailOtpLength;
+    }
+
+    private static int resolveOtpLength(String payload, int configuredLength) {
+        if (StringUtils.isNotBlank(payload)) {
+            int lengthFromPayload = OTPService.parseOTPLengthFromPayload(payload);
+            if (lengthFromPayload > 0) {
+                return lengthFromPayload;
+            }
+        }
+        return configuredLength > 0 ? configuredLength : DEFAULT_OTP_LENGTH;
+    }
+
+    /**
+     * Builds the mail server configuration when direct SMTP delivery is selected
+     */
+    private static SmtpConfig buildSmtpConfig(Map<String, String> properties, int connectTimeout, int readTimeout) {
+        if (!EMAIL_TRANSPORT_SMTP.equalsIgnoreCase(properties.get(EMAIL_TRANSPORT)) ||
+                StringUtils.isBlank(properties.get(SMTP_HOST))) {
+            return null;
+        }
+        SmtpConfig.Security security = SmtpConfig.Security.STARTTLS;
+        String configuredSecurity = properties.get(SMTP_SECURITY);
+        if (StringUtils.isNotBlank(configuredSecurity)) {
+            try {
+                security = SmtpConfig.Security.valueOf(configuredSecurity.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // keep STARTTLS, never fall back to plain text because of a typo
+            }
+        }
+        int port = parseTimeout(properties.get(SMTP_PORT));
+        if (port == 0) {
+            port = security == SmtpConfig.Security.TLS ? 465 : SmtpConfig.DEFAULT_PORT;
+        }
+        SmtpConfig smtpConfig = new SmtpConfig(properties.get(SMTP_HOST).trim(), port, security,
+                StringUtils.trimToNull(properties.get(SMTP_USERNAME)), properties.get(SMTP_PASSWORD),
+                StringUtils.trim(properties.get(SMTP_FROM)));
+        if (connectTimeout > 0) {
+            smtpConfig.setConnectTimeoutMillis(connectTimeout);
+        }
+        if (readTimeout > 0) {
+            smtpConfig.setReadTimeoutMillis(readTimeout);
+        }
+        return smtpConfig;
+    }
+
+    /**
+     * Builds the OTP send rate limits, a blank or invalid property keeps its default and 0 disables a dimension
+     */
+    private static RateLimitConfig buildRateLimitConfig(Map<String, String> properties) {
+        RateLimitConfig rateLimitConfig = new RateLimitConfig();
+        rateLimitConfig.setWindowMillis(parseLimit(properties.get(SMSOTPConstants.OTP_RATE_LIMIT_WINDOW),
+                (int) (RateLimitConfig.DEFAULT_WINDOW_MILLIS / 1000)) * 1000L);
+        rateLimitConfig.setMaxPerUser(parseLimit(properties.get(SMSOTPConstants.OTP_RATE_LIMIT_PER_USER),
+                RateLimitConfig.DEFAULT_MAX_PER_USER));
+        rateLimitConfig.setMaxPerRecipient(parseLimit(properties.get(SMSOTPConstants.OTP_RATE_LIMIT_PER_RECIPIENT),
+                RateLimitConfig.DEFAULT_MAX_PER_RECIPIENT));
+        rateLimitConfig.setMaxPerClientIp(parseLimit(properties.get(SMSOTPConstants.OTP_RATE_LIMIT_PER_CLIENT_IP),
+                RateLimitConfig.DEFAULT_MAX_PER_CLIENT_IP));
+        return rateLimitConfig;
+    }
+
+    /**
+     * Builds the failed attempt limits, a blank or invalid property keeps its default and 0 disables a limit
+     */
+    private static LockoutConfig buildLockoutConfig(Map<String, String> properties) {
+        LockoutConfig lockoutConfig = new LockoutConfig();
+        lockoutConfig.setMaxSessionAttempts(parseLimit(properties.get(SMSOTPConstants.OTP_MAX_SESSION_ATTEMPTS),
+                LockoutConfig.DEFAULT_MAX_SESSION_ATTEMPTS));
+        lockoutConfig.setMaxUserAttempts(parseLimit(properties.get(SMSOTPConstants.OTP_MAX_USER_ATTEMPTS),
+                LockoutConfig.DEFAULT_MAX_USER_ATTEMPTS));
+        lockoutConfig.setLockoutMillis(parseLimit(properties.get(SMSOTPConstants.OTP_LOCKOUT_TIME),
+                (int) (LockoutConfig.DEFAULT_LOCKOUT_MILLIS / 1000)) * 1000L);
+        lockoutConfig.setMaxLockoutMillis(parseLimit(properties.get(SMSOTPConstants.OTP_MAX_LOCKOUT_TIME),
+                (int) (LockoutConfig.DEFAULT_MAX_LOCKOUT_MILLIS / 1000)) * 1000L);
+        return lockoutConfig;
+    }
+
+    private static int parseLimit(String limit, int defaultLimit) {
+        if (StringUtils.isBlank(limit)) {
+            return defaultLimit;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(limit.trim()));
+        } catch (NumberFormatException e) {
+            return defaultLimit;
+        }
+    }
+
+    private static List<String> parseGatewayUrls(String gatewayUrls) {
+        if (StringUtils.isBlank(gatewayUrls)) {
+            return Collections.emptyList();
+        }
+        List<String> urls = new ArrayList<>();
+        for (String url : gatewayUrls.split("[,\\s]+")) {
+            if (StringUtils.isNotBlank(url)) {
+                urls.add(url.trim());
+            }
+        }
+        return Collections.unmodifiableList(urls);
+    }
+
+    private static int parseTimeout(String timeoutMillis) {
+        if (StringUtils.isBlank(timeoutMillis)) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(timeoutMillis.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int parseConfiguredOtpLength(String otpDigit) {
+        if (StringUtils.isBlank(otpDigit)) {
+            return 0;
+        }
+        try {
+            int length = Integer.parseInt(otpDigit.trim());
+            return length > 0 && length <= MAX_CONFIGURED_OTP_LENGTH ? length : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
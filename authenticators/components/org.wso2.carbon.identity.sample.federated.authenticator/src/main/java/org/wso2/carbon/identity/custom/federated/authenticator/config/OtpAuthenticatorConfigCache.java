@@ -0,0 +1,111 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.BoundedTtlCache;
+
+import java.util.Map;
+
+/**
+ * Cache of OTP authenticator configuration snapshots keyed by tenant, identity provider and configuration hash
+ *
+ * A lookup compares the cached snapshot with the authenticator properties of the context, so a changed
+ * identity provider configuration builds a new snapshot and drops the stale one.
+ */
+public class OtpAuthenticatorConfigCache {
+
+    private static final Log log = LogFactory.getLog(OtpAuthenticatorConfigCache.class);
+
+    private static final int MAX_ENTRIES = 1000;
+    private static final long TTL_MILLIS = 60 * 60 * 1000L;
+    private static final String KEY_SEPARATOR = "|";
+    private static final String DEFAULT_IDP = "default";
+
+    private static volatile OtpAuthenticatorConfigCache defaultInstance;
+
+    private final BoundedTtlCache<String, OtpAuthenticatorConfig> snapshots;
+
+    public OtpAuthenticatorConfigCache(int maxEntries, long ttlMillis) {
+        this.snapshots = new BoundedTtlCache<>(maxEntries, ttlMillis);
+    }
+
+    /**
+     * Returns the process wide configuration cache shared by the OTP authenticators
+     */
+    public static OtpAuthenticatorConfigCache getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OtpAuthenticatorConfigCache.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OtpAuthenticatorConfigCache(MAX_ENTRIES, TTL_MILLIS);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Returns the configuration snapshot for the identity provider of the given context
+     *
+     * @param context Authentication context
+     * @return Configuration snapshot
+     */
+    public OtpAuthenticatorConfig get(AuthenticationContext context) {
+        String tenantDomain = context.getTenantDomain();
+        String idpName = getIdpName(context);
+        Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
+        int configHash = authenticatorProperties != null ? authenticatorProperties.hashCode() : 0;
+        String key = buildKey(tenantDomain, idpName) + configHash;
+
+        OtpAuthenticatorConfig config = snapshots.get(key);
+        if (config != null && config.matches(authenticatorProperties)) {
+            return config;
+        }
+
+        // Drop snapshots built from an earlier configuration of this identity provider
+        invalidate(tenantDomain, idpName);
+        config = OtpAuthenticatorConfig.build(tenantDomain, idpName, authenticatorProperties);
+        snapshots.put(key, config);
+        if (log.isDebugEnabled()) {
+            log.debug("Built OTP authenticator configuration snapshot for IdP: " + idpName + " in tenant: " +
+                    tenantDomain);
+        }
+        return config;
+    }
+
+    /**
+     * Drops the cached snapshots of an identity provider
+     *
+     * @param tenantDomain Tenant domain
+     * @param idpName Identity provider name
+     */
+    public void invalidate(String tenantDomain, String idpName) {
+        final String prefix = buildKey(tenantDomain, idpName);
+        snapshots.removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Drops the cached snapshots of every identity provider of a tenant
+     *
+     * @param tenantDomain Tenant domain
+     */
+    public void invalidateTenant(String tenantDomain) {
+        final String prefix = tenantDomain + KEY_SEPARATOR;
+        snapshots.removeIf(key -> key.startsWith(prefix));
+    }
+
+    public void clear() {
+        snapshots.clear();
+    }
+
+    private static String getIdpName(AuthenticationContext context) {
+        if (context.getExternalIdP() != null && context.getExternalIdP().getIdPName() != null) {
+            return context.getExternalIdP().getIdPName();
+        }
+        return DEFAULT_IDP;
+    }
+
+    private static String buildKey(String tenantDomain, String idpName) {
+        return tenantDomain + KEY_SEPARATOR + idpName + KEY_SEPARATOR;
+    }
+}
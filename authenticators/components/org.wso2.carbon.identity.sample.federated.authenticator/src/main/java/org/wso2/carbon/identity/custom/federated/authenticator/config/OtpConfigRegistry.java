@@ -0,0 +1,286 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.config;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.base.MultitenantConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the SMS OTP parameters with per tenant overlays
+ *
+ * Parameters come from layered sources, built in defaults, a watched local file, OSGi ConfigurationAdmin and
+ * runtime updates, a later source overriding an earlier one. A key of the form tenant.[domain].[name] overlays
+ * the parameter for that tenant only. Every update merges the sources into a new immutable snapshot published
+ * through a volatile reference, so readers never lock and always see one consistent configuration.
+ */
+public class OtpConfigRegistry {
+
+    private static final Log log = LogFactory.getLog(OtpConfigRegistry.class);
+
+    public static final String SOURCE_DEFAULTS = "defaults";
+    public static final String SOURCE_FILE = "file";
+    public static final String SOURCE_CONFIG_ADMIN = "configAdmin";
+    public static final String SOURCE_RUNTIME = "runtime";
+    public static final String TENANT_PREFIX = "tenant.";
+    public static final String CONFIG_FILE_NAME = "smsotp.properties";
+    public static final long DEFAULT_WATCH_INTERVAL_MILLIS = 10000L;
+
+    private static volatile OtpConfigRegistry defaultInstance;
+
+    // Sources in ascending precedence, each replaced as a whole under the registry monitor
+    private final Map<String, Map<String, String>> sources = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot;
+
+    private ScheduledExecutorService watcher;
+    private long watchedLastModified;
+    private long watchedLength;
+
+    public OtpConfigRegistry() {
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put(SMSOTPConstants.IS_SMSOTP_MANDATORY, "false");
+        sources.put(SOURCE_DEFAULTS, defaults);
+        sources.put(SOURCE_FILE, Collections.<String, String>emptyMap());
+        sources.put(SOURCE_CONFIG_ADMIN, Collections.<String, String>emptyMap());
+        sources.put(SOURCE_RUNTIME, Collections.<String, String>emptyMap());
+        this.snapshot = build();
+    }
+
+    /**
+     * Returns the process wide configuration registry shared by the OTP authenticators
+     */
+    public static OtpConfigRegistry getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OtpConfigRegistry.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OtpConfigRegistry();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Returns the parameters that apply to a tenant
+     *
+     * A tenant with an overlay always gets its own parameters. Other tenants get the global parameters only when
+     * they are the super tenant or the flow asks for registry properties, matching the earlier lookup rules.
+     *
+     * @param tenantDomain Tenant domain of the authentication
+     * @param fromRegistry True if the authentication context asks for registry properties
+     * @return Parameters of the tenant, empty if none apply
+     */
+    public OtpParameters getParameters(String tenantDomain, boolean fromRegistry) {
+        Snapshot current = snapshot;
+        OtpParameters parameters = tenantDomain != null ? current.tenants.get(tenantDomain) : null;
+        if (parameters != null) {
+            return parameters;
+        }
+        if (fromRegistry || MultitenantConstants.SUPER_TENANT_DOMAIN_NAME.equals(tenantDomain)) {
+            return current.global;
+        }
+        return OtpParameters.EMPTY;
+    }
+
+    /**
+     * @return Global parameters without any tenant overlay
+     */
+    public OtpParameters getGlobalParameters() {
+        return snapshot.global;
+    }
+
+    /**
+     * Replaces every parameter of a source and publishes the new configuration
+     *
+     * @param source Source name, one of the SOURCE constants
+     * @param properties Parameters of the source, tenant overlays prefixed with tenant.[domain].
+     */
+    public synchronized void update(String source, Map<String, String> properties) {
+        if (!sources.containsKey(source)) {
+            throw new IllegalArgumentException("Unknown OTP configuration source: " + source);
+        }
+        Map<String, String> copy = new HashMap<>();
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    copy.put(entry.getKey().trim(), entry.getValue().trim());
+                }
+            }
+        }
+        sources.put(source, Collections.unmodifiableMap(copy));
+        snapshot = build();
+        if (log.isDebugEnabled()) {
+            log.debug("Reloaded OTP configuration from source " + source + " with " + copy.size() + " parameters");
+        }
+        notifyListeners(snapshot.global);
+    }
+
+    /**
+     * Registers a listener called with the global parameters now and after every reload
+     *
+     * @param listener Listener, called under the registry monitor so it must not block
+     */
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+        listener.configurationChanged(snapshot.global);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyListeners(OtpParameters global) {
+        for (Listener listener : listeners) {
+            try {
+                listener.configurationChanged(global);
+            } catch (RuntimeException e) {
+                log.error("Error while applying the reloaded OTP configuration", e);
+            }
+        }
+    }
+
+    /**
+     * Sets a single runtime parameter, kept until the runtime source is replaced
+     *
+     * @param name Parameter name, prefixed with tenant.[domain]. for a tenant overlay
+     * @param value Parameter value, null removes the runtime value
+     */
+    public synchronized void set(String name, String value) {
+        Map<String, String> runtime = new HashMap<>(sources.get(SOURCE_RUNTIME));
+        if (value != null) {
+            runtime.put(name, value);
+        } else {
+            runtime.remove(name);
+        }
+        update(SOURCE_RUNTIME, runtime);
+    }
+
+    /**
+     * Loads the file source now and reloads it whenever the file changes
+     *
+     * @param file Properties file, it may be created later
+     * @param intervalMillis Interval between checks of the file
+     */
+    public synchronized void watch(final File file, long intervalMillis) {
+        stopWatching();
+        watchedLastModified = -1L;
+        watchedLength = -1L;
+        reloadIfChanged(file);
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "otp-config-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> reloadIfChanged(file), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+        if (log.isDebugEnabled()) {
+            log.debug("Watching OTP configuration file " + file.getAbsolutePath());
+        }
+    }
+
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    /**
+     * @return The smsotp.properties file in the identity configuration directory of the server
+     */
+    public static File getDefaultConfigFile() {
+        String configDir = System.getProperty("carbon.config.dir.path");
+        if (configDir == null) {
+            configDir = System.getProperty("carbon.home", ".") + File.separator + "repository" + File.separator +
+                    "conf";
+        }
+        return new File(configDir + File.separator + "identity", CONFIG_FILE_NAME);
+    }
+
+    private synchronized void reloadIfChanged(File file) {
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (lastModified == watchedLastModified && length == watchedLength) {
+            return;
+        }
+        Map<String, String> properties = new HashMap<>();
+        if (file.isFile()) {
+            Properties loaded = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                loaded.load(in);
+            } catch (IOException e) {
+                // Keep serving the previous configuration, the file is retried on its next change
+                log.warn("Error while loading the OTP configuration file " + file.getAbsolutePath(), e);
+                return;
+            }
+            for (String name : loaded.stringPropertyNames()) {
+                properties.put(name, loaded.getProperty(name));
+            }
+        }
+        watchedLastModified = lastModified;
+        watchedLength = length;
+        update(SOURCE_FILE, properties);
+    }
+
+    private Snapshot build() {
+        Map<String, String> global = new HashMap<>();
+        Map<String, Map<String, String>> overlays = new HashMap<>();
+        for (Map<String, String> source : sources.values()) {
+            for (Map.Entry<String, String> entry : source.entrySet()) {
+                String name = entry.getKey();
+                // Tenant domains contain dots while parameter names do not, so the name follows the last dot
+                int separator = name.startsWith(TENANT_PREFIX) ? name.lastIndexOf('.') : -1;
+                if (separator > TENANT_PREFIX.length() && separator < name.length() - 1) {
+                    overlays.computeIfAbsent(name.substring(TENANT_PREFIX.length(), separator), k -> new HashMap<>())
+                            .put(name.substring(separator + 1), entry.getValue());
+                } else {
+                    global.put(name, entry.getValue());
+                }
+            }
+        }
+        Map<String, OtpParameters> tenants = new HashMap<>();
+        for (Map.Entry<String, Map<String, String>> overlay : overlays.entrySet()) {
+            Map<String, String> merged = new HashMap<>(global);
+            merged.putAll(overlay.getValue());
+            tenants.put(overlay.getKey(), new OtpParameters(merged));
+        }
+        return new Snapshot(new OtpParameters(global), tenants);
+    }
+
+    /**
+     * Receives the global parameters whenever the configuration is reloaded
+     */
+    public interface Listener {
+
+        void configurationChanged(OtpParameters globalParameters);
+    }
+
+    /**
+     * Immutable configuration published to readers
+     */
+    private static final class Snapshot {
+
+        private final OtpParameters global;
+        private final Map<String, OtpParameters> tenants;
+
+        Snapshot(OtpParameters global, Map<String, OtpParameters> tenants) {
+            this.global = global;
+            this.tenants = tenants;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.config;
+
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable view of the OTP parameters of one tenant, the global parameters with the tenant overlay applied
+ *
+ * The parameters read on every login are parsed once when the view is built, so reading one is a field read.
+ * A null value means the parameter is not configured and the caller falls back to the context property.
+ */
+public final class OtpParameters {
+
+    static final OtpParameters EMPTY = new OtpParameters(Collections.<String, String>emptyMap());
+
+    private final Map<String, String> values;
+
+    private final Boolean smsOtpMandatory;
+    private final Boolean smsOtpEnableByUser;
+    private final Boolean resendEnabled;
+    private final Boolean retryEnabled;
+    private final Boolean asyncDispatch;
+    private final Boolean tokenPool;
+    private final Boolean sendOtpDirectlyToMobile;
+    private final Boolean sendOtpToFederatedMobile;
+    private final Boolean alphanumericToken;
+    private final Boolean mobileNumberUpdate;
+    private final String errorPage;
+    private final String loginPage;
+    private final String mobileNumberRequestPage;
+    private final String screenUserAttribute;
+    private final String noOfDigits;
+    private final String tokenLength;
+    private final String tokenExpiryTime;
+    private final String digitsOrder;
+
+    OtpParameters(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        this.smsOtpMandatory = toBoolean(SMSOTPConstants.IS_SMSOTP_MANDATORY);
+        this.smsOtpEnableByUser = toBoolean(SMSOTPConstants.IS_SMSOTP_ENABLE_BY_USER);
+        this.resendEnabled = toBoolean(SMSOTPConstants.IS_ENABLED_RESEND);
+        this.retryEnabled = toBoolean(SMSOTPConstants.IS_ENABLED_RETRY);
+        this.asyncDispatch = toBoolean(SMSOTPConstants.IS_ASYNC_DISPATCH);
+        this.tokenPool = toBoolean(SMSOTPConstants.IS_TOKEN_POOL);
+        this.sendOtpDirectlyToMobile = toBoolean(SMSOTPConstants.IS_SEND_OTP_DIRECTLY_TO_MOBILE);
+        this.sendOtpToFederatedMobile = toBoolean(SMSOTPConstants.IS_SEND_OTP_TO_FEDERATED_MOBILE);
+        this.alphanumericToken = toBoolean(SMSOTPConstants.IS_ENABLE_ALPHANUMERIC_TOKEN);
+        this.mobileNumberUpdate = toBoolean(SMSOTPConstants.IS_ENABLE_MOBILE_NO_UPDATE);
+        this.errorPage = this.values.get(SMSOTPConstants.SMSOTP_AUTHENTICATION_ERROR_PAGE_URL);
+        this.loginPage = this.values.get(SMSOTPConstants.SMSOTP_AUTHENTICATION_ENDPOINT_URL);
+        this.mobileNumberRequestPage = this.values.get(SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE);
+        this.screenUserAttribute = this.values.get(SMSOTPConstants.SCREEN_USER_ATTRIBUTE);
+        this.noOfDigits = this.values.get(SMSOTPConstants.NO_DIGITS);
+        this.tokenLength = this.values.get(SMSOTPConstants.TOKEN_LENGTH);
+        this.tokenExpiryTime = this.values.get(SMSOTPConstants.TOKEN_EXPIRY_TIME);
+        this.digitsOrder = this.values.get(SMSOTPConstants.ORDER);
+    }
+
+    private Boolean toBoolean(String name) {
+        String value = values.get(name);
+        return value != null ? Boolean.valueOf(value) : null;
+    }
+
+    /**
+     * @return Value of the parameter, or null if it is not configured
+     */
+    public String get(String name) {
+        return values.get(name);
+    }
+
+    public boolean contains(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * @return Unmodifiable map of every configured parameter
+     */
+    public Map<String, String> asMap() {
+        return values;
+    }
+
+    // Getters
+    public Boolean getSmsOtpMandatory() { return smsOtpMandatory; }
+    public Boolean getSmsOtpEnableByUser() { return smsOtpEnableByUser; }
+    public Boolean getResendEnabled() { return resendEnabled; }
+    public Boolean getRetryEnabled() { return retryEnabled; }
+    public Boolean getAsyncDispatch() { return asyncDispatch; }
+    public Boolean getTokenPool() { return tokenPool; }
+    public Boolean getSendOtpDirectlyToMobile() { return sendOtpDirectlyToMobile; }
+    public Boolean getSendOtpToFederatedMobile() { return sendOtpToFederatedMobile; }
+    public Boolean getAlphanumericToken() { return alphanumericToken; }
+    public Boolean getMobileNumberUpdate() { return mobileNumberUpdate; }
+    public String getErrorPage() { return errorPage; }
+    public String getLoginPage() { return loginPage; }
+    public String getMobileNumberRequestPage() { return mobileNumberRequestPage; }
+    public String getScreenUserAttribute() { return screenUserAttribute; }
+    public String getNoOfDigits() { return noOfDigits; }
+    public String getTokenLength() { return tokenLength; }
+    public String getTokenExpiryTime() { return tokenExpiryTime; }
+    public String getDigitsOrder() { return digitsOrder; }
+}
@@ -0,0 +1,141 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.config;
+
+import org.apache.commons.lang.StringUtils;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * OTP settings of one authentication step, resolved once from the configuration registry, the context
+ * properties and the authenticator properties and kept in the authentication context for the rest of the step
+ *
+ * A registry parameter takes precedence over the context property of the same name. The asynchronous dispatch
+ * and token pool switches configured on the identity provider take precedence over both.
+ */
+public final class OtpStepSettings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int step;
+    // Not serialized, a settings object restored from a persisted context is resolved again
+    private final transient OtpParameters source;
+
+    private final boolean smsOtpMandatory;
+    private final boolean smsOtpEnableByUser;
+    private final boolean resendEnabled;
+    private final boolean retryEnabled;
+    private final boolean asyncDispatch;
+    private final boolean tokenPool;
+    private final boolean sendOtpDirectlyToMobile;
+    private final boolean sendOtpToFederatedMobile;
+    private final boolean alphanumericToken;
+    private final boolean mobileNumberUpdate;
+    private final String errorPage;
+    private final String loginPage;
+    private final String mobileNumberRequestPage;
+    private final String screenUserAttribute;
+    private final String noOfDigits;
+    private final String tokenLength;
+    private final String tokenExpiryTime;
+    private final String digitsOrder;
+
+    private OtpStepSettings(AuthenticationContext context, OtpParameters parameters) {
+        this.step = context.getCurrentStep();
+        this.source = parameters;
+        this.smsOtpMandatory = resolve(context, parameters.getSmsOtpMandatory(),
+                SMSOTPConstants.IS_SMSOTP_MANDATORY);
+        this.smsOtpEnableByUser = resolve(context, parameters.getSmsOtpEnableByUser(),
+                SMSOTPConstants.IS_SMSOTP_ENABLE_BY_USER);
+        this.resendEnabled = resolve(context, parameters.getResendEnabled(), SMSOTPConstants.IS_ENABLED_RESEND);
+        this.retryEnabled = resolve(context, parameters.getRetryEnabled(), SMSOTPConstants.IS_ENABLED_RETRY);
+        this.asyncDispatch = resolveAuthenticatorProperty(context, parameters.getAsyncDispatch(),
+                SMSOTPConstants.IS_ASYNC_DISPATCH);
+        this.tokenPool = resolveAuthenticatorProperty(context, parameters.getTokenPool(),
+                SMSOTPConstants.IS_TOKEN_POOL);
+        this.sendOtpDirectlyToMobile = resolve(context, parameters.getSendOtpDirectlyToMobile(),
+                SMSOTPConstants.IS_SEND_OTP_DIRECTLY_TO_MOBILE);
+        this.sendOtpToFederatedMobile = resolve(context, parameters.getSendOtpToFederatedMobile(),
+                SMSOTPConstants.IS_SEND_OTP_TO_FEDERATED_MOBILE);
+        this.alphanumericToken = resolve(context, parameters.getAlphanumericToken(),
+                SMSOTPConstants.IS_ENABLE_ALPHANUMERIC_TOKEN);
+        this.mobileNumberUpdate = resolve(context, parameters.getMobileNumberUpdate(),
+                SMSOTPConstants.IS_ENABLE_MOBILE_NO_UPDATE);
+        this.errorPage = resolve(context, parameters.getErrorPage(),
+                SMSOTPConstants.SMSOTP_AUTHENTICATION_ERROR_PAGE_URL);
+        this.loginPage = resolve(context, parameters.getLoginPage(),
+                SMSOTPConstants.SMSOTP_AUTHENTICATION_ENDPOINT_URL);
+        this.mobileNumberRequestPage = resolve(context, parameters.getMobileNumberRequestPage(),
+                SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE);
+        this.screenUserAttribute = resolve(context, parameters.getScreenUserAttribute(),
+                SMSOTPConstants.SCREEN_USER_ATTRIBUTE);
+        this.noOfDigits = resolve(context, parameters.getNoOfDigits(), SMSOTPConstants.NO_DIGITS);
+        this.tokenLength = resolve(context, parameters.getTokenLength(), SMSOTPConstants.TOKEN_LENGTH);
+        this.tokenExpiryTime = resolve(context, parameters.getTokenExpiryTime(), SMSOTPConstants.TOKEN_EXPIRY_TIME);
+        this.digitsOrder = resolve(context, parameters.getDigitsOrder(), SMSOTPConstants.ORDER);
+    }
+
+    /**
+     * Resolves the settings of the current step of the context
+     *
+     * @param context Authentication context
+     * @param parameters Registry parameters that apply to the tenant of the context
+     * @return Resolved settings
+     */
+    public static OtpStepSettings resolve(AuthenticationContext context, OtpParameters parameters) {
+        return new OtpStepSettings(context, parameters);
+    }
+
+    /**
+     * @return True if the settings were resolved for the given step from the given registry parameters
+     */
+    public boolean isCurrent(int currentStep, OtpParameters parameters) {
+        return step == currentStep && source == parameters;
+    }
+
+    private static boolean resolve(AuthenticationContext context, Boolean configured, String name) {
+        if (configured != null) {
+            return configured;
+        }
+        Object value = context.getProperty(name);
+        return value != null && Boolean.parseBoolean(String.valueOf(value));
+    }
+
+    private static String resolve(AuthenticationContext context, String configured, String name) {
+        if (configured != null) {
+            return configured;
+        }
+        Object value = context.getProperty(name);
+        return value != null ? String.valueOf(value) : null;
+    }
+
+    private static boolean resolveAuthenticatorProperty(AuthenticationContext context, Boolean configured,
+                                                        String name) {
+        Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
+        if (authenticatorProperties != null && StringUtils.isNotEmpty(authenticatorProperties.get(name))) {
+            return Boolean.parseBoolean(authenticatorProperties.get(name));
+        }
+        return resolve(context, configured, name);
+    }
+
+    // Getters
+    public boolean isSMSOTPMandatory() { return smsOtpMandatory; }
+    public boolean isSMSOTPEnableOrDisableByUser() { return smsOtpEnableByUser; }
+    public boolean isResendEnabled() { return resendEnabled; }
+    public boolean isRetryEnabled() { return retryEnabled; }
+    public boolean isAsyncDispatchEnabled() { return asyncDispatch; }
+    public boolean isTokenPoolEnabled() { return tokenPool; }
+    public boolean isSendOTPDirectlyToMobile() { return sendOtpDirectlyToMobile; }
+    public boolean isSendOtpToFederatedMobile() { return sendOtpToFederatedMobile; }
+    public boolean isAlphanumericToken() { return alphanumericToken; }
+    public boolean isMobileNumberUpdate() { return mobileNumberUpdate; }
+    public String getErrorPage() { return errorPage; }
+    public String getLoginPage() { return loginPage; }
+    public String getMobileNumberRequestPage() { return mobileNumberRequestPage; }
+    public String getScreenUserAttribute() { return screenUserAttribute; }
+    public String getNoOfDigits() { return noOfDigits; }
+    public String getTokenLength() { return tokenLength; }
+    public String getTokenExpiryTime() { return tokenExpiryTime; }
+    public String getDigitsOrder() { return digitsOrder; }
+}
@@ -0,0 +1,75 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.dispatch;
+
+import java.io.Serializable;
+
+/**
+ * Delivery state of an OTP handed to the asynchronous dispatcher
+ */
+public class DeliveryStatus implements Serializable {
+
+    private static final long serialVersionUID = -2918272377035402126L;
+
+    /**
+     * Delivery states
+     */
+    public enum State {
+        PENDING, SENT, FAILED
+    }
+
+    private final State state;
+    private final String message;
+    private final long dispatchId;
+    private final long timestamp;
+    private final boolean gatewayUnavailable;
+
+    public DeliveryStatus(State state, String message, long dispatchId) {
+        this(state, message, dispatchId, false);
+    }
+
+    public DeliveryStatus(State state, String message, long dispatchId, boolean gatewayUnavailable) {
+        this.state = state;
+        this.message = message;
+        this.dispatchId = dispatchId;
+        this.timestamp = System.currentTimeMillis();
+        this.gatewayUnavailable = gatewayUnavailable;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return Identifier of the dispatch that produced this status
+     */
+    public long getDispatchId() {
+        return dispatchId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean isFailed() {
+        return state == State.FAILED;
+    }
+
+    /**
+     * @return True if the delivery failed because every gateway was rejected by its circuit breaker or bulkhead
+     */
+    public boolean isGatewayUnavailable() {
+        return gatewayUnavailable;
+    }
+
+    @Override
+    public String toString() {
+        return "DeliveryStatus{" +
+                "state=" + state +
+                ", message='" + message + '\'' +
+                ", dispatchId=" + dispatchId +
+                '}';
+    }
+}
@@ -0,0 +1,245 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.dispatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayUnavailableException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous OTP dispatcher
+ *
+ * Send jobs are queued on a bounded in-memory queue and drained by a dedicated executor, so the
+ * authentication request thread can redirect the user to the OTP page without waiting for the gateway.
+ * Virtual threads are used for the workers when the runtime provides them. The outcome of every job is
+ * recorded against the authentication context identifier and can be polled with {@link #getDeliveryStatus}.
+ */
+public class OTPDispatcher {
+
+    private static final Log log = LogFactory.getLog(OTPDispatcher.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    public static final int DEFAULT_PLATFORM_WORKERS = 8;
+    public static final int DEFAULT_VIRTUAL_WORKERS = 64;
+    public static final long STATUS_RETENTION_MILLIS = 15 * 60 * 1000L;
+
+    private static volatile OTPDispatcher defaultInstance;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, DeliveryStatus> statuses = new ConcurrentHashMap<>();
+    private final AtomicLong dispatchSequence = new AtomicLong();
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Job delivering a single OTP
+     */
+    public interface DeliveryTask {
+
+        /**
+         * Delivers the OTP
+         *
+         * @return Outcome of the delivery
+         * @throws Exception If the delivery fails
+         */
+        DeliveryResult deliver() throws Exception;
+    }
+
+    /**
+     * Outcome of a delivery task
+     */
+    public static class DeliveryResult {
+
+        private final boolean success;
+        private final String message;
+
+        public DeliveryResult(boolean success, String message) {
+            this.success = success;
+            this.message = message;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    public OTPDispatcher(int queueCapacity) {
+        ThreadFactory virtualThreadFactory = createVirtualThreadFactory();
+        int workers = virtualThreadFactory != null ? DEFAULT_VIRTUAL_WORKERS : DEFAULT_PLATFORM_WORKERS;
+        ThreadFactory threadFactory = virtualThreadFactory != null ? virtualThreadFactory : createPlatformThreadFactory();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        if (log.isDebugEnabled()) {
+            log.debug("OTP dispatcher started with " + workers + (virtualThreadFactory != null ? " virtual" :
+                    " platform") + " workers and queue capacity " + queueCapacity);
+        }
+    }
+
+    /**
+     * Returns the process wide dispatcher shared by the OTP authenticators
+     */
+    public static OTPDispatcher getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OTPDispatcher.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OTPDispatcher(DEFAULT_QUEUE_CAPACITY);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Stops the process wide dispatcher after its queued deliveries, the next getDefault call starts a new one
+     */
+    public static void shutdownDefault() {
+        OTPDispatcher dispatcher;
+        synchronized (OTPDispatcher.class) {
+            dispatcher = defaultInstance;
+            defaultInstance = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Queues a delivery job for the given authentication context
+     *
+     * @param contextIdentifier Authentication context identifier the status is recorded against
+     * @param task Delivery job
+     * @return True if the job was queued, false if the queue is full and the caller should send inline
+     */
+    public boolean submit(String contextIdentifier, DeliveryTask task) {
+        sweepExpiredStatuses();
+        long dispatchId = dispatchSequence.incrementAndGet();
+        statuses.put(contextIdentifier, new DeliveryStatus(DeliveryStatus.State.PENDING, null, dispatchId));
+        try {
+            executor.execute(() -> {
+                DeliveryStatus status;
+                try {
+                    DeliveryResult result = task.deliver();
+                    status = new DeliveryStatus(result.isSuccess() ? DeliveryStatus.State.SENT :
+                            DeliveryStatus.State.FAILED, result.getMessage(), dispatchId);
+                } catch (GatewayUnavailableException e) {
+                    // Not an error of the delivery itself, the authenticator offers another channel instead
+                    if (log.isDebugEnabled()) {
+                        log.debug("Asynchronous OTP delivery rejected for context: " + contextIdentifier + ", " +
+                                e.getMessage());
+                    }
+                    status = new DeliveryStatus(DeliveryStatus.State.FAILED, e.getMessage(), dispatchId, true);
+                } catch (Exception e) {
+                    log.error("Asynchronous OTP delivery failed for context: " + contextIdentifier, e);
+                    status = new DeliveryStatus(DeliveryStatus.State.FAILED, e.getMessage(), dispatchId);
+                }
+                recordStatus(contextIdentifier, status);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("OTP dispatch queue is full, falling back to synchronous delivery");
+            statuses.remove(contextIdentifier);
+            return false;
+        }
+    }
+
+    /**
+     * Returns the delivery status recorded for the given authentication context
+     *
+     * @param contextIdentifier Authentication context identifier
+     * @return Delivery status or null if nothing was dispatched asynchronously
+     */
+    public DeliveryStatus getDeliveryStatus(String contextIdentifier) {
+        if (contextIdentifier == null) {
+            return null;
+        }
+        return statuses.get(contextIdentifier);
+    }
+
+    /**
+     * Forgets the delivery status of the given authentication context
+     */
+    public void clearDeliveryStatus(String contextIdentifier) {
+        if (contextIdentifier != null) {
+            statuses.remove(contextIdentifier);
+        }
+    }
+
+    /**
+     * @return Number of jobs waiting in the queue
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting jobs and waits briefly for queued deliveries to complete
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        statuses.clear();
+    }
+
+    private void recordStatus(String contextIdentifier, DeliveryStatus status) {
+        // Only the latest dispatch of a context may update its status, a late result of an earlier send is dropped
+        statuses.computeIfPresent(contextIdentifier, (key, current) ->
+                current.getDispatchId() == status.getDispatchId() ? status : current);
+    }
+
+    private void sweepExpiredStatuses() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < STATUS_RETENTION_MILLIS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        Iterator<DeliveryStatus> iterator = statuses.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getTimestamp() > STATUS_RETENTION_MILLIS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Creates a virtual thread factory through reflection so the bundle still runs on Java 8
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "otp-dispatch-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory createPlatformThreadFactory() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "otp-dispatch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
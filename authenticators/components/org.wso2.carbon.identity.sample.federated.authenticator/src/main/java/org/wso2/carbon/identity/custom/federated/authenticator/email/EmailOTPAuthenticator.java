@@ -6,24 +6,35 @@ import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
 import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
 import org.wso2.carbon.identity.application.authentication.framework.model.AuthenticatedUser;
+import org.wso2.carbon.identity.custom.federated.authenticator.audit.OTPAuditEvent;
+import org.wso2.carbon.identity.custom.federated.authenticator.audit.OTPAuditLogger;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfigCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.dispatch.DeliveryStatus;
+import org.wso2.carbon.identity.custom.federated.authenticator.dispatch.OTPDispatcher;
 import org.wso2.carbon.identity.custom.federated.authenticator.email.service.EmailService;
 import org.wso2.carbon.identity.custom.federated.authenticator.email.service.EmailService.EmailConfig;
 import org.wso2.carbon.identity.custom.federated.authenticator.email.service.EmailService.EmailResponse;
+import org.wso2.carbon.identity.custom.federated.authenticator.exception.SMSOTPException;
+import org.wso2.carbon.identity.custom.federated.authenticator.internal.CustomFederatedAuthenticatorDataHolder;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.OTPRateLimiter;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPDigest;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPSessionState;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService.OTPValidationResult;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.ValidationService;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.ValidationService.ValidationResult;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPUtils;
 import org.wso2.carbon.identity.custom.federated.authenticator.CustomFederatedAuthenticator;
-import org.wso2.carbon.user.api.UserRealm;
-import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Email OTP Authenticator for handling email-based OTP authentication
@@ -65,9 +76,28 @@ public class EmailOTPAuthenticator implements Serializable {
     private static final Log log = LogFactory.getLog(EmailOTPAuthenticator.class);
 
     // Service instances
-    private final OTPService otpService = new OTPService();
-    private final EmailService emailService = new EmailService();
-    private final ValidationService validationService = new ValidationService();
+    private final OTPService otpService;
+    private final EmailService emailService;
+    private final ValidationService validationService;
+
+    /**
+     * Creates the authenticator on top of the services shared by the bundle
+     */
+    public EmailOTPAuthenticator() {
+        this(CustomFederatedAuthenticatorDataHolder.getInstance().getOTPService(),
+                CustomFederatedAuthenticatorDataHolder.getInstance().getEmailService(),
+                CustomFederatedAuthenticatorDataHolder.getInstance().getValidationService());
+    }
+
+    /**
+     * Constructor with dependency injection
+     */
+    public EmailOTPAuthenticator(OTPService otpService, EmailService emailService,
+                                 ValidationService validationService) {
+        this.otpService = otpService;
+        this.emailService = emailService;
+        this.validationService = validationService;
+    }
 
     /**
      * Handles Email OTP authentication request
@@ -102,7 +132,9 @@ public class EmailOTPAuthenticator implements Serializable {
             
             // Store authenticated user in context for later validation
             context.setProperty(SMSOTPConstants.AUTHENTICATED_USER, authenticatedUser);
-            log.info("Set AuthenticatedUser in context for EMAIL OTP: " + authenticatedUser.getUserName());
+            if (log.isDebugEnabled()) {
+                log.debug("Set AuthenticatedUser in context for EMAIL OTP: " + authenticatedUser.getUserName());
+            }
 
             // Get user email address
             String emailAddress = getUserEmailAddress(request, response, context, username, tenantDomain, queryParams);
@@ -111,7 +143,7 @@ public class EmailOTPAuthenticator implements Serializable {
             }
 
             // Send Email OTP
-            sendEmailOTP(response, context, emailAddress, queryParams, username);
+            sendEmailOTP(request, response, context, emailAddress, queryParams, username);
 
         } catch (Exception e) {
             log.error("Error in Email OTP authentication: " + e.getMessage(), e);
@@ -129,6 +161,9 @@ public class EmailOTPAuthenticator implements Serializable {
             log.debug("Processing Email OTP response for session: " + context.getContextIdentifier());
         }
 
+        // Serialize submissions of the same session with the SMS authenticator, other sessions run in parallel
+        ReentrantLock sessionLock = SMSOTPUtils.getSessionLock(context);
+        sessionLock.lock();
         try {
             String userToken = request.getParameter(SMSOTPConstants.CODE);
             
@@ -140,18 +175,12 @@ public class EmailOTPAuthenticator implements Serializable {
             }
 
             // Get stored OTP information from context
-            String contextToken = (String) context.getProperty(SMSOTPConstants.OTP_TOKEN);
-            String actualOtpSent = (String) context.getProperty("CLIENT_OTP_VALIDATION");
+            // An OTP issued for a superseded OTP state is treated as expired
+            byte[] issuedOTP = OTPSessionState.isIssuedForCurrentVersion(context) ?
+                    OTPService.getIssuedOTPDigest(context) : null;
             Long sentTime = (Long) context.getProperty(SMSOTPConstants.SENT_OTP_TOKEN_TIME);
             Long validityPeriod = (Long) context.getProperty(SMSOTPConstants.TOKEN_VALIDITY_TIME);
             
-            log.info("Email OTP Validation Debug:");
-            log.info("  - User OTP from request: '" + userToken + "'");
-            log.info("  - Stored OTP in context: '" + contextToken + "'");
-            log.info("  - Actual OTP sent: '" + actualOtpSent + "'");
-            log.info("  - User OTP length: " + (userToken != null ? userToken.length() : "null"));
-            log.info("  - Stored OTP length: " + (contextToken != null ? contextToken.length() : "null"));
-            
             // Get authenticated user
             AuthenticatedUser authenticatedUser = (AuthenticatedUser) context.getProperty(SMSOTPConstants.AUTHENTICATED_USER);
             if (authenticatedUser == null) {
@@ -161,21 +190,42 @@ public class EmailOTPAuthenticator implements Serializable {
                 return;
             }
             
-            // Validate OTP using OTPService
-            OTPValidationResult validationResult = otpService.validateOTP(userToken, contextToken, sentTime, validityPeriod);
+            // Reject the attempt early if the asynchronously dispatched email never reached the provider
+            DeliveryStatus deliveryStatus = OTPDispatcher.getDefault().getDeliveryStatus(context.getContextIdentifier());
+            if (deliveryStatus != null) {
+                context.setProperty(SMSOTPConstants.OTP_DELIVERY_STATUS, deliveryStatus.getState().name());
+                if (deliveryStatus.isFailed()) {
+                    String errorMessage = "Failed to send Email OTP: " + deliveryStatus.getMessage() +
+                                        ". Please check your email configuration or try again later.";
+                    context.setProperty(SMSOTPConstants.ERROR_CODE, errorMessage);
+                    OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                            OTPAuditEvent.CHANNEL_EMAIL, context.getContextIdentifier())
+                            .with("user", authenticatedUser.getUserName())
+                            .withOutcome(false, deliveryStatus.getMessage()));
+                    handleOTPValidationFailure(response, context, errorMessage);
+                    return;
+                }
+            }
             
-            log.info("Email OTP Validation Result:");
-            log.info("  - Is Valid: " + validationResult.isValid());
-            log.info("  - Message: " + validationResult.getMessage());
+            // Validate OTP using OTPService
+            OTPValidationResult validationResult = otpService.validateOTP(context, authenticatedUser.getUserName(),
+                    userToken, issuedOTP, sentTime, validityPeriod);
+            OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_VALIDATION,
+                    OTPAuditEvent.CHANNEL_EMAIL, context.getContextIdentifier())
+                    .with("user", authenticatedUser.getUserName())
+                    .withOutcome(validationResult.isValid(), validationResult.getMessage())
+                    .withSecret("submittedOtp", userToken)
+                    .with("issuedOtpLength", OTPDigest.getTokenLength(issuedOTP))
+                    .with("sentTime", sentTime)
+                    .with("validityMins", validityPeriod));
             
             if (!validationResult.isValid()) {
-                log.warn("Email OTP Validation Failed: " + validationResult.getMessage());
                 handleOTPValidationFailure(response, context, validationResult.getMessage());
                 return;
             }
 
             // OTP validation successful
-            log.info("Email OTP Validation Successful for user: " + authenticatedUser.getUserName());
+            OTPDispatcher.getDefault().clearDeliveryStatus(context.getContextIdentifier());
             
             // Set authenticated user as subject
             context.setSubject(authenticatedUser);
@@ -188,6 +238,10 @@ public class EmailOTPAuthenticator implements Serializable {
             log.error("Error processing Email OTP response: " + e.getMessage(), e);
             String errorMessage = "Technical error occurred during Email OTP verification. Please try again.";
             throw new AuthenticationFailedException(errorMessage, e);
+        } finally {
+            // The step is over once the OTP is checked, keep the user claims out of the persisted session
+            SMSOTPUtils.clearOTPUserProfile(context);
+            sessionLock.unlock();
         }
     }
 
@@ -227,18 +281,13 @@ public class EmailOTPAuthenticator implements Serializable {
                                      String queryParams) throws AuthenticationFailedException {
         
         try {
-            UserRealm userRealm = SMSOTPUtils.getUserRealm(tenantDomain);
             String emailAddress = null;
-            
-            if (userRealm != null) {
-                try {
-                    // Get email from user store
-                    emailAddress = userRealm.getUserStoreManager()
-                        .getUserClaimValue(MultitenantUtils.getTenantAwareUsername(username), 
-                                         "http://wso2.org/claims/emailaddress", null);
-                } catch (UserStoreException e) {
-                    log.error("Error getting email address for user: " + username, e);
-                }
+            try {
+                // Get email from the OTP user profile of the step
+                emailAddress = SMSOTPUtils.getOTPUserProfile(tenantDomain,
+                        MultitenantUtils.getTenantAwareUsername(username), context).getEmailAddress();
+            } catch (SMSOTPException e) {
+                log.error("Error getting email address for user: " + username, e);
             }
             
             if (StringUtils.isEmpty(emailAddress)) {
@@ -268,28 +317,37 @@ public class EmailOTPAuthenticator implements Serializable {
     /**
      * Sends Email OTP to user
      */
-    private void sendEmailOTP(HttpServletResponse response, AuthenticationContext context, String emailAddress,
-                            String queryParams, String username) throws AuthenticationFailedException {
+    private void sendEmailOTP(HttpServletRequest request, HttpServletResponse response, AuthenticationContext context,
+                              String emailAddress, String queryParams, String username)
+            throws AuthenticationFailedException {
         
         try {
-            // Create Email configuration first to get payload information
-            java.util.Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
-            EmailConfig emailConfig = new EmailConfig(
-                    authenticatorProperties.get("EMAIL_URL"),
-                    authenticatorProperties.get("EMAIL_HTTP_METHOD"),
-                    authenticatorProperties.get("EMAIL_HEADERS"),
-                    authenticatorProperties.get("EMAIL_PAYLOAD"),
-                    authenticatorProperties.get("EMAIL_HTTP_RESPONSE")
-            );
-            
-            // Store Email payload in context so OTP service can read the otpDigit configuration
+            // Get the Email configuration from the cached configuration snapshot of the IdP
+            OtpAuthenticatorConfig config = OtpAuthenticatorConfigCache.getDefault().get(context);
+            EmailConfig emailConfig = config.getEmailConfig();
+
+            // Count the send, resends included, against the per user, per email address and per client IP limits
+            if (isRateLimited(request, response, context, config, emailAddress, queryParams, username)) {
+                return;
+            }
+            
+            // Store Email payload in context for the OTP page
             if (emailConfig.getPayload() != null && !emailConfig.getPayload().trim().isEmpty()) {
                 context.setProperty("EMAIL_PAYLOAD_CONFIG", emailConfig.getPayload());
-                log.info("Set EMAIL payload in context for OTP generation: " + emailConfig.getPayload());
             }
             
-            // Generate OTP (now it can read otpDigit from the payload)
-            String otpCode = otpService.generateOTP(context);
+            // Generate OTP with the length resolved when the configuration snapshot was built
+            long stateVersion = OTPSessionState.currentVersion(context);
+            String otpCode = otpService.generateOTP(context, config.getEmailOtpLength());
+
+            // Hand the email to the dispatcher and redirect right away when asynchronous delivery is enabled
+            if (SMSOTPUtils.isAsyncDispatchEnabled(context) && dispatchEmailOTP(context, emailAddress, otpCode, emailConfig)) {
+                otpService.storeOTPInContext(context, otpCode, otpCode, stateVersion);
+                storeEmailContextProperties(context, emailAddress, emailConfig);
+                recordOTPSent(context, username, otpCode, true);
+                redirectToOTPPage(response, context, queryParams, username, emailAddress);
+                return;
+            }
             
             // Send Email
             EmailResponse emailResponse = emailService.sendOTP(context, emailAddress, otpCode, emailConfig);
@@ -306,28 +364,9 @@ public class EmailOTPAuthenticator implements Serializable {
                 } else {
                     actualOtpSent = otpCode; // Use generated OTP if response OTP is empty
                 }
-                otpService.storeOTPInContext(context, otpCode, actualOtpSent);
-                
-                // Store Email payload for JSP (use same property name as SMS for compatibility)
-                if (StringUtils.isNotEmpty(emailConfig.getPayload())) {
-                    context.setProperty("SMS_PAYLOAD_CONFIG", emailConfig.getPayload()); // Use SMS property for compatibility
-                    context.setProperty("EMAIL_PAYLOAD_CONFIG", emailConfig.getPayload()); // Keep EMAIL property as well
-                }
-                
-                // Mark this as EMAIL OTP for context
-                context.setProperty("OTP_TYPE", "EMAIL");
-                
-                // Store additional context properties that JSP might need
-                context.setProperty("SCREEN_VALUE", maskEmailAddress(emailAddress));
-                context.setProperty("MOBILE_NUMBER", emailAddress); // Store actual email for reference
-                context.setProperty("OTP_CHANNEL", "EMAIL"); // Indicate this is email channel
-                
-                // Store email configuration for potential resend operations
-                context.setProperty("EMAIL_URL", emailConfig.getUrl());
-                context.setProperty("EMAIL_METHOD", emailConfig.getHttpMethod());
-                context.setProperty("EMAIL_HEADERS", emailConfig.getHeaders());
-                context.setProperty("EMAIL_PAYLOAD", emailConfig.getPayload());
-                context.setProperty("EMAIL_HTTP_RESPONSE", emailConfig.getExpectedResponse());
+                otpService.storeOTPInContext(context, otpCode, actualOtpSent, stateVersion);
+                storeEmailContextProperties(context, emailAddress, emailConfig);
+                recordOTPSent(context, username, otpCode, false);
                 
                 // Redirect to OTP input page
                 redirectToOTPPage(response, context, queryParams, username, emailAddress);
@@ -337,6 +376,10 @@ public class EmailOTPAuthenticator implements Serializable {
                 String errorMessage = "Failed to send Email OTP: " + emailResponse.getMessage() + 
                                     ". Please check your email configuration or try again later.";
                 context.setProperty(SMSOTPConstants.ERROR_CODE, errorMessage);
+                OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                        OTPAuditEvent.CHANNEL_EMAIL, context.getContextIdentifier())
+                        .with("user", username)
+                        .withOutcome(false, emailResponse.getMessage()));
                 redirectToErrorPage(response, context, queryParams, errorMessage);
             }
             
@@ -347,6 +390,93 @@ public class EmailOTPAuthenticator implements Serializable {
         }
     }
 
+    /**
+     * Counts the send against the OTP rate limits and shows the error page when it is denied
+     *
+     * @return true if the send was denied
+     */
+    private boolean isRateLimited(HttpServletRequest request, HttpServletResponse response,
+                                  AuthenticationContext context, OtpAuthenticatorConfig config, String emailAddress,
+                                  String queryParams, String username) throws AuthenticationFailedException {
+        OTPRateLimiter.Decision decision = OTPRateLimiter.getDefault().check(config.getRateLimitConfig(),
+                OTPAuditEvent.CHANNEL_EMAIL, context.getTenantDomain(), username, emailAddress,
+                IdentityUtil.getClientIpAddress(request));
+        if (decision.isAllowed()) {
+            return false;
+        }
+        OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                OTPAuditEvent.CHANNEL_EMAIL, context.getContextIdentifier())
+                .with("user", username)
+                .with("rateLimit", decision.getDimension())
+                .withOutcome(false, "Rate limited"));
+        redirectToErrorPage(response, context, queryParams,
+                String.format(SMSOTPConstants.RATE_LIMITED_MESSAGE, decision.getRetryAfterSeconds()));
+        return true;
+    }
+
+    /**
+     * Records the audit event of an issued Email OTP
+     */
+    private void recordOTPSent(AuthenticationContext context, String username, String otpCode, boolean async) {
+        OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SENT,
+                OTPAuditEvent.CHANNEL_EMAIL, context.getContextIdentifier())
+                .with("user", username)
+                .withOutcome(true, null)
+                .withSecret("otp", otpCode)
+                .with("async", async));
+    }
+
+    /**
+     * Queues the email on the asynchronous dispatcher
+     * The request is rendered here because the dispatcher thread must not read the authentication context
+     *
+     * @return true if the email was queued, false if the queue is full and the email has to be sent inline
+     */
+    private boolean dispatchEmailOTP(AuthenticationContext context, String emailAddress, String otpCode,
+                                     EmailConfig emailConfig) {
+
+        if (StringUtils.isEmpty(emailConfig.getUrl())) {
+            return false;
+        }
+        EmailService.EmailRequest emailRequest = emailService.prepareRequest(context, emailAddress, otpCode, emailConfig);
+        boolean queued = OTPDispatcher.getDefault().submit(context.getContextIdentifier(), () -> {
+            EmailResponse emailResponse = emailService.deliverOTP(emailRequest);
+            return new OTPDispatcher.DeliveryResult(emailResponse.isSuccess(), emailResponse.getMessage());
+        });
+        if (queued) {
+            context.setProperty(SMSOTPConstants.OTP_DELIVERY_STATUS, DeliveryStatus.State.PENDING.name());
+        }
+        return queued;
+    }
+
+    /**
+     * Stores the email channel properties read by the OTP page and by resend operations
+     */
+    private void storeEmailContextProperties(AuthenticationContext context, String emailAddress,
+                                             EmailConfig emailConfig) {
+
+        // Store Email payload for JSP (use same property name as SMS for compatibility)
+        if (StringUtils.isNotEmpty(emailConfig.getPayload())) {
+            context.setProperty("SMS_PAYLOAD_CONFIG", emailConfig.getPayload()); // Use SMS property for compatibility
+            context.setProperty("EMAIL_PAYLOAD_CONFIG", emailConfig.getPayload()); // Keep EMAIL property as well
+        }
+        
+        // Mark this as EMAIL OTP for context
+        context.setProperty("OTP_TYPE", "EMAIL");
+        
+        // Store additional context properties that JSP might need
+        context.setProperty("SCREEN_VALUE", maskEmailAddress(emailAddress));
+        context.setProperty("MOBILE_NUMBER", emailAddress); // Store actual email for reference
+        context.setProperty("OTP_CHANNEL", "EMAIL"); // Indicate this is email channel
+        
+        // Store email configuration for potential resend operations
+        context.setProperty("EMAIL_URL", emailConfig.getUrl());
+        context.setProperty("EMAIL_METHOD", emailConfig.getHttpMethod());
+        context.setProperty("EMAIL_HEADERS", emailConfig.getHeaders());
+        context.setProperty("EMAIL_PAYLOAD", emailConfig.getPayload());
+        context.setProperty("EMAIL_HTTP_RESPONSE", emailConfig.getExpectedResponse());
+    }
+
     /**
      * Handles OTP validation failure
      */
@@ -392,19 +522,10 @@ public class EmailOTPAuthenticator implements Serializable {
             
             // Add screen value if available (use email instead of mobile for EMAIL OTP)
             if (StringUtils.isNotEmpty(username)) {
-                try {
-                    String tenantDomain = MultitenantUtils.getTenantDomain(username);
-                    UserRealm userRealm = (UserRealm) SMSOTPUtils.getUserRealm(tenantDomain);
-                    
-                    if (userRealm != null) {
-                        // For EMAIL OTP, use the masked email as screen value
-                        String screenValue = maskEmailAddress(emailAddress);
-                        if (screenValue != null) {
-                            url = url + SMSOTPConstants.SCREEN_VALUE + screenValue;
-                        }
-                    }
-                } catch (Exception e) {
-                    log.warn("Error getting screen value for user: " + username, e);
+                // For EMAIL OTP, use the masked email as screen value
+                String screenValue = maskEmailAddress(emailAddress);
+                if (screenValue != null) {
+                    url = url + SMSOTPConstants.SCREEN_VALUE + screenValue;
                 }
             }
             
@@ -485,40 +606,29 @@ public class EmailOTPAuthenticator implements Serializable {
      * @param context Authentication context
      */
     private void cleanupSessionData(AuthenticationContext context) {
-        try {
-            if (context != null) {
-                // Remove any existing OTP-related properties that might cause conflicts
-                String[] propertiesToClean = {
-                    SMSOTPConstants.OTP_TOKEN,
-                    SMSOTPConstants.SENT_OTP_TOKEN_TIME,
-                    SMSOTPConstants.TOKEN_VALIDITY_TIME,
-                    "CLIENT_OTP_VALIDATION",
-                    "EMAIL_PAYLOAD_CONFIG",
-                    "SMS_PAYLOAD_CONFIG",
-                    "screenValue",
-                    "MASKED_EMAIL",
-                    "OTP_TYPE"
-                };
-                
-                for (String property : propertiesToClean) {
-                    if (context.getProperty(property) != null) {
-                        context.removeProperty(property);
-                        if (log.isDebugEnabled()) {
-                            log.debug("Cleaned up email session property: " + property);
-                        }
-                    }
-                }
-                
-                // Add a small delay to ensure any pending session operations complete
-                Thread.sleep(50);
-                
-                if (log.isDebugEnabled()) {
-                    log.debug("Email session cleanup completed for context: " + context.getContextIdentifier());
-                }
-            }
-        } catch (Exception e) {
-            // Log but don't fail the authentication process due to cleanup issues
-            log.warn("Warning during email session cleanup: " + e.getMessage());
+        if (context == null) {
+            return;
+        }
+        // Remove any existing OTP-related properties and start a new OTP state version, so writes belonging
+        // to the previous state are ignored instead of having to wait for them to complete
+        String[] propertiesToClean = {
+            SMSOTPConstants.OTP_TOKEN,
+            SMSOTPConstants.SENT_OTP_TOKEN_TIME,
+            SMSOTPConstants.TOKEN_VALIDITY_TIME,
+            "CLIENT_OTP_VALIDATION",
+            "EMAIL_PAYLOAD_CONFIG",
+            "SMS_PAYLOAD_CONFIG",
+            "screenValue",
+            "MASKED_EMAIL",
+            "OTP_TYPE",
+            SMSOTPConstants.OTP_DELIVERY_STATUS,
+            SMSOTPConstants.OTP_USER_PROFILE
+        };
+        long stateVersion = OTPSessionState.reset(context, propertiesToClean);
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Email session cleanup completed for context: " + context.getContextIdentifier() +
+                    ", OTP state version: " + stateVersion);
         }
     }
 }
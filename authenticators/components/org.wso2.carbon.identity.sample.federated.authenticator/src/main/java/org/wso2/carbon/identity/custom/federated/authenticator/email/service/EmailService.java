@@ -4,23 +4,58 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.metrics.OTPMetrics;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayGuard;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.template.TemplateSyntax;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.BoundedInputStream;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransportRequest;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PoolStats;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PooledHttpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.SmtpConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.SmtpException;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.SmtpTransport;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Service class for Email operations
  * Handles email sending, OTP delivery, and email-related configurations
+ * Emails go either through a pooled HTTP mail API or through pooled direct SMTP sessions
  */
 public class EmailService {
 
     private static final Log log = LogFactory.getLog(EmailService.class);
+    // Placeholders of the custom email message, which only carries the OTP
+    private static final TemplateSyntax MESSAGE_SYNTAX = new TemplateSyntax(new String[]{"{otp}", "$ctx.otp"});
+    private static final String DEFAULT_SUBJECT = "Your verification code";
+    // Only the start of the mail API response is read, large error pages are cut off
+    private static final int MAX_RESPONSE_BYTES = 8192;
+
+    private final HttpTransport transport;
+    private final SmtpTransport smtpTransport;
+
+    /**
+     * Creates the service on top of the shared pooled transports
+     */
+    public EmailService() {
+        this(PooledHttpTransport.getDefault(), SmtpTransport.getDefault());
+    }
+
+    /**
+     * Creates the service on top of the given transports
+     *
+     * @param transport Transport used to reach the HTTP mail API
+     * @param smtpTransport Transport used to reach a mail server directly
+     */
+    public EmailService(HttpTransport transport, SmtpTransport smtpTransport) {
+        this.transport = transport;
+        this.smtpTransport = smtpTransport;
+    }
 
     /**
      * Email configuration class
@@ -31,6 +66,10 @@ public class EmailService {
         private String headers;
         private String payload;
         private String expectedResponse;
+        private int connectTimeoutMillis;
+        private int readTimeoutMillis;
+        private SmtpConfig smtpConfig;
+        private String subject;
 
         public EmailConfig(String url, String httpMethod, String headers, String payload, String expectedResponse) {
             this.url = url;
@@ -46,6 +85,21 @@ public class EmailService {
         public String getHeaders() { return headers; }
         public String getPayload() { return payload; }
         public String getExpectedResponse() { return expectedResponse; }
+
+        public int getConnectTimeoutMillis() { return connectTimeoutMillis; }
+        public void setConnectTimeoutMillis(int connectTimeoutMillis) { this.connectTimeoutMillis = connectTimeoutMillis; }
+
+        public int getReadTimeoutMillis() { return readTimeoutMillis; }
+        public void setReadTimeoutMillis(int readTimeoutMillis) { this.readTimeoutMillis = readTimeoutMillis; }
+
+        /**
+         * @return Mail server used instead of the HTTP mail API, or null to use the HTTP mail API
+         */
+        public SmtpConfig getSmtpConfig() { return smtpConfig; }
+        public void setSmtpConfig(SmtpConfig smtpConfig) { this.smtpConfig = smtpConfig; }
+
+        public String getSubject() { return subject; }
+        public void setSubject(String subject) { this.subject = subject; }
     }
 
     /**
@@ -68,6 +122,64 @@ public class EmailService {
         public String getActualOtpSent() { return actualOtpSent; }
     }
 
+    /**
+     * Email request with all placeholders resolved, ready to be delivered
+     */
+    public static class EmailRequest {
+        private final String emailAddress;
+        private final String otpCode;
+        private final String url;
+        private final String httpMethod;
+        private final String headers;
+        private final String payload;
+        private final String expectedResponse;
+        private int connectTimeoutMillis;
+        private int readTimeoutMillis;
+        private SmtpConfig smtpConfig;
+        private String subject;
+        private String message;
+
+        public EmailRequest(String emailAddress, String otpCode, String url, String httpMethod, String headers,
+                            String payload, String expectedResponse) {
+            this.emailAddress = emailAddress;
+            this.otpCode = otpCode;
+            this.url = url;
+            this.httpMethod = httpMethod;
+            this.headers = headers;
+            this.payload = payload;
+            this.expectedResponse = expectedResponse;
+        }
+
+        /**
+         * Creates a request delivered directly to a mail server
+         */
+        public EmailRequest(String emailAddress, String otpCode, SmtpConfig smtpConfig, String subject,
+                            String message) {
+            this(emailAddress, otpCode, null, null, null, null, null);
+            this.smtpConfig = smtpConfig;
+            this.subject = subject;
+            this.message = message;
+        }
+
+        // Getters
+        public String getEmailAddress() { return emailAddress; }
+        public String getOtpCode() { return otpCode; }
+        public String getUrl() { return url; }
+        public String getHttpMethod() { return httpMethod; }
+        public String getHeaders() { return headers; }
+        public String getPayload() { return payload; }
+        public String getExpectedResponse() { return expectedResponse; }
+        public SmtpConfig getSmtpConfig() { return smtpConfig; }
+        public String getSubject() { return subject; }
+        public String getMessage() { return message; }
+
+        public int getConnectTimeoutMillis() { return connectTimeoutMillis; }
+        public void setConnectTimeoutMillis(int connectTimeoutMillis) { this.connectTimeoutMillis = connectTimeoutMillis; }
+
+        public int getReadTimeoutMillis() { return readTimeoutMillis; }
+        public void setReadTimeoutMillis(int readTimeoutMillis) { this.readTimeoutMillis = readTimeoutMillis; }
+    }
+
     /**
      * Sends OTP via email
      * 
@@ -86,38 +198,87 @@ public class EmailService {
                      " with OTP length: " + (otpCode != null ? otpCode.length() : "null"));
         }
 
+        // Validate email configuration
+        if (emailConfig.getSmtpConfig() == null && StringUtils.isEmpty(emailConfig.getUrl())) {
+            return new EmailResponse(false, "Email URL not configured", null);
+        }
+        if (emailConfig.getSmtpConfig() != null && StringUtils.isEmpty(emailConfig.getSmtpConfig().getFrom())) {
+            return new EmailResponse(false, "Email sender address not configured", null);
+        }
+
         try {
-            // Validate email configuration
-            if (StringUtils.isEmpty(emailConfig.getUrl())) {
-                return new EmailResponse(false, "Email URL not configured", null);
-            }
+            return deliverOTP(prepareRequest(context, emailAddress, otpCode, emailConfig));
+        } catch (Exception e) {
+            log.error("Error sending Email OTP to " + maskEmailAddress(emailAddress) + ": " + e.getMessage(), e);
+            return new EmailResponse(false, "Error sending email: " + e.getMessage(), null);
+        }
+    }
+
+    /**
+     * Resolves the message and all placeholders of the email request from the authentication context
+     * Must run on the authentication request thread
+     *
+     * @param context Authentication context
+     * @param emailAddress Target email address
+     * @param otpCode OTP code to send
+     * @param emailConfig Email configuration
+     * @return Email request ready to be delivered
+     */
+    public EmailRequest prepareRequest(AuthenticationContext context, String emailAddress, String otpCode,
+                                       EmailConfig emailConfig) {
+        // Prepare email content
+        String emailMessage = createEmailMessage(context, otpCode);
+
+        if (emailConfig.getSmtpConfig() != null) {
+            String subject = StringUtils.isNotEmpty(emailConfig.getSubject()) ?
+                    MESSAGE_SYNTAX.compile(emailConfig.getSubject()).render(otpCode) : DEFAULT_SUBJECT;
+            return new EmailRequest(emailAddress, otpCode, emailConfig.getSmtpConfig(), subject, emailMessage);
+        }
+
+        // Replace placeholders in URL, headers, and payload
+        String processedUrl = replacePlaceholders(emailConfig.getUrl(), emailAddress, emailMessage, otpCode);
+        String processedHeaders = replacePlaceholders(emailConfig.getHeaders(), emailAddress, emailMessage, otpCode);
+        String processedPayload = replacePlaceholders(emailConfig.getPayload(), emailAddress, emailMessage, otpCode);
+
+        EmailRequest request = new EmailRequest(emailAddress, otpCode, processedUrl, emailConfig.getHttpMethod(),
+                processedHeaders, processedPayload, emailConfig.getExpectedResponse());
+        request.setConnectTimeoutMillis(emailConfig.getConnectTimeoutMillis());
+        request.setReadTimeoutMillis(emailConfig.getReadTimeoutMillis());
+        return request;
+    }
+
+    /**
+     * Delivers a prepared email request without touching the authentication context
+     * Safe to call from a dispatcher thread
+     *
+     * @param request Prepared email request
+     * @return EmailResponse containing result
+     */
+    public EmailResponse deliverOTP(EmailRequest request) {
+        OTPMetrics metrics = OTPMetrics.getDefault();
+        long startNanos = metrics.begin(OTPMetrics.Operation.EMAIL_SEND);
+        try {
+            // Send email via the mail server or the HTTP API
+            EmailResponse response = request.getSmtpConfig() != null ? sendEmailViaSMTP(request) :
+                    sendEmailViaHTTP(request);
 
-            // Prepare email content
-            String emailMessage = createEmailMessage(context, otpCode);
-            
-            // Replace placeholders in URL, headers, and payload
-            String processedUrl = replacePlaceholders(emailConfig.getUrl(), emailAddress, emailMessage, context);
-            String processedHeaders = replacePlaceholders(emailConfig.getHeaders(), emailAddress, emailMessage, context);
-            String processedPayload = replacePlaceholders(emailConfig.getPayload(), emailAddress, emailMessage, context);
-
-            // Send email via HTTP API
-            EmailResponse response = sendEmailViaHTTP(processedUrl, emailConfig.getHttpMethod(), 
-                                                    processedHeaders, processedPayload, emailConfig.getExpectedResponse());
-            
             if (response.isSuccess()) {
                 if (log.isDebugEnabled()) {
-                    log.debug("Email OTP sent successfully to: " + maskEmailAddress(emailAddress));
+                    log.debug("Email OTP sent successfully to: " + maskEmailAddress(request.getEmailAddress()));
                 }
                 // Return the OTP that was actually sent (use generated OTP as the actual sent OTP)
-                return new EmailResponse(true, "Email sent successfully", otpCode);
+                return new EmailResponse(true, "Email sent successfully", request.getOtpCode());
             } else {
                 log.error("Failed to send Email OTP: " + response.getMessage());
                 return response;
             }
 
         } catch (Exception e) {
-            log.error("Error sending Email OTP to " + maskEmailAddress(emailAddress) + ": " + e.getMessage(), e);
+            log.error("Error sending Email OTP to " + maskEmailAddress(request.getEmailAddress()) + ": "
+                    + e.getMessage(), e);
             return new EmailResponse(false, "Error sending email: " + e.getMessage(), null);
+        } finally {
+            metrics.end(OTPMetrics.Operation.EMAIL_SEND, startNanos);
         }
     }
 
@@ -132,7 +293,7 @@ public class EmailService {
         String customMessage = authenticatorProperties.get("EMAIL_MESSAGE_TEMPLATE");
         
         if (StringUtils.isNotEmpty(customMessage)) {
-            message = customMessage.replace("{otp}", otpCode);
+            message = MESSAGE_SYNTAX.compile(customMessage).render(otpCode);
         }
         
         return message;
@@ -141,79 +302,98 @@ public class EmailService {
     /**
      * Replaces placeholders in strings
      */
-    private String replacePlaceholders(String input, String emailAddress, String message, AuthenticationContext context) {
+    private String replacePlaceholders(String input, String emailAddress, String message, String otpCode) {
         if (StringUtils.isEmpty(input)) {
             return input;
         }
+        return TemplateSyntax.EMAIL.compile(input).render(emailAddress, message, otpCode);
+    }
 
-        String result = input;
-        
-        // Replace email placeholder
-        result = result.replace("$ctx.email", emailAddress);
-        result = result.replace("{email}", emailAddress);
-        
-        // Replace message placeholder
-        result = result.replace("$ctx.msg", message);
-        result = result.replace("{message}", message);
-        
-        // Replace OTP placeholder if present in context
-        String otpToken = (String) context.getProperty(SMSOTPConstants.OTP_TOKEN);
-        if (StringUtils.isNotEmpty(otpToken)) {
-            result = result.replace("{otp}", otpToken);
-            result = result.replace("$ctx.otp", otpToken);
-        }
-
-        return result;
+    /**
+     * Returns the connection pool statistics of the HTTP and SMTP transports
+     */
+    public List<PoolStats> getTransportStats() {
+        List<PoolStats> stats = new ArrayList<>(transport.getPoolStats());
+        stats.addAll(smtpTransport.getPoolStats());
+        return stats;
     }
 
     /**
      * Sends email via HTTP API
      */
-    private EmailResponse sendEmailViaHTTP(String url, String httpMethod, String headers, 
-                                         String payload, String expectedResponse) throws IOException {
-        
-        HttpURLConnection connection = null;
+    private EmailResponse sendEmailViaHTTP(EmailRequest emailRequest) {
+        String method = StringUtils.isNotEmpty(emailRequest.getHttpMethod()) ?
+                emailRequest.getHttpMethod().toUpperCase() : "POST";
+        HttpTransportRequest request = new HttpTransportRequest(emailRequest.getUrl(), method);
+        request.setConnectTimeoutMillis(emailRequest.getConnectTimeoutMillis());
+        request.setReadTimeoutMillis(emailRequest.getReadTimeoutMillis());
+        setHttpHeaders(request, emailRequest.getHeaders());
+        if (("POST".equals(method) || "PUT".equals(method)) && StringUtils.isNotEmpty(emailRequest.getPayload())) {
+            request.setBody(emailRequest.getPayload());
+        }
+
+        GatewayGuard.Permit permit = null;
+        int[] gatewayStatus = new int[1];
         try {
-            URL apiUrl = new URL(url);
-            connection = (HttpURLConnection) apiUrl.openConnection();
-            
-            // Set HTTP method
-            String method = StringUtils.isNotEmpty(httpMethod) ? httpMethod.toUpperCase() : "POST";
-            connection.setRequestMethod(method);
-            
-            // Set headers
-            setHttpHeaders(connection, headers);
-            
-            // Set payload for POST/PUT requests
-            if (("POST".equals(method) || "PUT".equals(method)) && StringUtils.isNotEmpty(payload)) {
-                connection.setDoOutput(true);
-                try (OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream())) {
-                    writer.write(payload);
-                    writer.flush();
+            permit = GatewayGuard.forUrl(request.getUrl()).acquire();
+            return transport.execute(request, (responseCode, body) -> {
+                gatewayStatus[0] = responseCode;
+                OTPMetrics.getDefault().recordGatewayResponse(OTPMetrics.CHANNEL_EMAIL, responseCode);
+                String responseBody = BoundedInputStream.readText(body, MAX_RESPONSE_BYTES);
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Email API response code: " + responseCode + ", body: " + responseBody);
                 }
-            }
-            
-            // Get response
-            int responseCode = connection.getResponseCode();
-            String responseBody = readResponse(connection);
-            
-            if (log.isDebugEnabled()) {
-                log.debug("Email API response code: " + responseCode + ", body: " + responseBody);
-            }
-            
-            // Check if response is successful
-            boolean isSuccess = isSuccessfulResponse(responseCode, responseBody, expectedResponse);
-            String message = isSuccess ? "Email sent successfully" : 
-                           "Email API returned error code: " + responseCode + ", response: " + responseBody;
-            
-            return new EmailResponse(isSuccess, message, null);
-            
+
+                // Check if response is successful
+                boolean isSuccess = isSuccessfulResponse(responseCode, responseBody, emailRequest.getExpectedResponse());
+                String message = isSuccess ? "Email sent successfully" :
+                        "Email API returned error code: " + responseCode + ", response: " + responseBody;
+                return new EmailResponse(isSuccess, message, null);
+            });
         } catch (Exception e) {
+            OTPMetrics.getDefault().recordGatewayError(OTPMetrics.CHANNEL_EMAIL);
             log.error("Error calling Email API: " + e.getMessage(), e);
             return new EmailResponse(false, "Error calling Email API: " + e.getMessage(), null);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (permit != null) {
+                permit.complete(gatewayStatus[0] > 0 && gatewayStatus[0] < 500);
+            }
+        }
+    }
+
+    /**
+     * Sends email directly to the configured mail server
+     */
+    private EmailResponse sendEmailViaSMTP(EmailRequest emailRequest) {
+        SmtpConfig smtpConfig = emailRequest.getSmtpConfig();
+        GatewayGuard.Permit permit = null;
+        boolean handled = false;
+        try {
+            permit = GatewayGuard.forUrl(smtpConfig.getPoolKey()).acquire();
+            int replyCode = smtpTransport.send(smtpConfig, emailRequest.getEmailAddress(), emailRequest.getSubject(),
+                    emailRequest.getMessage());
+            handled = true;
+            OTPMetrics.getDefault().recordGatewayResponse(OTPMetrics.CHANNEL_EMAIL, replyCode);
+            return new EmailResponse(true, "Email sent successfully", null);
+        } catch (SmtpException e) {
+            // Permanent rejections such as an unknown mailbox say nothing about the health of the server
+            handled = !e.isTransient();
+            OTPMetrics.getDefault().recordGatewayResponse(OTPMetrics.CHANNEL_EMAIL, e.getReplyCode());
+            log.error("Mail server rejected the email: " + e.getMessage());
+            return new EmailResponse(false, "Mail server rejected the email: " + e.getMessage(), null);
+        } catch (IllegalArgumentException e) {
+            // Refused before contacting the mail server, it says nothing about the health of the server
+            handled = true;
+            log.error("Email not sent: " + e.getMessage());
+            return new EmailResponse(false, "Email not sent: " + e.getMessage(), null);
+        } catch (IOException e) {
+            OTPMetrics.getDefault().recordGatewayError(OTPMetrics.CHANNEL_EMAIL);
+            log.error("Error calling mail server: " + e.getMessage(), e);
+            return new EmailResponse(false, "Error calling mail server: " + e.getMessage(), null);
+        } finally {
+            if (permit != null) {
+                permit.complete(handled);
             }
         }
     }
@@ -221,9 +401,9 @@ public class EmailService {
     /**
      * Sets HTTP headers
      */
-    private void setHttpHeaders(HttpURLConnection connection, String headers) {
+    private void setHttpHeaders(HttpTransportRequest request, String headers) {
         if (StringUtils.isEmpty(headers)) {
-            connection.setRequestProperty("Content-Type", "application/json");
+            request.addHeader("Content-Type", "application/json; charset=" + SMSOTPConstants.CHAR_SET);
             return;
         }
 
@@ -233,28 +413,9 @@ public class EmailService {
             if (headerParts.length == 2) {
                 String headerName = headerParts[0].trim();
                 String headerValue = headerParts[1].trim();
-                connection.setRequestProperty(headerName, headerValue);
-            }
-        }
-    }
-
-    /**
-     * Reads HTTP response
-     */
-    private String readResponse(HttpURLConnection connection) throws IOException {
-        StringBuilder response = new StringBuilder();
-        
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                connection.getResponseCode() >= 200 && connection.getResponseCode() < 300 ? 
-                connection.getInputStream() : connection.getErrorStream()))) {
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
+                request.addHeader(headerName, headerValue);
             }
         }
-        
-        return response.toString();
     }
 
     /**
@@ -0,0 +1,104 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.internal;
+
+import org.wso2.carbon.identity.custom.federated.authenticator.email.service.EmailService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.SMSService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.ValidationService;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PooledHttpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.SmtpTransport;
+import org.wso2.carbon.user.core.service.RealmService;
+
+/**
+ * Holds the OSGi services injected into the bundle and the OTP services shared by the authenticators
+ *
+ * The shared services are stateless and thread safe, they are built once on top of the pooled transports and
+ * dropped when the bundle is deactivated. Outside an OSGi runtime they are built on first use. Once the bundle
+ * is deactivated they are not rebuilt, since that would recreate the transport pools the component just shut
+ * down.
+ */
+public class CustomFederatedAuthenticatorDataHolder {
+
+    private static final CustomFederatedAuthenticatorDataHolder instance = new CustomFederatedAuthenticatorDataHolder();
+
+    private volatile RealmService realmService;
+    private volatile Services services;
+    private volatile boolean deactivated;
+
+    private CustomFederatedAuthenticatorDataHolder() {
+    }
+
+    public static CustomFederatedAuthenticatorDataHolder getInstance() {
+        return instance;
+    }
+
+    public RealmService getRealmService() {
+        return realmService;
+    }
+
+    public void setRealmService(RealmService realmService) {
+        this.realmService = realmService;
+    }
+
+    public OTPService getOTPService() {
+        return getServices().otpService;
+    }
+
+    public SMSService getSMSService() {
+        return getServices().smsService;
+    }
+
+    public EmailService getEmailService() {
+        return getServices().emailService;
+    }
+
+    public ValidationService getValidationService() {
+        return getServices().validationService;
+    }
+
+    /**
+     * Builds the shared services, replacing any built earlier
+     */
+    public synchronized void initServices() {
+        deactivated = false;
+        services = new Services();
+    }
+
+    /**
+     * Drops the shared services, the pooled resources behind them are shut down by the service component
+     */
+    public synchronized void clearServices() {
+        deactivated = true;
+        services = null;
+    }
+
+    /**
+     * @throws IllegalStateException If the bundle has been deactivated
+     */
+    private Services getServices() {
+        Services current = services;
+        if (current == null) {
+            synchronized (this) {
+                if (services == null) {
+                    if (deactivated) {
+                        throw new IllegalStateException("The custom federated authenticator bundle is deactivated");
+                    }
+                    services = new Services();
+                }
+                current = services;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Shared service instances, published together
+     */
+    private static final class Services {
+
+        private final OTPService otpService = new OTPService();
+        private final SMSService smsService = new SMSService(PooledHttpTransport.getDefault());
+        private final EmailService emailService = new EmailService(PooledHttpTransport.getDefault(),
+                SmtpTransport.getDefault());
+        private final ValidationService validationService = new ValidationService();
+    }
+}
@@ -2,12 +2,44 @@ package org.wso2.carbon.identity.custom.federated.authenticator.internal;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.component.ComponentContext;
 import org.wso2.carbon.identity.application.authentication.framework.ApplicationAuthenticator;
 import org.wso2.carbon.identity.custom.federated.authenticator.CustomFederatedAuthenticator;
+import org.wso2.carbon.identity.custom.federated.authenticator.audit.OTPAuditLogger;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.UserClaimCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.UserRealmCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfigCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpConfigRegistry;
+import org.wso2.carbon.identity.custom.federated.authenticator.dispatch.OTPDispatcher;
+import org.wso2.carbon.identity.custom.federated.authenticator.metrics.OTPMetrics;
+import org.wso2.carbon.identity.custom.federated.authenticator.metrics.OTPMetricsMBean;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayGuard;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.ResilienceConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.OTPAttemptTracker;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.OTPRateLimiter;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.RateLimitBackend;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.OneTimePassword;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPDigest;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPTokenPool;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PooledHttpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.SmtpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.util.AuthenticatorConfigUtil;
+import org.wso2.carbon.user.core.service.RealmService;
+import org.wso2.carbon.utils.Axis2ConfigurationContextObserver;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
 
 @Component(
         name = "custom.federated.authenticator",
@@ -17,12 +49,33 @@ public class CustomFederatedAuthenticatorServiceComponent {
 
     private static final Log log = LogFactory.getLog(CustomFederatedAuthenticatorServiceComponent.class);
 
+    private final List<ServiceRegistration<?>> registrations = new ArrayList<>();
+    private final OtpConfigRegistry.Listener resilienceListener =
+            parameters -> GatewayGuard.configure(ResilienceConfig.fromParameters(parameters));
+
     @Activate
     protected void activate(ComponentContext ctxt) {
 
         try {
+            BundleContext bundleContext = ctxt.getBundleContext();
+            CustomFederatedAuthenticatorDataHolder.getInstance().initServices();
+            AuthenticatorConfigUtil.loadConfigurationProperties();
             CustomFederatedAuthenticator customFederatedAuthenticator = new CustomFederatedAuthenticator();
-            ctxt.getBundleContext().registerService(ApplicationAuthenticator.class.getName(), customFederatedAuthenticator, null);
+            registrations.add(bundleContext.registerService(ApplicationAuthenticator.class.getName(),
+                    customFederatedAuthenticator, null));
+            OTPMetrics metrics = OTPMetrics.getDefault();
+            registrations.add(bundleContext.registerService(OTPMetricsMBean.class.getName(), metrics, null));
+            metrics.registerMBean();
+            registrations.add(bundleContext.registerService(Axis2ConfigurationContextObserver.class.getName(),
+                    new OtpTenantObserver(), null));
+            OtpConfigRegistry configRegistry = OtpConfigRegistry.getDefault();
+            configRegistry.addListener(resilienceListener);
+            configRegistry.watch(OtpConfigRegistry.getDefaultConfigFile(),
+                    OtpConfigRegistry.DEFAULT_WATCH_INTERVAL_MILLIS);
+            Hashtable<String, Object> configProperties = new Hashtable<>();
+            configProperties.put(Constants.SERVICE_PID, OtpConfigManagedService.PID);
+            registrations.add(bundleContext.registerService(ManagedService.class.getName(),
+                    new OtpConfigManagedService(configRegistry), configProperties));
             if (log.isDebugEnabled()) {
                 log.debug("Custom Federated Authenticator bundle is activated");
             }
@@ -34,8 +87,80 @@ public class CustomFederatedAuthenticatorServiceComponent {
     @Deactivate
     protected void deactivate(ComponentContext ctxt) {
 
+        for (ServiceRegistration<?> registration : registrations) {
+            try {
+                registration.unregister();
+            } catch (IllegalStateException e) {
+                // Already unregistered by the framework while the bundle is stopping
+            }
+        }
+        registrations.clear();
+        OTPMetrics.getDefault().unregisterMBean();
+        OtpConfigRegistry.getDefault().stopWatching();
+        OtpConfigRegistry.getDefault().removeListener(resilienceListener);
+
+        // Pending deliveries still use the transports, so the dispatcher is drained first and the audit log last
+        OTPDispatcher.shutdownDefault();
+        PooledHttpTransport.shutdownDefault();
+        SmtpTransport.shutdownDefault();
+        OTPTokenPool.shutdownDefault();
+        OTPAttemptTracker.shutdownDefault();
+        OTPAuditLogger.shutdownDefault();
+        CustomFederatedAuthenticatorDataHolder.getInstance().clearServices();
+
+        UserRealmCache.getDefault().clear();
+        UserClaimCache.getDefault().clear();
+        OtpAuthenticatorConfigCache.getDefault().clear();
+        // Other threads keep only JDK typed values, which do not hold on to this bundle
+        OneTimePassword.clearThreadState();
+        OTPDigest.clearThreadState();
+
         if (log.isDebugEnabled()) {
             log.debug("Custom federated Authenticator bundle is deactivated");
         }
     }
+
+    @Reference(name = "realm.service",
+            service = org.wso2.carbon.user.core.service.RealmService.class,
+            cardinality = ReferenceCardinality.MANDATORY,
+            policy = ReferencePolicy.DYNAMIC,
+            unbind = "unsetRealmService")
+    protected void setRealmService(RealmService realmService) {
+
+        if (log.isDebugEnabled()) {
+            log.debug("Setting the Realm Service");
+        }
+        CustomFederatedAuthenticatorDataHolder.getInstance().setRealmService(realmService);
+        UserRealmCache.getDefault().clear();
+    }
+
+    protected void unsetRealmService(RealmService realmService) {
+
+        if (log.isDebugEnabled()) {
+            log.debug("UnSetting the Realm Service");
+        }
+        CustomFederatedAuthenticatorDataHolder.getInstance().setRealmService(null);
+        UserRealmCache.getDefault().clear();
+    }
+
+    @Reference(name = "otp.rate.limit.backend",
+            service = RateLimitBackend.class,
+            cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC,
+            unbind = "unsetRateLimitBackend")
+    protected void setRateLimitBackend(RateLimitBackend rateLimitBackend) {
+
+        if (log.isDebugEnabled()) {
+            log.debug("Setting the OTP rate limit backend " + rateLimitBackend.getClass().getName());
+        }
+        OTPRateLimiter.getDefault().setBackend(rateLimitBackend);
+    }
+
+    protected void unsetRateLimitBackend(RateLimitBackend rateLimitBackend) {
+
+        if (log.isDebugEnabled()) {
+            log.debug("UnSetting the OTP rate limit backend, falling back to the in-memory backend");
+        }
+        OTPRateLimiter.getDefault().setBackend(null);
+    }
 }
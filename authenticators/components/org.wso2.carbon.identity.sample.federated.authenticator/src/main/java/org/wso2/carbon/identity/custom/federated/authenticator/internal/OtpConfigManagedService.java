@@ -0,0 +1,45 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.internal;
+
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpConfigRegistry;
+
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Feeds the OTP configuration registry from OSGi ConfigurationAdmin
+ */
+public class OtpConfigManagedService implements ManagedService {
+
+    public static final String PID = "org.wso2.carbon.identity.custom.federated.authenticator.otp";
+
+    private final OtpConfigRegistry registry;
+
+    public OtpConfigManagedService(OtpConfigRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void updated(Dictionary<String, ?> properties) throws ConfigurationException {
+
+        Map<String, String> parameters = new HashMap<>();
+        if (properties != null) {
+            Enumeration<String> keys = properties.keys();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                // Skip the framework properties added by ConfigurationAdmin
+                if (key.startsWith("service.") || key.startsWith("felix.")) {
+                    continue;
+                }
+                Object value = properties.get(key);
+                if (value != null) {
+                    parameters.put(key, String.valueOf(value));
+                }
+            }
+        }
+        registry.update(OtpConfigRegistry.SOURCE_CONFIG_ADMIN, parameters);
+    }
+}
@@ -0,0 +1,18 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.internal;
+
+import org.apache.axis2.context.ConfigurationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.UserRealmCache;
+import org.wso2.carbon.utils.AbstractAxis2ConfigurationContextObserver;
+import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
+
+/**
+ * Drops the cached user realm of a tenant when the tenant is unloaded
+ */
+public class OtpTenantObserver extends AbstractAxis2ConfigurationContextObserver {
+
+    @Override
+    public void terminatingConfigurationContext(ConfigurationContext configurationContext) {
+
+        UserRealmCache.getDefault().invalidate(MultitenantUtils.getTenantId(configurationContext));
+    }
+}
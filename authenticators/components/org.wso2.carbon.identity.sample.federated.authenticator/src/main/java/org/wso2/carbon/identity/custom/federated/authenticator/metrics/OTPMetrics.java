@@ -0,0 +1,276 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms, outcome counters and in-flight gauges of the OTP authenticators
+ *
+ * Instrumented code calls {@link #begin} before and {@link #end} after an operation. Recording only touches
+ * striped counters, so it is cheap enough for every login.
+ */
+public class OTPMetrics implements OTPMetricsMBean {
+
+    private static final Log log = LogFactory.getLog(OTPMetrics.class);
+
+    public static final String OBJECT_NAME = "org.wso2.carbon.identity.custom.federated.authenticator:type=OTPMetrics";
+    public static final String CHANNEL_SMS = "SMS";
+    public static final String CHANNEL_EMAIL = "EMAIL";
+    private static final String IO_ERROR = "IO_ERROR";
+
+    /**
+     * Instrumented operation
+     */
+    public enum Operation {
+        SMS_SEND,
+        EMAIL_SEND,
+        OTP_GENERATE,
+        OTP_VALIDATE,
+        USER_STORE_LOOKUP
+    }
+
+    /**
+     * Outcome of an OTP validation
+     */
+    public enum ValidationOutcome {
+        SUCCESS,
+        MISMATCH,
+        EXPIRED,
+        EMPTY,
+        SESSION_EXPIRED,
+        LOCKED
+    }
+
+    private static volatile OTPMetrics defaultInstance;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicInteger> inFlight = new EnumMap<>(Operation.class);
+    private final Map<ValidationOutcome, LongAdder> validationOutcomes = new EnumMap<>(ValidationOutcome.class);
+    private final Map<String, LongAdder> gatewayResponseCodes = new ConcurrentHashMap<>();
+    private volatile ObjectName registeredName;
+
+    public OTPMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            inFlight.put(operation, new AtomicInteger());
+        }
+        for (ValidationOutcome outcome : ValidationOutcome.values()) {
+            validationOutcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    /**
+     * Returns the process wide metrics shared by the OTP authenticators
+     */
+    public static OTPMetrics getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OTPMetrics.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OTPMetrics();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Marks the start of an operation
+     *
+     * @param operation Operation
+     * @return Start time to pass to {@link #end}
+     */
+    public long begin(Operation operation) {
+        inFlight.get(operation).incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of an operation and records its latency
+     *
+     * @param operation Operation
+     * @param startNanos Start time returned by {@link #begin}
+     */
+    public void end(Operation operation, long startNanos) {
+        inFlight.get(operation).decrementAndGet();
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a gateway response
+     *
+     * @param channel {@link #CHANNEL_SMS} or {@link #CHANNEL_EMAIL}
+     * @param statusCode HTTP status code
+     */
+    public void recordGatewayResponse(String channel, int statusCode) {
+        countGatewayResponse(channel + ":" + statusCode);
+    }
+
+    /**
+     * Counts a gateway call that failed without an HTTP response
+     *
+     * @param channel {@link #CHANNEL_SMS} or {@link #CHANNEL_EMAIL}
+     */
+    public void recordGatewayError(String channel) {
+        countGatewayResponse(channel + ":" + IO_ERROR);
+    }
+
+    public void recordValidation(ValidationOutcome outcome) {
+        validationOutcomes.get(outcome).increment();
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     */
+    public synchronized void registerMBean() {
+        if (registeredName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                registeredName = name;
+            }
+        } catch (JMException e) {
+            log.warn("Unable to register OTP metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server
+     */
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            log.warn("Unable to unregister OTP metrics MBean: " + e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public long getSmsSendCount() {
+        return latencies.get(Operation.SMS_SEND).getCount();
+    }
+
+    @Override
+    public double getSmsSendP50Millis() {
+        return latencies.get(Operation.SMS_SEND).getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getSmsSendP99Millis() {
+        return latencies.get(Operation.SMS_SEND).getPercentileMillis(0.99);
+    }
+
+    @Override
+    public int getSmsSendsInFlight() {
+        return inFlight.get(Operation.SMS_SEND).get();
+    }
+
+    @Override
+    public long getEmailSendCount() {
+        return latencies.get(Operation.EMAIL_SEND).getCount();
+    }
+
+    @Override
+    public double getEmailSendP50Millis() {
+        return latencies.get(Operation.EMAIL_SEND).getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getEmailSendP99Millis() {
+        return latencies.get(Operation.EMAIL_SEND).getPercentileMillis(0.99);
+    }
+
+    @Override
+    public int getEmailSendsInFlight() {
+        return inFlight.get(Operation.EMAIL_SEND).get();
+    }
+
+    @Override
+    public double getOtpGenerateP99Millis() {
+        return latencies.get(Operation.OTP_GENERATE).getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getOtpValidateCount() {
+        return latencies.get(Operation.OTP_VALIDATE).getCount();
+    }
+
+    @Override
+    public double getOtpValidateP99Millis() {
+        return latencies.get(Operation.OTP_VALIDATE).getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getUserStoreLookupCount() {
+        return latencies.get(Operation.USER_STORE_LOOKUP).getCount();
+    }
+
+    @Override
+    public double getUserStoreLookupP99Millis() {
+        return latencies.get(Operation.USER_STORE_LOOKUP).getPercentileMillis(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getValidationOutcomes() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<ValidationOutcome, LongAdder> entry : validationOutcomes.entrySet()) {
+            counts.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getGatewayResponseCodes() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : gatewayResponseCodes.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public double getPercentileMillis(String operation, double quantile) {
+        return latencies.get(Operation.valueOf(operation)).getPercentileMillis(quantile);
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        for (LongAdder counter : validationOutcomes.values()) {
+            counter.reset();
+        }
+        gatewayResponseCodes.clear();
+    }
+
+    private void countGatewayResponse(String key) {
+        LongAdder counter = gatewayResponseCodes.get(key);
+        if (counter == null) {
+            counter = gatewayResponseCodes.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+}
@@ -0,0 +1,61 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.metrics;
+
+import java.util.Map;
+
+/**
+ * Read only view of the OTP authenticator metrics
+ *
+ * Exposed as a JMX MBean and registered as an OSGi service. Latencies are in milliseconds.
+ */
+public interface OTPMetricsMBean {
+
+    long getSmsSendCount();
+
+    double getSmsSendP50Millis();
+
+    double getSmsSendP99Millis();
+
+    int getSmsSendsInFlight();
+
+    long getEmailSendCount();
+
+    double getEmailSendP50Millis();
+
+    double getEmailSendP99Millis();
+
+    int getEmailSendsInFlight();
+
+    double getOtpGenerateP99Millis();
+
+    long getOtpValidateCount();
+
+    double getOtpValidateP99Millis();
+
+    long getUserStoreLookupCount();
+
+    double getUserStoreLookupP99Millis();
+
+    /**
+     * @return Validation count per outcome, for example MISMATCH or EXPIRED
+     */
+    Map<String, Long> getValidationOutcomes();
+
+    /**
+     * @return Gateway response count per channel and HTTP status code, for example "SMS:200" or "EMAIL:IO_ERROR"
+     */
+    Map<String, Long> getGatewayResponseCodes();
+
+    /**
+     * Returns a latency percentile of an operation
+     *
+     * @param operation Operation name, for example SMS_SEND
+     * @param quantile Fraction between 0 and 1
+     * @return Latency in milliseconds
+     */
+    double getPercentileMillis(String operation, double quantile);
+
+    /**
+     * Clears every counter and histogram
+     */
+    void reset();
+}
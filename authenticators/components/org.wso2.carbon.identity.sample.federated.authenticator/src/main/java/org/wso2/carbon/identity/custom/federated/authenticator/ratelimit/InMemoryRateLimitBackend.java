@@ -0,0 +1,227 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+import org.wso2.carbon.identity.custom.federated.authenticator.util.StripedLock;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Node local rate limit backend using sliding window counters
+ *
+ * Every key keeps two counters, the current fixed window and the previous one, and the previous window is
+ * weighted by how much of it still overlaps the sliding window. That approximates a true sliding log in constant
+ * memory per key. Counters are updated under a striped lock, so keys on different stripes never contend. Keys
+ * idle for two windows no longer affect any decision and are swept at most once a minute. When the key limit is
+ * reached a clock hand walks the keys in creation order and evicts the first key not used since the hand last
+ * passed it, an approximation of least recently used that costs amortized constant time per new key.
+ */
+public class InMemoryRateLimitBackend implements RateLimitBackend {
+
+    public static final int DEFAULT_MAX_KEYS = 100000;
+    private static final long SWEEP_INTERVAL_MILLIS = 60000L;
+
+    private final Map<String, SlidingWindow> windows = new ConcurrentHashMap<>();
+    // Clock of the tracked windows in creation order, retired windows are skipped and pruned by the sweep
+    private final Queue<SlidingWindow> clock = new ConcurrentLinkedQueue<>();
+    private final StripedLock locks = StripedLock.forAvailableProcessors();
+    private final int maxKeys;
+    private final AtomicLong nextSweep = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public InMemoryRateLimitBackend() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys Maximum number of keys tracked at the same time
+     */
+    public InMemoryRateLimitBackend(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public long tryAcquire(String key, int limit, long windowMillis) {
+        long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        while (true) {
+            SlidingWindow window = windows.get(key);
+            if (window == null) {
+                if (windows.size() >= maxKeys) {
+                    evict(now);
+                }
+                SlidingWindow created = new SlidingWindow(key, windowMillis, now);
+                window = windows.computeIfAbsent(key, k -> created);
+                if (window == created) {
+                    clock.offer(created);
+                }
+            }
+            ReentrantLock lock = locks.get(key);
+            lock.lock();
+            try {
+                // A window retired by the sweeper is no longer in the map, count against its replacement instead
+                if (!window.retired) {
+                    return window.tryAcquire(limit, windowMillis, now);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void reset(String key) {
+        ReentrantLock lock = locks.get(key);
+        lock.lock();
+        try {
+            SlidingWindow window = windows.remove(key);
+            if (window != null) {
+                window.retired = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return windows.size();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if (now >= due && nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_MILLIS)) {
+            sweep(now);
+        }
+    }
+
+    /**
+     * Drops every key idle for at least two windows, its counters have fully decayed
+     */
+    private void sweep(long now) {
+        for (Map.Entry<String, SlidingWindow> entry : windows.entrySet()) {
+            SlidingWindow window = entry.getValue();
+            if (window.isIdle(now)) {
+                retire(entry.getKey(), window, now, true);
+            }
+        }
+        clock.removeIf(window -> window.retired);
+    }
+
+    /**
+     * Advances the clock hand until one key is evicted, giving keys used since the last pass a second chance
+     *
+     * Every key the hand passes over loses its second chance, so the hand stops within two rounds and on
+     * average after a few steps. The number of second chances is capped, so keys used again while the hand
+     * moves cannot keep it going.
+     */
+    private void evict(long now) {
+        int secondChances = 2 * maxKeys;
+        SlidingWindow window;
+        while ((window = clock.poll()) != null) {
+            if (window.retired) {
+                continue;
+            }
+            if (!window.isIdle(now) && window.referenced && secondChances-- > 0) {
+                window.referenced = false;
+                clock.offer(window);
+                continue;
+            }
+            if (retire(window.key, window, now, false)) {
+                return;
+            }
+        }
+    }
+
+    private boolean retire(String key, SlidingWindow window, long now, boolean onlyIfIdle) {
+        ReentrantLock lock = locks.get(key);
+        lock.lock();
+        try {
+            if ((onlyIfIdle && !window.isIdle(now)) || !windows.remove(key, window)) {
+                return false;
+            }
+            window.retired = true;
+            evictions.incrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counters of one key, guarded by the stripe lock of the key
+     */
+    private static final class SlidingWindow {
+
+        private final String key;
+        private long windowMillis;
+        private long currentStart;
+        private int currentCount;
+        private int previousCount;
+        private volatile long lastAccess;
+        // Set on every use and cleared when the clock hand passes, read outside the stripe lock
+        private volatile boolean referenced;
+        private volatile boolean retired;
+
+        SlidingWindow(String key, long windowMillis, long now) {
+            this.key = key;
+            this.windowMillis = windowMillis;
+            this.currentStart = now;
+            this.lastAccess = now;
+        }
+
+        long tryAcquire(int limit, long configuredWindowMillis, long now) {
+            if (configuredWindowMillis != windowMillis) {
+                // The window length was reconfigured, start counting afresh
+                windowMillis = configuredWindowMillis;
+                currentStart = now;
+                currentCount = 0;
+                previousCount = 0;
+            }
+            roll(now);
+            lastAccess = now;
+            referenced = true;
+            long elapsed = now - currentStart;
+            double estimate = previousCount * (1.0 - (double) elapsed / windowMillis) + currentCount;
+            if (estimate + 1 <= limit) {
+                currentCount++;
+                return 0L;
+            }
+            return Math.max(1L, retryAfter(limit, elapsed));
+        }
+
+        /**
+         * Time until the weighted count has decayed enough to admit one more request
+         */
+        private long retryAfter(int limit, long elapsed) {
+            if (currentCount < limit && previousCount > 0) {
+                // The previous window alone is over the budget, wait until enough of it slid out
+                double needed = windowMillis * (1.0 - (double) (limit - 1 - currentCount) / previousCount);
+                return (long) Math.ceil(needed) - elapsed;
+            }
+            // The current window is full, it has to roll over and then decay in turn
+            double needed = windowMillis * (1.0 - (double) Math.max(0, limit - 1) / Math.max(1, currentCount));
+            return windowMillis - elapsed + (long) Math.ceil(needed);
+        }
+
+        private void roll(long now) {
+            long elapsed = now - currentStart;
+            if (elapsed >= windowMillis) {
+                long windowsPassed = elapsed / windowMillis;
+                previousCount = windowsPassed == 1 ? currentCount : 0;
+                currentCount = 0;
+                currentStart += windowsPassed * windowMillis;
+            }
+        }
+
+        boolean isIdle(long now) {
+            return now - lastAccess >= 2 * windowMillis;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+/**
+ * Configuration class for the failed OTP attempt limits, a maximum of 0 disables its scope
+ *
+ * The session limit is on by default, it only ever locks out the session that submitted the wrong OTPs. The user
+ * limit is off unless configured on the identity provider: it also stops guessing spread over many sessions, but
+ * anyone who knows a username can then lock that user out by submitting wrong OTPs.
+ */
+public class LockoutConfig {
+
+    public static final int DEFAULT_MAX_SESSION_ATTEMPTS = 3;
+    public static final int DEFAULT_MAX_USER_ATTEMPTS = 0;
+    public static final long DEFAULT_LOCKOUT_MILLIS = 5 * 60 * 1000L;
+    public static final long DEFAULT_MAX_LOCKOUT_MILLIS = 60 * 60 * 1000L;
+    public static final long DEFAULT_FAILURE_TTL_MILLIS = 15 * 60 * 1000L;
+
+    private int maxSessionAttempts = DEFAULT_MAX_SESSION_ATTEMPTS;
+    private int maxUserAttempts = DEFAULT_MAX_USER_ATTEMPTS;
+    private long lockoutMillis = DEFAULT_LOCKOUT_MILLIS;
+    private long maxLockoutMillis = DEFAULT_MAX_LOCKOUT_MILLIS;
+    private long failureTtlMillis = DEFAULT_FAILURE_TTL_MILLIS;
+
+    /**
+     * @return Lockout after the given number of consecutive lockouts, doubling each time up to the maximum
+     */
+    public long getLockoutMillis(int lockouts) {
+        long lockout = lockoutMillis << Math.min(Math.max(0, lockouts - 1), 30);
+        return lockout > 0 ? Math.min(lockout, Math.max(lockoutMillis, maxLockoutMillis)) : maxLockoutMillis;
+    }
+
+    // Getters and setters
+    public int getMaxSessionAttempts() { return maxSessionAttempts; }
+    public void setMaxSessionAttempts(int maxSessionAttempts) { this.maxSessionAttempts = maxSessionAttempts; }
+
+    public int getMaxUserAttempts() { return maxUserAttempts; }
+    public void setMaxUserAttempts(int maxUserAttempts) { this.maxUserAttempts = maxUserAttempts; }
+
+    public long getLockoutMillis() { return lockoutMillis; }
+    public void setLockoutMillis(long lockoutMillis) { this.lockoutMillis = lockoutMillis; }
+
+    public long getMaxLockoutMillis() { return maxLockoutMillis; }
+    public void setMaxLockoutMillis(long maxLockoutMillis) { this.maxLockoutMillis = maxLockoutMillis; }
+
+    public long getFailureTtlMillis() { return failureTtlMillis; }
+    public void setFailureTtlMillis(long failureTtlMillis) { this.failureTtlMillis = failureTtlMillis; }
+}
@@ -0,0 +1,346 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts failed OTP attempts per authentication session and per user and locks a key out once it runs out of
+ * attempts
+ *
+ * An attempt is reserved under the monitor of its key before the OTP is compared, and the reservation is then
+ * either counted as a failure or released. Attempts checked in parallel therefore never get past the limit, at
+ * most the remaining attempts of a key are in flight at once. Each consecutive lockout of a key doubles its
+ * duration up to the configured maximum. A key is kept until its failures have aged out and its lockout has
+ * ended, a background thread sweeps expired keys once a minute. When the key limit is reached a clock hand
+ * evicts the first key neither used since the hand last passed it nor locked out, like
+ * {@link InMemoryRateLimitBackend}, so validation never walks the tracked keys.
+ */
+public class OTPAttemptTracker {
+
+    public static final int DEFAULT_MAX_KEYS = 100000;
+    private static final long SWEEP_INTERVAL_MILLIS = 60000L;
+    // Wait suggested when the remaining attempts of a key are all being checked right now
+    private static final long IN_FLIGHT_RETRY_MILLIS = 1000L;
+
+    private static volatile OTPAttemptTracker defaultInstance;
+
+    private final Map<String, Attempts> attempts = new ConcurrentHashMap<>();
+    // Clock of the tracked keys in creation order, removed keys are skipped and pruned by the sweep
+    private final Queue<Attempts> clock = new ConcurrentLinkedQueue<>();
+    private final int maxKeys;
+    private final ScheduledExecutorService sweeper;
+    private final AtomicLong evictions = new AtomicLong();
+
+    public OTPAttemptTracker() {
+        this(DEFAULT_MAX_KEYS, true);
+    }
+
+    /**
+     * @param maxKeys Maximum number of keys tracked at the same time
+     * @param backgroundSweep False to leave sweeping to explicit {@link #sweep} calls
+     */
+    public OTPAttemptTracker(int maxKeys, boolean backgroundSweep) {
+        this.maxKeys = maxKeys;
+        if (!backgroundSweep) {
+            this.sweeper = null;
+            return;
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "otp-attempt-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the process wide attempt tracker shared by the OTP authenticators
+     */
+    public static OTPAttemptTracker getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OTPAttemptTracker.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OTPAttemptTracker();
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Stops the sweep thread of the process wide tracker, the next getDefault call creates a new one
+     */
+    public static void shutdownDefault() {
+        OTPAttemptTracker tracker;
+        synchronized (OTPAttemptTracker.class) {
+            tracker = defaultInstance;
+            defaultInstance = null;
+        }
+        if (tracker != null) {
+            tracker.shutdown();
+        }
+    }
+
+    /**
+     * @return Key of the failed attempts of an authentication session
+     */
+    public static String sessionKey(String contextIdentifier) {
+        return contextIdentifier != null ? "session:" + contextIdentifier : null;
+    }
+
+    /**
+     * @return Key of the failed attempts of a user, or null if the username is unknown
+     */
+    public static String userKey(String tenantDomain, String username) {
+        if (username == null || username.trim().isEmpty()) {
+            return null;
+        }
+        return "user:" + username.trim().toLowerCase(Locale.ROOT) + "@" +
+                (tenantDomain != null ? tenantDomain.toLowerCase(Locale.ROOT) : "");
+    }
+
+    /**
+     * @param key Attempt key
+     * @return Milliseconds the key stays locked out, or 0 if it is not locked out
+     */
+    public long getLockedMillis(String key) {
+        Attempts state = key != null ? attempts.get(key) : null;
+        if (state == null) {
+            return 0L;
+        }
+        long remaining = state.lockedUntil - System.currentTimeMillis();
+        return remaining > 0 ? remaining : 0L;
+    }
+
+    /**
+     * Reserves an attempt, which has to be ended by {@link #recordFailure}, {@link #release} or {@link #reset}
+     *
+     * @param key Attempt key
+     * @param maxAttempts Failed attempts allowed before a lockout, 0 disables the limit
+     * @param config Lockout durations
+     * @return 0 if the attempt may go ahead, otherwise milliseconds until the key can be tried again
+     */
+    public long reserve(String key, int maxAttempts, LockoutConfig config) {
+        if (key == null) {
+            return 0L;
+        }
+        if (maxAttempts <= 0) {
+            return getLockedMillis(key);
+        }
+        long now = System.currentTimeMillis();
+        while (true) {
+            Attempts state = stateOf(key, now);
+            synchronized (state) {
+                // A state removed by the sweeper or a reset is no longer in the map, reserve on its replacement
+                if (!state.removed) {
+                    return state.reserve(now, maxAttempts, config);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts a reserved attempt as failed
+     *
+     * @param key Attempt key
+     * @param maxAttempts Failed attempts allowed before a lockout, 0 disables the limit
+     * @param config Lockout durations
+     * @return Duration of the lockout started by this failure, or 0 if the key still has attempts left
+     */
+    public long recordFailure(String key, int maxAttempts, LockoutConfig config) {
+        if (key == null || maxAttempts <= 0) {
+            return 0L;
+        }
+        long now = System.currentTimeMillis();
+        while (true) {
+            Attempts state = stateOf(key, now);
+            synchronized (state) {
+                // A state removed by the sweeper or a reset is no longer in the map, count against its replacement
+                if (!state.removed) {
+                    return state.fail(now, maxAttempts, config);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands back a reserved attempt that neither failed nor succeeded, for example an expired OTP
+     *
+     * @param key Attempt key
+     * @param maxAttempts Failed attempts allowed before a lockout, 0 disables the limit
+     */
+    public void release(String key, int maxAttempts) {
+        Attempts state = key != null && maxAttempts > 0 ? attempts.get(key) : null;
+        if (state != null) {
+            synchronized (state) {
+                state.release();
+            }
+        }
+    }
+
+    /**
+     * Forgets the failed attempts and the lockout history of the key, for example after a successful validation
+     */
+    public void reset(String key) {
+        Attempts state = key != null ? attempts.get(key) : null;
+        if (state != null) {
+            remove(state, Long.MIN_VALUE);
+        }
+    }
+
+    public int size() {
+        return attempts.size();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Stops the sweep thread and forgets every key
+     */
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        attempts.clear();
+        clock.clear();
+    }
+
+    /**
+     * Drops every key whose failures have aged out and whose lockout has ended
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (Attempts state : attempts.values()) {
+            remove(state, now);
+        }
+        clock.removeIf(state -> state.removed);
+    }
+
+    private Attempts stateOf(String key, long now) {
+        Attempts state = attempts.get(key);
+        if (state == null) {
+            if (attempts.size() >= maxKeys) {
+                evict(now);
+            }
+            Attempts created = new Attempts(key);
+            state = attempts.computeIfAbsent(key, k -> created);
+            if (state == created) {
+                clock.offer(created);
+            }
+        }
+        state.referenced = true;
+        return state;
+    }
+
+    /**
+     * Advances the clock hand until one key is evicted, giving used and locked out keys a second chance
+     *
+     * The number of second chances is capped, so a full tracker of locked out keys still admits new keys.
+     */
+    private void evict(long now) {
+        int secondChances = 2 * maxKeys;
+        Attempts state;
+        while ((state = clock.poll()) != null) {
+            if (state.removed) {
+                continue;
+            }
+            if ((state.referenced || state.lockedUntil > now) && secondChances-- > 0) {
+                state.referenced = false;
+                clock.offer(state);
+                continue;
+            }
+            if (remove(state, Long.MIN_VALUE)) {
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the state of a key if it has expired at the given time, Long.MIN_VALUE removes it unconditionally
+     *
+     * @return True if this call removed the state
+     */
+    private boolean remove(Attempts state, long now) {
+        synchronized (state) {
+            if (state.removed || (now != Long.MIN_VALUE && now < state.expiresAt)) {
+                return false;
+            }
+            state.removed = true;
+            attempts.remove(state.key, state);
+            return true;
+        }
+    }
+
+    /**
+     * Failed attempts of one key, mutated under its own monitor
+     */
+    private static final class Attempts {
+
+        private final String key;
+        private int failures;
+        private int reserved;
+        private int lockouts;
+        private long expiresAt;
+        private volatile long lockedUntil;
+        // Set on every use and cleared when the clock hand passes, read outside the monitor
+        private volatile boolean referenced;
+        private volatile boolean removed;
+
+        Attempts(String key) {
+            this.key = key;
+        }
+
+        long reserve(long now, int maxAttempts, LockoutConfig config) {
+            ageOut(now);
+            if (lockedUntil > now) {
+                return lockedUntil - now;
+            }
+            if (failures + reserved >= maxAttempts) {
+                // The attempts left are being checked, their outcome decides whether the key gets locked out
+                return IN_FLIGHT_RETRY_MILLIS;
+            }
+            reserved++;
+            expiresAt = Math.max(expiresAt, now + config.getFailureTtlMillis());
+            return 0L;
+        }
+
+        void release() {
+            if (reserved > 0) {
+                reserved--;
+            }
+        }
+
+        long fail(long now, int maxAttempts, LockoutConfig config) {
+            release();
+            ageOut(now);
+            long lockout = 0L;
+            if (++failures >= maxAttempts) {
+                lockouts++;
+                lockout = config.getLockoutMillis(lockouts);
+                lockedUntil = now + lockout;
+                failures = 0;
+            }
+            expiresAt = Math.max(now, lockedUntil) + config.getFailureTtlMillis();
+            return lockout;
+        }
+
+        private void ageOut(long now) {
+            if (now >= expiresAt) {
+                // Earlier failures and lockouts have aged out
+                failures = 0;
+                lockouts = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.custom.federated.authenticator.audit.OTPAuditEvent;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.util.SMSOTPUtil;
+
+import java.util.Locale;
+
+/**
+ * Limits how often OTPs are sent, per user, per recipient and per client IP
+ *
+ * Every send, including a resend, is counted in each limited dimension before the OTP is generated. The
+ * dimensions are checked in that order and a request denied by one still counts against the dimensions checked
+ * before it, which only ever makes the limiter stricter. A failing backend never blocks a login, the request is
+ * allowed and the failure logged.
+ */
+public class OTPRateLimiter {
+
+    private static final Log log = LogFactory.getLog(OTPRateLimiter.class);
+
+    public static final String DIMENSION_USER = "user";
+    public static final String DIMENSION_RECIPIENT = "recipient";
+    public static final String DIMENSION_CLIENT_IP = "ip";
+
+    private static volatile OTPRateLimiter defaultInstance;
+
+    private final RateLimitBackend defaultBackend;
+    private volatile RateLimitBackend backend;
+
+    public OTPRateLimiter(RateLimitBackend defaultBackend) {
+        this.defaultBackend = defaultBackend;
+        this.backend = defaultBackend;
+    }
+
+    /**
+     * Returns the process wide rate limiter shared by the OTP authenticators
+     */
+    public static OTPRateLimiter getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OTPRateLimiter.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OTPRateLimiter(new InMemoryRateLimitBackend());
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Replaces the backend, for example with one shared by the nodes of a cluster
+     *
+     * @param backend Backend to use, null restores the in-memory default
+     */
+    public void setBackend(RateLimitBackend backend) {
+        this.backend = backend != null ? backend : defaultBackend;
+    }
+
+    /**
+     * Counts an OTP send and decides whether it may proceed
+     *
+     * @param config Rate limits of the identity provider
+     * @param channel OTP channel, {@link OTPAuditEvent#CHANNEL_SMS} or {@link OTPAuditEvent#CHANNEL_EMAIL}
+     * @param tenantDomain Tenant domain of the user
+     * @param username Username
+     * @param recipient Mobile number or email address the OTP is sent to
+     * @param clientIp Address of the client that asked for the OTP
+     * @return Decision, never null
+     */
+    public Decision check(RateLimitConfig config, String channel, String tenantDomain, String username,
+                          String recipient, String clientIp) {
+        if (config == null || !config.isEnabled()) {
+            return Decision.ALLOWED;
+        }
+        long windowMillis = config.getWindowMillis();
+        Decision decision = acquire(DIMENSION_USER, userKey(tenantDomain, username), config.getMaxPerUser(),
+                windowMillis);
+        if (decision.isAllowed()) {
+            decision = acquire(DIMENSION_RECIPIENT, recipientKey(channel, recipient), config.getMaxPerRecipient(),
+                    windowMillis);
+        }
+        if (decision.isAllowed()) {
+            decision = acquire(DIMENSION_CLIENT_IP, clientIp != null ? "ip:" + clientIp : null,
+                    config.getMaxPerClientIp(), windowMillis);
+        }
+        return decision;
+    }
+
+    private Decision acquire(String dimension, String key, int limit, long windowMillis) {
+        if (limit <= 0 || key == null) {
+            return Decision.ALLOWED;
+        }
+        long retryAfterMillis;
+        try {
+            retryAfterMillis = backend.tryAcquire(key, limit, windowMillis);
+        } catch (RuntimeException e) {
+            log.error("OTP rate limit backend failed, allowing the request: " + e.getMessage(), e);
+            return Decision.ALLOWED;
+        }
+        return retryAfterMillis <= 0 ? Decision.ALLOWED : new Decision(dimension, retryAfterMillis);
+    }
+
+    private static String userKey(String tenantDomain, String username) {
+        if (StringUtils.isBlank(username)) {
+            return null;
+        }
+        return "user:" + username.trim().toLowerCase(Locale.ROOT) + "@" +
+                (tenantDomain != null ? tenantDomain.toLowerCase(Locale.ROOT) : "");
+    }
+
+    private static String recipientKey(String channel, String recipient) {
+        if (StringUtils.isBlank(recipient)) {
+            return null;
+        }
+        if (OTPAuditEvent.CHANNEL_EMAIL.equals(channel)) {
+            return "email:" + recipient.trim().toLowerCase(Locale.ROOT);
+        }
+        String mobileNumber = SMSOTPUtil.formatMobileNumber(recipient);
+        return StringUtils.isEmpty(mobileNumber) ? null : "mobile:" + mobileNumber;
+    }
+
+    /**
+     * Outcome of a rate limit check
+     */
+    public static final class Decision {
+
+        static final Decision ALLOWED = new Decision(null, 0L);
+
+        private final String dimension;
+        private final long retryAfterMillis;
+
+        Decision(String dimension, long retryAfterMillis) {
+            this.dimension = dimension;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public boolean isAllowed() {
+            return dimension == null;
+        }
+
+        /**
+         * @return Dimension that denied the request, or null if it was allowed
+         */
+        public String getDimension() {
+            return dimension;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+
+        /**
+         * @return Whole seconds until a request would be allowed, rounded up
+         */
+        public long getRetryAfterSeconds() {
+            return (retryAfterMillis + 999) / 1000;
+        }
+    }
+}
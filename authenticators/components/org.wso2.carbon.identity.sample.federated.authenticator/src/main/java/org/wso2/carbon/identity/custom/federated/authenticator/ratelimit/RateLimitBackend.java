@@ -0,0 +1,28 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+/**
+ * Storage of the sliding window counters behind {@link OTPRateLimiter}
+ *
+ * The in-memory default only sees the requests of its own node. A clustered deployment registers an
+ * implementation backed by a shared store as an OSGi service, which replaces the default while it is available.
+ * Implementations must be thread safe and must count a request atomically with its check.
+ */
+public interface RateLimitBackend {
+
+    /**
+     * Counts a request against the key if the key is still below its limit
+     *
+     * @param key Rate limit key, already normalized and prefixed with its dimension
+     * @param limit Maximum number of requests per window
+     * @param windowMillis Length of the sliding window
+     * @return 0 if the request was allowed and counted, otherwise the milliseconds until a request would be allowed
+     */
+    long tryAcquire(String key, int limit, long windowMillis);
+
+    /**
+     * Forgets every request counted against the key
+     *
+     * @param key Rate limit key
+     */
+    void reset(String key);
+}
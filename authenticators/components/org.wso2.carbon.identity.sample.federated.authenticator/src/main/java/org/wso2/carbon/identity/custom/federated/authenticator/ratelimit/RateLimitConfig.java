@@ -0,0 +1,40 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+/**
+ * Configuration class for the OTP send rate limits, a limit of 0 disables its dimension
+ *
+ * Every limit is off unless configured on the identity provider, so existing deployments keep sending OTPs as
+ * before. The client IP limit in particular has to be sized for the users sharing a NAT or proxy address.
+ */
+public class RateLimitConfig {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 15 * 60 * 1000L;
+    public static final int DEFAULT_MAX_PER_USER = 0;
+    public static final int DEFAULT_MAX_PER_RECIPIENT = 0;
+    public static final int DEFAULT_MAX_PER_CLIENT_IP = 0;
+
+    private long windowMillis = DEFAULT_WINDOW_MILLIS;
+    private int maxPerUser = DEFAULT_MAX_PER_USER;
+    private int maxPerRecipient = DEFAULT_MAX_PER_RECIPIENT;
+    private int maxPerClientIp = DEFAULT_MAX_PER_CLIENT_IP;
+
+    /**
+     * @return True if at least one dimension is limited
+     */
+    public boolean isEnabled() {
+        return windowMillis > 0 && (maxPerUser > 0 || maxPerRecipient > 0 || maxPerClientIp > 0);
+    }
+
+    // Getters and setters
+    public long getWindowMillis() { return windowMillis; }
+    public void setWindowMillis(long windowMillis) { this.windowMillis = windowMillis; }
+
+    public int getMaxPerUser() { return maxPerUser; }
+    public void setMaxPerUser(int maxPerUser) { this.maxPerUser = maxPerUser; }
+
+    public int getMaxPerRecipient() { return maxPerRecipient; }
+    public void setMaxPerRecipient(int maxPerRecipient) { this.maxPerRecipient = maxPerRecipient; }
+
+    public int getMaxPerClientIp() { return maxPerClientIp; }
+    public void setMaxPerClientIp(int maxPerClientIp) { this.maxPerClientIp = maxPerClientIp; }
+}
@@ -0,0 +1,61 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.resilience;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the number of concurrent calls to a gateway
+ *
+ * Callers that cannot enter within the configured wait are rejected instead of queueing, so a slow gateway
+ * cannot hold more than the configured number of request threads.
+ */
+public class Bulkhead {
+
+    private final int maxConcurrentCalls;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    public Bulkhead(int maxConcurrentCalls, long maxWaitMillis) {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrentCalls);
+    }
+
+    /**
+     * Enters the bulkhead, waiting at most the configured time
+     *
+     * @return True if entered, in which case {@link #exit} must be called
+     */
+    public boolean tryEnter() {
+        boolean entered;
+        try {
+            entered = maxWaitMillis > 0 ? permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS) :
+                    permits.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            entered = false;
+        }
+        if (!entered) {
+            rejectedCalls.incrementAndGet();
+        }
+        return entered;
+    }
+
+    public void exit() {
+        permits.release();
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public int getActiveCalls() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+}
@@ -0,0 +1,150 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.resilience;
+
+/**
+ * Count based circuit breaker guarding a single gateway
+ *
+ * The outcome of the last calls is kept in a ring buffer. The breaker opens when the failure rate or the slow
+ * call rate of the window reaches its threshold, rejects calls while open, and lets a few trial calls through
+ * once the open duration has passed. The trial calls close the breaker again if they all succeed.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Breaker state
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final ResilienceConfig config;
+    private final byte[] window;
+    private int windowPosition;
+    private int recordedCalls;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int trialPermits;
+    private int trialSuccesses;
+
+    public CircuitBreaker(ResilienceConfig config) {
+        this.config = config;
+        this.window = new byte[Math.max(1, config.getWindowSize())];
+    }
+
+    /**
+     * Asks for permission to call the gateway
+     *
+     * @return True if the call may proceed, in which case {@link #onResult} must be called once it completes
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialPermits = 0;
+            trialSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialPermits >= config.getHalfOpenCalls()) {
+                return false;
+            }
+            trialPermits++;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a permission that was acquired but not used
+     */
+    public synchronized void releasePermission() {
+        if (state == State.HALF_OPEN && trialPermits > 0) {
+            trialPermits--;
+        }
+    }
+
+    /**
+     * Records the outcome of a permitted call
+     *
+     * @param success Whether the gateway handled the call
+     * @param elapsedMillis Call duration
+     */
+    public synchronized void onResult(boolean success, long elapsedMillis) {
+        if (state == State.HALF_OPEN) {
+            if (!success || elapsedMillis >= config.getSlowCallMillis()) {
+                open();
+            } else if (++trialSuccesses >= config.getHalfOpenCalls()) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        record(!success ? FAILURE : elapsedMillis >= config.getSlowCallMillis() ? SLOW : SUCCESS);
+        if (recordedCalls >= config.getMinimumCalls() &&
+                (failures * 100 >= config.getFailureRatePercent() * recordedCalls ||
+                        slowCalls * 100 >= config.getSlowCallRatePercent() * recordedCalls)) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return True if a call would currently be rejected
+     */
+    public boolean isOpen() {
+        return getState() == State.OPEN;
+    }
+
+    private void record(byte outcome) {
+        if (recordedCalls == window.length) {
+            byte evicted = window[windowPosition];
+            if (evicted == FAILURE) {
+                failures--;
+            } else if (evicted == SLOW) {
+                slowCalls--;
+            }
+        } else {
+            recordedCalls++;
+        }
+        window[windowPosition] = outcome;
+        windowPosition = (windowPosition + 1) % window.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + config.getOpenDurationMillis();
+        resetWindow();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        recordedCalls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
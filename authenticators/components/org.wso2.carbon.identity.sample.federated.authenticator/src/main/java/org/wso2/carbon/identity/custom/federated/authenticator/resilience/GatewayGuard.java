@@ -0,0 +1,173 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.resilience;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker and bulkhead of a single gateway
+ *
+ * Guards are shared per configured gateway through {@link #forGateway}, the same identity the
+ * {@link GatewayRouter} ranks gateways by, so mirrors on one host trip their breakers independently. Endpoints
+ * whose URL carries per request values share a guard per route (scheme, host and port) through {@link #forUrl}.
+ * A call acquires a {@link Permit} before it is attempted and completes it with its outcome.
+ */
+public class GatewayGuard {
+
+    private static final Log log = LogFactory.getLog(GatewayGuard.class);
+
+    private static final Map<String, GatewayGuard> GUARDS = new ConcurrentHashMap<>();
+    private static volatile ResilienceConfig defaultConfig = new ResilienceConfig();
+
+    private final String name;
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+
+    public GatewayGuard(String name, ResilienceConfig config) {
+        this.name = name;
+        this.circuitBreaker = new CircuitBreaker(config);
+        this.bulkhead = new Bulkhead(config.getMaxConcurrentCalls(), config.getMaxWaitMillis());
+    }
+
+    /**
+     * Returns the shared guard of the gateway serving the given URL
+     *
+     * @param url Gateway URL
+     * @return Gateway guard
+     */
+    public static GatewayGuard forUrl(String url) {
+        String route = routeOf(url);
+        return guardOf(route, route);
+    }
+
+    /**
+     * Returns the shared guard of a configured gateway
+     *
+     * @param gatewayUrl Gateway URL as configured, before any placeholder is replaced
+     * @return Gateway guard
+     */
+    public static GatewayGuard forGateway(String gatewayUrl) {
+        // The query of a configured URL may hold gateway credentials, it is left out of the logged name
+        return guardOf(String.valueOf(gatewayUrl), routeOf(gatewayUrl) + pathOf(gatewayUrl));
+    }
+
+    private static GatewayGuard guardOf(String key, String name) {
+        GatewayGuard guard = GUARDS.get(key);
+        if (guard == null) {
+            guard = GUARDS.computeIfAbsent(key, k -> new GatewayGuard(name, defaultConfig));
+        }
+        return guard;
+    }
+
+    /**
+     * Replaces the configuration used for guards created from now on and drops the existing guards
+     *
+     * An unchanged configuration is ignored, so the breaker state survives reloads of unrelated parameters.
+     */
+    public static synchronized void configure(ResilienceConfig config) {
+        if (config.equals(defaultConfig)) {
+            return;
+        }
+        defaultConfig = config;
+        GUARDS.clear();
+        if (log.isDebugEnabled()) {
+            log.debug("Reconfigured the gateway circuit breakers and bulkheads");
+        }
+    }
+
+    /**
+     * @return Configuration of the guards created from now on
+     */
+    public static ResilienceConfig getDefaultConfig() {
+        return defaultConfig;
+    }
+
+    /**
+     * Acquires a permit to call the gateway
+     *
+     * @return Permit that must be completed once the call finishes
+     * @throws GatewayUnavailableException If the circuit breaker is open or the bulkhead is full
+     */
+    public Permit acquire() throws GatewayUnavailableException {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            throw new GatewayUnavailableException("Circuit breaker is open for gateway " + name);
+        }
+        if (!bulkhead.tryEnter()) {
+            circuitBreaker.releasePermission();
+            throw new GatewayUnavailableException("Too many concurrent requests to gateway " + name);
+        }
+        return new Permit();
+    }
+
+    /**
+     * @return True if calls to the gateway are currently rejected by the circuit breaker
+     */
+    public boolean isOpen() {
+        return circuitBreaker.isOpen();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public Bulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    private static String routeOf(String url) {
+        try {
+            URL parsed = new URL(url);
+            int port = parsed.getPort() != -1 ? parsed.getPort() : parsed.getDefaultPort();
+            return parsed.getProtocol() + "://" + parsed.getHost() + ":" + port;
+        } catch (MalformedURLException e) {
+            return String.valueOf(url);
+        }
+    }
+
+    private static String pathOf(String url) {
+        try {
+            return new URL(url).getPath();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Permission to make a single gateway call
+     */
+    public final class Permit {
+
+        private final long startMillis = System.currentTimeMillis();
+        private boolean completed;
+
+        private Permit() {
+        }
+
+        /**
+         * Releases the permit and records the outcome of the call
+         *
+         * @param success Whether the gateway handled the call, client errors count as handled
+         */
+        public void complete(boolean success) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            bulkhead.exit();
+            CircuitBreaker.State before = circuitBreaker.getState();
+            circuitBreaker.onResult(success, System.currentTimeMillis() - startMillis);
+            CircuitBreaker.State after = circuitBreaker.getState();
+            if (before != after) {
+                log.warn("Circuit breaker of gateway " + name + " moved from " + before + " to " + after);
+            }
+        }
+    }
+}
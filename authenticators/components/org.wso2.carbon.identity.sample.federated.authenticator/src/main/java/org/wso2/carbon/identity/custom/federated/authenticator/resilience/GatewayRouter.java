@@ -0,0 +1,192 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.resilience;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency aware load balancer across interchangeable gateways
+ *
+ * Every gateway keeps an exponentially weighted moving average of its latency and error rate. The averages
+ * also decay with time, so a gateway that failed a while ago is tried again once its error rate has faded.
+ * Gateways are ranked by their average latency, inflated by the calls they currently have in flight and by
+ * their error rate, which spreads the load once the fastest gateway queues up.
+ */
+public class GatewayRouter {
+
+    public static final long DEFAULT_DECAY_MILLIS = 10000L;
+    // Minimum weight of a new sample, so that bursts of calls move the averages too
+    private static final double MIN_SAMPLE_WEIGHT = 0.2;
+
+    private static volatile GatewayRouter defaultInstance;
+
+    private final Map<String, GatewayStats> stats = new ConcurrentHashMap<>();
+    private final long decayNanos;
+
+    public GatewayRouter(long decayMillis) {
+        this.decayNanos = Math.max(1L, decayMillis) * 1_000_000L;
+    }
+
+    /**
+     * Returns the process wide router shared by the OTP authenticators
+     */
+    public static GatewayRouter getDefault() {
+        if (defaultInstance == null) {
+            synchronized (GatewayRouter.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new GatewayRouter(DEFAULT_DECAY_MILLIS);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Orders gateways by preference
+     *
+     * Gateways whose circuit breaker is open are moved to the end, so they are only attempted when every other
+     * gateway failed as well.
+     *
+     * @param gatewayUrls Configured gateway URLs
+     * @return Gateway URLs, the preferred gateway first
+     */
+    public List<String> route(List<String> gatewayUrls) {
+        if (gatewayUrls.size() < 2) {
+            return gatewayUrls;
+        }
+        long now = System.nanoTime();
+        List<Candidate> candidates = new ArrayList<>(gatewayUrls.size());
+        for (int i = 0; i < gatewayUrls.size(); i++) {
+            String url = gatewayUrls.get(i);
+            boolean open = GatewayGuard.forGateway(url).isOpen();
+            candidates.add(new Candidate(url, open, statsOf(url).score(now), i));
+        }
+        Collections.sort(candidates);
+        List<String> ordered = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            ordered.add(candidate.url);
+        }
+        return ordered;
+    }
+
+    /**
+     * Marks the start of a call to a gateway
+     *
+     * @param gatewayUrl Gateway URL
+     * @return Start time to pass to {@link #onComplete}
+     */
+    public long onStart(String gatewayUrl) {
+        statsOf(gatewayUrl).inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the outcome of a call to a gateway
+     *
+     * @param gatewayUrl Gateway URL
+     * @param startNanos Start time returned by {@link #onStart}
+     * @param success Whether the gateway accepted the message
+     */
+    public void onComplete(String gatewayUrl, long startNanos, boolean success) {
+        GatewayStats gatewayStats = statsOf(gatewayUrl);
+        gatewayStats.inFlight.decrementAndGet();
+        long now = System.nanoTime();
+        gatewayStats.record(now, now - startNanos, success);
+    }
+
+    /**
+     * @return Average latency of the gateway in milliseconds
+     */
+    public double getLatencyMillis(String gatewayUrl) {
+        GatewayStats gatewayStats = stats.get(gatewayUrl);
+        return gatewayStats == null ? 0 : gatewayStats.latencyNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return Decayed error rate of the gateway between 0 and 1
+     */
+    public double getErrorRate(String gatewayUrl) {
+        GatewayStats gatewayStats = stats.get(gatewayUrl);
+        return gatewayStats == null ? 0 : gatewayStats.decayedErrorRate(System.nanoTime());
+    }
+
+    private GatewayStats statsOf(String gatewayUrl) {
+        GatewayStats gatewayStats = stats.get(gatewayUrl);
+        if (gatewayStats == null) {
+            gatewayStats = stats.computeIfAbsent(gatewayUrl, k -> new GatewayStats());
+        }
+        return gatewayStats;
+    }
+
+    /**
+     * Moving averages of a single gateway
+     */
+    private final class GatewayStats {
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double latencyNanos;
+        private double errorRate;
+        private long lastUpdateNanos;
+        private boolean sampled;
+
+        synchronized void record(long now, long elapsedNanos, boolean success) {
+            double sample = success ? 0 : 1;
+            if (!sampled) {
+                latencyNanos = elapsedNanos;
+                errorRate = sample;
+                sampled = true;
+            } else {
+                double weight = Math.min(1 - MIN_SAMPLE_WEIGHT,
+                        Math.exp(-(double) (now - lastUpdateNanos) / decayNanos));
+                latencyNanos = latencyNanos * weight + elapsedNanos * (1 - weight);
+                errorRate = errorRate * weight + sample * (1 - weight);
+            }
+            lastUpdateNanos = now;
+        }
+
+        synchronized double decayedErrorRate(long now) {
+            if (!sampled) {
+                return 0;
+            }
+            return errorRate * Math.exp(-(double) (now - lastUpdateNanos) / decayNanos);
+        }
+
+        /**
+         * Lower is better, gateways without samples score zero so that they are tried and measured
+         */
+        synchronized double score(long now) {
+            if (!sampled) {
+                return 0;
+            }
+            double failureFactor = 1 / Math.max(0.05, 1 - decayedErrorRate(now));
+            return latencyNanos * (inFlight.get() + 1) * failureFactor;
+        }
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final String url;
+        private final boolean open;
+        private final double score;
+        private final int position;
+
+        Candidate(String url, boolean open, double score, int position) {
+            this.url = url;
+            this.open = open;
+            this.score = score;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (open != other.open) {
+                return open ? 1 : -1;
+            }
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Integer.compare(position, other.position);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.resilience;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a gateway call is rejected without being attempted, because the circuit breaker of the gateway
+ * is open or its bulkhead is full
+ */
+public class GatewayUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public GatewayUnavailableException(String message) {
+        super(message);
+    }
+}
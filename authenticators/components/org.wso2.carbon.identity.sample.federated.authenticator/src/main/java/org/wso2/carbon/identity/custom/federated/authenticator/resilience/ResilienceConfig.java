@@ -0,0 +1,125 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.resilience;
+
+import org.apache.commons.lang.StringUtils;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpParameters;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.util.Arrays;
+
+/**
+ * Configuration class for the gateway bulkhead and circuit breaker
+ */
+public class ResilienceConfig {
+
+    public static final int DEFAULT_MAX_CONCURRENT_CALLS = 10;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 100L;
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final int DEFAULT_FAILURE_RATE_PERCENT = 50;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 3000L;
+    public static final int DEFAULT_SLOW_CALL_RATE_PERCENT = 80;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000L;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    private int maxConcurrentCalls = DEFAULT_MAX_CONCURRENT_CALLS;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private int failureRatePercent = DEFAULT_FAILURE_RATE_PERCENT;
+    private long slowCallMillis = DEFAULT_SLOW_CALL_MILLIS;
+    private int slowCallRatePercent = DEFAULT_SLOW_CALL_RATE_PERCENT;
+    private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+    private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+    /**
+     * Builds the configuration from the global OTP parameters, unset or invalid values keep their defaults
+     *
+     * @param parameters Global OTP parameters
+     * @return Gateway resilience configuration
+     */
+    public static ResilienceConfig fromParameters(OtpParameters parameters) {
+        ResilienceConfig config = new ResilienceConfig();
+        config.maxConcurrentCalls = positiveInt(parameters, SMSOTPConstants.GATEWAY_MAX_CONCURRENT_CALLS,
+                DEFAULT_MAX_CONCURRENT_CALLS);
+        config.maxWaitMillis = positiveLong(parameters, SMSOTPConstants.GATEWAY_MAX_WAIT, DEFAULT_MAX_WAIT_MILLIS);
+        config.windowSize = positiveInt(parameters, SMSOTPConstants.GATEWAY_WINDOW_SIZE, DEFAULT_WINDOW_SIZE);
+        config.minimumCalls = positiveInt(parameters, SMSOTPConstants.GATEWAY_MINIMUM_CALLS, DEFAULT_MINIMUM_CALLS);
+        config.failureRatePercent = positiveInt(parameters, SMSOTPConstants.GATEWAY_FAILURE_RATE,
+                DEFAULT_FAILURE_RATE_PERCENT);
+        config.slowCallMillis = positiveLong(parameters, SMSOTPConstants.GATEWAY_SLOW_CALL, DEFAULT_SLOW_CALL_MILLIS);
+        config.slowCallRatePercent = positiveInt(parameters, SMSOTPConstants.GATEWAY_SLOW_CALL_RATE,
+                DEFAULT_SLOW_CALL_RATE_PERCENT);
+        config.openDurationMillis = positiveLong(parameters, SMSOTPConstants.GATEWAY_OPEN_DURATION,
+                DEFAULT_OPEN_DURATION_MILLIS);
+        config.halfOpenCalls = positiveInt(parameters, SMSOTPConstants.GATEWAY_HALF_OPEN_CALLS,
+                DEFAULT_HALF_OPEN_CALLS);
+        return config;
+    }
+
+    private static int positiveInt(OtpParameters parameters, String name, int defaultValue) {
+        return (int) Math.min(Integer.MAX_VALUE, positiveLong(parameters, name, defaultValue));
+    }
+
+    private static long positiveLong(OtpParameters parameters, String name, long defaultValue) {
+        String value = parameters.get(name);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            return parsed > 0 ? parsed : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // Getters and setters
+    public int getMaxConcurrentCalls() { return maxConcurrentCalls; }
+    public void setMaxConcurrentCalls(int maxConcurrentCalls) { this.maxConcurrentCalls = maxConcurrentCalls; }
+
+    public long getMaxWaitMillis() { return maxWaitMillis; }
+    public void setMaxWaitMillis(long maxWaitMillis) { this.maxWaitMillis = maxWaitMillis; }
+
+    public int getWindowSize() { return windowSize; }
+    public void setWindowSize(int windowSize) { this.windowSize = windowSize; }
+
+    public int getMinimumCalls() { return minimumCalls; }
+    public void setMinimumCalls(int minimumCalls) { this.minimumCalls = minimumCalls; }
+
+    public int getFailureRatePercent() { return failureRatePercent; }
+    public void setFailureRatePercent(int failureRatePercent) { this.failureRatePercent = failureRatePercent; }
+
+    public long getSlowCallMillis() { return slowCallMillis; }
+    public void setSlowCallMillis(long slowCallMillis) { this.slowCallMillis = slowCallMillis; }
+
+    public int getSlowCallRatePercent() { return slowCallRatePercent; }
+    public void setSlowCallRatePercent(int slowCallRatePercent) { this.slowCallRatePercent = slowCallRatePercent; }
+
+    public long getOpenDurationMillis() { return openDurationMillis; }
+    public void setOpenDurationMillis(long openDurationMillis) { this.openDurationMillis = openDurationMillis; }
+
+    public int getHalfOpenCalls() { return halfOpenCalls; }
+    public void setHalfOpenCalls(int halfOpenCalls) { this.halfOpenCalls = halfOpenCalls; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ResilienceConfig)) {
+            return false;
+        }
+        ResilienceConfig that = (ResilienceConfig) o;
+        return maxConcurrentCalls == that.maxConcurrentCalls && maxWaitMillis == that.maxWaitMillis &&
+                windowSize == that.windowSize && minimumCalls == that.minimumCalls &&
+                failureRatePercent == that.failureRatePercent && slowCallMillis == that.slowCallMillis &&
+                slowCallRatePercent == that.slowCallRatePercent && openDurationMillis == that.openDurationMillis &&
+                halfOpenCalls == that.halfOpenCalls;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new long[]{maxConcurrentCalls, maxWaitMillis, windowSize, minimumCalls,
+                failureRatePercent, slowCallMillis, slowCallRatePercent, openDurationMillis, halfOpenCalls});
+    }
+}
@@ -5,6 +5,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 import org.apache.commons.logging.Log;
@@ -16,22 +17,100 @@ public class OneTimePassword {
     // These are used to calculate the check-sum digits.
     // 0 1 2 3 4 5 6 7 8 9
     private static final int[] doubleDigits = {0, 2, 4, 6, 8, 1, 3, 5, 7, 9};
+    private static final int[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000,
+            1000000000};
+    private static final char[] BASE36_DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    // Two base 36 encoded integers take at most 12 characters
+    private static final int SCRATCH_SIZE = 32;
     private static Log log = LogFactory.getLog(OneTimePassword.class);
 
+    // Mac and SecureRandom instances are expensive to look up and are not thread safe, so each thread keeps its own.
+    // Every per thread value is a JDK type, a value of a bundle class would keep the bundle class loader reachable
+    // from the container threads after the bundle is stopped.
+    private static final ThreadLocal<Mac> HMAC = new ThreadLocal<>();
+    private static final ThreadLocal<Mac> HMAC_SHA256 = new ThreadLocal<>();
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<>();
+    private static final ThreadLocal<byte[]> TEXT = new ThreadLocal<>();
+    private static final ThreadLocal<char[]> CHARS = new ThreadLocal<>();
+
+    /**
+     * @return Per thread buffer for the moving factor
+     */
+    private static byte[] text() {
+
+        byte[] text = TEXT.get();
+        if (text == null) {
+            text = new byte[8];
+            TEXT.set(text);
+        }
+        return text;
+    }
+
+    /**
+     * @return Per thread character buffer of at least the given size
+     */
+    private static char[] chars(int minimumSize) {
+
+        char[] chars = CHARS.get();
+        if (chars == null || chars.length < minimumSize) {
+            chars = new char[Math.max(SCRATCH_SIZE, minimumSize)];
+            CHARS.set(chars);
+        }
+        return chars;
+    }
+
+    /**
+     * Drops the Mac, random generator and buffers of the calling thread
+     */
+    public static void clearThreadState() {
+
+        HMAC.remove();
+        HMAC_SHA256.remove();
+        RANDOM.remove();
+        TEXT.remove();
+        CHARS.remove();
+    }
+
     public static String getRandomNumber(int size) {
 
-        StringBuilder generatedToken = new StringBuilder();
-        try {
-            SecureRandom number = SecureRandom.getInstance(SMSOTPConstants.ALGORITHM_NAME);
-            // Generate 20 integers 0..20
-            for (int i = 0; i < size; i++) {
-                generatedToken.append(number.nextInt(9));
-            }
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Unable to find the Algorithm", e);
+        SecureRandom number = random();
+        if (number == null) {
+            return "";
+        }
+        char[] generatedToken = new char[size];
+        for (int i = 0; i < size; i++) {
+            generatedToken[i] = (char) ('0' + number.nextInt(9));
+        }
+        return new String(generatedToken);
+    }
+
+    /**
+     * Fills the array with random bytes from the per thread random generator
+     *
+     * @param bytes array to fill
+     * @throws NoSuchAlgorithmException if the random algorithm is unavailable
+     */
+    public static void nextBytes(byte[] bytes) throws NoSuchAlgorithmException {
+
+        SecureRandom number = random();
+        if (number == null) {
+            throw new NoSuchAlgorithmException(SMSOTPConstants.ALGORITHM_NAME + " is not available");
         }
+        number.nextBytes(bytes);
+    }
+
+    private static SecureRandom random() {
 
-        return generatedToken.toString();
+        SecureRandom number = RANDOM.get();
+        if (number == null) {
+            try {
+                number = SecureRandom.getInstance(SMSOTPConstants.ALGORITHM_NAME);
+                RANDOM.set(number);
+            } catch (NoSuchAlgorithmException e) {
+                log.error("Unable to find the Algorithm", e);
+            }
+        }
+        return number;
     }
 
     /**
@@ -73,17 +152,50 @@ public class OneTimePassword {
 
     public static byte[] hmacShaGenerate(byte[] keyBytes, byte[] text) throws NoSuchAlgorithmException, InvalidKeyException {
 
-        Mac hmacSha;
-        try {
-            hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC);
-        } catch (NoSuchAlgorithmException nsa) {
-            hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC_SHA);
+        Mac hmacSha = HMAC.get();
+        if (hmacSha == null) {
+            try {
+                hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC);
+            } catch (NoSuchAlgorithmException nsa) {
+                hmacSha = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC_SHA);
+            }
+            HMAC.set(hmacSha);
         }
         SecretKeySpec macKey = new SecretKeySpec(keyBytes, "RAW");
         hmacSha.init(macKey);
         return hmacSha.doFinal(text);
     }
 
+    /**
+     * Computes an HMAC-SHA-256 into the output buffer with the per thread Mac instance
+     *
+     * @param key          array holding the key
+     * @param keyOffset    offset of the key in the array
+     * @param keyLength    length of the key
+     * @param text         array holding the message
+     * @param textLength   length of the message, starting at index 0
+     * @param output       buffer receiving the 32 byte MAC
+     * @param outputOffset offset of the MAC in the output buffer
+     * @throws NoSuchAlgorithmException if no provider makes HmacSHA256 available
+     * @throws InvalidKeyException      if the key is empty
+     */
+    public static void hmacSha256(byte[] key, int keyOffset, int keyLength, byte[] text, int textLength,
+                                  byte[] output, int outputOffset) throws NoSuchAlgorithmException, InvalidKeyException {
+
+        Mac hmacSha256 = HMAC_SHA256.get();
+        if (hmacSha256 == null) {
+            hmacSha256 = Mac.getInstance(SMSOTPConstants.ALGORITHM_HMAC_SHA256);
+            HMAC_SHA256.set(hmacSha256);
+        }
+        hmacSha256.init(new SecretKeySpec(key, keyOffset, keyLength, "RAW"));
+        hmacSha256.update(text, 0, textLength);
+        try {
+            hmacSha256.doFinal(output, outputOffset);
+        } catch (ShortBufferException e) {
+            throw new IllegalArgumentException("Output buffer too small for an HMAC-SHA-256", e);
+        }
+    }
+
     /**
      * This method generates an OTP value for the given set of parameters.
      *
@@ -106,15 +218,8 @@ public class OneTimePassword {
     public static String generateOTP(byte[] secret, long movingFactor, int codeDigits, boolean addChecksum,
                                      int truncationOffset) throws NoSuchAlgorithmException, InvalidKeyException {
         // put movingFactor value into text byte array
-        String result = null;
         int digits = addChecksum ? (codeDigits + 1) : codeDigits;
-        byte[] text = new byte[8];
-        for (int i = text.length - 1; i >= 0; i--) {
-            text[i] = (byte) (movingFactor & 0xff);
-            movingFactor >>= 8;
-        }
-        // compute hmac hash
-        byte[] hash = hmacShaGenerate(secret, text);
+        byte[] hash = hmacShaGenerate(secret, writeMovingFactor(text(), movingFactor));
 
         // put selected bytes into result int
         int offset = hash[hash.length - 1] & 0xf;
@@ -124,15 +229,27 @@ public class OneTimePassword {
         int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
                 | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
 
-        int otp = binary % ((int) Math.pow(10, codeDigits));
+        int otp = binary % (codeDigits < POWERS_OF_TEN.length ? POWERS_OF_TEN[codeDigits] :
+                (int) Math.pow(10, codeDigits));
         if (addChecksum) {
             otp = (otp * 10) + calcChecksum(otp, codeDigits);
         }
-        result = Integer.toString(otp);
-        while (result.length() < digits) {
-            result = "0" + result;
+        if (otp < 0) {
+            // the checksum overflowed the int range, keep the historical signed representation
+            String result = Integer.toString(otp);
+            while (result.length() < digits) {
+                result = "0" + result;
+            }
+            return result;
         }
-        return result;
+        // write the digits right to left and pad with leading zeros
+        char[] chars = chars(Math.max(digits, 11));
+        int end = chars.length;
+        int start = writeDigits(chars, end, otp, 10);
+        while (end - start < digits) {
+            chars[--start] = '0';
+        }
+        return new String(chars, start, end - start);
     }
 
     /**
@@ -157,15 +274,8 @@ public class OneTimePassword {
     public static String generateAlphaNumericOTP(byte[] secret, long movingFactor, int codeDigits, boolean addChecksum,
                                                  int truncationOffset) throws NoSuchAlgorithmException, InvalidKeyException {
         // put movingFactor value into text byte array
-        String result = null;
         int digits = addChecksum ? (codeDigits + 1) : codeDigits;
-        byte[] text = new byte[8];
-        for (int i = text.length - 1; i >= 0; i--) {
-            text[i] = (byte) (movingFactor & 0xff);
-            movingFactor >>= 8;
-        }
-        // compute hmac hash
-        byte[] hash = hmacShaGenerate(secret, text);
+        byte[] hash = hmacShaGenerate(secret, writeMovingFactor(text(), movingFactor));
         // put selected bytes into result int
         int offset = hash[hash.length - 1] & 0xf;
         if ((0 <= truncationOffset) && (truncationOffset < (hash.length - 8))) {
@@ -175,12 +285,41 @@ public class OneTimePassword {
                 | ((hash[offset + 2] & 0xff) << 8) | ((hash[offset + 3] & 0xff));
         int secondBinary = ((hash[offset + 4] & 0x7f) << 24) | ((hash[offset + 5] & 0xff) << 16)
                 | ((hash[offset + 6] & 0xff) << 8) | ((hash[offset + 7] & 0xff));
-        result = Integer.toString(firstBinary, 36).concat(Integer.toString(secondBinary, 36)).toUpperCase();
-        while (result.length() < digits) {
-            result = "A" + result;
+        // both values in upper case base 36, padded with leading 'A' and cut to the last digits characters
+        char[] chars = chars(SCRATCH_SIZE + digits);
+        int end = chars.length;
+        int start = writeDigits(chars, writeDigits(chars, end, secondBinary, 36), firstBinary, 36);
+        while (end - start < digits) {
+            chars[--start] = 'A';
         }
-        result = result.substring(result.length() - digits, result.length());
-        return result;
+        return new String(chars, end - digits, digits);
+    }
+
+    /**
+     * Writes the moving factor into the text buffer in big endian order
+     */
+    private static byte[] writeMovingFactor(byte[] text, long movingFactor) {
+
+        for (int i = text.length - 1; i >= 0; i--) {
+            text[i] = (byte) (movingFactor & 0xff);
+            movingFactor >>= 8;
+        }
+        return text;
+    }
+
+    /**
+     * Writes a non negative value in the given radix ending right before the end index
+     *
+     * @return index of the first written character
+     */
+    private static int writeDigits(char[] chars, int end, int value, int radix) {
+
+        int position = end;
+        do {
+            chars[--position] = BASE36_DIGITS[value % radix];
+            value /= radix;
+        } while (value > 0);
+        return position;
     }
 
     /**
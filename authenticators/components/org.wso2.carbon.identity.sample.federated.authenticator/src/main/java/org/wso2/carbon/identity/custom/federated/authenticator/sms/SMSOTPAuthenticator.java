@@ -9,21 +9,36 @@ import org.wso2.carbon.identity.application.authentication.framework.model.Authe
 import org.wso2.carbon.identity.application.authentication.framework.util.FrameworkUtils;
 import org.wso2.carbon.identity.application.common.model.Property;
 import org.wso2.carbon.identity.custom.federated.authenticator.CustomFederatedAuthenticator;
+import org.wso2.carbon.identity.custom.federated.authenticator.audit.OTPAuditEvent;
+import org.wso2.carbon.identity.custom.federated.authenticator.audit.OTPAuditLogger;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfigCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpStepSettings;
+import org.wso2.carbon.identity.custom.federated.authenticator.dispatch.DeliveryStatus;
+import org.wso2.carbon.identity.custom.federated.authenticator.dispatch.OTPDispatcher;
+import org.wso2.carbon.identity.custom.federated.authenticator.exception.SMSOTPException;
+import org.wso2.carbon.identity.custom.federated.authenticator.internal.CustomFederatedAuthenticatorDataHolder;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.OTPRateLimiter;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayUnavailableException;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.model.SMSResponse;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPDigest;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPService;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.OTPSessionState;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.SMSService;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.service.ValidationService;
-import org.wso2.carbon.user.core.UserRealm;
-import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.identity.custom.federated.authenticator.util.AuthenticatorConfigUtil;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Refactored SMS OTP Authenticator with better structure and cleaner functions
@@ -38,6 +53,7 @@ public class SMSOTPAuthenticator implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private static final Log log = LogFactory.getLog(SMSOTPAuthenticator.class);
+    private static final String SMS_UNAVAILABLE_MESSAGE = "SMS is temporarily unavailable. Please choose email.";
 
     // Service instances
     private final OTPService otpService;
@@ -45,12 +61,21 @@ public class SMSOTPAuthenticator implements Serializable {
     private final ValidationService validationService;
 
     /**
-     * Constructor with dependency injection
+     * Creates the authenticator on top of the services shared by the bundle
      */
     public SMSOTPAuthenticator() {
-        this.otpService = new OTPService();
-        this.smsService = new SMSService();
-        this.validationService = new ValidationService();
+        this(CustomFederatedAuthenticatorDataHolder.getInstance().getOTPService(),
+                CustomFederatedAuthenticatorDataHolder.getInstance().getSMSService(),
+                CustomFederatedAuthenticatorDataHolder.getInstance().getValidationService());
+    }
+
+    /**
+     * Constructor with dependency injection
+     */
+    public SMSOTPAuthenticator(OTPService otpService, SMSService smsService, ValidationService validationService) {
+        this.otpService = otpService;
+        this.smsService = smsService;
+        this.validationService = validationService;
     }
 
     /**
@@ -116,30 +141,7 @@ public class SMSOTPAuthenticator implements Serializable {
      * Returns configuration properties for this authenticator
      */
     public List<Property> getConfigurationProperties() {
-        List<Property> properties = new ArrayList<>();
-        
-        properties.add(createProperty(SMSOTPConstants.SMS_URL, "SMS URL", 
-                "Enter client SMS URL value. Use $ctx.num for phone number and $ctx.msg for message", true, 0));
-        
-        properties.add(createProperty(SMSOTPConstants.HTTP_METHOD, "HTTP Method", 
-                "Enter the HTTP Method used by the SMS API", true, 1));
-        
-        properties.add(createProperty(SMSOTPConstants.HEADERS, "HTTP Headers", 
-                "Enter headers separated by comma. Use $ctx.num and $ctx.msg for placeholders", false, 2));
-        
-        properties.add(createProperty(SMSOTPConstants.PAYLOAD, "HTTP Payload", 
-                "Enter HTTP Payload for SMS API. Use $ctx.num and $ctx.msg for placeholders", false, 3));
-        
-        properties.add(createProperty(SMSOTPConstants.HTTP_RESPONSE, "HTTP Response Code", 
-                "Enter expected HTTP response code for successful SMS", false, 4));
-        
-        properties.add(createProperty(SMSOTPConstants.SHOW_ERROR_INFO, "Show Detailed Error Information", 
-                "Enter \"true\" if detailed error information from SMS provider needs to be displayed in the UI", false, 5));
-        
-        properties.add(createProperty(SMSOTPConstants.VALUES_TO_BE_MASKED_IN_ERROR_INFO, "Mask values in Error Info", 
-                "Enter comma separated Values to be masked by * in the detailed error messages", false, 6));
-        
-        return properties;
+        return AuthenticatorConfigUtil.getConfigurationProperties(getName());
     }
 
     /**
@@ -177,10 +179,11 @@ public class SMSOTPAuthenticator implements Serializable {
         String otpCode = request.getParameter("OTPcode");
         String channelSelection = request.getParameter("channelSelection");
         
-        log.debug("SMS handleAuthentication - OTP Channel: " + otpChannel);
-        log.debug("SMS handleAuthentication - Selected Channel: " + selectedChannel);
-        log.debug("SMS handleAuthentication - OTP Code: " + otpCode);
-        log.debug("SMS handleAuthentication - Channel Selection: " + channelSelection);
+        if (log.isDebugEnabled()) {
+            log.debug("SMS handleAuthentication - OTP Channel: " + otpChannel + ", Selected Channel: " +
+                    selectedChannel + ", OTP Code present: " + StringUtils.isNotEmpty(otpCode) +
+                    ", Channel Selection: " + channelSelection);
+        }
         
         // Always show channel selection page on first visit (no OTP code, no resend, no mobile number)
         if (StringUtils.isEmpty(otpCode) &&
@@ -224,7 +227,7 @@ public class SMSOTPAuthenticator implements Serializable {
             }
             
             // Proceed with SMS OTP sending
-            sendSMSOTP(response, context, mobileNumber, queryParams, username);
+            sendSMSOTP(request, response, context, mobileNumber, queryParams, username);
             
         } catch (Exception e) {
             log.error("Error in SMS OTP authentication: " + e.getMessage(), e);
@@ -267,26 +270,29 @@ public class SMSOTPAuthenticator implements Serializable {
             }
         }
 
-        // Add synchronization to prevent concurrent session conflicts
-        synchronized (this) {
-            try {
-                processOTPValidation(request, response, context);
-            } catch (Exception e) {
-                if (e.getMessage() != null && e.getMessage().contains("Unique index or primary key violation")) {
-                    log.warn("Session conflict detected, retrying after cleanup: " + e.getMessage());
-                    // Clean up and retry once
-                    cleanupSessionData(context);
-                    try {
-                        Thread.sleep(100); // Brief delay
-                        processOTPValidation(request, response, context);
-                    } catch (Exception retryE) {
-                        log.error("Retry failed after session cleanup: " + retryE.getMessage(), retryE);
-                        throw new AuthenticationFailedException("Authentication failed due to session conflict", retryE);
-                    }
-                } else {
-                    throw e;
+        // Serialize submissions of the same session only, other sessions are validated in parallel
+        ReentrantLock sessionLock = SMSOTPUtils.getSessionLock(context);
+        sessionLock.lock();
+        try {
+            processOTPValidation(request, response, context);
+        } catch (Exception e) {
+            if (e.getMessage() != null && e.getMessage().contains("Unique index or primary key violation")) {
+                log.warn("Session conflict detected, retrying after cleanup: " + e.getMessage());
+                // Clean up and retry once, the session lock already keeps other submissions of this session out
+                cleanupSessionData(context);
+                try {
+                    processOTPValidation(request, response, context);
+                } catch (Exception retryE) {
+                    log.error("Retry failed after session cleanup: " + retryE.getMessage(), retryE);
+                    throw new AuthenticationFailedException("Authentication failed due to session conflict", retryE);
                 }
+            } else {
+                throw e;
             }
+        } finally {
+            // The step is over once the OTP is checked, keep the user claims out of the persisted session
+            SMSOTPUtils.clearOTPUserProfile(context);
+            sessionLock.unlock();
         }
     }
 
@@ -300,14 +306,9 @@ public class SMSOTPAuthenticator implements Serializable {
         
         // Extract OTP from request
         String userOTP = extractOTPFromRequest(request);
-        String storedOTP = (String) context.getProperty(SMSOTPConstants.OTP_TOKEN);
-        
-        // Enhanced logging for debugging
-        log.info("SMS OTP Validation Debug:");
-        log.info("  - User OTP from request: '" + userOTP + "'");
-        log.info("  - Stored OTP in context: '" + storedOTP + "'");
-        log.info("  - User OTP length: " + (userOTP != null ? userOTP.length() : "null"));
-        log.info("  - Stored OTP length: " + (storedOTP != null ? storedOTP.length() : "null"));
+        // An OTP issued for a superseded OTP state is treated as expired
+        byte[] issuedOTP = OTPSessionState.isIssuedForCurrentVersion(context) ?
+                OTPService.getIssuedOTPDigest(context) : null;
         
         // Get authenticated user
         AuthenticatedUser authenticatedUser = (AuthenticatedUser) context.getProperty(SMSOTPConstants.AUTHENTICATED_USER);
@@ -317,28 +318,51 @@ public class SMSOTPAuthenticator implements Serializable {
             return;
         }
         
+        // Reject the attempt early if the asynchronously dispatched SMS never reached the gateway
+        DeliveryStatus deliveryStatus = OTPDispatcher.getDefault().getDeliveryStatus(context.getContextIdentifier());
+        if (deliveryStatus != null) {
+            context.setProperty(SMSOTPConstants.OTP_DELIVERY_STATUS, deliveryStatus.getState().name());
+            if (deliveryStatus.isGatewayUnavailable()) {
+                // Same as a synchronous send rejected by the gateway guard, the OTP never left
+                OTPDispatcher.getDefault().clearDeliveryStatus(context.getContextIdentifier());
+                offerEmailChannel(request, response, context, authenticatedUser.getUserName(),
+                        deliveryStatus.getMessage());
+                return;
+            }
+            if (deliveryStatus.isFailed()) {
+                String errorMessage = "Failed to send SMS OTP: " + deliveryStatus.getMessage();
+                context.setProperty(SMSOTPConstants.ERROR_CODE, errorMessage);
+                OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                        OTPAuditEvent.CHANNEL_SMS, context.getContextIdentifier())
+                        .with("user", authenticatedUser.getUserName())
+                        .withOutcome(false, deliveryStatus.getMessage()));
+                redirectToErrorPage(response, context, queryParams, errorMessage);
+                return;
+            }
+        }
+        
         // Validate OTP
         Long sentTime = (Long) context.getProperty(SMSOTPConstants.SENT_OTP_TOKEN_TIME);
         Long validityPeriod = (Long) context.getProperty(SMSOTPConstants.TOKEN_VALIDITY_TIME);
         
-        log.info("SMS OTP Context Properties:");
-        log.info("  - Sent Time: " + sentTime);
-        log.info("  - Validity Period: " + validityPeriod);
-        
-        OTPService.OTPValidationResult validationResult = otpService.validateOTP(userOTP, storedOTP, sentTime, validityPeriod);
-        
-        log.info("SMS OTP Validation Result:");
-        log.info("  - Is Valid: " + validationResult.isValid());
-        log.info("  - Message: " + validationResult.getMessage());
+        OTPService.OTPValidationResult validationResult = otpService.validateOTP(context, authenticatedUser.getUserName(),
+                userOTP, issuedOTP, sentTime, validityPeriod);
+        OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_VALIDATION,
+                OTPAuditEvent.CHANNEL_SMS, context.getContextIdentifier())
+                .with("user", authenticatedUser.getUserName())
+                .withOutcome(validationResult.isValid(), validationResult.getMessage())
+                .withSecret("submittedOtp", userOTP)
+                .with("issuedOtpLength", OTPDigest.getTokenLength(issuedOTP))
+                .with("sentTime", sentTime)
+                .with("validityMins", validityPeriod));
         
         if (!validationResult.isValid()) {
-            log.warn("SMS OTP Validation Failed: " + validationResult.getMessage());
             redirectToErrorPage(response, context, queryParams, validationResult.getMessage());
             return;
         }
         
         // OTP validation successful
-        log.info("SMS OTP Validation Successful for user: " + authenticatedUser.getUserName());
+        OTPDispatcher.getDefault().clearDeliveryStatus(context.getContextIdentifier());
         handleSuccessfulAuthentication(context, authenticatedUser);
     }
 
@@ -389,19 +413,6 @@ public class SMSOTPAuthenticator implements Serializable {
         return StringUtils.isNotEmpty(request.getParameter(SMSOTPConstants.MOBILE_NUMBER));
     }
 
-    /**
-     * Creates a property for configuration
-     */
-    private Property createProperty(String name, String displayName, String description, boolean required, int order) {
-        Property property = new Property();
-        property.setName(name);
-        property.setDisplayName(displayName);
-        property.setDescription(description);
-        property.setRequired(required);
-        property.setDisplayOrder(order);
-        return property;
-    }
-
     /**
      * Builds query parameters for redirects
      */
@@ -458,15 +469,16 @@ public class SMSOTPAuthenticator implements Serializable {
                                      String queryParams) throws AuthenticationFailedException {
         
         try {
-            String mobileNumber = SMSOTPUtils.getMobileNumberForUsername(username);
+            String mobileNumber = SMSOTPUtils.getOTPUserProfile(username, context).getMobileNumber();
             
             if (StringUtils.isEmpty(mobileNumber)) {
                 // Check if mobile number is provided in request
                 String requestMobileNumber = request.getParameter(SMSOTPConstants.MOBILE_NUMBER);
                 if (requestMobileNumber != null) {
-                    // Update user's mobile number
+                    // Update user's mobile number and reload the profile holding the old value
                     updateUserMobileNumber(context, request, username, tenantDomain);
-                    mobileNumber = SMSOTPUtils.getMobileNumberForUsername(username);
+                    SMSOTPUtils.clearOTPUserProfile(context);
+                    mobileNumber = SMSOTPUtils.getOTPUserProfile(username, context).getMobileNumber();
                 } else {
                     // Redirect to mobile number request page
                     redirectToMobileNumberRequestPage(response, context, queryParams);
@@ -492,28 +504,42 @@ public class SMSOTPAuthenticator implements Serializable {
     /**
      * Sends SMS OTP to user
      */
-    private void sendSMSOTP(HttpServletResponse response, AuthenticationContext context, String mobileNumber,
-                           String queryParams, String username) throws AuthenticationFailedException {
+    private void sendSMSOTP(HttpServletRequest request, HttpServletResponse response, AuthenticationContext context,
+                           String mobileNumber, String queryParams, String username)
+            throws AuthenticationFailedException {
         
         try {
-            // Create SMS configuration first to get payload information
-            Map<String, String> authenticatorProperties = context.getAuthenticatorProperties();
-            SMSService.SMSConfig smsConfig = new SMSService.SMSConfig(
-                    authenticatorProperties.get(SMSOTPConstants.SMS_URL),
-                    authenticatorProperties.get(SMSOTPConstants.HTTP_METHOD),
-                    authenticatorProperties.get(SMSOTPConstants.HEADERS),
-                    authenticatorProperties.get(SMSOTPConstants.PAYLOAD),
-                    authenticatorProperties.get(SMSOTPConstants.HTTP_RESPONSE)
-            );
+            // Get the SMS configuration from the cached configuration snapshot of the IdP
+            OtpAuthenticatorConfig config = OtpAuthenticatorConfigCache.getDefault().get(context);
+            SMSService.SMSConfig smsConfig = config.getSmsConfig();
+
+            // Do not burn an OTP on a gateway whose circuit breaker is open
+            if (!smsService.isGatewayAvailable(smsConfig)) {
+                offerEmailChannel(request, response, context, username, "SMS gateway circuit breaker is open");
+                return;
+            }
+
+            // Count the send, resends included, against the per user, per mobile number and per client IP limits
+            if (isRateLimited(request, response, context, config, mobileNumber, queryParams, username)) {
+                return;
+            }
             
-            // Store SMS payload in context so OTP service can read the otpDigit configuration
+            // Store SMS payload in context for the OTP page
             if (StringUtils.isNotEmpty(smsConfig.getPayload())) {
                 context.setProperty("SMS_PAYLOAD_CONFIG", smsConfig.getPayload());
-                log.info("Set SMS payload in context for OTP generation: " + smsConfig.getPayload());
             }
             
-            // Generate OTP (now it can read otpDigit from the payload)
-            String otpCode = otpService.generateOTP(context);
+            // Generate OTP with the length resolved when the configuration snapshot was built
+            long stateVersion = OTPSessionState.currentVersion(context);
+            String otpCode = otpService.generateOTP(context, config.getSmsOtpLength());
+
+            // Hand the SMS to the dispatcher and redirect right away when asynchronous delivery is enabled
+            if (SMSOTPUtils.isAsyncDispatchEnabled(context) && dispatchSMSOTP(context, mobileNumber, otpCode, smsConfig)) {
+                otpService.storeOTPInContext(context, otpCode, otpCode, stateVersion);
+                recordOTPSent(context, username, otpCode, true);
+                redirectToOTPPage(response, context, queryParams, username);
+                return;
+            }
             
             // Send SMS
             SMSResponse smsResponse = smsService.sendOTP(context, mobileNumber, otpCode, smsConfig);
@@ -531,7 +557,8 @@ public class SMSOTPAuthenticator implements Serializable {
                 } else {
                     actualOtpSent = otpCode; // Use generated OTP if response OTP is empty
                 }
-                otpService.storeOTPInContext(context, otpCode, actualOtpSent);
+                otpService.storeOTPInContext(context, otpCode, actualOtpSent, stateVersion);
+                recordOTPSent(context, username, otpCode, false);
                 
                 // SMS payload already set in context before OTP generation
                 // No need to set again here
@@ -543,15 +570,93 @@ public class SMSOTPAuthenticator implements Serializable {
                 // SMS sending failed
                 String errorMessage = "Failed to send SMS OTP: " + smsResponse.getMessage();
                 context.setProperty(SMSOTPConstants.ERROR_CODE, errorMessage);
+                OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                        OTPAuditEvent.CHANNEL_SMS, context.getContextIdentifier())
+                        .with("user", username)
+                        .withOutcome(false, smsResponse.getMessage()));
                 redirectToErrorPage(response, context, queryParams, errorMessage);
             }
             
+        } catch (GatewayUnavailableException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("SMS gateway rejected the call: " + e.getMessage());
+            }
+            offerEmailChannel(request, response, context, username, e.getMessage());
         } catch (IOException e) {
             log.error("Error sending SMS OTP: " + e.getMessage(), e);
             redirectToErrorPage(response, context, queryParams, "Error sending SMS. Please try again.");
         }
     }
 
+    /**
+     * Counts the send against the OTP rate limits and shows the error page when it is denied
+     *
+     * @return true if the send was denied
+     */
+    private boolean isRateLimited(HttpServletRequest request, HttpServletResponse response,
+                                  AuthenticationContext context, OtpAuthenticatorConfig config, String mobileNumber,
+                                  String queryParams, String username) throws AuthenticationFailedException {
+        OTPRateLimiter.Decision decision = OTPRateLimiter.getDefault().check(config.getRateLimitConfig(),
+                OTPAuditEvent.CHANNEL_SMS, context.getTenantDomain(), username, mobileNumber,
+                IdentityUtil.getClientIpAddress(request));
+        if (decision.isAllowed()) {
+            return false;
+        }
+        OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                OTPAuditEvent.CHANNEL_SMS, context.getContextIdentifier())
+                .with("user", username)
+                .with("rateLimit", decision.getDimension())
+                .withOutcome(false, "Rate limited"));
+        redirectToErrorPage(response, context, queryParams,
+                String.format(SMSOTPConstants.RATE_LIMITED_MESSAGE, decision.getRetryAfterSeconds()));
+        return true;
+    }
+
+    /**
+     * Sends the user back to the channel selection page when the SMS gateway is unavailable
+     */
+    private void offerEmailChannel(HttpServletRequest request, HttpServletResponse response,
+                                   AuthenticationContext context, String username, String reason)
+            throws AuthenticationFailedException {
+        OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SEND_FAILED,
+                OTPAuditEvent.CHANNEL_SMS, context.getContextIdentifier())
+                .with("user", username)
+                .withOutcome(false, reason));
+        context.removeProperty("SELECTED_OTP_CHANNEL");
+        showChannelSelectionPage(request, response, context, SMS_UNAVAILABLE_MESSAGE);
+    }
+
+    /**
+     * Records the audit event of an issued SMS OTP
+     */
+    private void recordOTPSent(AuthenticationContext context, String username, String otpCode, boolean async) {
+        OTPAuditLogger.getDefault().record(() -> new OTPAuditEvent(OTPAuditEvent.Type.OTP_SENT,
+                OTPAuditEvent.CHANNEL_SMS, context.getContextIdentifier())
+                .with("user", username)
+                .withOutcome(true, null)
+                .withSecret("otp", otpCode)
+                .with("async", async));
+    }
+
+    /**
+     * Queues the SMS on the asynchronous dispatcher
+     *
+     * @return true if the SMS was queued, false if the queue is full and the SMS has to be sent inline
+     */
+    private boolean dispatchSMSOTP(AuthenticationContext context, String mobileNumber, String otpCode,
+                                   SMSService.SMSConfig smsConfig) {
+
+        smsService.setMaskedMobile(context, mobileNumber);
+        boolean queued = OTPDispatcher.getDefault().submit(context.getContextIdentifier(), () -> {
+            SMSResponse smsResponse = smsService.deliverOTP(mobileNumber, otpCode, smsConfig);
+            return new OTPDispatcher.DeliveryResult(smsResponse.isSuccess(), smsResponse.getMessage());
+        });
+        if (queued) {
+            context.setProperty(SMSOTPConstants.OTP_DELIVERY_STATUS, DeliveryStatus.State.PENDING.name());
+        }
+        return queued;
+    }
+
     /**
      * Updates user's mobile number
      */
@@ -610,15 +715,9 @@ public class SMSOTPAuthenticator implements Serializable {
             // Add screen value if available
             if (StringUtils.isNotEmpty(username)) {
                 try {
-                    String tenantDomain = MultitenantUtils.getTenantDomain(username);
-                    String tenantAwareUsername = MultitenantUtils.getTenantAwareUsername(username);
-                    UserRealm userRealm = (UserRealm) SMSOTPUtils.getUserRealm(tenantDomain);
-                    
-                    if (userRealm != null) {
-                        String screenValue = getScreenAttribute(context, userRealm, tenantAwareUsername);
-                        if (screenValue != null) {
-                            url = url + SMSOTPConstants.SCREEN_VALUE + screenValue;
-                        }
+                    String screenValue = getScreenAttribute(context, username);
+                    if (screenValue != null) {
+                        url = url + SMSOTPConstants.SCREEN_VALUE + screenValue;
                     }
                 } catch (Exception e) {
                     log.warn("Error getting screen value for user: " + username, e);
@@ -681,18 +780,18 @@ public class SMSOTPAuthenticator implements Serializable {
     /**
      * Gets screen attribute for user
      */
-    private String getScreenAttribute(AuthenticationContext context, UserRealm userRealm, String username)
-            throws UserStoreException, AuthenticationFailedException {
+    private String getScreenAttribute(AuthenticationContext context, String username) throws SMSOTPException {
         
-        String screenUserAttributeParam = SMSOTPUtils.getScreenUserAttribute(context);
+        OtpStepSettings settings = SMSOTPUtils.getStepSettings(context);
+        String screenUserAttributeParam = settings.getScreenUserAttribute();
         if (screenUserAttributeParam != null) {
-            String screenUserAttributeValue = userRealm.getUserStoreManager()
-                    .getUserClaimValue(username, screenUserAttributeParam, null);
+            String screenUserAttributeValue = SMSOTPUtils.getOTPUserProfile(username, context)
+                    .getClaimValue(screenUserAttributeParam);
             
             if (screenUserAttributeValue != null) {
                 int noOfDigits = 0;
-                if (SMSOTPUtils.getNoOfDigits(context) != null) {
-                    noOfDigits = Integer.parseInt(SMSOTPUtils.getNoOfDigits(context));
+                if (settings.getNoOfDigits() != null) {
+                    noOfDigits = Integer.parseInt(settings.getNoOfDigits());
                 }
                 return CustomFederatedAuthenticator.getMaskedValue(context, screenUserAttributeValue, noOfDigits);
             }
@@ -707,39 +806,28 @@ public class SMSOTPAuthenticator implements Serializable {
      * @param context Authentication context
      */
     private void cleanupSessionData(AuthenticationContext context) {
-        try {
-            if (context != null) {
-                // Remove any existing OTP-related properties that might cause conflicts
-                String[] propertiesToClean = {
-                    SMSOTPConstants.OTP_TOKEN,
-                    SMSOTPConstants.SENT_OTP_TOKEN_TIME,
-                    SMSOTPConstants.TOKEN_VALIDITY_TIME,
-                    "CLIENT_OTP_VALIDATION",
-                    "SMS_PAYLOAD_CONFIG",
-                    "screenValue",
-                    "MASKED_EMAIL",
-                    "OTP_TYPE"
-                };
-                
-                for (String property : propertiesToClean) {
-                    if (context.getProperty(property) != null) {
-                        context.removeProperty(property);
-                        if (log.isDebugEnabled()) {
-                            log.debug("Cleaned up session property: " + property);
-                        }
-                    }
-                }
-                
-                // Add a small delay to ensure any pending session operations complete
-                Thread.sleep(50);
-                
-                if (log.isDebugEnabled()) {
-                    log.debug("Session cleanup completed for context: " + context.getContextIdentifier());
-                }
-            }
-        } catch (Exception e) {
-            // Log but don't fail the authentication process due to cleanup issues
-            log.warn("Warning during session cleanup: " + e.getMessage());
+        if (context == null) {
+            return;
+        }
+        // Remove any existing OTP-related properties and start a new OTP state version, so writes belonging
+        // to the previous state are ignored instead of having to wait for them to complete
+        String[] propertiesToClean = {
+            SMSOTPConstants.OTP_TOKEN,
+            SMSOTPConstants.SENT_OTP_TOKEN_TIME,
+            SMSOTPConstants.TOKEN_VALIDITY_TIME,
+            "CLIENT_OTP_VALIDATION",
+            "SMS_PAYLOAD_CONFIG",
+            "screenValue",
+            "MASKED_EMAIL",
+            "OTP_TYPE",
+            SMSOTPConstants.OTP_DELIVERY_STATUS,
+            SMSOTPConstants.OTP_USER_PROFILE
+        };
+        long stateVersion = OTPSessionState.reset(context, propertiesToClean);
+        
+        if (log.isDebugEnabled()) {
+            log.debug("Session cleanup completed for context: " + context.getContextIdentifier() +
+                    ", OTP state version: " + stateVersion);
         }
     }
 
@@ -748,6 +836,14 @@ public class SMSOTPAuthenticator implements Serializable {
      */
     private void showChannelSelectionPage(HttpServletRequest request, HttpServletResponse response,
             AuthenticationContext context) throws AuthenticationFailedException {
+        showChannelSelectionPage(request, response, context, null);
+    }
+
+    /**
+     * Shows the OTP channel selection page with an optional failure message
+     */
+    private void showChannelSelectionPage(HttpServletRequest request, HttpServletResponse response,
+            AuthenticationContext context, String failureMessage) throws AuthenticationFailedException {
         try {
             String queryParams = buildQueryParams(context);
             
@@ -765,8 +861,14 @@ public class SMSOTPAuthenticator implements Serializable {
             } else {
                 redirectUrl = redirectUrl + "?channelSelection=true";
             }
+            if (StringUtils.isNotEmpty(failureMessage)) {
+                redirectUrl = redirectUrl + "&authFailure=true&authFailureMsg=" +
+                        URLEncoder.encode(failureMessage, StandardCharsets.UTF_8.name());
+            }
             
-            log.info("Redirecting to OTP channel selection page: " + redirectUrl);
+            if (log.isDebugEnabled()) {
+                log.debug("Redirecting to OTP channel selection page: " + redirectUrl);
+            }
             
             response.sendRedirect(redirectUrl);
             
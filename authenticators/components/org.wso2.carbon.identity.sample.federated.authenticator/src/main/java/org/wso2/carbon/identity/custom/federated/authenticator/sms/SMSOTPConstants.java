@@ -6,6 +6,7 @@ public class SMSOTPConstants {
     public static final String ALGORITHM_NAME = "SHA1PRNG";
     public static final String ALGORITHM_HMAC = "HmacSHA1";
     public static final String ALGORITHM_HMAC_SHA = "HMAC-SHA-1";
+    public static final String ALGORITHM_HMAC_SHA256 = "HmacSHA256";
     public static final String CHAR_SET = "UTF-8";
 
     public static final int SECRET_KEY_LENGTH = 5;
@@ -13,6 +14,7 @@ public class SMSOTPConstants {
     public static final int NUMBER_DIGIT = 4;
     public static final String CODE = "OTPcode";
     public static final String MOBILE_CLAIM = "http://wso2.org/claims/mobile";
+    public static final String EMAIL_CLAIM = "http://wso2.org/claims/emailaddress";
     public static final String SAVED_OTP_LIST = "http://wso2.org/claims/otpbackupcodes";
     public static final String USER_SMSOTP_DISABLED_CLAIM_URI = "http://wso2.org/claims/identity/smsotp_disabled";
 
@@ -36,6 +38,33 @@ public class SMSOTPConstants {
     public static final String TOKEN_LENGTH = "TokenLength";
     public static final String OTP_DIGIT_COUNT = "OTPDigitCount";
     public static final String OTP_LIFETIME_MINS = "OTPLifetimeMins";
+    public static final String IS_ASYNC_DISPATCH = "AsyncOTPDispatch";
+    public static final String IS_TOKEN_POOL = "PreGeneratedOTPPool";
+    public static final String OTP_DELIVERY_STATUS = "OTP_DELIVERY_STATUS";
+    public static final String OTP_USER_PROFILE = "OTP_USER_PROFILE";
+    public static final String OTP_STEP_SETTINGS = "OTP_STEP_SETTINGS";
+    public static final String SMS_CONNECT_TIMEOUT = "SMSConnectTimeout";
+    public static final String SMS_READ_TIMEOUT = "SMSReadTimeout";
+    public static final String SMS_GATEWAY_URLS = "SMSGatewayURLs";
+    public static final String OTP_RATE_LIMIT_WINDOW = "OTPRateLimitWindowSeconds";
+    public static final String OTP_RATE_LIMIT_PER_USER = "OTPRateLimitPerUser";
+    public static final String OTP_RATE_LIMIT_PER_RECIPIENT = "OTPRateLimitPerRecipient";
+    public static final String OTP_RATE_LIMIT_PER_CLIENT_IP = "OTPRateLimitPerClientIP";
+    public static final String OTP_MAX_SESSION_ATTEMPTS = "OTPMaxAttemptsPerSession";
+    public static final String OTP_MAX_USER_ATTEMPTS = "OTPMaxFailedAttemptsPerUser";
+    public static final String OTP_LOCKOUT_TIME = "OTPLockoutSeconds";
+    public static final String OTP_MAX_LOCKOUT_TIME = "OTPMaxLockoutSeconds";
+    public static final String GATEWAY_MAX_CONCURRENT_CALLS = "GatewayMaxConcurrentCalls";
+    public static final String GATEWAY_MAX_WAIT = "GatewayMaxWaitMillis";
+    public static final String GATEWAY_WINDOW_SIZE = "GatewayWindowSize";
+    public static final String GATEWAY_MINIMUM_CALLS = "GatewayMinimumCalls";
+    public static final String GATEWAY_FAILURE_RATE = "GatewayFailureRatePercent";
+    public static final String GATEWAY_SLOW_CALL = "GatewaySlowCallMillis";
+    public static final String GATEWAY_SLOW_CALL_RATE = "GatewaySlowCallRatePercent";
+    public static final String GATEWAY_OPEN_DURATION = "GatewayOpenDurationMillis";
+    public static final String GATEWAY_HALF_OPEN_CALLS = "GatewayHalfOpenCalls";
+    public static final String LOCKED_OUT_MESSAGE = "Too many failed OTP attempts. Please try again in %d seconds.";
+    public static final String RATE_LIMITED_MESSAGE = "Too many OTP requests. Please try again in %d seconds.";
 
     public static final String GET_METHOD = "GET";
     public static final String POST_METHOD = "POST";
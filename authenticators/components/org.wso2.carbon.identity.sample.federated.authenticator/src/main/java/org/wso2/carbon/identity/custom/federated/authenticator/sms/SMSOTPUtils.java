@@ -1,42 +1,46 @@
 package org.wso2.carbon.identity.custom.federated.authenticator.sms;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
-import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.UserClaimCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.cache.UserRealmCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpConfigRegistry;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpParameters;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpStepSettings;
 import org.wso2.carbon.identity.custom.federated.authenticator.exception.SMSOTPException;
+import org.wso2.carbon.identity.custom.federated.authenticator.metrics.OTPMetrics;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.model.OTPUserProfile;
+import org.wso2.carbon.identity.custom.federated.authenticator.util.StripedLock;
 import org.wso2.carbon.user.api.UserRealm;
 import org.wso2.carbon.user.api.UserStoreException;
 import org.wso2.carbon.user.core.UserStoreManager;
-import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
-import org.wso2.carbon.base.MultitenantConstants;
-import org.wso2.carbon.context.CarbonContext;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
 
 public class SMSOTPUtils {
 
     private static final Log log = LogFactory.getLog(SMSOTPUtils.class);
-    
-    // SMS Parameters สำหรับเก็บ configuration values
-    private static Map<String, String> smsParameters = new HashMap<>();
-    
-    // Initialize default SMS parameters
-    static {
-        smsParameters.put(SMSOTPConstants.IS_SMSOTP_MANDATORY, "false");
-        // เพิ่ม configuration อื่นๆ ตามต้องการ
-    }
+
+    private static final String GET_PROPERTY_FROM_REGISTRY = "GET_PROPERTY_FROM_REGISTRY";
+
+    // Per session locks guarding OTP validation, shared by the SMS and email authenticators
+    private static final StripedLock SESSION_LOCKS = StripedLock.forAvailableProcessors();
 
     public static boolean isSMSOTPMandatory(AuthenticationContext context) {
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_SMSOTP_MANDATORY));
+        return getStepSettings(context).isSMSOTPMandatory();
     }
 
     /**
-     * ดึงค่า configuration จาก context หรือ default parameters
+     * ดึงค่า configuration จาก configuration registry หรือ context properties
      * 
      * @param context AuthenticationContext
      * @param configName ชื่อ configuration ที่ต้องการ
@@ -44,34 +48,66 @@ public class SMSOTPUtils {
      */
     public static String getConfiguration(AuthenticationContext context, String configName) {
 
-        String configValue = null;
-        Object propertiesFromLocal = context.getProperty("GET_PROPERTY_FROM_REGISTRY"); // ใช้ string แทน constant ที่ไม่มี
-        String tenantDomain = context.getTenantDomain();
-        
-        // ตรวจสอบว่าเป็น super tenant หรือมี properties จาก local registry
-        if ((propertiesFromLocal != null || MultitenantConstants.SUPER_TENANT_DOMAIN_NAME.equals(tenantDomain)) &&
-                getSMSParameters().containsKey(configName)) {
-            configValue = getSMSParameters().get(configName);
-        } 
-        // ถ้าไม่พบใน SMS parameters ให้ลองหาใน context properties
-        else if ((context.getProperty(configName)) != null) {
-            configValue = String.valueOf(context.getProperty(configName));
+        String configValue = getParameters(context).get(configName);
+        // ถ้าไม่พบใน registry ให้ลองหาใน context properties
+        if (configValue == null) {
+            configValue = getContextProperty(context, configName);
         }
-        
+
         if (log.isDebugEnabled()) {
-            log.debug("Config value for key " + configName + " for tenant " + tenantDomain + " : " +
+            log.debug("Config value for key " + configName + " for tenant " + context.getTenantDomain() + " : " +
                     configValue);
         }
         return configValue;
     }
-    
+
+    /**
+     * Gets the registry parameters that apply to the tenant of the context, a volatile read and a map lookup
+     */
+    private static OtpParameters getParameters(AuthenticationContext context) {
+
+        return OtpConfigRegistry.getDefault().getParameters(context.getTenantDomain(),
+                context.getProperty(GET_PROPERTY_FROM_REGISTRY) != null);
+    }
+
+    /**
+     * Gets the OTP settings of the current authentication step
+     * The settings are resolved on the first call of a step and kept in the context, later calls of the same
+     * step reuse them unless the registry configuration was reloaded in between.
+     *
+     * @param context Authentication context
+     * @return Resolved OTP settings
+     */
+    public static OtpStepSettings getStepSettings(AuthenticationContext context) {
+
+        OtpParameters parameters = getParameters(context);
+        Object stored = context.getProperty(SMSOTPConstants.OTP_STEP_SETTINGS);
+        if (stored instanceof OtpStepSettings &&
+                ((OtpStepSettings) stored).isCurrent(context.getCurrentStep(), parameters)) {
+            return (OtpStepSettings) stored;
+        }
+        OtpStepSettings settings = OtpStepSettings.resolve(context, parameters);
+        context.setProperty(SMSOTPConstants.OTP_STEP_SETTINGS, settings);
+        if (log.isDebugEnabled()) {
+            log.debug("Resolved OTP settings of step " + context.getCurrentStep() + " for tenant " +
+                    context.getTenantDomain());
+        }
+        return settings;
+    }
+
+    private static String getContextProperty(AuthenticationContext context, String configName) {
+
+        Object value = context.getProperty(configName);
+        return value != null ? String.valueOf(value) : null;
+    }
+
     /**
      * ดึง SMS parameters map
      * 
-     * @return Map ของ SMS parameters
+     * @return Map ของ global SMS parameters ที่อ่านได้อย่างเดียว
      */
     public static Map<String, String> getSMSParameters() {
-        return smsParameters;
+        return OtpConfigRegistry.getDefault().getGlobalParameters().asMap();
     }
     
     /**
@@ -81,7 +117,7 @@ public class SMSOTPUtils {
      * @param value ค่าของ parameter
      */
     public static void setSMSParameter(String key, String value) {
-        smsParameters.put(key, value);
+        OtpConfigRegistry.getDefault().set(key, value);
     }
 
     // public static String getErrorPageFromXMLFile(AuthenticationContext context) {
@@ -92,62 +128,167 @@ public class SMSOTPUtils {
     public static boolean isSMSOTPDisableForLocalUser(String username, AuthenticationContext context)
             throws SMSOTPException {
 
-        UserRealm userRealm;
+        if (isSMSOTPEnableOrDisableByUser(context)) {
+            return getOTPUserProfile(username, context).isSMSOTPDisabled();
+        }
+        return false;
+    }
+
+    /**
+     * Gets the claims of the user needed by the OTP step
+     * The profile is loaded with a single user store call, or from the user claim cache, and kept in the
+     * context for the rest of the step.
+     *
+     * @param username Username of the user
+     * @param context Authentication context
+     * @return OTP user profile
+     */
+    public static OTPUserProfile getOTPUserProfile(String username, AuthenticationContext context)
+            throws SMSOTPException {
+
+        return getOTPUserProfile(MultitenantUtils.getTenantDomain(username),
+                MultitenantUtils.getTenantAwareUsername(username), context);
+    }
+
+    /**
+     * Gets the claims of the user needed by the OTP step
+     *
+     * @param tenantDomain Tenant domain of the user
+     * @param tenantAwareUsername Tenant aware username
+     * @param context Authentication context
+     * @return OTP user profile
+     */
+    public static OTPUserProfile getOTPUserProfile(String tenantDomain, String tenantAwareUsername,
+                                                   AuthenticationContext context) throws SMSOTPException {
+
+        String[] claimUris = getProfileClaimUris(context);
+        Object storedProfile = context.getProperty(SMSOTPConstants.OTP_USER_PROFILE);
+        if (storedProfile instanceof OTPUserProfile &&
+                ((OTPUserProfile) storedProfile).covers(tenantDomain, tenantAwareUsername, claimUris)) {
+            return (OTPUserProfile) storedProfile;
+        }
+        OTPUserProfile profile = loadOTPUserProfile(tenantDomain, tenantAwareUsername, claimUris);
+        context.setProperty(SMSOTPConstants.OTP_USER_PROFILE, profile);
+        return profile;
+    }
+
+    /**
+     * Drops the OTP user profile kept in the context, so the next lookup reads the updated claims
+     */
+    public static void clearOTPUserProfile(AuthenticationContext context) {
+
+        context.removeProperty(SMSOTPConstants.OTP_USER_PROFILE);
+    }
+
+    /**
+     * Returns the lock serializing OTP submissions of an authentication session, whichever channel they come from
+     */
+    public static ReentrantLock getSessionLock(AuthenticationContext context) {
+
+        return SESSION_LOCKS.get(context.getContextIdentifier());
+    }
+
+    private static String[] getProfileClaimUris(AuthenticationContext context) {
+
+        OtpStepSettings settings = getStepSettings(context);
+        List<String> claimUris = new ArrayList<>();
+        claimUris.add(SMSOTPConstants.MOBILE_CLAIM);
+        claimUris.add(SMSOTPConstants.EMAIL_CLAIM);
+        String screenUserAttribute = settings.getScreenUserAttribute();
+        if (StringUtils.isNotBlank(screenUserAttribute) && !claimUris.contains(screenUserAttribute)) {
+            claimUris.add(screenUserAttribute);
+        }
+        if (settings.isSMSOTPEnableOrDisableByUser()) {
+            claimUris.add(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI);
+        }
+        return claimUris.toArray(new String[0]);
+    }
+
+    private static OTPUserProfile loadOTPUserProfile(String tenantDomain, String tenantAwareUsername,
+                                                     String[] claimUris) throws SMSOTPException {
+
+        UserClaimCache claimCache = UserClaimCache.getDefault();
+        Map<String, String> claims = new HashMap<>();
+        for (String claimUri : claimUris) {
+            UserClaimCache.ClaimValue cached = claimCache.get(tenantDomain, tenantAwareUsername, claimUri);
+            if (cached == null) {
+                claims = null;
+                break;
+            }
+            claims.put(claimUri, cached.getValue());
+        }
+        if (claims != null) {
+            return new OTPUserProfile(tenantDomain, tenantAwareUsername, claims);
+        }
+
         try {
-            String tenantDomain = MultitenantUtils.getTenantDomain(username);
-            int tenantId = IdentityTenantUtil.getTenantId(tenantDomain);
-            RealmService realmService = IdentityTenantUtil.getRealmService();
-            userRealm = realmService.getTenantUserRealm(tenantId);
-            username = MultitenantUtils.getTenantAwareUsername(String.valueOf(username));
-            boolean isEnablingControlledByUser = isSMSOTPEnableOrDisableByUser(context);
-            if (userRealm != null) {
-                if (isEnablingControlledByUser) {
-                    Map<String, String> claimValues = userRealm.getUserStoreManager().getUserClaimValues(username,
-                            new String[]{SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI}, null);
-                    return Boolean.parseBoolean(claimValues.get(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI));
-                }
-            } else {
-                throw new SMSOTPException("Cannot find the user realm for the given tenant domain : " + CarbonContext
-                        .getThreadLocalCarbonContext().getTenantDomain());
+            UserRealm userRealm = getUserRealm(tenantDomain);
+            if (userRealm == null) {
+                throw new SMSOTPException("Cannot find the user realm for the given tenant domain : " + tenantDomain);
             }
-        } catch (UserStoreException e) {
-            throw new SMSOTPException("Failed while trying to access userRealm of the user : " + username, e);
+            Map<String, String> claimValues;
+            long startNanos = OTPMetrics.getDefault().begin(OTPMetrics.Operation.USER_STORE_LOOKUP);
+            try {
+                claimValues = userRealm.getUserStoreManager().getUserClaimValues(tenantAwareUsername, claimUris, null);
+            } finally {
+                OTPMetrics.getDefault().end(OTPMetrics.Operation.USER_STORE_LOOKUP, startNanos);
+            }
+            claims = new HashMap<>();
+            for (String claimUri : claimUris) {
+                String value = claimValues != null ? claimValues.get(claimUri) : null;
+                claims.put(claimUri, value);
+                claimCache.put(tenantDomain, tenantAwareUsername, claimUri, value);
+            }
+        } catch (UserStoreException | AuthenticationFailedException e) {
+            throw new SMSOTPException("Failed while loading the claims of the user : " + tenantAwareUsername, e);
         }
-        return false;
+        return new OTPUserProfile(tenantDomain, tenantAwareUsername, claims);
     }
 
      public static boolean isSMSOTPEnableOrDisableByUser(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_SMSOTP_ENABLE_BY_USER));
+        return getStepSettings(context).isSMSOTPEnableOrDisableByUser();
     }
 
     public static boolean isEnableResendCode(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_ENABLED_RESEND));
+        return getStepSettings(context).isResendEnabled();
+    }
+
+    /**
+     * Checks whether OTPs should be handed to the asynchronous dispatcher instead of being sent inline
+     * The authenticator property configured on the IdP takes precedence over the context configuration
+     */
+    public static boolean isAsyncDispatchEnabled(AuthenticationContext context) {
+
+        return getStepSettings(context).isAsyncDispatchEnabled();
+    }
+
+    public static boolean isTokenPoolEnabled(AuthenticationContext context) {
+
+        return getStepSettings(context).isTokenPoolEnabled();
     }
 
     public static boolean isRetryEnabled(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_ENABLED_RETRY));
+        return getStepSettings(context).isRetryEnabled();
     }
 
     public static String getErrorPageFromXMLFile(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.SMSOTP_AUTHENTICATION_ERROR_PAGE_URL);
+        return getStepSettings(context).getErrorPage();
     }
 
     public static String getLoginPageFromXMLFile(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.SMSOTP_AUTHENTICATION_ENDPOINT_URL);
+        return getStepSettings(context).getLoginPage();
     }
 
     public static UserRealm getUserRealm(String tenantDomain) throws AuthenticationFailedException {
 
         UserRealm userRealm;
         try {
-            int tenantId = IdentityTenantUtil.getTenantId(tenantDomain);
-            RealmService realmService = IdentityTenantUtil.getRealmService();
-            userRealm = realmService.getTenantUserRealm(tenantId);
+            userRealm = UserRealmCache.getDefault().getUserRealm(tenantDomain);
         } catch (Exception e) {
             AuthenticationFailedException afe = new AuthenticationFailedException("Cannot find the user realm for the tenant domain "
                     + tenantDomain);
@@ -160,72 +301,96 @@ public class SMSOTPUtils {
     public static String getMobileNumberForUsername(String username) throws SMSOTPException,
             AuthenticationFailedException {
 
-        UserRealm userRealm;
         String mobile;
         try {
             String tenantDomain = MultitenantUtils.getTenantDomain(username);
             String tenantAwareUsername = MultitenantUtils.getTenantAwareUsername(username);
-            userRealm = getUserRealm(tenantDomain);
-            if (userRealm != null) {
-                mobile = userRealm.getUserStoreManager()
-                        .getUserClaimValue(tenantAwareUsername, SMSOTPConstants.MOBILE_CLAIM, null);
-            } else {
-                throw new SMSOTPException("Cannot find the user realm for the given tenant domain : " + tenantDomain);
-            }
+            mobile = getUserClaimValue(tenantDomain, tenantAwareUsername, SMSOTPConstants.MOBILE_CLAIM);
         } catch (UserStoreException e) {
             throw new SMSOTPException("Cannot find the user " + username + " to get the mobile number ", e);
         }
         return mobile;
     }
 
+    /**
+     * Gets a claim value of the user, from the user claim cache when available
+     *
+     * @param tenantDomain Tenant domain of the user
+     * @param tenantAwareUsername Tenant aware username
+     * @param claimUri Claim URI
+     * @return Claim value, or null if the user has no value for the claim
+     */
+    public static String getUserClaimValue(String tenantDomain, String tenantAwareUsername, String claimUri)
+            throws SMSOTPException, AuthenticationFailedException, UserStoreException {
+
+        UserClaimCache claimCache = UserClaimCache.getDefault();
+        UserClaimCache.ClaimValue cached = claimCache.get(tenantDomain, tenantAwareUsername, claimUri);
+        if (cached != null) {
+            return cached.getValue();
+        }
+        UserRealm userRealm = getUserRealm(tenantDomain);
+        if (userRealm == null) {
+            throw new SMSOTPException("Cannot find the user realm for the given tenant domain : " + tenantDomain);
+        }
+        String value;
+        long startNanos = OTPMetrics.getDefault().begin(OTPMetrics.Operation.USER_STORE_LOOKUP);
+        try {
+            value = userRealm.getUserStoreManager().getUserClaimValue(tenantAwareUsername, claimUri, null);
+        } finally {
+            OTPMetrics.getDefault().end(OTPMetrics.Operation.USER_STORE_LOOKUP, startNanos);
+        }
+        claimCache.put(tenantDomain, tenantAwareUsername, claimUri, value);
+        return value;
+    }
+
      public static boolean isSendOTPDirectlyToMobile(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_SEND_OTP_DIRECTLY_TO_MOBILE));
+        return getStepSettings(context).isSendOTPDirectlyToMobile();
     }
 
     public static String getMobileNumberRequestPage(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.MOBILE_NUMBER_REQ_PAGE);
+        return getStepSettings(context).getMobileNumberRequestPage();
     }
 
     public static boolean sendOtpToFederatedMobile(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_SEND_OTP_TO_FEDERATED_MOBILE));
+        return getStepSettings(context).isSendOtpToFederatedMobile();
     }
 
     public static String getScreenUserAttribute(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.SCREEN_USER_ATTRIBUTE);
+        return getStepSettings(context).getScreenUserAttribute();
     }
 
     public static String getNoOfDigits(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.NO_DIGITS);
+        return getStepSettings(context).getNoOfDigits();
     }
 
     public static boolean isEnableAlphanumericToken(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_ENABLE_ALPHANUMERIC_TOKEN));
+        return getStepSettings(context).isAlphanumericToken();
     }
 
     public static String getTokenLength(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.TOKEN_LENGTH);
+        return getStepSettings(context).getTokenLength();
     }
 
      public static String getTokenExpiryTime(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.TOKEN_EXPIRY_TIME);
+        return getStepSettings(context).getTokenExpiryTime();
     }
 
      public static String getDigitsOrder(AuthenticationContext context) {
 
-        return getConfiguration(context, SMSOTPConstants.ORDER);
+        return getStepSettings(context).getDigitsOrder();
     }
 
     public static boolean isEnableMobileNoUpdate(AuthenticationContext context) {
 
-        return Boolean.parseBoolean(getConfiguration(context, SMSOTPConstants.IS_ENABLE_MOBILE_NO_UPDATE));
+        return getStepSettings(context).isMobileNumberUpdate();
     }
 
     public static void updateUserAttribute(String username, Map<String, String> attribute, String tenantDomain)
@@ -243,6 +408,7 @@ public class SMSOTPUtils {
             SMSOTPUtils.verifyUserExists(username, tenantDomain);
             UserStoreManager userStoreManager = (UserStoreManager) userRealm.getUserStoreManager();
             userStoreManager.setUserClaimValues(username, attribute, null);
+            UserClaimCache.getDefault().invalidate(tenantDomain, username, attribute.keySet());
         } catch (UserStoreException | AuthenticationFailedException e) {
             throw new SMSOTPException("Exception occurred while connecting to User Store: Authentication is failed. ", e);
         }
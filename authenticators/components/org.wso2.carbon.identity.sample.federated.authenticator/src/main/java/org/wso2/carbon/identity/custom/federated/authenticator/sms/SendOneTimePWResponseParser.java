@@ -0,0 +1,340 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms;
+
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.BoundedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streaming parser binding a GSSO sendOneTimePW JSON response into {@link GssoSendOneTimePWResponse}
+ *
+ * The body is read one character at a time and only the fields of {@link SendOneTimePWResponse} are kept,
+ * every other value is skipped without being materialized. Parsing stops as soon as the requested fields have
+ * been bound, and never reads more than the configured number of bytes. Both the wrapped form
+ * {"sendOneTimePWResponse": {...}} and a bare response object are accepted.
+ */
+public final class SendOneTimePWResponseParser {
+
+    public static final String CODE = "code";
+    public static final String DESCRIPTION = "description";
+    public static final String TRANSACTION_ID = "transactionID";
+    public static final String ONE_TIME_PASSWORD = "oneTimePassword";
+    public static final String IS_SUCCESS = "isSuccess";
+    public static final String ORDER_REF = "orderRef";
+    public static final String REFERENCE_NUMBER = "referenceNumber";
+    public static final String OPER_NAME = "operName";
+    public static final String LIFE_TIMEOUT_MINS = "lifeTimeoutMins";
+    public static final String EXPIRE_PASSWORD = "expirePassword";
+    private static final String WRAPPER = "sendOneTimePWResponse";
+    private static final int MAX_VALUE_LENGTH = 1024;
+
+    private final Reader reader;
+    private final Set<String> pending;
+    private final StringBuilder scratch = new StringBuilder(32);
+    private int peeked = -2;
+
+    private SendOneTimePWResponseParser(Reader reader, String[] stopAfterFields) {
+        this.reader = reader;
+        this.pending = stopAfterFields.length > 0 ? new HashSet<>(Arrays.asList(stopAfterFields)) : null;
+    }
+
+    /**
+     * Parses a response body
+     *
+     * @param body Response body, read as UTF-8 and left open
+     * @param maxBytes Maximum number of bytes to read
+     * @param stopAfterFields Fields after which parsing may stop, or none to read the whole response object
+     * @return Bound response, or null if the body is not a JSON object
+     * @throws IOException If the body cannot be read
+     */
+    public static GssoSendOneTimePWResponse parse(InputStream body, int maxBytes, String... stopAfterFields)
+            throws IOException {
+        Reader reader = new InputStreamReader(new BoundedInputStream(body, maxBytes), StandardCharsets.UTF_8);
+        return new SendOneTimePWResponseParser(reader, stopAfterFields).parseResponse();
+    }
+
+    /**
+     * Parses a response body that was already read as text
+     *
+     * @param body Response body
+     * @param stopAfterFields Fields after which parsing may stop, or none to read the whole response object
+     * @return Bound response, or null if the body is not a JSON object
+     */
+    public static GssoSendOneTimePWResponse parse(String body, String... stopAfterFields) {
+        try {
+            return new SendOneTimePWResponseParser(new StringReader(body), stopAfterFields).parseResponse();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private GssoSendOneTimePWResponse parseResponse() throws IOException {
+        if (skipWhitespace() != '{') {
+            return null;
+        }
+        next();
+        SendOneTimePWResponse response = new SendOneTimePWResponse();
+        GssoSendOneTimePWResponse wrapper = new GssoSendOneTimePWResponse();
+        wrapper.setSendOneTimePWResponse(response);
+        try {
+            bindObject(response, true);
+        } catch (MalformedJsonException e) {
+            // keep what was bound before the malformed or truncated part
+        }
+        return wrapper;
+    }
+
+    /**
+     * Binds the members of the current object, the opening brace has already been consumed
+     *
+     * @return False if parsing stopped early because every requested field was bound
+     */
+    private boolean bindObject(SendOneTimePWResponse response, boolean topLevel) throws IOException {
+        if (skipWhitespace() == '}') {
+            next();
+            return true;
+        }
+        while (true) {
+            String name = readString();
+            expect(':');
+            int c = skipWhitespace();
+            if (topLevel && WRAPPER.equals(name) && c == '{') {
+                next();
+                if (!bindObject(response, false)) {
+                    return false;
+                }
+            } else if (isField(name) && c != '{' && c != '[') {
+                bind(response, name, readScalar());
+                if (pending != null && pending.remove(name) && pending.isEmpty()) {
+                    return false;
+                }
+            } else {
+                skipValue();
+            }
+            c = skipWhitespace();
+            next();
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                throw new MalformedJsonException();
+            }
+        }
+    }
+
+    private static boolean isField(String name) {
+        switch (name) {
+            case CODE:
+            case DESCRIPTION:
+            case TRANSACTION_ID:
+            case ONE_TIME_PASSWORD:
+            case IS_SUCCESS:
+            case ORDER_REF:
+            case REFERENCE_NUMBER:
+            case OPER_NAME:
+            case LIFE_TIMEOUT_MINS:
+            case EXPIRE_PASSWORD:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void bind(SendOneTimePWResponse response, String name, String value) {
+        switch (name) {
+            case CODE:
+                response.setCode(value);
+                break;
+            case DESCRIPTION:
+                response.setDescription(value);
+                break;
+            case TRANSACTION_ID:
+                response.setTransactionID(value);
+                break;
+            case ONE_TIME_PASSWORD:
+                response.setOneTimePassword(value);
+                break;
+            case IS_SUCCESS:
+                response.setIsSuccess(value);
+                break;
+            case ORDER_REF:
+                response.setOrderRef(value);
+                break;
+            case REFERENCE_NUMBER:
+                response.setReferenceNumber(value);
+                break;
+            case OPER_NAME:
+                response.setOperName(value);
+                break;
+            case LIFE_TIMEOUT_MINS:
+                response.setLifeTimeoutMins(value);
+                break;
+            case EXPIRE_PASSWORD:
+                response.setExpirePassword(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reads a string, number, boolean or null as text, null becomes a Java null
+     */
+    private String readScalar() throws IOException {
+        if (peek() == '"') {
+            return readString();
+        }
+        scratch.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            append(next());
+        }
+        String literal = scratch.toString();
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String readString() throws IOException {
+        if (skipWhitespace() != '"') {
+            throw new MalformedJsonException();
+        }
+        next();
+        scratch.setLength(0);
+        int c;
+        while ((c = next()) != '"') {
+            if (c == -1) {
+                throw new MalformedJsonException();
+            }
+            if (c == '\\') {
+                c = readEscape();
+            }
+            append(c);
+        }
+        return scratch.toString();
+    }
+
+    private int readEscape() throws IOException {
+        int c = next();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        throw new MalformedJsonException();
+                    }
+                    code = (code << 4) | digit;
+                }
+                return code;
+            case -1:
+                throw new MalformedJsonException();
+            default:
+                return c;
+        }
+    }
+
+    /**
+     * Skips a value of any type without keeping its content
+     */
+    private void skipValue() throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        int c;
+        while ((c = peek()) != -1) {
+            if (inString) {
+                next();
+                if (c == '\\') {
+                    next();
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            if (depth == 0 && (c == ',' || c == '}' || c == ']')) {
+                return;
+            }
+            next();
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (--depth == 0) {
+                    return;
+                }
+            }
+        }
+        throw new MalformedJsonException();
+    }
+
+    private void expect(char expected) throws IOException {
+        if (skipWhitespace() != expected) {
+            throw new MalformedJsonException();
+        }
+        next();
+    }
+
+    private void append(int c) throws MalformedJsonException {
+        if (scratch.length() >= MAX_VALUE_LENGTH) {
+            throw new MalformedJsonException();
+        }
+        scratch.append((char) c);
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+            next();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+
+    /**
+     * Signals a body that is not valid JSON or was cut off by the size cap
+     */
+    private static final class MalformedJsonException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        MalformedJsonException() {
+            super("Malformed gateway response", null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.model;
+
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Claims of the user needed by an OTP step, loaded from the user store in a single call
+ *
+ * The profile is kept in the authentication context for the rest of the step, so the mobile number, email
+ * address, screen attribute and SMS OTP disabled claim do not each need their own user store round trip.
+ */
+public class OTPUserProfile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String tenantDomain;
+    private final String username;
+    private final Map<String, String> claims;
+
+    /**
+     * @param tenantDomain Tenant domain of the user
+     * @param username Tenant aware username
+     * @param claims Loaded claim values, a claim without a value is mapped to null
+     */
+    public OTPUserProfile(String tenantDomain, String username, Map<String, String> claims) {
+        this.tenantDomain = tenantDomain;
+        this.username = username;
+        this.claims = Collections.unmodifiableMap(new HashMap<>(claims));
+    }
+
+    public String getTenantDomain() {
+        return tenantDomain;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Checks whether the profile was loaded for the given user and holds every given claim
+     */
+    public boolean covers(String tenantDomain, String username, String... claimUris) {
+        if (!this.tenantDomain.equals(tenantDomain) || !this.username.equals(username)) {
+            return false;
+        }
+        for (String claimUri : claimUris) {
+            if (claimUri != null && !claims.containsKey(claimUri)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Claim value, or null if the user has no value or the claim was not loaded
+     */
+    public String getClaimValue(String claimUri) {
+        return claims.get(claimUri);
+    }
+
+    public String getMobileNumber() {
+        return claims.get(SMSOTPConstants.MOBILE_CLAIM);
+    }
+
+    public String getEmailAddress() {
+        return claims.get(SMSOTPConstants.EMAIL_CLAIM);
+    }
+
+    public boolean isSMSOTPDisabled() {
+        return Boolean.parseBoolean(claims.get(SMSOTPConstants.USER_SMSOTP_DISABLED_CLAIM_URI));
+    }
+}
@@ -1,5 +1,7 @@
 package org.wso2.carbon.identity.custom.federated.authenticator.sms.model;
 
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.GssoSendOneTimePWResponse;
+
 /**
  * Model class representing SMS response
  */
@@ -9,6 +11,7 @@ public class SMSResponse {
     private String actualOtpSent;
     private String message;
     private String responseBody;
+    private GssoSendOneTimePWResponse gatewayResponse;
     
     /**
      * Constructor for SMS response
@@ -16,7 +19,7 @@ public class SMSResponse {
      * @param success Whether SMS was sent successfully
      * @param actualOtpSent The actual OTP that was sent
      * @param message Response message
-     * @param responseBody Full response body from SMS provider
+     * @param responseBody Error body from SMS provider, capped in size
      */
     public SMSResponse(boolean success, String actualOtpSent, String message, String responseBody) {
         this.success = success;
@@ -58,6 +61,17 @@ public class SMSResponse {
         this.responseBody = responseBody;
     }
     
+    /**
+     * @return Fields bound from the gateway JSON response, or null if the gateway did not answer with JSON
+     */
+    public GssoSendOneTimePWResponse getGatewayResponse() {
+        return gatewayResponse;
+    }
+    
+    public void setGatewayResponse(GssoSendOneTimePWResponse gatewayResponse) {
+        this.gatewayResponse = gatewayResponse;
+    }
+    
     @Override
     public String toString() {
         return "SMSResponse{" +
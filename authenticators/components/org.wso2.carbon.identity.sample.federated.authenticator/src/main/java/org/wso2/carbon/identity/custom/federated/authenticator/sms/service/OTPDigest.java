@@ -0,0 +1,133 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.OneTimePassword;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Salted HMAC-SHA-256 digest of an issued OTP, kept in the authentication context instead of the OTP itself
+ *
+ * The digest is a single array holding the OTP length, a random salt used as HMAC key and the MAC of the
+ * context identifier and the OTP, so a digest only verifies within the session it was issued for. Verification
+ * reuses per thread buffers and Mac instances and compares in constant time.
+ */
+public final class OTPDigest {
+
+    private static final int SALT_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int SALT_OFFSET = 1;
+    private static final int MAC_OFFSET = SALT_OFFSET + SALT_LENGTH;
+    public static final int DIGEST_LENGTH = MAC_OFFSET + MAC_LENGTH;
+
+    // Per thread buffers indexed by the constants below. A plain byte array holder keeps the values JDK typed, so
+    // the buffers left on container threads never keep the bundle class loader reachable.
+    private static final ThreadLocal<byte[][]> BUFFERS = new ThreadLocal<>();
+    private static final int SALT = 0;
+    private static final int EXPECTED = 1;
+    private static final int ACTUAL = 2;
+    private static final int MESSAGE = 3;
+
+    private OTPDigest() {
+    }
+
+    /**
+     * Digests an issued OTP with a fresh salt
+     *
+     * @param otp Issued OTP
+     * @param binding Value the digest is bound to, the authentication context identifier
+     * @return Digest to store in the authentication context
+     * @throws GeneralSecurityException If the random or HMAC algorithm is unavailable
+     */
+    public static byte[] digest(String otp, String binding) throws GeneralSecurityException {
+        byte[] digest = new byte[DIGEST_LENGTH];
+        byte[] salt = buffers()[SALT];
+        OneTimePassword.nextBytes(salt);
+        System.arraycopy(salt, 0, digest, SALT_OFFSET, SALT_LENGTH);
+        digest[0] = (byte) Math.min(otp.length(), 255);
+        mac(digest, otp, binding, digest, MAC_OFFSET);
+        return digest;
+    }
+
+    /**
+     * Checks a submitted OTP against a digest in constant time
+     *
+     * @param digest Digest of the issued OTP
+     * @param candidate Submitted OTP
+     * @param binding Value the digest was bound to
+     * @return True if the submitted OTP is the issued one
+     * @throws GeneralSecurityException If the HMAC algorithm is unavailable
+     */
+    public static boolean matches(byte[] digest, String candidate, String binding) throws GeneralSecurityException {
+        if (!isDigest(digest) || candidate == null) {
+            return false;
+        }
+        byte[][] buffers = buffers();
+        mac(digest, candidate, binding, buffers[EXPECTED], 0);
+        System.arraycopy(digest, MAC_OFFSET, buffers[ACTUAL], 0, MAC_LENGTH);
+        return MessageDigest.isEqual(buffers[EXPECTED], buffers[ACTUAL]);
+    }
+
+    /**
+     * @return Length of the OTP the digest was computed for, or -1 if the value is not a digest
+     */
+    public static int getTokenLength(byte[] digest) {
+        return isDigest(digest) ? digest[0] & 0xff : -1;
+    }
+
+    /**
+     * @return True if the value has the layout of a digest
+     */
+    public static boolean isDigest(byte[] digest) {
+        return digest != null && digest.length == DIGEST_LENGTH;
+    }
+
+    /**
+     * Drops the buffers of the calling thread
+     */
+    public static void clearThreadState() {
+        BUFFERS.remove();
+    }
+
+    private static void mac(byte[] digest, String otp, String binding, byte[] output, int outputOffset)
+            throws GeneralSecurityException {
+        byte[][] buffers = buffers();
+        int length = 0;
+        length = append(buffers, binding != null ? binding : "", length);
+        buffers[MESSAGE][length++] = 0;
+        buffers[MESSAGE][length++] = 0;
+        length = append(buffers, otp, length);
+        OneTimePassword.hmacSha256(digest, SALT_OFFSET, SALT_LENGTH, buffers[MESSAGE], length, output, outputOffset);
+    }
+
+    private static byte[][] buffers() {
+        byte[][] buffers = BUFFERS.get();
+        if (buffers == null) {
+            buffers = new byte[][]{new byte[SALT_LENGTH], new byte[MAC_LENGTH], new byte[MAC_LENGTH], new byte[128]};
+            BUFFERS.set(buffers);
+        }
+        return buffers;
+    }
+
+    /**
+     * Writes the characters into the message buffer as UTF-16BE, an unambiguous encoding that needs no encoder
+     *
+     * @return Message length after the characters
+     */
+    private static int append(byte[][] buffers, String value, int offset) {
+        byte[] message = buffers[MESSAGE];
+        int required = offset + value.length() * 2 + 2;
+        if (message.length < required) {
+            byte[] larger = new byte[Math.max(required, message.length * 2)];
+            System.arraycopy(message, 0, larger, 0, offset);
+            message = larger;
+            buffers[MESSAGE] = larger;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            message[offset++] = (byte) (c >>> 8);
+            message[offset++] = (byte) c;
+        }
+        return offset;
+    }
+}
@@ -3,9 +3,23 @@ package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpAuthenticatorConfigCache;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpStepSettings;
+import org.wso2.carbon.identity.custom.federated.authenticator.metrics.OTPMetrics;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.LockoutConfig;
+import org.wso2.carbon.identity.custom.federated.authenticator.ratelimit.OTPAttemptTracker;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.OneTimePassword;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPUtils;
-import org.wso2.carbon.identity.custom.federated.authenticator.sms.OneTimePassword;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Service class for OTP operations
@@ -14,6 +28,8 @@ import org.wso2.carbon.identity.custom.federated.authenticator.sms.OneTimePasswo
 public class OTPService {
 
     private static final Log log = LogFactory.getLog(OTPService.class);
+    private static final Pattern QUOTED_OTP_DIGIT = Pattern.compile("\"otpDigit\"\\s*:\\s*\"(\\d+)\"");
+    private static final Pattern UNQUOTED_OTP_DIGIT = Pattern.compile("\"otpDigit\"\\s*:\\s*(\\d+)");
 
     /**
      * Generates a new OTP token
@@ -23,30 +39,79 @@ public class OTPService {
      */
     public String generateOTP(AuthenticationContext context) {
         // Get OTP length from configuration, default to 4 if not specified
-        int tokenLength = getOTPLengthFromContext(context);
-        boolean isAlphanumeric = SMSOTPUtils.isEnableAlphanumericToken(context);
+        return generateOTP(context, getOTPLengthFromContext(context));
+    }
+
+    /**
+     * Generates a new OTP token of the given length
+     * 
+     * @param context Authentication context
+     * @param tokenLength OTP length, usually taken from the cached authenticator configuration
+     * @return Generated OTP token
+     */
+    public String generateOTP(AuthenticationContext context, int tokenLength) {
+        OTPMetrics metrics = OTPMetrics.getDefault();
+        long startNanos = metrics.begin(OTPMetrics.Operation.OTP_GENERATE);
+        try {
+            return createOTP(context, tokenLength);
+        } finally {
+            metrics.end(OTPMetrics.Operation.OTP_GENERATE, startNanos);
+        }
+    }
+
+    /**
+     * Generates several OTP tokens of the same shape in one call
+     * Meant for peak events where OTPs are issued ahead of the individual login requests
+     * 
+     * @param context Authentication context the token configuration is read from
+     * @param tokenLength OTP length
+     * @param count Number of tokens to generate
+     * @return Generated OTP tokens
+     */
+    public List<String> generateOTPs(AuthenticationContext context, int tokenLength, int count) {
+        OtpStepSettings settings = SMSOTPUtils.getStepSettings(context);
+        boolean isAlphanumeric = settings.isAlphanumericToken();
+        boolean usePool = settings.isTokenPoolEnabled();
+        List<String> tokens = new ArrayList<>(count);
+        OTPMetrics metrics = OTPMetrics.getDefault();
+        long startNanos = metrics.begin(OTPMetrics.Operation.OTP_GENERATE);
+        try {
+            for (int i = 0; i < count; i++) {
+                tokens.add(nextToken(tokenLength, isAlphanumeric, usePool));
+            }
+        } finally {
+            metrics.end(OTPMetrics.Operation.OTP_GENERATE, startNanos);
+        }
+        return tokens;
+    }
+
+    private String createOTP(AuthenticationContext context, int tokenLength) {
+        OtpStepSettings settings = SMSOTPUtils.getStepSettings(context);
+        boolean isAlphanumeric = settings.isAlphanumericToken();
         
         if (log.isDebugEnabled()) {
             log.debug("Generating OTP with length: " + tokenLength + ", alphanumeric: " + isAlphanumeric);
         }
         
-        try {
-            OneTimePassword otpGenerator = new OneTimePassword();
-            String secret = OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
-            
-            String otpToken = otpGenerator.generateToken(
-                secret, 
-                String.valueOf(SMSOTPConstants.NUMBER_BASE), 
-                tokenLength, 
-                isAlphanumeric
-            );
-            
-            if (log.isDebugEnabled()) {
-                log.debug("Successfully generated OTP token with length: " + otpToken.length());
+        String otpToken = nextToken(tokenLength, isAlphanumeric, settings.isTokenPoolEnabled());
+        if (log.isDebugEnabled()) {
+            log.debug("Successfully generated OTP token with length: " + otpToken.length());
+        }
+        return otpToken;
+    }
+
+    /**
+     * Takes a token from the pre-generated pool when enabled and generates it inline otherwise
+     */
+    private String nextToken(int tokenLength, boolean isAlphanumeric, boolean usePool) {
+        if (usePool) {
+            String pooled = OTPTokenPool.getDefault().take(tokenLength, isAlphanumeric);
+            if (pooled != null) {
+                return pooled;
             }
-            
-            return otpToken;
-            
+        }
+        try {
+            return OTPTokenPool.generate(tokenLength, isAlphanumeric);
         } catch (Exception e) {
             log.error("Error generating OTP token: " + e.getMessage(), e);
             // Return a fallback OTP in case of error
@@ -55,7 +120,7 @@ public class OTPService {
     }
 
     /**
-     * Validates the provided OTP against the stored token
+     * Validates the provided OTP against a plain text token, comparing in constant time
      * 
      * @param userToken OTP provided by user
      * @param contextToken OTP stored in context
@@ -66,38 +131,174 @@ public class OTPService {
     public OTPValidationResult validateOTP(String userToken, String contextToken, 
                                          Long sentTime, Long validityPeriod) {
         
-        log.info("OTP Validation Started:");
-        log.info("  - User token: '" + userToken + "' (length: " + (userToken != null ? userToken.length() : "null") + ")");
-        log.info("  - Context token: '" + contextToken + "' (length: " + (contextToken != null ? contextToken.length() : "null") + ")");
-        log.info("  - Sent time: " + sentTime);
-        log.info("  - Validity period: " + validityPeriod);
+        OTPMetrics metrics = OTPMetrics.getDefault();
+        long startNanos = metrics.begin(OTPMetrics.Operation.OTP_VALIDATE);
+        try {
+            OTPValidationResult result = checkOTP(userToken, contextToken, null, null, sentTime, validityPeriod);
+            metrics.recordValidation(result.getOutcome());
+            return result;
+        } finally {
+            metrics.end(OTPMetrics.Operation.OTP_VALIDATE, startNanos);
+        }
+    }
+
+    /**
+     * Validates the provided OTP against the digest stored by {@link #storeOTPInContext}
+     *
+     * @param userToken OTP provided by user
+     * @param issuedDigest Digest of the issued OTP
+     * @param binding Authentication context identifier the digest was bound to
+     * @param sentTime Time when OTP was sent
+     * @param validityPeriod Validity period in minutes
+     * @return OTP validation result
+     */
+    public OTPValidationResult validateOTPDigest(String userToken, byte[] issuedDigest, String binding,
+                                                 Long sentTime, Long validityPeriod) {
+
+        OTPMetrics metrics = OTPMetrics.getDefault();
+        long startNanos = metrics.begin(OTPMetrics.Operation.OTP_VALIDATE);
+        try {
+            OTPValidationResult result = checkOTP(userToken, null, issuedDigest, binding, sentTime, validityPeriod);
+            metrics.recordValidation(result.getOutcome());
+            return result;
+        } finally {
+            metrics.end(OTPMetrics.Operation.OTP_VALIDATE, startNanos);
+        }
+    }
+
+    /**
+     * @return Digest of the OTP issued in the context, or null if no OTP was issued
+     */
+    public static byte[] getIssuedOTPDigest(AuthenticationContext context) {
+        Object issued = context.getProperty(SMSOTPConstants.OTP_TOKEN);
+        return issued instanceof byte[] ? (byte[]) issued : null;
+    }
+
+    /**
+     * Validates the provided OTP and enforces the failed attempt limits of the session and of the user
+     *
+     * An attempt is reserved on the session and on the user before the OTP is compared, so a locked out session
+     * or user is rejected and parallel submissions cannot compare more OTPs than there are attempts left. Only
+     * mismatches count as failed attempts, other outcomes hand the reservation back. When the session runs out of
+     * attempts the issued OTP is discarded, so a new one has to be requested once the lockout ends.
+     *
+     * @param context Authentication context holding the issued OTP
+     * @param username Username of the user being authenticated
+     * @param userToken OTP provided by user
+     * @param issuedDigest Digest of the issued OTP, see {@link #getIssuedOTPDigest}
+     * @param sentTime Time when OTP was sent
+     * @param validityPeriod Validity period in minutes
+     * @return OTP validation result
+     */
+    public OTPValidationResult validateOTP(AuthenticationContext context, String username, String userToken,
+                                           byte[] issuedDigest, Long sentTime, Long validityPeriod) {
+
+        LockoutConfig lockoutConfig = OtpAuthenticatorConfigCache.getDefault().get(context).getLockoutConfig();
+        OTPAttemptTracker tracker = OTPAttemptTracker.getDefault();
+        String sessionKey = OTPAttemptTracker.sessionKey(context.getContextIdentifier());
+        String userKey = OTPAttemptTracker.userKey(context.getTenantDomain(), username);
+
+        int maxSessionAttempts = lockoutConfig.getMaxSessionAttempts();
+        int maxUserAttempts = lockoutConfig.getMaxUserAttempts();
+
+        long lockedMillis = tracker.reserve(sessionKey, maxSessionAttempts, lockoutConfig);
+        if (lockedMillis == 0) {
+            lockedMillis = tracker.reserve(userKey, maxUserAttempts, lockoutConfig);
+            if (lockedMillis > 0) {
+                tracker.release(sessionKey, maxSessionAttempts);
+            }
+        }
+        if (lockedMillis > 0) {
+            OTPMetrics.getDefault().recordValidation(OTPMetrics.ValidationOutcome.LOCKED);
+            return lockedOut(lockedMillis);
+        }
+
+        boolean counted = false;
+        try {
+            OTPValidationResult result = validateOTPDigest(userToken, issuedDigest, context.getContextIdentifier(),
+                    sentTime, validityPeriod);
+            if (result.isValid()) {
+                tracker.reset(sessionKey);
+                tracker.reset(userKey);
+                counted = true;
+            } else if (result.getOutcome() == OTPMetrics.ValidationOutcome.MISMATCH) {
+                long sessionLockout = tracker.recordFailure(sessionKey, maxSessionAttempts, lockoutConfig);
+                long userLockout = tracker.recordFailure(userKey, maxUserAttempts, lockoutConfig);
+                counted = true;
+                if (sessionLockout > 0) {
+                    // The issued OTP has used up its attempts
+                    context.removeProperty(SMSOTPConstants.OTP_TOKEN);
+                }
+                if (sessionLockout > 0 || userLockout > 0) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("OTP attempts exhausted for session " + context.getContextIdentifier() +
+                                ", session lockout: " + sessionLockout + "ms, user lockout: " + userLockout + "ms");
+                    }
+                    return lockedOut(Math.max(sessionLockout, userLockout));
+                }
+            }
+            return result;
+        } finally {
+            if (!counted) {
+                tracker.release(sessionKey, maxSessionAttempts);
+                tracker.release(userKey, maxUserAttempts);
+            }
+        }
+    }
+
+    private static OTPValidationResult lockedOut(long lockedMillis) {
+        return new OTPValidationResult(false, String.format(SMSOTPConstants.LOCKED_OUT_MESSAGE,
+                (lockedMillis + 999) / 1000), OTPMetrics.ValidationOutcome.LOCKED);
+    }
+
+    /**
+     * Checks the provided OTP against either a plain text token or a digest
+     */
+    private OTPValidationResult checkOTP(String userToken, String contextToken, byte[] issuedDigest, String binding,
+                                         Long sentTime, Long validityPeriod) {
         
+        // The outcome is recorded by the caller as an audit event, so only failure causes are logged here
         // Check if tokens are provided
         if (userToken == null || userToken.trim().isEmpty()) {
-            log.warn("OTP Validation Failed: User token is null or empty");
-            return new OTPValidationResult(false, "Please enter the OTP code.");
+            if (log.isDebugEnabled()) {
+                log.debug("OTP Validation Failed: User token is null or empty");
+            }
+            return new OTPValidationResult(false, "Please enter the OTP code.",
+                    OTPMetrics.ValidationOutcome.EMPTY);
         }
         
-        if (contextToken == null || contextToken.trim().isEmpty()) {
-            log.warn("OTP Validation Failed: Context token is null or empty");
-            return new OTPValidationResult(false, "OTP session expired. Please try again.");
+        boolean issued = issuedDigest != null ? OTPDigest.isDigest(issuedDigest) :
+                contextToken != null && !contextToken.trim().isEmpty();
+        if (!issued) {
+            if (log.isDebugEnabled()) {
+                log.debug("OTP Validation Failed: Context token is null or empty");
+            }
+            return new OTPValidationResult(false, "OTP session expired. Please try again.",
+                    OTPMetrics.ValidationOutcome.SESSION_EXPIRED);
         }
         
         // Normalize tokens
         userToken = userToken.trim();
-        contextToken = contextToken.trim();
-        
-        log.info("Normalized tokens:");
-        log.info("  - User token: '" + userToken + "'");
-        log.info("  - Context token: '" + contextToken + "'");
+        boolean matches;
+        int issuedLength;
+        if (issuedDigest != null) {
+            matches = matchesDigest(issuedDigest, userToken, binding);
+            issuedLength = OTPDigest.getTokenLength(issuedDigest);
+        } else {
+            contextToken = contextToken.trim();
+            matches = MessageDigest.isEqual(userToken.getBytes(StandardCharsets.UTF_8),
+                    contextToken.getBytes(StandardCharsets.UTF_8));
+            issuedLength = contextToken.length();
+        }
         
-        // Check token match
-        if (!userToken.equals(contextToken)) {
-            log.warn("OTP Validation Failed: Token mismatch");
-            log.warn("  - User: '" + userToken + "'");
-            log.warn("  - Context: '" + contextToken + "'");
+        // Check token match, the comparison takes the same time wherever the tokens differ
+        if (!matches) {
+            if (log.isDebugEnabled()) {
+                log.debug("OTP Validation Failed: Token mismatch");
+            }
             return new OTPValidationResult(false, 
-                "Invalid OTP code. Please enter the complete " + contextToken.length() + "-digit OTP sent to your mobile.");
+                "Invalid OTP code. Please enter the complete " + issuedLength + "-digit OTP sent to your mobile.",
+                OTPMetrics.ValidationOutcome.MISMATCH);
         }
         
         // Check token expiry
@@ -106,54 +307,74 @@ public class OTPService {
             long elapsedTime = currentTime - sentTime;
             long validityInMillis = validityPeriod * 60 * 1000; // Convert minutes to milliseconds
             
-            log.info("OTP Expiry Check:");
-            log.info("  - Current time: " + currentTime);
-            log.info("  - Sent time: " + sentTime);
-            log.info("  - Elapsed time (ms): " + elapsedTime);
-            log.info("  - Validity period (ms): " + validityInMillis);
-            
             if (elapsedTime > validityInMillis) {
-                log.warn("OTP Validation Failed: Token expired");
-                log.warn("  - Elapsed: " + elapsedTime + "ms, Validity: " + validityInMillis + "ms");
-                return new OTPValidationResult(false, "OTP has expired. Please request a new code.");
+                if (log.isDebugEnabled()) {
+                    log.debug("OTP Validation Failed: Token expired. Elapsed: " + elapsedTime + "ms, Validity: " +
+                            validityInMillis + "ms");
+                }
+                return new OTPValidationResult(false, "OTP has expired. Please request a new code.",
+                        OTPMetrics.ValidationOutcome.EXPIRED);
             }
         }
         
-        log.info("OTP Validation Successful: All checks passed");
         return new OTPValidationResult(true, "OTP validation successful");
     }
 
+    private static boolean matchesDigest(byte[] issuedDigest, String userToken, String binding) {
+        try {
+            return OTPDigest.matches(issuedDigest, userToken, binding);
+        } catch (GeneralSecurityException e) {
+            log.error("Unable to verify the OTP digest: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
     /**
      * Stores OTP information in authentication context with conflict handling
      * 
      * @param context Authentication context
      * @param otpToken Generated OTP token
-     * @param actualOtpSent Actual OTP sent via SMS
+     * @param actualOtpSent Actual OTP sent via SMS, no longer stored
      */
     public void storeOTPInContext(AuthenticationContext context, String otpToken, String actualOtpSent) {
-        log.debug("~~~~~~~~~~~~~~ actualOtpSent: " + actualOtpSent + "~~~~~~~~~~~~~~");
         if (context == null) {
             log.error("Authentication context is null, cannot store OTP information");
             return;
         }
+        storeOTPInContext(context, otpToken, actualOtpSent, OTPSessionState.currentVersion(context));
+    }
+
+    /**
+     * Stores OTP information in authentication context if the OTP session state has not been reset since
+     * the OTP was issued
+     *
+     * The context is serialized into the session store, so only a salted digest of the OTP bound to the context
+     * identifier is kept. The OTP reported back by the gateway is not stored either.
+     * 
+     * @param context Authentication context
+     * @param otpToken Generated OTP token
+     * @param actualOtpSent Actual OTP sent via SMS, no longer stored
+     * @param stateVersion OTP session state version the OTP was issued for
+     */
+    public void storeOTPInContext(AuthenticationContext context, String otpToken, String actualOtpSent,
+                                  long stateVersion) {
+        if (context == null) {
+            log.error("Authentication context is null, cannot store OTP information");
+            return;
+        }
+        if (!OTPSessionState.isCurrent(context, stateVersion)) {
+            log.warn("Discarding OTP issued for a superseded session state");
+            return;
+        }
         
         try {
-            // Store the generated OTP token for validation
-            context.setProperty(SMSOTPConstants.OTP_TOKEN, otpToken);
-            
-            // Store the actual OTP sent (may be different from generated for external SMS services)
-            if (actualOtpSent != null && !actualOtpSent.isEmpty()) {
-                context.setProperty("CLIENT_OTP_VALIDATION", actualOtpSent);
-            }
+            // Store a digest of the generated OTP token for validation
+            context.setProperty(SMSOTPConstants.OTP_TOKEN, OTPDigest.digest(otpToken, context.getContextIdentifier()));
             
             // Store the time when OTP was sent
             long sentTime = System.currentTimeMillis();
             context.setProperty(SMSOTPConstants.SENT_OTP_TOKEN_TIME, sentTime);
-            
-            log.info("Successfully stored OTP context properties:");
-            log.info("  - OTP Token: " + (otpToken != null ? "***" + otpToken.substring(Math.max(0, otpToken.length()-2)) : "null"));
-            log.info("  - Actual OTP: " + (actualOtpSent != null ? "***" + actualOtpSent.substring(Math.max(0, actualOtpSent.length()-2)) : "null"));
-            log.info("  - Sent Time: " + sentTime);
+            OTPSessionState.markIssued(context, stateVersion);
             
         } catch (Exception e) {
             log.error("Error storing OTP context properties: " + e.getMessage(), e);
@@ -179,20 +400,35 @@ public class OTPService {
     }
 
     /**
-     * Generates a fallback OTP when the main generation fails
+     * Generates a fallback OTP of random digits when the main generation fails
+     * 
+     * The digits come from the secure random generator. Bytes of 250 and above are skipped, so every digit is
+     * equally likely. If no secure random generator is available the OTP step fails instead of sending a
+     * guessable OTP.
      * 
      * @param length Required OTP length
      * @return Fallback OTP token
      */
     private String generateFallbackOTP(int length) {
-        StringBuilder fallbackOtp = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            fallbackOtp.append((int) (Math.random() * 10));
+        char[] fallbackOtp = new char[length];
+        byte[] randomBytes = new byte[length + 8];
+        try {
+            int filled = 0;
+            while (filled < length) {
+                OneTimePassword.nextBytes(randomBytes);
+                for (int i = 0; i < randomBytes.length && filled < length; i++) {
+                    int value = randomBytes[i] & 0xFF;
+                    if (value < 250) {
+                        fallbackOtp[filled++] = (char) ('0' + value % 10);
+                    }
+                }
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No secure random generator is available to generate the OTP", e);
         }
         
-        String fallback = fallbackOtp.toString();
-        log.warn("Using fallback OTP generation: " + fallback);
-        return fallback;
+        log.warn("Using fallback OTP generation");
+        return new String(fallbackOtp);
     }
 
     /**
@@ -230,7 +466,9 @@ public class OTPService {
             if (smsPayload != null && !smsPayload.trim().isEmpty()) {
                 int lengthFromPayload = parseOTPLengthFromPayload(smsPayload);
                 if (lengthFromPayload > 0) {
-                    log.info("OTP length from SMS payload: " + lengthFromPayload);
+                    if (log.isDebugEnabled()) {
+                        log.debug("OTP length from SMS payload: " + lengthFromPayload);
+                    }
                     return lengthFromPayload;
                 }
             }
@@ -240,7 +478,9 @@ public class OTPService {
             if (emailPayload != null && !emailPayload.trim().isEmpty()) {
                 int lengthFromPayload = parseOTPLengthFromPayload(emailPayload);
                 if (lengthFromPayload > 0) {
-                    log.info("OTP length from EMAIL payload: " + lengthFromPayload);
+                    if (log.isDebugEnabled()) {
+                        log.debug("OTP length from EMAIL payload: " + lengthFromPayload);
+                    }
                     return lengthFromPayload;
                 }
             }
@@ -252,13 +492,17 @@ public class OTPService {
                 if (otpLengthStr != null && !otpLengthStr.trim().isEmpty()) {
                     int lengthFromProps = Integer.parseInt(otpLengthStr.trim());
                     if (lengthFromProps > 0 && lengthFromProps <= 8) {
-                        log.info("OTP length from authenticator properties: " + lengthFromProps);
+                        if (log.isDebugEnabled()) {
+                            log.debug("OTP length from authenticator properties: " + lengthFromProps);
+                        }
                         return lengthFromProps;
                     }
                 }
             }
             
-            log.info("Using default OTP length: " + defaultLength);
+            if (log.isDebugEnabled()) {
+                log.debug("Using default OTP length: " + defaultLength);
+            }
             return defaultLength;
             
         } catch (Exception e) {
@@ -273,17 +517,17 @@ public class OTPService {
      * @param payload JSON payload string
      * @return OTP length or 0 if not found
      */
-    private int parseOTPLengthFromPayload(String payload) {
+    public static int parseOTPLengthFromPayload(String payload) {
         try {
-            log.debug("Parsing OTP length from payload: " + payload);
+            if (log.isDebugEnabled()) {
+                log.debug("Parsing OTP length from payload: " + payload);
+            }
             
             // Simple JSON parsing for otpDigit value
             // Look for "otpDigit":"number" or "otpDigit":number patterns
             
             // Pattern 1: "otpDigit":"6"
-            String pattern1 = "\"otpDigit\"\\s*:\\s*\"(\\d+)\"";
-            java.util.regex.Pattern p1 = java.util.regex.Pattern.compile(pattern1);
-            java.util.regex.Matcher m1 = p1.matcher(payload);
+            Matcher m1 = QUOTED_OTP_DIGIT.matcher(payload);
             if (m1.find()) {
                 int length = Integer.parseInt(m1.group(1));
                 log.debug("Found otpDigit (quoted): " + length);
@@ -291,9 +535,7 @@ public class OTPService {
             }
             
             // Pattern 2: "otpDigit":6
-            String pattern2 = "\"otpDigit\"\\s*:\\s*(\\d+)";
-            java.util.regex.Pattern p2 = java.util.regex.Pattern.compile(pattern2);
-            java.util.regex.Matcher m2 = p2.matcher(payload);
+            Matcher m2 = UNQUOTED_OTP_DIGIT.matcher(payload);
             if (m2.find()) {
                 int length = Integer.parseInt(m2.group(1));
                 log.debug("Found otpDigit (unquoted): " + length);
@@ -315,10 +557,16 @@ public class OTPService {
     public static class OTPValidationResult {
         private boolean valid;
         private String message;
+        private OTPMetrics.ValidationOutcome outcome;
         
         public OTPValidationResult(boolean valid, String message) {
+            this(valid, message, valid ? OTPMetrics.ValidationOutcome.SUCCESS : OTPMetrics.ValidationOutcome.MISMATCH);
+        }
+        
+        public OTPValidationResult(boolean valid, String message, OTPMetrics.ValidationOutcome outcome) {
             this.valid = valid;
             this.message = message;
+            this.outcome = outcome;
         }
         
         public boolean isValid() {
@@ -329,6 +577,10 @@ public class OTPService {
             return message;
         }
         
+        public OTPMetrics.ValidationOutcome getOutcome() {
+            return outcome;
+        }
+        
         @Override
         public String toString() {
             return "OTPValidationResult{" +
@@ -0,0 +1,80 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+
+/**
+ * Versioned OTP state kept in the authentication context
+ *
+ * Every reset of the OTP session bumps a version counter in the context. OTPs are stamped with the version
+ * they were issued for, so an OTP written by an earlier, superseded flow is never accepted and cleanup does
+ * not have to wait for in-flight operations to settle.
+ */
+public class OTPSessionState {
+
+    private static final Log log = LogFactory.getLog(OTPSessionState.class);
+
+    public static final String OTP_STATE_VERSION = "OTP_STATE_VERSION";
+    public static final String OTP_ISSUED_VERSION = "OTP_ISSUED_VERSION";
+
+    private OTPSessionState() {
+    }
+
+    /**
+     * Removes the given OTP properties and starts a new OTP state version
+     *
+     * @param context Authentication context
+     * @param properties Context properties belonging to the previous OTP state
+     * @return The new OTP state version
+     */
+    public static long reset(AuthenticationContext context, String... properties) {
+        for (String property : properties) {
+            if (context.getProperty(property) != null) {
+                context.removeProperty(property);
+                if (log.isDebugEnabled()) {
+                    log.debug("Cleaned up session property: " + property);
+                }
+            }
+        }
+        context.removeProperty(OTP_ISSUED_VERSION);
+        long version = currentVersion(context) + 1;
+        context.setProperty(OTP_STATE_VERSION, version);
+        return version;
+    }
+
+    /**
+     * @param context Authentication context
+     * @return Current OTP state version, 0 if the state was never reset
+     */
+    public static long currentVersion(AuthenticationContext context) {
+        Object version = context.getProperty(OTP_STATE_VERSION);
+        return version instanceof Long ? (Long) version : 0L;
+    }
+
+    /**
+     * Checks whether the given version is still the current OTP state version
+     */
+    public static boolean isCurrent(AuthenticationContext context, long version) {
+        return currentVersion(context) == version;
+    }
+
+    /**
+     * Records the OTP state version the stored OTP was issued for
+     */
+    public static void markIssued(AuthenticationContext context, long version) {
+        context.setProperty(OTP_ISSUED_VERSION, version);
+    }
+
+    /**
+     * Checks whether the OTP stored in the context belongs to the current OTP state
+     *
+     * @param context Authentication context
+     * @return false if the stored OTP was issued for a superseded state
+     */
+    public static boolean isIssuedForCurrentVersion(AuthenticationContext context) {
+        Object issued = context.getProperty(OTP_ISSUED_VERSION);
+        // OTPs stored before versioning was introduced carry no stamp and stay valid
+        return !(issued instanceof Long) || isCurrent(context, (Long) issued);
+    }
+}
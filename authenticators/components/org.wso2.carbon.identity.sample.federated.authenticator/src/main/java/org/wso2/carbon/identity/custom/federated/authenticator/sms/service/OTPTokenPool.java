@@ -0,0 +1,285 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.authentication.framework.exception.AuthenticationFailedException;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.OneTimePassword;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of pre-generated OTP tokens, one lock free ring buffer per token shape
+ *
+ * A shape is a token length plus the alphanumeric flag. The first request for a shape registers it and is
+ * served inline, after that a background thread keeps its ring topped up and {@link #take} is a single slot
+ * claim. Every token is handed out at most once. When a ring runs dry, for example at the start of a mass
+ * login, callers fall back to inline generation, so the pool only ever removes HMAC work from the request path.
+ */
+public class OTPTokenPool {
+
+    private static final Log log = LogFactory.getLog(OTPTokenPool.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_REFILL_INTERVAL_MILLIS = 200L;
+
+    private static volatile OTPTokenPool defaultInstance;
+
+    private final int capacity;
+    private final Map<Integer, TokenRing> rings = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refiller;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity Tokens kept per shape, rounded up to a power of two
+     * @param refillIntervalMillis Interval of the periodic top up
+     */
+    public OTPTokenPool(int capacity, long refillIntervalMillis) {
+        this(capacity, refillIntervalMillis, true);
+    }
+
+    /**
+     * @param capacity Tokens kept per shape, rounded up to a power of two
+     * @param refillIntervalMillis Interval of the periodic top up
+     * @param backgroundRefill False to leave every refill to explicit {@link #refillAll} calls, for example in a
+     *                         benchmark that must not race with the refill thread
+     */
+    public OTPTokenPool(int capacity, long refillIntervalMillis, boolean backgroundRefill) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        if (!backgroundRefill) {
+            this.refiller = null;
+            return;
+        }
+        this.refiller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "otp-token-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refiller.scheduleWithFixedDelay(this::refillAll, refillIntervalMillis, refillIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the process wide token pool shared by the OTP authenticators
+     */
+    public static OTPTokenPool getDefault() {
+        if (defaultInstance == null) {
+            synchronized (OTPTokenPool.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new OTPTokenPool(DEFAULT_CAPACITY, DEFAULT_REFILL_INTERVAL_MILLIS);
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Stops the refill thread of the process wide token pool, the next getDefault call creates a new one
+     */
+    public static void shutdownDefault() {
+        OTPTokenPool pool;
+        synchronized (OTPTokenPool.class) {
+            pool = defaultInstance;
+            defaultInstance = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Takes a pre-generated token
+     *
+     * @param length Token length
+     * @param alphanumeric Whether the token is alphanumeric
+     * @return Token, or null if the ring of the shape is empty and the caller must generate the token itself
+     */
+    public String take(int length, boolean alphanumeric) {
+        TokenRing ring = ringOf(length, alphanumeric);
+        String token = ring.poll();
+        if (token != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        if (ring.size() < capacity / 2) {
+            requestRefill();
+        }
+        return token;
+    }
+
+    /**
+     * Generates a token inline with the same generator that fills the pool
+     *
+     * @param length Token length
+     * @param alphanumeric Whether the token is alphanumeric
+     * @return Token
+     * @throws AuthenticationFailedException If the HMAC algorithm is unavailable
+     */
+    public static String generate(int length, boolean alphanumeric) throws AuthenticationFailedException {
+        String secret = OneTimePassword.getRandomNumber(SMSOTPConstants.SECRET_KEY_LENGTH);
+        return new OneTimePassword().generateToken(secret, String.valueOf(SMSOTPConstants.NUMBER_BASE), length,
+                alphanumeric);
+    }
+
+    /**
+     * @return Number of tokens currently pooled for the shape
+     */
+    public int size(int length, boolean alphanumeric) {
+        TokenRing ring = rings.get(shapeKey(length, alphanumeric));
+        return ring == null ? 0 : ring.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Drops every pooled token, for example after the token configuration changed
+     */
+    public void clear() {
+        rings.clear();
+    }
+
+    /**
+     * Stops the refill thread and drops every pooled token
+     */
+    public void shutdown() {
+        if (refiller != null) {
+            refiller.shutdownNow();
+        }
+        rings.clear();
+    }
+
+    /**
+     * Fills every registered ring up to its capacity
+     *
+     * Refills never overlap, so with a free slot checked before each token is generated the offer cannot fail
+     * and no generated token is thrown away.
+     */
+    synchronized void refillAll() {
+        refillScheduled.set(false);
+        for (TokenRing ring : rings.values()) {
+            try {
+                while (ring.hasFreeSlot()) {
+                    ring.offer(generate(ring.length, ring.alphanumeric));
+                }
+            } catch (AuthenticationFailedException | RuntimeException e) {
+                log.error("Unable to pre-generate OTP tokens: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void requestRefill() {
+        if (refiller != null && refillScheduled.compareAndSet(false, true)) {
+            try {
+                refiller.execute(this::refillAll);
+            } catch (RuntimeException e) {
+                // the pool was shut down, callers keep generating inline
+                refillScheduled.set(false);
+            }
+        }
+    }
+
+    private TokenRing ringOf(int length, boolean alphanumeric) {
+        Integer key = shapeKey(length, alphanumeric);
+        TokenRing ring = rings.get(key);
+        if (ring == null) {
+            ring = rings.computeIfAbsent(key, k -> new TokenRing(capacity, length, alphanumeric));
+        }
+        return ring;
+    }
+
+    private static Integer shapeKey(int length, boolean alphanumeric) {
+        return alphanumeric ? -length : length;
+    }
+
+    /**
+     * Bounded multi producer multi consumer ring buffer
+     *
+     * Every slot carries a sequence number telling producers and consumers whose turn it is, so a slot is
+     * claimed with a single compare and set on the head or tail counter and no lock is ever taken.
+     */
+    private static final class TokenRing {
+
+        private final int length;
+        private final boolean alphanumeric;
+        private final int mask;
+        private final AtomicReferenceArray<String> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        TokenRing(int capacity, int length, boolean alphanumeric) {
+            this.length = length;
+            this.alphanumeric = alphanumeric;
+            this.mask = capacity - 1;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(String token) {
+            while (true) {
+                long position = tail.get();
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.set(index, token);
+                        sequences.set(index, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * @return True if the next offer finds its slot released by the consumers
+         */
+        boolean hasFreeSlot() {
+            long position = tail.get();
+            return sequences.get((int) (position & mask)) == position;
+        }
+
+        String poll() {
+            while (true) {
+                long position = head.get();
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        String token = slots.getAndSet(index, null);
+                        sequences.set(index, position + mask + 1);
+                        return token;
+                    }
+                } else if (difference < 0) {
+                    return null;
+                }
+            }
+        }
+
+        int size() {
+            return (int) Math.max(0, tail.get() - head.get());
+        }
+    }
+}
@@ -4,23 +4,63 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.metrics.OTPMetrics;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayGuard;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayRouter;
+import org.wso2.carbon.identity.custom.federated.authenticator.resilience.GatewayUnavailableException;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.GssoSendOneTimePWResponse;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SendOneTimePWResponse;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SendOneTimePWResponseParser;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.model.SMSResponse;
+import org.wso2.carbon.identity.custom.federated.authenticator.template.HeaderTemplate;
+import org.wso2.carbon.identity.custom.federated.authenticator.template.MessageTemplate;
+import org.wso2.carbon.identity.custom.federated.authenticator.template.TemplateSyntax;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.BoundedInputStream;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.ConnectFailedException;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransport;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.HttpTransportRequest;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PoolStats;
+import org.wso2.carbon.identity.custom.federated.authenticator.transport.PooledHttpTransport;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
 import java.net.URLEncoder;
-import javax.net.ssl.HttpsURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Service class for SMS operations
  * Handles all SMS-related functionality including sending OTP messages
+ * Gateway calls go through a pluggable {@link HttpTransport} so connections can be reused across OTPs
  */
 public class SMSService {
 
     private static final Log log = LogFactory.getLog(SMSService.class);
+    // SMS message as it appears in the gateway URL, with whitespace encoded as '+'
+    private static final String URL_SMS_MESSAGE = SMSOTPConstants.SMS_MESSAGE.replaceAll("\\s", "+");
+    // Gateway responses are only a few hundred bytes, anything beyond these caps is not read
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+    private static final int MAX_ERROR_BYTES = 2048;
+
+    private final HttpTransport transport;
+
+    /**
+     * Creates the service on top of the shared pooled transport
+     */
+    public SMSService() {
+        this(PooledHttpTransport.getDefault());
+    }
+
+    /**
+     * Creates the service on top of the given transport
+     *
+     * @param transport Transport used to reach the SMS gateway
+     */
+    public SMSService(HttpTransport transport) {
+        this.transport = transport;
+    }
 
     /**
      * Sends SMS OTP to the specified mobile number
@@ -39,101 +79,190 @@ public class SMSService {
             log.debug("Sending OTP to mobile: " + mobileNumber + " with OTP length: " + otpCode.length());
         }
 
-        if(StringUtils.isNotEmpty(mobileNumber)){
+        setMaskedMobile(context, mobileNumber);
+        return deliverOTP(mobileNumber, otpCode, smsConfig);
+    }
+
+    /**
+     * Stores the masked mobile number in the context for display on the OTP page
+     *
+     * @param context Authentication context
+     * @param mobileNumber Target mobile number
+     */
+    public void setMaskedMobile(AuthenticationContext context, String mobileNumber) {
+        if (StringUtils.isNotEmpty(mobileNumber)) {
             String maskedMobile = maskMobileNumber(mobileNumber);
             context.setProperty("MASKED_MOBILE", maskedMobile);
         }
+    }
 
-        
-
+    /**
+     * Delivers the OTP to the SMS gateway without touching the authentication context
+     * Safe to call from a dispatcher thread
+     *
+     * The additional gateway URLs are mirrors of the SMS URL, each is sent the same headers and payload and its
+     * response is read the same way. The next gateway is only tried when the request is known not to have been
+     * delivered, that is when the connection failed, the gateway guard rejected the call or the gateway answered
+     * with a server error or 429. Any other failure, a read timeout in particular, is returned as is since the
+     * gateway may already have sent the SMS.
+     *
+     * @param mobileNumber Target mobile number
+     * @param otpCode OTP code to send
+     * @param smsConfig SMS configuration parameters
+     * @return SMS response containing the actual OTP sent
+     * @throws IOException If SMS sending fails
+     */
+    public SMSResponse deliverOTP(String mobileNumber, String otpCode, SMSConfig smsConfig) throws IOException {
         String encodedMobileNumber = URLEncoder.encode(mobileNumber, "UTF-8");
-        String finalSmsUrl = buildSmsUrl(smsConfig.getSmsUrl(), encodedMobileNumber, otpCode);
-        
-        HttpURLConnection connection = createConnection(finalSmsUrl, smsConfig);
-        
-        try {
-            configureConnection(connection, smsConfig, encodedMobileNumber, otpCode);
-            
-            if (SMSOTPConstants.POST_METHOD.equalsIgnoreCase(smsConfig.getHttpMethod())) {
-                sendPostData(connection, smsConfig, encodedMobileNumber, otpCode);
+        GatewayRouter router = GatewayRouter.getDefault();
+        List<String> gateways = router.route(smsConfig.getGatewayUrls());
+
+        // Fail over to the next gateway on connection failures, rejected calls, server errors and throttling
+        SMSResponse lastResponse = null;
+        IOException lastError = null;
+        for (String gatewayUrl : gateways) {
+            HttpTransportRequest request = buildRequest(smsConfig, gatewayUrl, encodedMobileNumber, otpCode);
+            int[] gatewayStatus = new int[1];
+            try {
+                SMSResponse smsResponse = deliverToGateway(router, gatewayUrl, request, otpCode, gatewayStatus);
+                if (smsResponse.isSuccess() || !isRetryable(gatewayStatus[0])) {
+                    return smsResponse;
+                }
+                lastResponse = smsResponse;
+            } catch (ConnectFailedException | GatewayUnavailableException e) {
+                lastError = e;
             }
-            
-            return processResponse(connection, context, otpCode);
-            
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (log.isDebugEnabled() && gateways.size() > 1) {
+                log.debug("SMS gateway " + gatewayUrl + " failed, trying the next gateway");
             }
         }
+        if (lastResponse != null) {
+            return lastResponse;
+        }
+        throw lastError != null ? lastError : new IOException("No SMS gateway configured");
     }
 
     /**
-     * Builds the final SMS URL with placeholders replaced
+     * Sends the request to a single gateway through its bulkhead and circuit breaker
      */
-    private String buildSmsUrl(String baseUrl, String encodedMobileNumber, String otpCode) {
-        String smsMessage = SMSOTPConstants.SMS_MESSAGE;
-        return baseUrl.replaceAll("\\$ctx.num", encodedMobileNumber)
-                     .replaceAll("\\$ctx.msg", smsMessage.replaceAll("\\s", "+") + otpCode)
-                     + "sendOneTimePW.json";
+    private SMSResponse deliverToGateway(GatewayRouter router, String gatewayUrl, HttpTransportRequest request,
+                                         String otpCode, int[] gatewayStatus) throws IOException {
+        if (log.isDebugEnabled()) {
+            // The rendered URL may carry the OTP, so only the configured gateway URL is logged
+            log.debug("SMS Provider URL: " + gatewayUrl);
+        }
+
+        // Rejected right away while the gateway is failing or saturated, instead of tying up the request thread
+        GatewayGuard.Permit permit = GatewayGuard.forGateway(gatewayUrl).acquire();
+        OTPMetrics metrics = OTPMetrics.getDefault();
+        long startNanos = metrics.begin(OTPMetrics.Operation.SMS_SEND);
+        long routeStartNanos = router.onStart(gatewayUrl);
+        SMSResponse smsResponse = null;
+        try {
+            smsResponse = transport.execute(request, (statusCode, body) -> {
+                gatewayStatus[0] = statusCode;
+                metrics.recordGatewayResponse(OTPMetrics.CHANNEL_SMS, statusCode);
+                return processResponse(statusCode, body, otpCode);
+            });
+            return smsResponse;
+        } catch (IOException e) {
+            metrics.recordGatewayError(OTPMetrics.CHANNEL_SMS);
+            throw e;
+        } finally {
+            metrics.end(OTPMetrics.Operation.SMS_SEND, startNanos);
+            router.onComplete(gatewayUrl, routeStartNanos, smsResponse != null && smsResponse.isSuccess());
+            // Server errors, throttling and transport failures count against the gateway, so a gateway the calls
+            // fail over from also opens its breaker. Other client errors do not.
+            permit.complete(gatewayStatus[0] > 0 && !isRetryable(gatewayStatus[0]));
+        }
     }
 
     /**
-     * Creates HTTP connection based on protocol
+     * Checks whether a failed gateway response is worth retrying on another gateway
      */
-    private HttpURLConnection createConnection(String smsUrl, SMSConfig smsConfig) throws IOException {
-        URL url = new URL(smsUrl);
-        
-        if (log.isDebugEnabled()) {
-            log.debug("SMS Provider URL: " + url);
+    private static boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    /**
+     * Checks whether the circuit breaker of at least one configured SMS gateway currently accepts calls
+     *
+     * @param smsConfig SMS configuration parameters
+     * @return False if SMS sends are currently rejected by every gateway
+     */
+    public boolean isGatewayAvailable(SMSConfig smsConfig) {
+        List<String> gateways = smsConfig.getGatewayUrls();
+        if (gateways.isEmpty()) {
+            return true;
         }
-        
-        if (SMSOTPConstants.HTTPS.equals(url.getProtocol())) {
-            return (HttpsURLConnection) url.openConnection();
-        } else {
-            return (HttpURLConnection) url.openConnection();
+        for (String gatewayUrl : gateways) {
+            if (!GatewayGuard.forGateway(gatewayUrl).isOpen()) {
+                return true;
+            }
         }
+        return false;
     }
 
     /**
-     * Configures the HTTP connection with headers and method
+     * Returns the connection pool statistics of the underlying transport
      */
-    private void configureConnection(HttpURLConnection connection, SMSConfig smsConfig, 
-                                   String encodedMobileNumber, String otpCode) throws IOException {
-        
-        connection.setDoInput(true);
-        connection.setDoOutput(true);
-        connection.setRequestMethod(smsConfig.getHttpMethod());
-        
+    public List<PoolStats> getTransportStats() {
+        return transport.getPoolStats();
+    }
+
+    /**
+     * Builds the gateway request with URL, headers and payload placeholders replaced
+     */
+    HttpTransportRequest buildRequest(SMSConfig smsConfig, String encodedMobileNumber, String otpCode) {
+        return buildRequest(smsConfig, smsConfig.getSmsUrl(), encodedMobileNumber, otpCode);
+    }
+
+    /**
+     * Builds the request for one of the configured gateways
+     */
+    HttpTransportRequest buildRequest(SMSConfig smsConfig, String gatewayUrl, String encodedMobileNumber,
+                                      String otpCode) {
+        String finalSmsUrl = buildSmsUrl(gatewayUrl, encodedMobileNumber, otpCode);
+        HttpTransportRequest request = new HttpTransportRequest(finalSmsUrl, smsConfig.getHttpMethod());
+        request.setConnectTimeoutMillis(smsConfig.getConnectTimeoutMillis());
+        request.setReadTimeoutMillis(smsConfig.getReadTimeoutMillis());
+
         // Set headers if provided
         if (smsConfig.getHeaders() != null && !smsConfig.getHeaders().trim().isEmpty()) {
-            setHeaders(connection, smsConfig.getHeaders(), encodedMobileNumber, otpCode);
+            setHeaders(request, smsConfig.getHeaders(), encodedMobileNumber, otpCode);
+        }
+
+        if (SMSOTPConstants.POST_METHOD.equalsIgnoreCase(smsConfig.getHttpMethod())) {
+            setPostData(request, smsConfig, encodedMobileNumber, otpCode);
         }
+        return request;
+    }
+
+    /**
+     * Builds the final SMS URL with placeholders replaced
+     */
+    private String buildSmsUrl(String baseUrl, String encodedMobileNumber, String otpCode) {
+        MessageTemplate urlTemplate = TemplateSyntax.SMS.compile(baseUrl);
+        return urlTemplate.render(encodedMobileNumber, URL_SMS_MESSAGE + otpCode, otpCode) + "sendOneTimePW.json";
     }
 
     /**
      * Sets HTTP headers with placeholder replacement
      */
-    private void setHeaders(HttpURLConnection connection, String headerString, 
+    private void setHeaders(HttpTransportRequest request, String headerString,
                            String encodedMobileNumber, String otpCode) {
         
-        String processedHeaders = headerString.trim()
-                .replaceAll("\\$ctx.num", encodedMobileNumber)
-                .replaceAll("\\$ctx.msg", SMSOTPConstants.SMS_MESSAGE + otpCode);
-        
-        String[] headers = processedHeaders.split(",");
-        for (String header : headers) {
-            String[] headerParts = header.split(":");
-            if (headerParts.length > 1) {
-                connection.setRequestProperty(headerParts[0].trim(), headerParts[1].trim());
-            }
+        String smsMessage = SMSOTPConstants.SMS_MESSAGE + otpCode;
+        for (HeaderTemplate header : TemplateSyntax.SMS.compileHeaders(headerString)) {
+            request.addHeader(header.getName(), header.renderValue(encodedMobileNumber, smsMessage, otpCode));
         }
     }
 
     /**
-     * Sends POST data to SMS provider
+     * Sets the POST payload for the SMS provider
      */
-    private void sendPostData(HttpURLConnection connection, SMSConfig smsConfig, 
-                             String encodedMobileNumber, String otpCode) throws IOException {
+    private void setPostData(HttpTransportRequest request, SMSConfig smsConfig, String encodedMobileNumber,
+                             String otpCode) {
         
         if (smsConfig.getPayload() == null || smsConfig.getPayload().trim().isEmpty()) {
             log.warn("POST method specified but payload is empty");
@@ -141,128 +270,95 @@ public class SMSService {
         }
         
         // Process mobile number for Thai format (remove leading 0, add 66)
-        String processedMobileNumber = encodedMobileNumber.replaceFirst("0", "66");
-        String processedPayload = smsConfig.getPayload().replaceAll("\\$ctx.num", processedMobileNumber);
+        String processedMobileNumber = toThaiFormat(encodedMobileNumber);
+        String processedPayload = TemplateSyntax.SMS.compile(smsConfig.getPayload())
+                .render(processedMobileNumber, SMSOTPConstants.SMS_MESSAGE + otpCode, otpCode);
         
         if (log.isDebugEnabled()) {
-            log.debug("Sending payload to SMS provider: " + processedPayload);
+            // The payload carries the OTP, so only its size is logged
+            log.debug("Sending payload to SMS provider, length: " + processedPayload.length());
         }
         
-        OutputStreamWriter writer = null;
-        try {
-            writer = new OutputStreamWriter(connection.getOutputStream(), SMSOTPConstants.CHAR_SET);
-            writer.write(processedPayload);
-            writer.flush();
-        } finally {
-            if (writer != null) {
-                writer.close();
-            }
+        request.setBody(processedPayload);
+    }
+
+    /**
+     * Replaces the first '0' of the mobile number with the Thai country code 66
+     */
+    private static String toThaiFormat(String mobileNumber) {
+        int index = mobileNumber.indexOf('0');
+        if (index < 0) {
+            return mobileNumber;
         }
+        return mobileNumber.substring(0, index) + "66" + mobileNumber.substring(index + 1);
     }
 
     /**
      * Processes the HTTP response and extracts OTP information
      */
-    private SMSResponse processResponse(HttpURLConnection connection, AuthenticationContext context, String otpCode) throws IOException {
-        int responseCode = connection.getResponseCode();
-        
+    private SMSResponse processResponse(int responseCode, InputStream body, String otpCode) throws IOException {
         if (responseCode == 200 || responseCode == 201 || responseCode == 202) {
-            return handleSuccessResponse(connection, context, otpCode);
+            return handleSuccessResponse(body, otpCode);
         } else {
-            return handleErrorResponse(connection, context, responseCode);
+            return handleErrorResponse(body, responseCode);
         }
     }
 
     /**
      * Handles successful SMS response
+     * Only reads the body up to the OTP, the rest is left to the transport to drain or discard
      */
-    private SMSResponse handleSuccessResponse(HttpURLConnection connection, AuthenticationContext context, String otpCode) throws IOException {
-        String responseBody = readResponseBody(connection);
-        
+    private SMSResponse handleSuccessResponse(InputStream body, String otpCode) throws IOException {
+        GssoSendOneTimePWResponse gatewayResponse = SendOneTimePWResponseParser.parse(body, MAX_RESPONSE_BYTES,
+                SendOneTimePWResponseParser.ONE_TIME_PASSWORD);
+        SendOneTimePWResponse response = gatewayResponse != null ? gatewayResponse.getSendOneTimePWResponse() : null;
+
         if (log.isDebugEnabled()) {
-            log.debug("SMS sent successfully. Response: " + responseBody);
+            log.debug("SMS sent successfully. Response code: " + (response != null ? response.getCode() : null) +
+                    ", transaction: " + (response != null ? response.getTransactionID() : null));
         }
         
-        // Parse response to extract actual OTP (implementation depends on SMS provider format)
-        String actualOtpSent = extractOtpFromResponse(responseBody);
-        
         // If we couldn't extract OTP from response, use the original OTP code we sent
+        String actualOtpSent = response != null ? response.getOneTimePassword() : null;
         if (actualOtpSent == null || actualOtpSent.isEmpty()) {
             actualOtpSent = otpCode;
             if (log.isDebugEnabled()) {
-                log.debug("Using original OTP code as fallback: " + otpCode);
+                log.debug("No OTP found in the gateway response, using the generated OTP");
             }
         }
         
-        return new SMSResponse(true, actualOtpSent, "SMS sent successfully", responseBody);
+        SMSResponse smsResponse = new SMSResponse(true, actualOtpSent, "SMS sent successfully", null);
+        smsResponse.setGatewayResponse(gatewayResponse);
+        return smsResponse;
     }
 
     /**
      * Handles error response from SMS provider
      */
-    private SMSResponse handleErrorResponse(HttpURLConnection connection, AuthenticationContext context, int responseCode) throws IOException {
-        String errorBody = readErrorBody(connection);
+    private SMSResponse handleErrorResponse(InputStream body, int responseCode) {
+        String errorBody = readErrorBody(body);
+        GssoSendOneTimePWResponse gatewayResponse = SendOneTimePWResponseParser.parse(errorBody);
         String errorMessage = "SMS sending failed. Response code: " + responseCode;
+        if (gatewayResponse != null && gatewayResponse.getSendOneTimePWResponse().getDescription() != null) {
+            errorMessage = errorMessage + " (" + gatewayResponse.getSendOneTimePWResponse().getDescription() + ")";
+        }
         
         log.error(errorMessage + ". Response: " + errorBody);
         
-        return new SMSResponse(false, null, errorMessage, errorBody);
-    }
-
-    /**
-     * Reads response body from successful connection
-     */
-    private String readResponseBody(HttpURLConnection connection) throws IOException {
-        StringBuilder response = new StringBuilder();
-        try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(connection.getInputStream(), SMSOTPConstants.CHAR_SET))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-        }
-        return response.toString();
+        SMSResponse smsResponse = new SMSResponse(false, null, errorMessage, errorBody);
+        smsResponse.setGatewayResponse(gatewayResponse);
+        return smsResponse;
     }
 
     /**
-     * Reads error body from failed connection
+     * Reads the start of the error body from failed connection, error pages can be arbitrarily large
      */
-    private String readErrorBody(HttpURLConnection connection) throws IOException {
-        StringBuilder response = new StringBuilder();
-        try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                new java.io.InputStreamReader(connection.getErrorStream(), SMSOTPConstants.CHAR_SET))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-        } catch (Exception e) {
-            return "Unable to read error response";
-        }
-        return response.toString();
-    }
-
-    /**
-     * Extracts OTP from SMS provider response
-     * This method should be customized based on the SMS provider's response format
-     */
-    private String extractOtpFromResponse(String responseBody) {
-        // Implementation depends on SMS provider's response format
-        // This is a placeholder that should be customized
+    private String readErrorBody(InputStream body) {
         try {
-            // For GSSO service, parse JSON response to extract OTP
-            // This is a simplified implementation
-            if (responseBody.contains("\"oneTimePassword\"")) {
-                // Extract OTP from JSON response
-                String[] parts = responseBody.split("\"oneTimePassword\":");
-                if (parts.length > 1) {
-                    String otpPart = parts[1].split(",")[0].replace("\"", "").trim();
-                    return otpPart;
-                }
-            }
+            return BoundedInputStream.readText(body, MAX_ERROR_BYTES);
         } catch (Exception e) {
-            log.warn("Failed to extract OTP from response: " + e.getMessage());
+            return "Unable to read error response";
         }
-        return null;
     }
 
     /**
@@ -272,7 +368,7 @@ public class SMSService {
      * @param mobileNumber The original mobile number
      * @return Masked mobile number (e.g., +***-***-1234)
      */
-    private String maskMobileNumber(String mobileNumber) {
+    String maskMobileNumber(String mobileNumber) {
         if (mobileNumber == null || mobileNumber.trim().isEmpty()) {
             return "";
         }
@@ -322,6 +418,9 @@ public class SMSService {
         private String headers;
         private String payload;
         private String expectedResponse;
+        private int connectTimeoutMillis;
+        private int readTimeoutMillis;
+        private List<String> additionalGatewayUrls = Collections.emptyList();
 
         // Constructors
         public SMSConfig(String smsUrl, String httpMethod, String headers, String payload, String expectedResponse) {
@@ -347,5 +446,34 @@ public class SMSService {
 
         public String getExpectedResponse() { return expectedResponse; }
         public void setExpectedResponse(String expectedResponse) { this.expectedResponse = expectedResponse; }
+
+        public int getConnectTimeoutMillis() { return connectTimeoutMillis; }
+        public void setConnectTimeoutMillis(int connectTimeoutMillis) { this.connectTimeoutMillis = connectTimeoutMillis; }
+
+        public int getReadTimeoutMillis() { return readTimeoutMillis; }
+        public void setReadTimeoutMillis(int readTimeoutMillis) { this.readTimeoutMillis = readTimeoutMillis; }
+
+        public List<String> getAdditionalGatewayUrls() { return additionalGatewayUrls; }
+        public void setAdditionalGatewayUrls(List<String> additionalGatewayUrls) {
+            this.additionalGatewayUrls = additionalGatewayUrls != null ?
+                    additionalGatewayUrls : Collections.<String>emptyList();
+        }
+
+        /**
+         * @return The SMS URL followed by the additional gateway URLs, without duplicates. The additional URLs
+         * must be mirrors of the same gateway API, they share every other SMS setting.
+         */
+        public List<String> getGatewayUrls() {
+            List<String> gatewayUrls = new ArrayList<>(additionalGatewayUrls.size() + 1);
+            if (StringUtils.isNotBlank(smsUrl)) {
+                gatewayUrls.add(smsUrl);
+            }
+            for (String gatewayUrl : additionalGatewayUrls) {
+                if (StringUtils.isNotBlank(gatewayUrl) && !gatewayUrls.contains(gatewayUrl)) {
+                    gatewayUrls.add(gatewayUrl);
+                }
+            }
+            return gatewayUrls;
+        }
     }
 }
@@ -6,6 +6,7 @@ import org.apache.commons.logging.LogFactory;
 import java.util.Map;
 import org.wso2.carbon.identity.application.authentication.framework.config.model.StepConfig;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpStepSettings;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPUtils;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
@@ -146,14 +147,15 @@ public class ValidationService {
      */
     public boolean isSMSOTPMandatory(AuthenticationContext context, String username) {
         try {
+            OtpStepSettings settings = SMSOTPUtils.getStepSettings(context);
             // Check if SMS OTP is globally mandatory
-            if (SMSOTPUtils.isSMSOTPMandatory(context)) {
+            if (settings.isSMSOTPMandatory()) {
                 return true;
             }
             
             // Check if user has disabled SMS OTP (if user control is enabled)
             if (StringUtils.isNotBlank(username)) {
-                boolean isUserControlEnabled = SMSOTPUtils.isSMSOTPEnableOrDisableByUser(context);
+                boolean isUserControlEnabled = settings.isSMSOTPEnableOrDisableByUser();
                 if (isUserControlEnabled) {
                     return !SMSOTPUtils.isSMSOTPDisableForLocalUser(username, context);
                 }
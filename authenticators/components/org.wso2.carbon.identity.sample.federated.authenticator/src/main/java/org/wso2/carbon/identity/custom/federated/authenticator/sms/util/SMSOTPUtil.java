@@ -4,6 +4,7 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.context.AuthenticationContext;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpStepSettings;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
 import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPUtils;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
@@ -25,13 +26,15 @@ public class SMSOTPUtil {
      * 
      * @param request HTTP request
      * @param username Username
+     * @param context Authentication context holding the OTP user profile of the step
      * @return Mobile number or null if not found
      */
-    public static String extractMobileNumber(HttpServletRequest request, String username) {
+    public static String extractMobileNumber(HttpServletRequest request, String username,
+                                             AuthenticationContext context) {
         // First try to get from user profile
         if (StringUtils.isNotEmpty(username)) {
             try {
-                String mobileFromProfile = SMSOTPUtils.getMobileNumberForUsername(username);
+                String mobileFromProfile = SMSOTPUtils.getOTPUserProfile(username, context).getMobileNumber();
                 if (StringUtils.isNotEmpty(mobileFromProfile)) {
                     return mobileFromProfile;
                 }
@@ -160,14 +163,15 @@ public class SMSOTPUtil {
      */
     public static boolean isSMSOTPEnabled(AuthenticationContext context, String username) {
         try {
+            OtpStepSettings settings = SMSOTPUtils.getStepSettings(context);
             // Check if globally mandatory
-            if (SMSOTPUtils.isSMSOTPMandatory(context)) {
+            if (settings.isSMSOTPMandatory()) {
                 return true;
             }
             
             // Check user-specific setting
             if (StringUtils.isNotEmpty(username)) {
-                boolean isUserControlEnabled = SMSOTPUtils.isSMSOTPEnableOrDisableByUser(context);
+                boolean isUserControlEnabled = settings.isSMSOTPEnableOrDisableByUser();
                 if (isUserControlEnabled) {
                     return !SMSOTPUtils.isSMSOTPDisableForLocalUser(username, context);
                 }
@@ -0,0 +1,33 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.template;
+
+/**
+ * Compiled HTTP header with a literal name and a templated value
+ */
+public final class HeaderTemplate {
+
+    private final String name;
+    private final MessageTemplate value;
+
+    public HeaderTemplate(String name, MessageTemplate value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MessageTemplate getValue() {
+        return value;
+    }
+
+    /**
+     * Renders the header value
+     *
+     * @param values Slot values in the order the slots were declared in the syntax
+     * @return Rendered header value
+     */
+    public String renderValue(String... values) {
+        return value.render(values);
+    }
+}
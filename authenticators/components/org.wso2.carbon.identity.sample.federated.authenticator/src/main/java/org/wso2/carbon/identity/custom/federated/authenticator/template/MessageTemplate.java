@@ -0,0 +1,141 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.template;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled message template
+ *
+ * The template text is split once into literal segments and placeholder slots. Rendering only appends
+ * the segments and the slot values to a reusable per-thread buffer, no regular expression is evaluated.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class MessageTemplate {
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8192;
+    private static final int LITERAL = -1;
+
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_BUFFER_SIZE));
+
+    private final String source;
+    private final String[] literals;
+    private final int[] slots;
+    private final int literalLength;
+
+    private MessageTemplate(String source, String[] literals, int[] slots) {
+        this.source = source;
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] == LITERAL) {
+                length += literals[i].length();
+            }
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parses the template text into segments
+     *
+     * @param source Template text
+     * @param syntax Placeholders recognized in the text
+     * @return Compiled template
+     */
+    static MessageTemplate parse(String source, TemplateSyntax syntax) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        int literalStart = 0;
+        int position = 0;
+        while (position < source.length()) {
+            int slot = syntax.slotAt(source, position);
+            if (slot == LITERAL) {
+                position++;
+                continue;
+            }
+            if (position > literalStart) {
+                literals.add(source.substring(literalStart, position));
+                slots.add(LITERAL);
+            }
+            literals.add(null);
+            slots.add(slot);
+            position += syntax.placeholderLengthAt(source, position);
+            literalStart = position;
+        }
+        if (literalStart < source.length()) {
+            literals.add(source.substring(literalStart));
+            slots.add(LITERAL);
+        }
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new MessageTemplate(source, literals.toArray(new String[0]), slotArray);
+    }
+
+    /**
+     * Renders the template
+     *
+     * @param values Slot values in the order the slots were declared in the syntax, null renders as empty
+     * @return Rendered text
+     */
+    public String render(String... values) {
+        if (slots.length == 1 && slots[0] == LITERAL) {
+            return literals[0];
+        }
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        renderTo(buffer, values);
+        String rendered = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            // do not keep an oversized buffer alive on the thread
+            BUFFER.set(new StringBuilder(INITIAL_BUFFER_SIZE));
+        }
+        return rendered;
+    }
+
+    /**
+     * Appends the rendered template to the given buffer
+     *
+     * @param buffer Target buffer
+     * @param values Slot values in the order the slots were declared in the syntax, null renders as empty
+     */
+    public void renderTo(StringBuilder buffer, String... values) {
+        buffer.ensureCapacity(buffer.length() + literalLength + 32);
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            if (slot == LITERAL) {
+                buffer.append(literals[i]);
+            } else if (slot < values.length && values[slot] != null) {
+                buffer.append(values[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return True if the template contains no placeholder
+     */
+    public boolean isConstant() {
+        for (int slot : slots) {
+            if (slot != LITERAL) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Original template text
+     */
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,140 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of placeholders understood by a family of templates, together with the cache of templates compiled for it
+ *
+ * Each slot may be written with several aliases, for example "$ctx.otp" and "{otp}". Templates are compiled
+ * once per distinct template text, so a changed authenticator configuration simply compiles a new entry.
+ */
+public final class TemplateSyntax {
+
+    /**
+     * Placeholders of the SMS gateway URL, headers and payload
+     */
+    public static final TemplateSyntax SMS = new TemplateSyntax(
+            new String[]{"$ctx.num"},
+            new String[]{"$ctx.msg"},
+            new String[]{"$ctx.otp"});
+    public static final int SMS_NUMBER = 0;
+    public static final int SMS_MESSAGE = 1;
+    public static final int SMS_OTP = 2;
+
+    /**
+     * Placeholders of the Email API URL, headers and payload
+     */
+    public static final TemplateSyntax EMAIL = new TemplateSyntax(
+            new String[]{"$ctx.email", "{email}"},
+            new String[]{"$ctx.msg", "{message}"},
+            new String[]{"$ctx.otp", "{otp}"});
+    public static final int EMAIL_ADDRESS = 0;
+    public static final int EMAIL_MESSAGE = 1;
+    public static final int EMAIL_OTP = 2;
+
+    private static final int MAX_CACHED_TEMPLATES = 256;
+
+    private final String[][] aliases;
+    private final Map<String, MessageTemplate> templates = new ConcurrentHashMap<>();
+    private final Map<String, List<HeaderTemplate>> headerTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * @param aliases Placeholder aliases of every slot, in slot order
+     */
+    public TemplateSyntax(String[]... aliases) {
+        this.aliases = aliases;
+    }
+
+    /**
+     * Returns the compiled template for the given text
+     *
+     * @param template Template text
+     * @return Compiled template, or null if the text is null
+     */
+    public MessageTemplate compile(String template) {
+        if (template == null) {
+            return null;
+        }
+        MessageTemplate compiled = templates.get(template);
+        if (compiled == null) {
+            compiled = MessageTemplate.parse(template, this);
+            bound(templates);
+            templates.put(template, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the compiled headers for a comma separated list of "name: value" pairs
+     * Headers are split before placeholders are substituted, so values may contain ':' and ','
+     * once rendered. Pairs without a ':' are ignored.
+     *
+     * @param headers Header list text
+     * @return Compiled headers, empty if the text is empty
+     */
+    public List<HeaderTemplate> compileHeaders(String headers) {
+        if (headers == null || headers.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<HeaderTemplate> compiled = headerTemplates.get(headers);
+        if (compiled == null) {
+            List<HeaderTemplate> parsed = new ArrayList<>();
+            for (String header : headers.trim().split(",")) {
+                int separator = header.indexOf(':');
+                if (separator > 0) {
+                    parsed.add(new HeaderTemplate(header.substring(0, separator).trim(),
+                            compile(header.substring(separator + 1).trim())));
+                }
+            }
+            compiled = Collections.unmodifiableList(parsed);
+            bound(headerTemplates);
+            headerTemplates.put(headers, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Returns the slot of the placeholder starting at the given position
+     *
+     * @return Slot index, or -1 if no placeholder starts there
+     */
+    int slotAt(String source, int position) {
+        int longest = 0;
+        int slot = -1;
+        for (int i = 0; i < aliases.length; i++) {
+            for (String alias : aliases[i]) {
+                if (alias.length() > longest && source.startsWith(alias, position)) {
+                    longest = alias.length();
+                    slot = i;
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the length of the longest placeholder starting at the given position
+     */
+    int placeholderLengthAt(String source, int position) {
+        int longest = 0;
+        for (String[] slotAliases : aliases) {
+            for (String alias : slotAliases) {
+                if (alias.length() > longest && source.startsWith(alias, position)) {
+                    longest = alias.length();
+                }
+            }
+        }
+        return longest;
+    }
+
+    private static void bound(Map<String, ?> cache) {
+        // configurations change rarely, start over instead of tracking usage when an unusual number accumulates
+        if (cache.size() >= MAX_CACHED_TEMPLATES) {
+            cache.clear();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Input stream that ends after a fixed number of bytes
+ *
+ * Used to cap gateway response bodies, so that an unexpectedly large body such as an HTML error page is never
+ * read in full. Reaching the cap looks like the end of the stream to the reader, {@link #isTruncated()} tells
+ * the two apart. A read past the cap takes one more byte from the underlying stream to tell a body that was cut
+ * off from one that is exactly the cap long.
+ */
+public class BoundedInputStream extends FilterInputStream {
+
+    private long remaining;
+    private boolean probed;
+    private boolean truncated;
+
+    /**
+     * @param in Stream to read from
+     * @param maxBytes Maximum number of bytes to read
+     */
+    public BoundedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.remaining = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return endOfCap();
+        }
+        int b = super.read();
+        if (b != -1) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remaining <= 0) {
+            return length > 0 ? endOfCap() : -1;
+        }
+        int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+        if (read > 0) {
+            remaining -= read;
+        }
+        return read;
+    }
+
+    /**
+     * Checks once whether the underlying stream holds data past the cap
+     *
+     * @return -1, the end of the bounded stream
+     */
+    private int endOfCap() throws IOException {
+        if (!probed) {
+            probed = true;
+            truncated = super.read() != -1;
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * @return True if the reader hit the cap and the underlying stream held more data
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Reads at most the given number of bytes of a UTF-8 body as text
+     *
+     * @param in Body stream
+     * @param maxBytes Maximum number of bytes to read
+     * @return Body text, followed by "..." if the body was cut off
+     * @throws IOException If the body cannot be read
+     */
+    public static String readText(InputStream in, int maxBytes) throws IOException {
+        BoundedInputStream bounded = new BoundedInputStream(in, maxBytes);
+        Reader reader = new InputStreamReader(bounded, StandardCharsets.UTF_8);
+        StringBuilder text = new StringBuilder(Math.min(maxBytes, 512));
+        char[] buffer = new char[512];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+        if (bounded.isTruncated()) {
+            text.append("...");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a gateway request fails before any of it was sent, because no pooled connection was free or
+ * the connection to the gateway could not be opened, so the request can safely be sent elsewhere
+ */
+public class ConnectFailedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConnectFailedException(String message) {
+        super(message);
+    }
+
+    public ConnectFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
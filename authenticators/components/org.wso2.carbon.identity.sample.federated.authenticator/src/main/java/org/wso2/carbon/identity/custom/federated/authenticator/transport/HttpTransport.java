@@ -0,0 +1,49 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Transport abstraction used by the OTP delivery services to talk to HTTP gateways
+ * Implementations own the underlying connections and may reuse them across requests
+ */
+public interface HttpTransport {
+
+    /**
+     * Executes the given request and hands the response stream to the handler
+     * The stream is owned by the transport and is closed once the handler returns
+     *
+     * @param request Request to execute
+     * @param handler Handler consuming the response
+     * @return Value produced by the handler
+     * @throws IOException If the request cannot be executed
+     */
+    <T> T execute(HttpTransportRequest request, ResponseHandler<T> handler) throws IOException;
+
+    /**
+     * Returns a snapshot of the connection pool statistics, one entry per route
+     *
+     * @return Pool statistics
+     */
+    List<PoolStats> getPoolStats();
+
+    /**
+     * Releases all resources held by the transport
+     */
+    void shutdown();
+
+    /**
+     * Callback consuming an HTTP response
+     */
+    interface ResponseHandler<T> {
+
+        /**
+         * @param statusCode HTTP status code of the response
+         * @param body Response body, or the error body for non 2xx responses. Never null
+         * @return Handler result
+         * @throws IOException If the body cannot be read
+         */
+        T handle(int statusCode, InputStream body) throws IOException;
+    }
+}
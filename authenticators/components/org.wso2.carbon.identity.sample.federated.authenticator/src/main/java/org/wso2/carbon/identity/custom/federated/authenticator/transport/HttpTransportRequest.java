@@ -0,0 +1,82 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Model class representing an outbound HTTP request to a gateway
+ */
+public class HttpTransportRequest {
+
+    private final String url;
+    private final String method;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private String body;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+
+    /**
+     * @param url Fully resolved request URL
+     * @param method HTTP method
+     */
+    public HttpTransportRequest(String url, String method) {
+        this.url = url;
+        this.method = method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public void addHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    /**
+     * @return Connect timeout of this request, or 0 to use the transport default
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @return Read timeout of this request, or 0 to use the transport default
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpTransportRequest{" +
+                "method='" + method + '\'' +
+                ", url='" + url + '\'' +
+                ", headers=" + headers.keySet() +
+                '}';
+    }
+}
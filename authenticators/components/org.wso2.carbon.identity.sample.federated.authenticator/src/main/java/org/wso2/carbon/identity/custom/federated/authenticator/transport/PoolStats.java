@@ -0,0 +1,84 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+/**
+ * Immutable snapshot of the connection pool state for a single route
+ */
+public class PoolStats {
+
+    private final String route;
+    private final int maxConnections;
+    private final int leased;
+    private final int peakLeased;
+    private final long totalRequests;
+    private final long failedRequests;
+    private final long leaseTimeouts;
+    private final long idleMillis;
+
+    public PoolStats(String route, int maxConnections, int leased, int peakLeased, long totalRequests,
+                     long failedRequests, long leaseTimeouts, long idleMillis) {
+        this.route = route;
+        this.maxConnections = maxConnections;
+        this.leased = leased;
+        this.peakLeased = peakLeased;
+        this.totalRequests = totalRequests;
+        this.failedRequests = failedRequests;
+        this.leaseTimeouts = leaseTimeouts;
+        this.idleMillis = idleMillis;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return Number of connections currently leased for in-flight requests
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    public int getAvailable() {
+        return maxConnections - leased;
+    }
+
+    public int getPeakLeased() {
+        return peakLeased;
+    }
+
+    public long getTotalRequests() {
+        return totalRequests;
+    }
+
+    public long getFailedRequests() {
+        return failedRequests;
+    }
+
+    /**
+     * @return Number of requests rejected because no connection became available in time
+     */
+    public long getLeaseTimeouts() {
+        return leaseTimeouts;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{" +
+                "route='" + route + '\'' +
+                ", maxConnections=" + maxConnections +
+                ", leased=" + leased +
+                ", peakLeased=" + peakLeased +
+                ", totalRequests=" + totalRequests +
+                ", failedRequests=" + failedRequests +
+                ", leaseTimeouts=" + leaseTimeouts +
+                ", idleMillis=" + idleMillis +
+                '}';
+    }
+}
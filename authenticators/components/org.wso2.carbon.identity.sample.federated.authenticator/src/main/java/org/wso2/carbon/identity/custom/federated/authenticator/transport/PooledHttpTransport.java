@@ -0,0 +1,276 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.custom.federated.authenticator.sms.SMSOTPConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HTTP/1.1 keep-alive transport with a bounded connection budget per gateway route
+ *
+ * Connections are opened through {@link HttpURLConnection} but are never disconnected on the happy path.
+ * The response stream is always consumed and closed instead, which hands the socket back to the JDK
+ * keep-alive cache so the next OTP to the same host skips the TCP and TLS handshakes. Each route
+ * (scheme, host and port) gets its own permit budget so the number of sockets towards a gateway stays
+ * bounded, and its own TLS context so resumed sessions are not evicted by unrelated traffic.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    private static final Log log = LogFactory.getLog(PooledHttpTransport.class);
+    private static final InputStream EMPTY_STREAM = new ByteArrayInputStream(new byte[0]);
+
+    private static volatile PooledHttpTransport defaultInstance;
+
+    private final TransportConfig config;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final AtomicLong lastEvictionRun = new AtomicLong(System.currentTimeMillis());
+
+    public PooledHttpTransport(TransportConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Returns the process wide transport shared by the OTP delivery services
+     */
+    public static PooledHttpTransport getDefault() {
+        if (defaultInstance == null) {
+            synchronized (PooledHttpTransport.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new PooledHttpTransport(new TransportConfig());
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Shuts the process wide transport down, the next getDefault call creates a new one
+     */
+    public static void shutdownDefault() {
+        PooledHttpTransport transport;
+        synchronized (PooledHttpTransport.class) {
+            transport = defaultInstance;
+            defaultInstance = null;
+        }
+        if (transport != null) {
+            transport.shutdown();
+        }
+    }
+
+    @Override
+    public <T> T execute(HttpTransportRequest request, ResponseHandler<T> handler) throws IOException {
+        URL url = new URL(request.getUrl());
+        Route route = getRoute(url);
+        route.lease(config.getLeaseTimeoutMillis());
+
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        try {
+            connection = openConnection(url, route, request);
+            writeRequest(connection, request);
+
+            int statusCode = connection.getResponseCode();
+            InputStream body = statusCode < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    connection.getInputStream() : connection.getErrorStream();
+            try {
+                T result = handler.handle(statusCode, body != null ? body : EMPTY_STREAM);
+                reusable = true;
+                return result;
+            } finally {
+                if (body != null) {
+                    // Closing (not disconnecting) returns the socket to the keep-alive cache
+                    body.close();
+                }
+            }
+        } catch (IOException e) {
+            route.failedRequests.incrementAndGet();
+            throw e;
+        } finally {
+            if (connection != null && !reusable) {
+                connection.disconnect();
+            }
+            route.release();
+            evictIdleRoutes();
+        }
+    }
+
+    @Override
+    public List<PoolStats> getPoolStats() {
+        List<PoolStats> stats = new ArrayList<>(routes.size());
+        long now = System.currentTimeMillis();
+        for (Route route : routes.values()) {
+            stats.add(route.snapshot(now));
+        }
+        return stats;
+    }
+
+    @Override
+    public void shutdown() {
+        routes.clear();
+    }
+
+    /**
+     * Drops the state of routes that have been idle for longer than the configured idle timeout
+     * Idle sockets held by the JDK keep-alive cache are closed by the JDK itself once they expire
+     */
+    public void evictIdleRoutes() {
+        long now = System.currentTimeMillis();
+        long last = lastEvictionRun.get();
+        if (now - last < config.getIdleTimeoutMillis() || !lastEvictionRun.compareAndSet(last, now)) {
+            return;
+        }
+        Iterator<Map.Entry<String, Route>> iterator = routes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Route> entry = iterator.next();
+            Route route = entry.getValue();
+            if (route.leased.get() == 0 && now - route.lastUsed > config.getIdleTimeoutMillis()) {
+                iterator.remove();
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted idle gateway route: " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    private Route getRoute(URL url) throws IOException {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + port;
+        Route route = routes.get(key);
+        if (route == null) {
+            Route created = new Route(key, config.getMaxConnectionsPerRoute(),
+                    SMSOTPConstants.HTTPS.equals(url.getProtocol()) ? createSocketFactory() : null);
+            route = routes.putIfAbsent(key, created);
+            if (route == null) {
+                route = created;
+            }
+        }
+        return route;
+    }
+
+    private SSLSocketFactory createSocketFactory() throws IOException {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(config.getTlsSessionCacheSize());
+            sessionContext.setSessionTimeout(config.getTlsSessionTimeoutSeconds());
+            return sslContext.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to initialize TLS context for gateway route", e);
+        }
+    }
+
+    private HttpURLConnection openConnection(URL url, Route route, HttpTransportRequest request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection instanceof HttpsURLConnection && route.socketFactory != null) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(route.socketFactory);
+        }
+        // Never wait on a gateway without a bound, a stalled gateway must not pin the request thread
+        connection.setConnectTimeout(request.getConnectTimeoutMillis() > 0 ? request.getConnectTimeoutMillis() :
+                config.getConnectTimeoutMillis());
+        connection.setReadTimeout(request.getReadTimeoutMillis() > 0 ? request.getReadTimeoutMillis() :
+                config.getReadTimeoutMillis());
+        connection.setDoInput(true);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Connection", "keep-alive");
+        return connection;
+    }
+
+    private void writeRequest(HttpURLConnection connection, HttpTransportRequest request) throws IOException {
+        connection.setRequestMethod(request.getMethod());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        byte[] payload = request.getBody() != null ? request.getBody().getBytes(SMSOTPConstants.CHAR_SET) : null;
+        if (payload != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+        }
+        // Connect up front, so a failure here is known to have happened before any of the request was sent
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            throw new ConnectFailedException("Unable to connect to " + connection.getURL().getHost(), e);
+        }
+        if (payload != null) {
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(payload);
+            }
+        }
+    }
+
+    /**
+     * Connection budget and counters for a single scheme, host and port
+     */
+    private static class Route {
+
+        private final String key;
+        private final int maxConnections;
+        private final Semaphore permits;
+        private final SSLSocketFactory socketFactory;
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger peakLeased = new AtomicInteger();
+        private final AtomicLong totalRequests = new AtomicLong();
+        private final AtomicLong failedRequests = new AtomicLong();
+        private final AtomicLong leaseTimeouts = new AtomicLong();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        Route(String key, int maxConnections, SSLSocketFactory socketFactory) {
+            this.key = key;
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections, true);
+            this.socketFactory = socketFactory;
+        }
+
+        void lease(long timeoutMillis) throws IOException {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a connection to " + key, e);
+            }
+            if (!acquired) {
+                leaseTimeouts.incrementAndGet();
+                throw new ConnectFailedException("Connection pool exhausted for gateway route " + key);
+            }
+            totalRequests.incrementAndGet();
+            int current = leased.incrementAndGet();
+            int peak;
+            while (current > (peak = peakLeased.get()) && !peakLeased.compareAndSet(peak, current)) {
+                // retry until the peak reflects the current lease count
+            }
+        }
+
+        void release() {
+            leased.decrementAndGet();
+            lastUsed = System.currentTimeMillis();
+            permits.release();
+        }
+
+        PoolStats snapshot(long now) {
+            return new PoolStats(key, maxConnections, leased.get(), peakLeased.get(), totalRequests.get(),
+                    failedRequests.get(), leaseTimeouts.get(), now - lastUsed);
+        }
+    }
+}
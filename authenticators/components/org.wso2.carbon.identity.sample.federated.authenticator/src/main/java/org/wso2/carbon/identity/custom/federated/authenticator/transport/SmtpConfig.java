@@ -0,0 +1,104 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Configuration class for a direct SMTP mail server
+ *
+ * Sessions are pooled per {@link #getSessionKey()}, so only instances with the same server, account, credentials
+ * and session settings share sockets. The sender is not a session setting, it is given with every message.
+ */
+public class SmtpConfig {
+
+    /**
+     * Transport security of the SMTP session
+     */
+    public enum Security {
+        NONE,
+        STARTTLS,
+        TLS
+    }
+
+    public static final int DEFAULT_PORT = 587;
+    public static final int DEFAULT_MAX_SESSIONS = 5;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000L;
+    public static final int DEFAULT_MAX_MESSAGES_PER_SESSION = 100;
+
+    private final String host;
+    private final int port;
+    private final Security security;
+    private final String username;
+    private final String password;
+    private final String from;
+    private int connectTimeoutMillis = TransportConfig.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = TransportConfig.DEFAULT_READ_TIMEOUT_MILLIS;
+    private int maxSessions = DEFAULT_MAX_SESSIONS;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private int maxMessagesPerSession = DEFAULT_MAX_MESSAGES_PER_SESSION;
+
+    public SmtpConfig(String host, int port, Security security, String username, String password, String from) {
+        this.host = host;
+        this.port = port > 0 ? port : DEFAULT_PORT;
+        this.security = security != null ? security : Security.STARTTLS;
+        this.username = username;
+        this.password = password;
+        this.from = from;
+    }
+
+    /**
+     * @return Name of the server and account, used to report pool statistics and to guard the server
+     */
+    public String getPoolKey() {
+        return security.name().toLowerCase() + "://" + (username != null ? username + "@" : "") + host + ":" + port;
+    }
+
+    /**
+     * @return Key of the session pool, it changes with any setting a pooled session was opened with, so a rotated
+     * password or a changed timeout is picked up by a new pool instead of reusing the old sessions
+     */
+    public String getSessionKey() {
+        return getPoolKey() + "#" + fingerprint(password) + "/" + connectTimeoutMillis + "/" + readTimeoutMillis +
+                "/" + maxSessions + "/" + idleTimeoutMillis + "/" + maxMessagesPerSession;
+    }
+
+    private static String fingerprint(String secret) {
+        if (secret == null) {
+            return "";
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    // Getters and setters
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+    public Security getSecurity() { return security; }
+    public String getUsername() { return username; }
+    public String getPassword() { return password; }
+    public String getFrom() { return from; }
+
+    public int getConnectTimeoutMillis() { return connectTimeoutMillis; }
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) { this.connectTimeoutMillis = connectTimeoutMillis; }
+
+    public int getReadTimeoutMillis() { return readTimeoutMillis; }
+    public void setReadTimeoutMillis(int readTimeoutMillis) { this.readTimeoutMillis = readTimeoutMillis; }
+
+    public int getMaxSessions() { return maxSessions; }
+    public void setMaxSessions(int maxSessions) { this.maxSessions = maxSessions; }
+
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) { this.idleTimeoutMillis = idleTimeoutMillis; }
+
+    public int getMaxMessagesPerSession() { return maxMessagesPerSession; }
+    public void setMaxMessagesPerSession(int maxMessagesPerSession) { this.maxMessagesPerSession = maxMessagesPerSession; }
+}
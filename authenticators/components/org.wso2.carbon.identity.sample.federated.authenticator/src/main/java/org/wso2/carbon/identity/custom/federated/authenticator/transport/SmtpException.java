@@ -0,0 +1,32 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.io.IOException;
+
+/**
+ * Signals a negative reply of an SMTP server
+ */
+public class SmtpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int replyCode;
+
+    public SmtpException(int replyCode, String message) {
+        super(message);
+        this.replyCode = replyCode;
+    }
+
+    /**
+     * @return SMTP reply code, for example 550
+     */
+    public int getReplyCode() {
+        return replyCode;
+    }
+
+    /**
+     * @return True for 4xx replies, which the server expects to be retried later
+     */
+    public boolean isTransient() {
+        return replyCode >= 400 && replyCode < 500;
+    }
+}
@@ -0,0 +1,313 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A single authenticated SMTP session that can deliver several messages
+ *
+ * Messages are separated with RSET only after a failure, a successful transaction leaves the session ready for
+ * the next MAIL command. When the server advertises PIPELINING, MAIL, RCPT and DATA are sent in one write.
+ */
+class SmtpSession {
+
+    private static volatile String localHostName;
+
+    private final SmtpConfig config;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private final Set<String> extensions = new HashSet<>();
+    private int messagesSent;
+    private long lastUsed;
+    private boolean dataStarted;
+
+    SmtpSession(SmtpConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Connects, negotiates TLS and authenticates
+     */
+    void open(SSLSocketFactory socketFactory) throws IOException {
+        Socket plain = new Socket();
+        try {
+            plain.connect(new InetSocketAddress(config.getHost(), config.getPort()), config.getConnectTimeoutMillis());
+            plain.setSoTimeout(config.getReadTimeoutMillis());
+            plain.setTcpNoDelay(true);
+            socket = config.getSecurity() == SmtpConfig.Security.TLS ? startTls(socketFactory, plain) : plain;
+            bindStreams();
+            expect(readReply(), 220);
+            ehlo();
+            if (config.getSecurity() == SmtpConfig.Security.STARTTLS) {
+                if (!extensions.contains("STARTTLS")) {
+                    throw new IOException("SMTP server " + config.getHost() + " does not support STARTTLS");
+                }
+                command("STARTTLS", 220);
+                socket = startTls(socketFactory, socket);
+                bindStreams();
+                ehlo();
+            }
+            if (config.getUsername() != null && !config.getUsername().isEmpty()) {
+                authenticate();
+            }
+            lastUsed = System.currentTimeMillis();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Delivers one message
+     *
+     * @param sender Envelope sender address
+     * @param recipient Recipient address
+     * @param message Complete RFC 5322 message with CRLF line endings, already dot stuffed
+     * @return Reply code of the accepted message
+     * @throws IllegalArgumentException If the sender or the recipient is not a plain address
+     * @throws SmtpException If the server rejects the message, the session stays usable
+     * @throws IOException If the session broke and must be discarded
+     */
+    int send(String sender, String recipient, byte[] message) throws IOException {
+        String mailFrom = "MAIL FROM:<" + checkAddress("sender", sender) + ">";
+        String rcptTo = "RCPT TO:<" + checkAddress("recipient", recipient) + ">";
+        dataStarted = false;
+        Reply mailReply;
+        Reply rcptReply;
+        Reply dataReply;
+        if (extensions.contains("PIPELINING")) {
+            write(mailFrom + "\r\n" + rcptTo + "\r\nDATA\r\n");
+            out.flush();
+            mailReply = readReply();
+            rcptReply = readReply();
+            dataReply = readReply();
+        } else {
+            mailReply = request(mailFrom);
+            rcptReply = mailReply.isPositive() ? request(rcptTo) : null;
+            dataReply = rcptReply != null && rcptReply.isPositive() ? request("DATA") : null;
+        }
+        if (dataReply != null && dataReply.code == 354) {
+            dataStarted = true;
+            out.write(message);
+            write(".\r\n");
+            out.flush();
+            Reply accepted = readReply();
+            if (mailReply.isPositive() && rcptReply.isPositive()) {
+                expect(accepted, 250);
+                messagesSent++;
+                lastUsed = System.currentTimeMillis();
+                return accepted.code;
+            }
+        }
+        // The transaction was rejected, reset it so the session can carry the next message
+        request("RSET");
+        lastUsed = System.currentTimeMillis();
+        Reply rejected = !mailReply.isPositive() ? mailReply : rcptReply != null && !rcptReply.isPositive() ?
+                rcptReply : dataReply;
+        throw new SmtpException(rejected != null ? rejected.code : 0, "SMTP server rejected the message: " +
+                (rejected != null ? rejected.text : "no reply"));
+    }
+
+    /**
+     * Rejects an address that could end the SMTP command or the header it is written into and start another
+     *
+     * @param role Role of the address, used in the error message
+     * @param address Mailbox address without angle brackets
+     * @return The address
+     * @throws IllegalArgumentException If the address is empty or contains CR, LF, '<' or '>'
+     */
+    static String checkAddress(String role, String address) {
+        if (address == null || address.isEmpty()) {
+            throw new IllegalArgumentException("The email " + role + " address is empty");
+        }
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c == '\r' || c == '\n' || c == '<' || c == '>') {
+                throw new IllegalArgumentException("The email " + role + " address contains an invalid character");
+            }
+        }
+        return address;
+    }
+
+    /**
+     * @return True once the message content was handed to the server, when a retry could duplicate the email
+     */
+    boolean isDataStarted() {
+        return dataStarted;
+    }
+
+    int getMessagesSent() {
+        return messagesSent;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Ends the session politely and closes the socket
+     */
+    void quit() {
+        try {
+            if (socket != null && !socket.isClosed()) {
+                write("QUIT\r\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the session is being discarded anyway
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    private void bindStreams() throws IOException {
+        in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    private Socket startTls(SSLSocketFactory socketFactory, Socket plain) throws IOException {
+        SSLSocket tls = (SSLSocket) socketFactory.createSocket(plain, config.getHost(), config.getPort(), true);
+        tls.setUseClientMode(true);
+        tls.startHandshake();
+        return tls;
+    }
+
+    private void ehlo() throws IOException {
+        Reply reply = request("EHLO " + localHostName());
+        expect(reply, 250);
+        extensions.clear();
+        for (String line : reply.lines) {
+            String keyword = line.split(" ", 2)[0].toUpperCase(Locale.ROOT);
+            extensions.add(keyword);
+            if (keyword.equals("AUTH")) {
+                for (String mechanism : line.toUpperCase(Locale.ROOT).split(" ")) {
+                    extensions.add("AUTH=" + mechanism);
+                }
+            }
+        }
+    }
+
+    private void authenticate() throws IOException {
+        String password = config.getPassword() != null ? config.getPassword() : "";
+        if (extensions.contains("AUTH=PLAIN") || !extensions.contains("AUTH=LOGIN")) {
+            String token = "\0" + config.getUsername() + "\0" + password;
+            command("AUTH PLAIN " + base64(token), 235);
+        } else {
+            command("AUTH LOGIN", 334);
+            command(base64(config.getUsername()), 334);
+            command(base64(password), 235);
+        }
+    }
+
+    private void command(String line, int expectedCode) throws IOException {
+        expect(request(line), expectedCode);
+    }
+
+    private Reply request(String line) throws IOException {
+        write(line + "\r\n");
+        out.flush();
+        return readReply();
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Reply readReply() throws IOException {
+        Reply reply = new Reply();
+        while (true) {
+            String line = readLine();
+            if (line.length() < 3) {
+                throw new IOException("Malformed SMTP reply: " + line);
+            }
+            reply.code = Integer.parseInt(line.substring(0, 3));
+            String text = line.length() > 4 ? line.substring(4) : "";
+            reply.lines.add(text);
+            reply.text = text;
+            if (line.length() == 3 || line.charAt(3) != '-') {
+                return reply;
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        throw new IOException("SMTP server closed the connection");
+    }
+
+    private static void expect(Reply reply, int expectedCode) throws SmtpException {
+        if (reply.code != expectedCode) {
+            throw new SmtpException(reply.code, "Unexpected SMTP reply " + reply.code + ": " + reply.text);
+        }
+    }
+
+    private static String base64(String value) {
+        return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String localHostName() {
+        // Resolved once, a reverse lookup per session would add a DNS round trip to every new connection
+        String name = localHostName;
+        if (name == null) {
+            try {
+                name = InetAddress.getLocalHost().getCanonicalHostName();
+            } catch (UnknownHostException e) {
+                name = "localhost";
+            }
+            localHostName = name;
+        }
+        return name;
+    }
+
+    /**
+     * Possibly multi line SMTP reply
+     */
+    private static class Reply {
+
+        private int code;
+        private String text = "";
+        private final List<String> lines = new ArrayList<>();
+
+        boolean isPositive() {
+            return code >= 200 && code < 400;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * SMTP transport keeping a bounded pool of authenticated sessions per mail server
+ *
+ * A pooled session has already paid for the TCP connect, the TLS handshake, EHLO and AUTH, so an OTP email
+ * costs a single pipelined MAIL, RCPT and DATA round trip plus the message itself. Sessions are reused most
+ * recently used first, dropped once idle for longer than the configured idle timeout, and retired after a
+ * fixed number of messages.
+ */
+public class SmtpTransport {
+
+    private static final Log log = LogFactory.getLog(SmtpTransport.class);
+    private static final int BASE64_LINE_LENGTH = 76;
+
+    private static volatile SmtpTransport defaultInstance;
+
+    private final Map<String, SessionPool> pools = new ConcurrentHashMap<>();
+    private final AtomicLong lastEvictionRun = new AtomicLong(System.currentTimeMillis());
+    private final SSLSocketFactory socketFactory;
+
+    public SmtpTransport(SSLSocketFactory socketFactory) {
+        this.socketFactory = socketFactory;
+    }
+
+    /**
+     * Returns the process wide SMTP transport shared by the OTP delivery services
+     */
+    public static SmtpTransport getDefault() {
+        if (defaultInstance == null) {
+            synchronized (SmtpTransport.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new SmtpTransport((SSLSocketFactory) SSLSocketFactory.getDefault());
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Closes the sessions of the process wide SMTP transport, the next getDefault call creates a new one
+     */
+    public static void shutdownDefault() {
+        SmtpTransport transport;
+        synchronized (SmtpTransport.class) {
+            transport = defaultInstance;
+            defaultInstance = null;
+        }
+        if (transport != null) {
+            transport.shutdown();
+        }
+    }
+
+    /**
+     * Sends a plain text email
+     *
+     * @param config Mail server configuration
+     * @param recipient Recipient address
+     * @param subject Subject, may contain non ASCII characters
+     * @param text Message body
+     * @return Reply code of the accepted message
+     * @throws IllegalArgumentException If the sender or the recipient is not a plain address
+     * @throws IOException If the message could not be delivered
+     */
+    public int send(SmtpConfig config, String recipient, String subject, String text) throws IOException {
+        // Checked before anything is written, an address is copied verbatim into the envelope and the headers
+        String sender = SmtpSession.checkAddress("sender", config.getFrom());
+        SmtpSession.checkAddress("recipient", recipient);
+        byte[] message = buildMessage(sender, recipient, subject, text);
+        SessionPool pool = getPool(config);
+        pool.lease(config.getConnectTimeoutMillis());
+        try {
+            SmtpSession session = pool.borrow();
+            boolean reused = session != null;
+            if (session == null) {
+                session = pool.open();
+            }
+            try {
+                int replyCode = send(pool, session, sender, recipient, message);
+                pool.giveBack(session);
+                return replyCode;
+            } catch (IOException e) {
+                // A pooled session may have been closed by the server while idle, retry once on a fresh one
+                if (!reused || session.isDataStarted() || e instanceof SmtpException) {
+                    throw e;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Pooled SMTP session to " + pool.key + " is stale, opening a new session");
+                }
+                SmtpSession fresh = pool.open();
+                int replyCode = send(pool, fresh, sender, recipient, message);
+                pool.giveBack(fresh);
+                return replyCode;
+            }
+        } finally {
+            pool.release();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the session pool statistics, one entry per mail server
+     *
+     * @return Pool statistics
+     */
+    public List<PoolStats> getPoolStats() {
+        List<PoolStats> stats = new ArrayList<>(pools.size());
+        long now = System.currentTimeMillis();
+        for (SessionPool pool : pools.values()) {
+            stats.add(pool.snapshot(now));
+        }
+        return stats;
+    }
+
+    /**
+     * Closes every pooled session
+     */
+    public void shutdown() {
+        for (SessionPool pool : pools.values()) {
+            pool.closeIdle();
+        }
+        pools.clear();
+    }
+
+    private int send(SessionPool pool, SmtpSession session, String sender, String recipient, byte[] message)
+            throws IOException {
+        try {
+            return session.send(sender, recipient, message);
+        } catch (SmtpException e) {
+            // The server rejected the message but the session itself is fine
+            pool.giveBack(session);
+            pool.failedRequests.incrementAndGet();
+            throw e;
+        } catch (IOException e) {
+            session.close();
+            pool.failedRequests.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private SessionPool getPool(SmtpConfig config) {
+        String key = config.getSessionKey();
+        SessionPool pool = pools.get(key);
+        if (pool == null) {
+            evictIdlePools();
+            pool = pools.computeIfAbsent(key, k -> new SessionPool(config.getPoolKey(), config));
+        }
+        return pool;
+    }
+
+    /**
+     * Closes and drops the pools that have been idle for longer than their idle timeout, such as the pool left
+     * behind when the password or a session setting of a mail server changed
+     */
+    private void evictIdlePools() {
+        long now = System.currentTimeMillis();
+        long last = lastEvictionRun.get();
+        if (now - last < SmtpConfig.DEFAULT_IDLE_TIMEOUT_MILLIS || !lastEvictionRun.compareAndSet(last, now)) {
+            return;
+        }
+        Iterator<SessionPool> iterator = pools.values().iterator();
+        while (iterator.hasNext()) {
+            SessionPool pool = iterator.next();
+            if (pool.leased.get() == 0 && now - pool.lastUsed > pool.config.getIdleTimeoutMillis()) {
+                iterator.remove();
+                pool.closeIdle();
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted idle SMTP session pool: " + pool.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a MIME message with a base64 encoded UTF-8 body, so that no line ever needs dot stuffing
+     */
+    static byte[] buildMessage(String from, String recipient, String subject, String text) {
+        StringBuilder message = new StringBuilder(256 + text.length() * 2);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+        message.append("Date: ").append(dateFormat.format(new Date())).append("\r\n");
+        message.append("From: <").append(from).append(">\r\n");
+        message.append("To: <").append(recipient).append(">\r\n");
+        message.append("Subject: ").append(encodeHeader(subject)).append("\r\n");
+        message.append("Message-ID: <").append(UUID.randomUUID()).append('@')
+                .append(from.substring(from.indexOf('@') + 1)).append(">\r\n");
+        message.append("MIME-Version: 1.0\r\n");
+        message.append("Content-Type: text/plain; charset=UTF-8\r\n");
+        message.append("Content-Transfer-Encoding: base64\r\n\r\n");
+        String body = Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < body.length(); i += BASE64_LINE_LENGTH) {
+            message.append(body, i, Math.min(body.length(), i + BASE64_LINE_LENGTH)).append("\r\n");
+        }
+        return message.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String encodeHeader(String value) {
+        if (value == null) {
+            return "";
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c > 126 || c < 32) {
+                return "=?UTF-8?B?" + Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8)) +
+                        "?=";
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Session budget and idle sessions of a single mail server, account and set of session settings
+     */
+    private class SessionPool {
+
+        private final String key;
+        private final SmtpConfig config;
+        private final Semaphore permits;
+        private final Deque<SmtpSession> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger peakLeased = new AtomicInteger();
+        private final AtomicLong totalRequests = new AtomicLong();
+        private final AtomicLong failedRequests = new AtomicLong();
+        private final AtomicLong leaseTimeouts = new AtomicLong();
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        SessionPool(String key, SmtpConfig config) {
+            this.key = key;
+            this.config = config;
+            this.permits = new Semaphore(Math.max(1, config.getMaxSessions()), true);
+        }
+
+        void lease(long timeoutMillis) throws IOException {
+            boolean acquired;
+            try {
+                acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for an SMTP session to " + key, e);
+            }
+            if (!acquired) {
+                leaseTimeouts.incrementAndGet();
+                throw new IOException("SMTP session pool exhausted for " + key);
+            }
+            totalRequests.incrementAndGet();
+            int current = leased.incrementAndGet();
+            int peak;
+            while (current > (peak = peakLeased.get()) && !peakLeased.compareAndSet(peak, current)) {
+                // retry until the peak reflects the current lease count
+            }
+        }
+
+        void release() {
+            leased.decrementAndGet();
+            lastUsed = System.currentTimeMillis();
+            permits.release();
+        }
+
+        /**
+         * @return The most recently used idle session that has not expired, or null
+         */
+        SmtpSession borrow() {
+            long now = System.currentTimeMillis();
+            SmtpSession session;
+            while ((session = idle.pollFirst()) != null) {
+                if (now - session.getLastUsed() < config.getIdleTimeoutMillis()) {
+                    return session;
+                }
+                session.quit();
+            }
+            return null;
+        }
+
+        SmtpSession open() throws IOException {
+            SmtpSession session = new SmtpSession(config);
+            session.open(socketFactory);
+            return session;
+        }
+
+        void giveBack(SmtpSession session) {
+            if (session.getMessagesSent() >= config.getMaxMessagesPerSession()) {
+                session.quit();
+            } else if (!idle.contains(session)) {
+                idle.offerFirst(session);
+            }
+        }
+
+        void closeIdle() {
+            SmtpSession session;
+            while ((session = idle.pollFirst()) != null) {
+                session.quit();
+            }
+        }
+
+        PoolStats snapshot(long now) {
+            return new PoolStats(key, config.getMaxSessions(), leased.get(), peakLeased.get(), totalRequests.get(),
+                    failedRequests.get(), leaseTimeouts.get(), now - lastUsed);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+/**
+ * Configuration class for the pooled HTTP transport
+ */
+public class TransportConfig {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000L;
+    public static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 5000L;
+    public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 100;
+    public static final int DEFAULT_TLS_SESSION_TIMEOUT_SECONDS = 3600;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private long leaseTimeoutMillis = DEFAULT_LEASE_TIMEOUT_MILLIS;
+    private int tlsSessionCacheSize = DEFAULT_TLS_SESSION_CACHE_SIZE;
+    private int tlsSessionTimeoutSeconds = DEFAULT_TLS_SESSION_TIMEOUT_SECONDS;
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    // Getters and setters
+    public int getMaxConnectionsPerRoute() { return maxConnectionsPerRoute; }
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) { this.maxConnectionsPerRoute = maxConnectionsPerRoute; }
+
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) { this.idleTimeoutMillis = idleTimeoutMillis; }
+
+    public long getLeaseTimeoutMillis() { return leaseTimeoutMillis; }
+    public void setLeaseTimeoutMillis(long leaseTimeoutMillis) { this.leaseTimeoutMillis = leaseTimeoutMillis; }
+
+    public int getTlsSessionCacheSize() { return tlsSessionCacheSize; }
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) { this.tlsSessionCacheSize = tlsSessionCacheSize; }
+
+    public int getTlsSessionTimeoutSeconds() { return tlsSessionTimeoutSeconds; }
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) { this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds; }
+
+    public int getConnectTimeoutMillis() { return connectTimeoutMillis; }
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) { this.connectTimeoutMillis = connectTimeoutMillis; }
+
+    public int getReadTimeoutMillis() { return readTimeoutMillis; }
+    public void setReadTimeoutMillis(int readTimeoutMillis) { this.readTimeoutMillis = readTimeoutMillis; }
+}
@@ -1,12 +1,160 @@
 package org.wso2.carbon.identity.custom.federated.authenticator.util;
 
+import net.minidev.json.JSONValue;
+import net.minidev.json.parser.ParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.common.model.Property;
+import org.wso2.carbon.identity.custom.federated.authenticator.config.OtpConfigRegistry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class for creating authenticator configuration properties
+ *
+ * The configuration properties of the authenticators are declared in the bundled authenticator-properties.json
+ * descriptor, keyed by authenticator name. An otp-authenticator-properties.json file in the identity
+ * configuration directory can add properties or replace bundled ones by name. Both are parsed once, and every
+ * call builds new properties from the parsed definitions, so callers may modify the properties they get.
  */
 public class AuthenticatorConfigUtil {
 
+    private static final Log log = LogFactory.getLog(AuthenticatorConfigUtil.class);
+
+    public static final String PROPERTIES_DESCRIPTOR = "authenticator-properties.json";
+    public static final String PROPERTIES_EXTENSION_FILE = "otp-authenticator-properties.json";
+
+    private static volatile Map<String, List<Map<?, ?>>> propertyDefinitions;
+
+    /**
+     * Returns the configuration properties declared for an authenticator, parsing the descriptors on first use
+     *
+     * @param authenticatorName Name of the authenticator
+     * @return New list of new properties ordered by display order, empty if none are declared
+     */
+    public static List<Property> getConfigurationProperties(String authenticatorName) {
+        Map<String, List<Map<?, ?>>> current = propertyDefinitions;
+        if (current == null) {
+            loadConfigurationProperties();
+            current = propertyDefinitions;
+        }
+        List<Map<?, ?>> definitions = current.get(authenticatorName);
+        if (definitions == null) {
+            return new ArrayList<>();
+        }
+        List<Property> properties = new ArrayList<>(definitions.size());
+        for (Map<?, ?> definition : definitions) {
+            properties.add(toProperty(definition));
+        }
+        return properties;
+    }
+
+    /**
+     * Parses the bundled descriptor and the optional extension file, replacing the definitions served so far
+     */
+    public static synchronized void loadConfigurationProperties() {
+        Map<String, Map<String, Map<?, ?>>> definitions = new LinkedHashMap<>();
+        try (InputStream in = AuthenticatorConfigUtil.class.getResourceAsStream(PROPERTIES_DESCRIPTOR)) {
+            if (in == null) {
+                throw new IllegalStateException("Bundled descriptor " + PROPERTIES_DESCRIPTOR + " is missing");
+            }
+            merge(definitions, in);
+        } catch (IOException | ParseException | ClassCastException e) {
+            throw new IllegalStateException("Invalid bundled descriptor " + PROPERTIES_DESCRIPTOR, e);
+        }
+
+        File extension = new File(OtpConfigRegistry.getDefaultConfigFile().getParentFile(), PROPERTIES_EXTENSION_FILE);
+        if (extension.isFile()) {
+            Map<String, Map<String, Map<?, ?>>> extended = copy(definitions);
+            try (InputStream in = new FileInputStream(extension)) {
+                merge(extended, in);
+                definitions = extended;
+            } catch (IOException | ParseException | ClassCastException e) {
+                // The bundled properties keep the authenticators configurable
+                log.error("Ignoring invalid authenticator properties file " + extension.getAbsolutePath(), e);
+            }
+        }
+
+        Map<String, List<Map<?, ?>>> result = new HashMap<>();
+        for (Map.Entry<String, Map<String, Map<?, ?>>> authenticator : definitions.entrySet()) {
+            List<Map<?, ?>> sorted = new ArrayList<>(authenticator.getValue().values());
+            sorted.sort(Comparator.comparingInt(AuthenticatorConfigUtil::displayOrder));
+            result.put(authenticator.getKey(), sorted);
+        }
+        propertyDefinitions = result;
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded configuration properties of authenticators " + result.keySet());
+        }
+    }
+
+    private static void merge(Map<String, Map<String, Map<?, ?>>> definitions, InputStream in)
+            throws IOException, ParseException {
+        Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        Map<?, ?> descriptor = (Map<?, ?>) JSONValue.parseWithException(reader);
+        for (Map.Entry<?, ?> authenticator : descriptor.entrySet()) {
+            Map<String, Map<?, ?>> properties = definitions.computeIfAbsent(String.valueOf(authenticator.getKey()),
+                    k -> new LinkedHashMap<>());
+            for (Object definition : (List<?>) authenticator.getValue()) {
+                Map<?, ?> property = (Map<?, ?>) definition;
+                String name = (String) property.get("name");
+                if (name == null) {
+                    throw new ClassCastException("Property of " + authenticator.getKey() + " without a name");
+                }
+                properties.put(name, property);
+            }
+        }
+    }
+
+    private static Map<String, Map<String, Map<?, ?>>> copy(Map<String, Map<String, Map<?, ?>>> definitions) {
+        Map<String, Map<String, Map<?, ?>>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Map<?, ?>>> entry : definitions.entrySet()) {
+            copy.put(entry.getKey(), new LinkedHashMap<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static int displayOrder(Map<?, ?> definition) {
+        Object displayOrder = definition.get("displayOrder");
+        return displayOrder instanceof Number ? ((Number) displayOrder).intValue() : 0;
+    }
+
+    private static Property toProperty(Map<?, ?> definition) {
+        Property property = createProperty((String) definition.get("name"), (String) definition.get("displayName"),
+                (String) definition.get("description"), Boolean.TRUE.equals(definition.get("required")),
+                displayOrder(definition));
+        property.setConfidential(Boolean.TRUE.equals(definition.get("confidential")));
+        if (definition.get("type") != null) {
+            property.setType((String) definition.get("type"));
+        }
+        if (definition.get("options") != null) {
+            List<?> options = (List<?>) definition.get("options");
+            String[] values = new String[options.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = String.valueOf(options.get(i));
+            }
+            property.setOptions(values);
+        }
+        if (definition.get("value") != null) {
+            property.setValue(String.valueOf(definition.get("value")));
+        }
+        if (definition.get("defaultValue") != null) {
+            property.setDefaultValue(String.valueOf(definition.get("defaultValue")));
+        }
+        return property;
+    }
+
     /**
      * Creates a configuration property with the given parameters
      * 
@@ -0,0 +1,54 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.util;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks selected by key hash
+ *
+ * Work on the same key (for example an authentication context identifier) is serialized while work on
+ * different keys runs in parallel, without allocating or cleaning up a lock per key.
+ */
+public class StripedLock {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param minimumStripes Minimum number of stripes, rounded up to the next power of two
+     */
+    public StripedLock(int minimumStripes) {
+        int size = 1;
+        while (size < minimumStripes) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Creates a striped lock sized for the available processors
+     */
+    public static StripedLock forAvailableProcessors() {
+        return new StripedLock(Math.max(64, Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    /**
+     * Returns the lock guarding the given key
+     *
+     * @param key Key to lock on, null keys share a single stripe
+     * @return Lock for the key
+     */
+    public ReentrantLock get(String key) {
+        int hash = key != null ? key.hashCode() : 0;
+        // Spread the high bits so keys differing only in their upper bits do not collide
+        hash ^= (hash >>> 16);
+        return stripes[hash & mask];
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+}
@@ -0,0 +1,99 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for the sliding window counters of the node local rate limit backend
+ */
+public class InMemoryRateLimitBackendTest {
+
+    private static final String KEY = "user:alice@carbon.super";
+    private static final int LIMIT = 2;
+    private static final long WINDOW_MILLIS = 1000L;
+    // Scheduling slack allowed on top of a computed wait
+    private static final long SLACK_MILLIS = 50L;
+
+    @Test
+    public void testAdmitsUpToTheLimitWithinAWindow() {
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend();
+
+        Assert.assertEquals(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS), 0L);
+        Assert.assertEquals(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS), 0L);
+        Assert.assertTrue(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS) > 0);
+    }
+
+    @Test
+    public void testRetryAfterWhenTheCurrentWindowIsFull() throws InterruptedException {
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend();
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+
+        // The window has to roll over and half of it has to slide out before one more request fits
+        long retryAfter = backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        Assert.assertTrue(retryAfter > WINDOW_MILLIS * 3 / 2 - SLACK_MILLIS && retryAfter <= WINDOW_MILLIS * 3 / 2,
+                "Retry after " + retryAfter);
+
+        Thread.sleep(retryAfter + SLACK_MILLIS);
+        Assert.assertEquals(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS), 0L);
+    }
+
+    @Test
+    public void testPreviousWindowStillCountsJustAfterTheEdge() throws InterruptedException {
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend();
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+
+        Thread.sleep(WINDOW_MILLIS + SLACK_MILLIS);
+
+        // Almost all of the previous window overlaps the sliding window, so its two requests still count
+        long retryAfter = backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        Assert.assertTrue(retryAfter > 0 && retryAfter <= WINDOW_MILLIS / 2, "Retry after " + retryAfter);
+
+        Thread.sleep(retryAfter + SLACK_MILLIS);
+        Assert.assertEquals(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS), 0L);
+        Assert.assertTrue(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS) > 0);
+    }
+
+    @Test
+    public void testKeysAreCountedSeparately() {
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend();
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+
+        Assert.assertEquals(backend.tryAcquire("user:bob@carbon.super", LIMIT, WINDOW_MILLIS), 0L);
+    }
+
+    @Test
+    public void testResetAdmitsAgain() {
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend();
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+
+        backend.reset(KEY);
+
+        Assert.assertEquals(backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS), 0L);
+    }
+
+    @Test
+    public void testReconfiguredWindowStartsAfresh() {
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend();
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+        backend.tryAcquire(KEY, LIMIT, WINDOW_MILLIS);
+
+        Assert.assertEquals(backend.tryAcquire(KEY, LIMIT, 2 * WINDOW_MILLIS), 0L);
+    }
+
+    @Test
+    public void testKeyLimitEvictsIdleKeys() {
+        int maxKeys = 50;
+        InMemoryRateLimitBackend backend = new InMemoryRateLimitBackend(maxKeys);
+
+        for (int i = 0; i < 10 * maxKeys; i++) {
+            Assert.assertEquals(backend.tryAcquire("recipient:" + i, LIMIT, WINDOW_MILLIS), 0L);
+        }
+
+        Assert.assertTrue(backend.size() <= maxKeys, "Tracked " + backend.size() + " keys");
+        Assert.assertTrue(backend.getEvictionCount() >= 9 * maxKeys);
+    }
+}
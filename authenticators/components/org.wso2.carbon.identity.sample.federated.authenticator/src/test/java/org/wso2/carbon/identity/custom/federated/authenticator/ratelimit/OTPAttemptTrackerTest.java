@@ -0,0 +1,181 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.ratelimit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the failed OTP attempt counting and lockouts
+ */
+public class OTPAttemptTrackerTest {
+
+    private static final String KEY = OTPAttemptTracker.sessionKey("context-1");
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Test
+    public void testLockoutAfterMaxMismatches() {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(60000L, 60000L);
+
+        for (int i = 1; i < MAX_ATTEMPTS; i++) {
+            Assert.assertEquals(tracker.reserve(KEY, MAX_ATTEMPTS, config), 0L);
+            Assert.assertEquals(tracker.recordFailure(KEY, MAX_ATTEMPTS, config), 0L, "Failure " + i);
+        }
+        Assert.assertEquals(tracker.reserve(KEY, MAX_ATTEMPTS, config), 0L);
+        Assert.assertEquals(tracker.recordFailure(KEY, MAX_ATTEMPTS, config), 60000L);
+
+        Assert.assertTrue(tracker.getLockedMillis(KEY) > 0);
+        Assert.assertTrue(tracker.reserve(KEY, MAX_ATTEMPTS, config) > 0, "Locked key accepted an attempt");
+    }
+
+    @Test
+    public void testReleasedAttemptsAreNotCounted() {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(60000L, 60000L);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(tracker.reserve(KEY, MAX_ATTEMPTS, config), 0L);
+            tracker.release(KEY, MAX_ATTEMPTS);
+        }
+        Assert.assertEquals(tracker.getLockedMillis(KEY), 0L);
+    }
+
+    @Test
+    public void testResetForgetsFailures() {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(60000L, 60000L);
+
+        for (int i = 1; i < MAX_ATTEMPTS; i++) {
+            tracker.reserve(KEY, MAX_ATTEMPTS, config);
+            tracker.recordFailure(KEY, MAX_ATTEMPTS, config);
+        }
+        tracker.reset(KEY);
+
+        Assert.assertEquals(tracker.size(), 0);
+        tracker.reserve(KEY, MAX_ATTEMPTS, config);
+        Assert.assertEquals(tracker.recordFailure(KEY, MAX_ATTEMPTS, config), 0L);
+    }
+
+    @Test
+    public void testParallelAttemptsCannotExceedTheLimit() throws InterruptedException {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(60000L, 60000L);
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch reserved = new CountDownLatch(threads);
+        AtomicInteger admitted = new AtomicInteger();
+        try {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        boolean admit = tracker.reserve(KEY, MAX_ATTEMPTS, config) == 0L;
+                        reserved.countDown();
+                        if (admit) {
+                            admitted.incrementAndGet();
+                            // Every submission holds its reservation until all of them have tried to reserve
+                            reserved.await();
+                            tracker.recordFailure(KEY, MAX_ATTEMPTS, config);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        Assert.assertEquals(admitted.get(), MAX_ATTEMPTS);
+        Assert.assertTrue(tracker.getLockedMillis(KEY) > 0);
+    }
+
+    @Test
+    public void testConsecutiveLockoutsDoubleUpToTheMaximum() {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(1000L, 60000L);
+        config.setMaxLockoutMillis(4000L);
+
+        long[] expected = {1000L, 2000L, 4000L, 4000L};
+        for (long lockout : expected) {
+            Assert.assertEquals(tracker.recordFailure(KEY, 1, config), lockout);
+        }
+    }
+
+    @Test
+    public void testFailuresAgeOutAfterTheTtl() throws InterruptedException {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(60000L, 50L);
+
+        for (int i = 1; i < MAX_ATTEMPTS; i++) {
+            tracker.reserve(KEY, MAX_ATTEMPTS, config);
+            tracker.recordFailure(KEY, MAX_ATTEMPTS, config);
+        }
+        Thread.sleep(100L);
+
+        tracker.reserve(KEY, MAX_ATTEMPTS, config);
+        Assert.assertEquals(tracker.recordFailure(KEY, MAX_ATTEMPTS, config), 0L);
+    }
+
+    @Test
+    public void testSweepDropsExpiredKeysOnly() throws InterruptedException {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig expiring = newConfig(60000L, 50L);
+        LockoutConfig lasting = newConfig(60000L, 60000L);
+
+        tracker.recordFailure("expiring", MAX_ATTEMPTS, expiring);
+        tracker.recordFailure("lasting", MAX_ATTEMPTS, lasting);
+        Thread.sleep(100L);
+        tracker.sweep();
+
+        Assert.assertEquals(tracker.size(), 1);
+        tracker.reserve("lasting", MAX_ATTEMPTS, lasting);
+        tracker.recordFailure("lasting", MAX_ATTEMPTS, lasting);
+        Assert.assertEquals(tracker.recordFailure("lasting", MAX_ATTEMPTS, lasting), 60000L);
+    }
+
+    @Test
+    public void testKeyLimitKeepsLockedOutKeys() {
+        int maxKeys = 50;
+        OTPAttemptTracker tracker = new OTPAttemptTracker(maxKeys, false);
+        LockoutConfig config = newConfig(60000L, 60000L);
+        tracker.recordFailure(KEY, 1, config);
+
+        for (int i = 0; i < 10 * maxKeys; i++) {
+            tracker.reserve("session:flood-" + i, MAX_ATTEMPTS, config);
+            tracker.recordFailure("session:flood-" + i, MAX_ATTEMPTS, config);
+        }
+
+        Assert.assertTrue(tracker.size() <= maxKeys, "Tracked " + tracker.size() + " keys");
+        Assert.assertTrue(tracker.getEvictionCount() > 0);
+        Assert.assertTrue(tracker.getLockedMillis(KEY) > 0, "Locked out key was evicted");
+    }
+
+    @Test
+    public void testDisabledLimitTracksNothing() {
+        OTPAttemptTracker tracker = new OTPAttemptTracker(100, false);
+        LockoutConfig config = newConfig(60000L, 60000L);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(tracker.reserve(KEY, 0, config), 0L);
+            Assert.assertEquals(tracker.recordFailure(KEY, 0, config), 0L);
+        }
+        Assert.assertEquals(tracker.size(), 0);
+    }
+
+    private static LockoutConfig newConfig(long lockoutMillis, long failureTtlMillis) {
+        LockoutConfig config = new LockoutConfig();
+        config.setLockoutMillis(lockoutMillis);
+        config.setMaxLockoutMillis(lockoutMillis * 8);
+        config.setFailureTtlMillis(failureTtlMillis);
+        return config;
+    }
+}
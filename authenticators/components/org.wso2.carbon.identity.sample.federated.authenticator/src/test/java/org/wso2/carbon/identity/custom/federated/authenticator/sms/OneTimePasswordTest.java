@@ -0,0 +1,165 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Tests that the allocation free OTP generation produces the same tokens as the original implementation
+ */
+public class OneTimePasswordTest {
+
+    private static final byte[] RFC_4226_SECRET = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final String[] RFC_4226_OTPS = {"755224", "287082", "359152", "969429", "338314", "254676",
+            "287922", "162583", "399871", "520489"};
+    private static final int[] TRUNCATION_OFFSETS = {-1, 0, 3, 11, 12, 15, 16};
+
+    @Test
+    public void testRfc4226TestVectors() throws GeneralSecurityException {
+        for (int counter = 0; counter < RFC_4226_OTPS.length; counter++) {
+            Assert.assertEquals(OneTimePassword.generateOTP(RFC_4226_SECRET, counter, 6, false, -1),
+                    RFC_4226_OTPS[counter], "Counter " + counter);
+        }
+    }
+
+    @Test
+    public void testNumericOTPMatchesOriginalImplementation() throws GeneralSecurityException {
+        Random random = new Random(4226);
+        for (int i = 0; i < 2000; i++) {
+            byte[] secret = randomSecret(random);
+            long movingFactor = random.nextLong();
+            int codeDigits = 1 + random.nextInt(10);
+            boolean addChecksum = random.nextBoolean();
+            int truncationOffset = TRUNCATION_OFFSETS[random.nextInt(TRUNCATION_OFFSETS.length)];
+            Assert.assertEquals(
+                    OneTimePassword.generateOTP(secret, movingFactor, codeDigits, addChecksum, truncationOffset),
+                    originalOTP(secret, movingFactor, codeDigits, addChecksum, truncationOffset),
+                    "Digits " + codeDigits + ", checksum " + addChecksum + ", offset " + truncationOffset);
+        }
+    }
+
+    @Test
+    public void testAlphanumericOTPMatchesOriginalImplementation() throws GeneralSecurityException {
+        Random random = new Random(36);
+        for (int i = 0; i < 2000; i++) {
+            byte[] secret = randomSecret(random);
+            long movingFactor = random.nextLong();
+            int codeDigits = 1 + random.nextInt(20);
+            boolean addChecksum = random.nextBoolean();
+            int truncationOffset = TRUNCATION_OFFSETS[random.nextInt(TRUNCATION_OFFSETS.length)];
+            String expected;
+            try {
+                expected = originalAlphaNumericOTP(secret, movingFactor, codeDigits, addChecksum, truncationOffset);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // Dynamic truncation past offset 12 reads beyond the MAC, generateToken never uses it
+                expected = "out of bounds";
+            }
+            String actual;
+            try {
+                actual = OneTimePassword.generateAlphaNumericOTP(secret, movingFactor, codeDigits, addChecksum,
+                        truncationOffset);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                actual = "out of bounds";
+            }
+            Assert.assertEquals(actual, expected,
+                    "Digits " + codeDigits + ", checksum " + addChecksum + ", offset " + truncationOffset);
+        }
+    }
+
+    @Test
+    public void testClearedThreadStateIsRebuilt() throws GeneralSecurityException {
+        String before = OneTimePassword.generateAlphaNumericOTP(RFC_4226_SECRET, 7, 8, false, 0);
+        OneTimePassword.clearThreadState();
+
+        Assert.assertEquals(OneTimePassword.generateAlphaNumericOTP(RFC_4226_SECRET, 7, 8, false, 0), before);
+        Assert.assertEquals(OneTimePassword.generateOTP(RFC_4226_SECRET, 0, 6, false, -1), RFC_4226_OTPS[0]);
+    }
+
+    @Test
+    public void testHmacSha256MatchesJce() throws GeneralSecurityException {
+        byte[] key = new byte[40];
+        byte[] text = new byte[64];
+        Random random = new Random(256);
+        random.nextBytes(key);
+        random.nextBytes(text);
+        byte[] output = new byte[40];
+
+        OneTimePassword.hmacSha256(key, 4, 16, text, 50, output, 8);
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, 4, 16, "RAW"));
+        mac.update(text, 0, 50);
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(output, 8, 40), mac.doFinal()));
+    }
+
+    private static byte[] randomSecret(Random random) {
+        byte[] secret = new byte[1 + random.nextInt(32)];
+        random.nextBytes(secret);
+        return secret;
+    }
+
+    private static byte[] originalHmac(byte[] secret, long movingFactor) throws GeneralSecurityException {
+        byte[] text = new byte[8];
+        for (int i = text.length - 1; i >= 0; i--) {
+            text[i] = (byte) (movingFactor & 0xff);
+            movingFactor >>= 8;
+        }
+        Mac hmacSha = Mac.getInstance("HmacSHA1");
+        hmacSha.init(new SecretKeySpec(secret, "RAW"));
+        return hmacSha.doFinal(text);
+    }
+
+    /**
+     * The numeric OTP generation as it was before the per thread buffers were introduced
+     */
+    private static String originalOTP(byte[] secret, long movingFactor, int codeDigits, boolean addChecksum,
+                                      int truncationOffset) throws GeneralSecurityException {
+        int digits = addChecksum ? (codeDigits + 1) : codeDigits;
+        byte[] hash = originalHmac(secret, movingFactor);
+        int offset = hash[hash.length - 1] & 0xf;
+        if ((0 <= truncationOffset) && (truncationOffset < (hash.length - 4))) {
+            offset = truncationOffset;
+        }
+        int binary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8) | (hash[offset + 3] & 0xff);
+        int otp = binary % ((int) Math.pow(10, codeDigits));
+        if (addChecksum) {
+            otp = (otp * 10) + OneTimePassword.calcChecksum(otp, codeDigits);
+        }
+        String result = Integer.toString(otp);
+        while (result.length() < digits) {
+            result = "0" + result;
+        }
+        return result;
+    }
+
+    /**
+     * The alphanumeric OTP generation as it was before the per thread buffers were introduced
+     */
+    private static String originalAlphaNumericOTP(byte[] secret, long movingFactor, int codeDigits,
+                                                  boolean addChecksum, int truncationOffset)
+            throws GeneralSecurityException {
+        int digits = addChecksum ? (codeDigits + 1) : codeDigits;
+        byte[] hash = originalHmac(secret, movingFactor);
+        int offset = hash[hash.length - 1] & 0xf;
+        if ((0 <= truncationOffset) && (truncationOffset < (hash.length - 8))) {
+            offset = truncationOffset;
+        }
+        int firstBinary = ((hash[offset] & 0x7f) << 24) | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8) | ((hash[offset + 3] & 0xff));
+        int secondBinary = ((hash[offset + 4] & 0x7f) << 24) | ((hash[offset + 5] & 0xff) << 16)
+                | ((hash[offset + 6] & 0xff) << 8) | ((hash[offset + 7] & 0xff));
+        String result = Integer.toString(firstBinary, 36).concat(Integer.toString(secondBinary, 36)).toUpperCase();
+        while (result.length() < digits) {
+            result = "A" + result;
+        }
+        return result.substring(result.length() - digits);
+    }
+}
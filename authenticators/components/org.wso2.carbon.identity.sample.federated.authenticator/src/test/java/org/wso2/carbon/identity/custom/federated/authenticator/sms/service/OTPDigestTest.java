@@ -0,0 +1,108 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.sms.service;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * Tests for the salted OTP digests kept in the authentication context
+ */
+public class OTPDigestTest {
+
+    private static final String SESSION = "9f2c7a4e-5b1d-4c3a-8e6f-0a1b2c3d4e5f";
+
+    @Test
+    public void testIssuedOTPMatches() throws GeneralSecurityException {
+        byte[] digest = OTPDigest.digest("123456", SESSION);
+
+        Assert.assertTrue(OTPDigest.matches(digest, "123456", SESSION));
+    }
+
+    @Test
+    public void testWrongOTPDoesNotMatch() throws GeneralSecurityException {
+        byte[] digest = OTPDigest.digest("123456", SESSION);
+
+        Assert.assertFalse(OTPDigest.matches(digest, "123457", SESSION));
+        Assert.assertFalse(OTPDigest.matches(digest, "12345", SESSION));
+        Assert.assertFalse(OTPDigest.matches(digest, "1234560", SESSION));
+        Assert.assertFalse(OTPDigest.matches(digest, "", SESSION));
+        Assert.assertFalse(OTPDigest.matches(digest, null, SESSION));
+    }
+
+    @Test
+    public void testDigestOnlyMatchesInItsSession() throws GeneralSecurityException {
+        byte[] digest = OTPDigest.digest("123456", SESSION);
+
+        Assert.assertFalse(OTPDigest.matches(digest, "123456", SESSION + "x"));
+        Assert.assertFalse(OTPDigest.matches(digest, "123456", "another-session"));
+        Assert.assertFalse(OTPDigest.matches(digest, "123456", null));
+    }
+
+    @Test
+    public void testBindingAndOTPCannotBeShifted() throws GeneralSecurityException {
+        // The separator between binding and OTP keeps "ab" + "12" and "a" + "b12" apart
+        byte[] digest = OTPDigest.digest("12", "ab");
+
+        Assert.assertFalse(OTPDigest.matches(digest, "b12", "a"));
+        Assert.assertFalse(OTPDigest.matches(digest, "2", "ab1"));
+    }
+
+    @Test
+    public void testLongBindingMatches() throws GeneralSecurityException {
+        char[] binding = new char[500];
+        Arrays.fill(binding, 'x');
+        byte[] digest = OTPDigest.digest("ABC123", new String(binding));
+
+        Assert.assertTrue(OTPDigest.matches(digest, "ABC123", new String(binding)));
+        binding[499] = 'y';
+        Assert.assertFalse(OTPDigest.matches(digest, "ABC123", new String(binding)));
+    }
+
+    @Test
+    public void testSameOTPGetsDifferentSalts() throws GeneralSecurityException {
+        byte[] first = OTPDigest.digest("123456", SESSION);
+        byte[] second = OTPDigest.digest("123456", SESSION);
+
+        Assert.assertFalse(Arrays.equals(first, second));
+        Assert.assertTrue(OTPDigest.matches(second, "123456", SESSION));
+    }
+
+    @Test
+    public void testTamperedDigestDoesNotMatch() throws GeneralSecurityException {
+        byte[] digest = OTPDigest.digest("123456", SESSION);
+
+        for (int i = 1; i < digest.length; i++) {
+            byte[] tampered = digest.clone();
+            tampered[i] ^= 0x01;
+            Assert.assertFalse(OTPDigest.matches(tampered, "123456", SESSION), "Tampered byte " + i);
+        }
+    }
+
+    @Test
+    public void testTokenLengthIsRecorded() throws GeneralSecurityException {
+        Assert.assertEquals(OTPDigest.getTokenLength(OTPDigest.digest("1234", SESSION)), 4);
+        Assert.assertEquals(OTPDigest.getTokenLength(OTPDigest.digest("ABCDEFGH", SESSION)), 8);
+    }
+
+    @Test
+    public void testValuesWithoutDigestLayoutAreRejected() throws GeneralSecurityException {
+        byte[] digest = OTPDigest.digest("123456", SESSION);
+        byte[] truncated = Arrays.copyOf(digest, digest.length - 1);
+
+        Assert.assertFalse(OTPDigest.isDigest(truncated));
+        Assert.assertFalse(OTPDigest.isDigest(null));
+        Assert.assertEquals(OTPDigest.getTokenLength(truncated), -1);
+        Assert.assertFalse(OTPDigest.matches(truncated, "123456", SESSION));
+        Assert.assertFalse(OTPDigest.matches(null, "123456", SESSION));
+    }
+
+    @Test
+    public void testClearedThreadStateIsRebuilt() throws GeneralSecurityException {
+        byte[] digest = OTPDigest.digest("123456", SESSION);
+        OTPDigest.clearThreadState();
+
+        Assert.assertTrue(OTPDigest.matches(digest, "123456", SESSION));
+    }
+}
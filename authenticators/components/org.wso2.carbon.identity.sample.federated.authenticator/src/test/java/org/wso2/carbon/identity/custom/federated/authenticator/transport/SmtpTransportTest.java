@@ -0,0 +1,87 @@
+package org.wso2.carbon.identity.custom.federated.authenticator.transport;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * Tests for the address checks and the session pool keys of the SMTP transport
+ */
+public class SmtpTransportTest {
+
+    private static final String SENDER = "otp@example.com";
+    private static final String RECIPIENT = "user@example.com";
+
+    @Test
+    public void testRecipientWithLineBreakIsRejectedBeforeConnecting() throws IOException {
+        assertRejectedBeforeConnecting(SENDER, RECIPIENT + ">\r\nRCPT TO:<attacker@example.com");
+        assertRejectedBeforeConnecting(SENDER, RECIPIENT + "\nBcc: attacker@example.com");
+    }
+
+    @Test
+    public void testSenderWithAngleBracketIsRejectedBeforeConnecting() throws IOException {
+        assertRejectedBeforeConnecting(SENDER + "> SIZE=1", RECIPIENT);
+        assertRejectedBeforeConnecting("<" + SENDER, RECIPIENT);
+    }
+
+    @Test
+    public void testPlainAddressIsAccepted() {
+        Assert.assertEquals(SmtpSession.checkAddress("recipient", RECIPIENT), RECIPIENT);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testEmptyAddressIsRejected() {
+        SmtpSession.checkAddress("recipient", "");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSessionRejectsAddressBeforeWriting() throws IOException {
+        // The session is not open, so any write would fail with a different exception
+        new SmtpSession(newConfig(25, "secret")).send(SENDER, RECIPIENT + "\r\nDATA", new byte[0]);
+    }
+
+    @Test
+    public void testSessionKeyChangesWithSessionSettings() {
+        SmtpConfig config = newConfig(25, "secret");
+        SmtpConfig rotated = newConfig(25, "rotated");
+        SmtpConfig slower = newConfig(25, "secret");
+        slower.setReadTimeoutMillis(config.getReadTimeoutMillis() + 1000);
+
+        Assert.assertEquals(rotated.getPoolKey(), config.getPoolKey());
+        Assert.assertNotEquals(rotated.getSessionKey(), config.getSessionKey());
+        Assert.assertNotEquals(slower.getSessionKey(), config.getSessionKey());
+        Assert.assertEquals(newConfig(25, "secret").getSessionKey(), config.getSessionKey());
+        Assert.assertFalse(config.getSessionKey().contains("secret"));
+    }
+
+    private static void assertRejectedBeforeConnecting(String sender, String recipient) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            SmtpConfig config = new SmtpConfig(server.getInetAddress().getHostAddress(), server.getLocalPort(),
+                    SmtpConfig.Security.NONE, null, null, sender);
+            SmtpTransport transport = new SmtpTransport(null);
+            try {
+                transport.send(config, recipient, "Your OTP", "123456");
+                Assert.fail("Address was not rejected: " + sender + " " + recipient);
+            } catch (IllegalArgumentException e) {
+                // expected
+            } finally {
+                transport.shutdown();
+            }
+            server.setSoTimeout(200);
+            try (Socket accepted = server.accept()) {
+                Assert.fail("The transport connected to the mail server from " + accepted.getRemoteSocketAddress());
+            } catch (SocketTimeoutException e) {
+                // expected, nothing was sent
+            }
+        }
+    }
+
+    private static SmtpConfig newConfig(int port, String password) {
+        return new SmtpConfig("mail.example.com", port, SmtpConfig.Security.STARTTLS, "otp", password, SENDER);
+    }
+}